@@ -0,0 +1,121 @@
+package hr.fer.mv.nmm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Player} that plays the best move found by an {@link AlphaBetaSearch}
+ * of a fixed depth. A fixed depth makes games reproducible, which matters more
+ * than speed when engines are compared.
+ * <p>
+ * While pondering the position where the opponent is to move is searched with
+ * increasing depth. The search fills the transposition table with all replies,
+ * so the next move is found faster whatever the opponent plays, and the first
+ * move of the principal variation is the predicted reply.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class AlphaBetaPlayer implements Player {
+
+	public static final int DEFAULT_TABLE_SIZE = 1 << 18;
+
+	private final String name;
+	private final int depth;
+	private final AlphaBetaSearch search;
+	private final int[] moves = new int[Position.MAX_MOVES];
+	private final PonderStatistics ponderStatistics = new PonderStatistics();
+	// Every ponder is matched with one stop, a ponder is stopped when there are
+	// as many stops as ponders
+	private final AtomicLong ponders = new AtomicLong();
+	private final AtomicLong ponderStops = new AtomicLong();
+	private Position ponderPosition;
+	private volatile int predictedMove = Move.NULL;
+
+	/**
+	 * Creates a player that searches to the given depth.
+	 *
+	 * @param depth depth of the search
+	 */
+	public AlphaBetaPlayer(int depth) {
+		this("Alpha-beta " + depth, depth, DEFAULT_TABLE_SIZE);
+	}
+
+	/**
+	 * Creates a player that searches to the given depth.
+	 *
+	 * @param name      name of the player
+	 * @param depth     depth of the search
+	 * @param tableSize number of entries in the transposition table
+	 */
+	public AlphaBetaPlayer(String name, int depth, int tableSize) {
+		this.name = name;
+		this.depth = depth;
+		this.search = new AlphaBetaSearch(new TranspositionTable(tableSize));
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Sets the cache consulted before every search, see
+	 * {@link AlphaBetaSearch#setAnalysisCache(AnalysisCache)}.
+	 *
+	 * @param cache cache of earlier results, null for none
+	 */
+	public void setAnalysisCache(AnalysisCache cache) {
+		search.setAnalysisCache(cache);
+	}
+
+	@Override
+	public int selectMove(Position position) {
+		long start = System.nanoTime();
+		boolean pondered = ponderPosition != null;
+		boolean hit = PonderStatistics.isHit(ponderPosition, predictedMove, position);
+		ponderPosition = null;
+		SearchResult result = search.search(position, depth, null);
+		ponderStatistics.record(pondered, hit, System.nanoTime() - start);
+		if (result != null)
+			return result.getBestMove();
+		// Search can only fail to find a move if there are no moves to search
+		return position.generateMoves(moves) > 0 ? moves[0] : Move.NULL;
+	}
+
+	@Override
+	public void newGame() {
+		search.getTranspositionTable().clear();
+		ponderPosition = null;
+	}
+
+	@Override
+	public void ponder(Position position) {
+		long id = ponders.incrementAndGet();
+		if (ponderStops.get() >= id || position.isGameOver())
+			return;
+		ponderPosition = new Position(position);
+		predictedMove = Move.NULL;
+		search.search(position, AlphaBetaSearch.MAX_PLY, r -> {
+			predictedMove = r.getBestMove();
+			// A stop that came before the search started is caught here
+			if (ponderStops.get() >= id)
+				search.stop();
+		});
+	}
+
+	@Override
+	public void stopPondering() {
+		ponderStops.incrementAndGet();
+		search.stop();
+	}
+
+	@Override
+	public PonderStatistics getPonderStatistics() {
+		return ponderStatistics;
+	}
+
+}
@@ -0,0 +1,282 @@
+package hr.fer.mv.nmm;
+
+import java.io.IOException;
+
+/**
+ * Alpha-beta (negamax) search with iterative deepening and a
+ * {@link TranspositionTable}. The search is run on the calling thread and can
+ * be stopped from any other thread with {@link #stop()}; the result of the last
+ * completed iteration is then returned.
+ * <p>
+ * One instance can only run one search at a time, but it can be reused for any
+ * number of searches. Nothing is allocated inside the tree, positions and move
+ * lists for every ply are created once with the instance.
+ * <p>
+ * With an {@link AnalysisCache} the root is looked up before searching. A
+ * cached result that is deep enough is returned right away, otherwise it is
+ * reported as the first iteration and the search continues one ply deeper.
+ * Results of completed searches are stored in the cache.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class AlphaBetaSearch {
+
+	/**
+	 * Listener notified every time an iteration of the search is completed.
+	 */
+	public interface Listener {
+		void iterationCompleted(SearchResult result);
+	}
+
+	public static final int MAX_PLY = 64;
+	public static final int DEFAULT_TABLE_SIZE = 1 << 20;
+	private static final int INFINITY = Evaluator.WIN_SCORE + 1;
+	// Stop flag is checked every time this many nodes have been searched
+	private static final int STOP_CHECK_INTERVAL = 1024;
+
+	private final TranspositionTable table;
+	// Positions of every ply, created again when the rules of the root change
+	private final Position[] stack = new Position[MAX_PLY + 1];
+	private final int[][] moves = new int[MAX_PLY][Position.MAX_MOVES];
+	private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+	private final int[] pvLength = new int[MAX_PLY + 1];
+	private volatile AnalysisCache cache;
+	private volatile boolean stopped;
+	private boolean aborted;
+	private long nodes;
+	private long tableProbes;
+	private long tableHits;
+
+	/**
+	 * Creates a new search with its own transposition table.
+	 */
+	public AlphaBetaSearch() {
+		this(new TranspositionTable(DEFAULT_TABLE_SIZE));
+	}
+
+	/**
+	 * Creates a new search which uses the given transposition table.
+	 *
+	 * @param table transposition table to use
+	 */
+	public AlphaBetaSearch(TranspositionTable table) {
+		this.table = table;
+		createStack(Dependencies.RULE_SET);
+	}
+
+	public TranspositionTable getTranspositionTable() {
+		return table;
+	}
+
+	public AnalysisCache getAnalysisCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets the cache that is consulted before every search.
+	 *
+	 * @param cache cache of earlier results, null for none
+	 */
+	public void setAnalysisCache(AnalysisCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Stops the search that is currently running. Can be called from any thread.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Searches the given position with increasing depth until the maximal depth
+	 * is reached or the search is stopped.
+	 *
+	 * @param root     position to search, it isn't changed
+	 * @param maxDepth maximal depth of the search
+	 * @param listener listener notified after each iteration, can be null
+	 * @return result of the deepest completed iteration or null if none was
+	 *         completed
+	 */
+	public SearchResult search(Position root, int maxDepth, Listener listener) {
+		stopped = false;
+		aborted = false;
+		nodes = 0;
+		long start = System.currentTimeMillis();
+		if (stack[0].getRules() != root.getRules())
+			createStack(root.getRules());
+		stack[0].copyFrom(root);
+		SearchResult result = null;
+		AnalysisCache cache = this.cache;
+		AnalysisCache.Entry cached = cache != null ? cache.probe(root) : null;
+		int firstDepth = 1;
+		if (cached != null && root.isLegal(cached.getMove())) {
+			result = new SearchResult(cached.getMove(), cached.getScore(), cached.getDepth(), 0, 0,
+					new int[] { cached.getMove() });
+			if (listener != null)
+				listener.iterationCompleted(result);
+			if (cached.getDepth() >= maxDepth || result.isWinScore())
+				return result;
+			firstDepth = cached.getDepth() + 1;
+			// Cached move is searched first
+			if (table.probe(root.key()) == 0)
+				table.store(root.key(), cached.getMove(), cached.getScore(), 0, TranspositionTable.EXACT);
+		}
+		for (int depth = firstDepth; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+			FlightEvents.SearchIteration event = new FlightEvents.SearchIteration();
+			event.begin();
+			long iterationNodes = nodes;
+			tableProbes = 0;
+			tableHits = 0;
+			int score = search(0, depth, -INFINITY, INFINITY);
+			event.end();
+			if (event.shouldCommit()) {
+				event.depth = depth;
+				event.score = score;
+				event.completed = !aborted;
+				event.nodes = nodes - iterationNodes;
+				event.tableProbes = tableProbes;
+				event.tableHits = tableHits;
+				event.tableHitRate = tableProbes == 0 ? 0 : (double) tableHits / tableProbes;
+				event.commit();
+			}
+			if (aborted || pvLength[0] == 0)
+				break;
+			int[] line = new int[pvLength[0]];
+			System.arraycopy(pv[0], 0, line, 0, line.length);
+			result = new SearchResult(line[0], score, depth, nodes, System.currentTimeMillis() - start, line);
+			if (listener != null)
+				listener.iterationCompleted(result);
+			// No point in searching deeper when the game is decided
+			if (result.isWinScore())
+				break;
+		}
+		if (cache != null && result != null && result.getNodes() > 0) {
+			try {
+				cache.store(root, result.getBestMove(), result.getScore(), result.getDepth());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return result;
+	}
+
+	// Positions only copy positions with the same rules
+	private void createStack(RuleSet rules) {
+		for (int i = 0; i < stack.length; i++)
+			stack[i] = new Position(rules);
+	}
+
+	private int search(int ply, int depth, int alpha, int beta) {
+		pvLength[ply] = 0;
+		if (++nodes % STOP_CHECK_INTERVAL == 0 && stopped)
+			aborted = true;
+		if (aborted)
+			return 0;
+		Position p = stack[ply];
+		if (p.isGameOver()) {
+			// Winning moves don't pass the turn, so score from the parents opponent view
+			int mover = ply > 0 ? stack[ply - 1].getSideToMove() : 1 - p.getSideToMove();
+			return p.getWinner() == mover ? -(Evaluator.WIN_SCORE - ply) : Evaluator.WIN_SCORE - ply;
+		}
+		if (depth <= 0 || ply >= MAX_PLY)
+			return Evaluator.evaluate(p);
+
+		long key = p.key();
+		long entry = table.probe(key);
+		int hashMove = Move.NULL;
+		tableProbes++;
+		if (entry != 0) {
+			tableHits++;
+			hashMove = TranspositionTable.move(entry);
+			if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+				int score = fromTable(TranspositionTable.score(entry), ply);
+				int flag = TranspositionTable.flag(entry);
+				if (flag == TranspositionTable.EXACT || (flag == TranspositionTable.LOWER_BOUND && score >= beta)
+						|| (flag == TranspositionTable.UPPER_BOUND && score <= alpha))
+					return score;
+			}
+		}
+
+		int[] list = moves[ply];
+		int n = p.generateMoves(list);
+		if (n == 0)
+			return -(Evaluator.WIN_SCORE - ply);
+		orderMoves(list, n, hashMove);
+
+		int originalAlpha = alpha;
+		int bestScore = -INFINITY;
+		int bestMove = list[0];
+		Position child = stack[ply + 1];
+		for (int i = 0; i < n; i++) {
+			child.copyFrom(p);
+			child.makeMove(list[i]);
+			int score = -search(ply + 1, depth - 1, -beta, -alpha);
+			if (aborted)
+				return 0;
+			if (score > bestScore) {
+				bestScore = score;
+				bestMove = list[i];
+				if (score > alpha) {
+					alpha = score;
+					pv[ply][0] = list[i];
+					System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+					pvLength[ply] = pvLength[ply + 1] + 1;
+					if (alpha >= beta)
+						break;
+				}
+			}
+		}
+		if (pvLength[ply] == 0) {
+			// Every move failed low, still remember the best one for the caller
+			pv[ply][0] = bestMove;
+			pvLength[ply] = 1;
+		}
+		int flag = bestScore <= originalAlpha ? TranspositionTable.UPPER_BOUND
+				: bestScore >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+		table.store(key, bestMove, toTable(bestScore, ply), depth, flag);
+		return bestScore;
+	}
+
+	// Hash move goes first, then moves that remove an enemy token
+	private static void orderMoves(int[] list, int n, int hashMove) {
+		int front = 0;
+		for (int i = 0; i < n; i++)
+			if (list[i] == hashMove) {
+				swap(list, front++, i);
+				break;
+			}
+		for (int i = front; i < n; i++)
+			if (Move.isRemoval(list[i]))
+				swap(list, front++, i);
+	}
+
+	private static void swap(int[] list, int i, int j) {
+		int t = list[i];
+		list[i] = list[j];
+		list[j] = t;
+	}
+
+	// Win scores are stored relative to the node so they stay valid at any ply
+	private static int toTable(int score, int ply) {
+		if (score > Evaluator.WIN_SCORE - MAX_PLY)
+			return score + ply;
+		if (score < -Evaluator.WIN_SCORE + MAX_PLY)
+			return score - ply;
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score > Evaluator.WIN_SCORE - MAX_PLY)
+			return score - ply;
+		if (score < -Evaluator.WIN_SCORE + MAX_PLY)
+			return score + ply;
+		return score;
+	}
+
+}
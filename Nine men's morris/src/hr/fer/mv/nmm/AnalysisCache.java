@@ -0,0 +1,370 @@
+package hr.fer.mv.nmm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps results of engine analysis between sessions and restarts. For every
+ * position the best move, its score and the depth of the search are stored
+ * under the canonical key of the position (see
+ * {@link PositionCodec#canonical(long)}), so all symmetric positions share one
+ * entry. Moves are stored for the canonical position and turned back when they
+ * are read.
+ * <p>
+ * Entries are appended to a log file, every record has the form
+ * <code>[key][move][score][depth][crc]</code>. When the cache is opened the log
+ * is replayed into an index outside of the heap, an open addressing table with
+ * buckets of {@link #BUCKET_SIZE} entries. The index has a fixed capacity, when
+ * a bucket is full the entry with the lowest depth is evicted, unless the new
+ * entry is even shallower. A log that holds many more records than the index
+ * is compacted when it is opened. A torn record at the end of the log is
+ * detected by its checksum and cut off.
+ * <p>
+ * All methods are synchronized, one cache can be shared by every engine of the
+ * program. Entries are only looked up for the root of a search, so the lock is
+ * taken once per search.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class AnalysisCache implements Closeable {
+
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+	public static final int BUCKET_SIZE = 4;
+	// Log is compacted when it holds this many times more records than the index
+	private static final int COMPACTION_FACTOR = 2;
+	private static final int MIN_COMPACTION_RECORDS = 1 << 12;
+	// key, move, score, depth and crc
+	private static final int RECORD_SIZE = 8 + 4 + 4 + 4 + 4;
+	private static final int READ_BUFFER_RECORDS = 4096;
+	// Stored keys hold the index of the rule set above the position, the highest
+	// bit marks a used slot
+	private static final int RULES_SHIFT = 58;
+	private static final long USED = 1L << 63;
+
+	/**
+	 * Result of an analysis read from the cache.
+	 */
+	public static final class Entry {
+		private final int move;
+		private final int score;
+		private final int depth;
+
+		private Entry(int move, int score, int depth) {
+			this.move = move;
+			this.score = score;
+			this.depth = depth;
+		}
+
+		/**
+		 * Returns the best move for the position the entry was looked up for.
+		 *
+		 * @return encoded move, see {@link Move}
+		 */
+		public int getMove() {
+			return move;
+		}
+
+		/**
+		 * Returns the score of the best move from the point of view of the side to
+		 * move.
+		 *
+		 * @return score of the best move
+		 */
+		public int getScore() {
+			return score;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	private final Path file;
+	private final int capacity;
+	private final int bucketMask;
+	// Two longs per slot, the stored key and the packed result
+	private final LongBuffer index;
+	private final PositionCodec[] codecs = new PositionCodec[RuleSet.values().length];
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+	private final CRC32 crc = new CRC32();
+	private FileChannel channel;
+	private int size;
+	private long records;
+	private long probes;
+	private long hits;
+	private long evictions;
+
+	/**
+	 * Opens the cache in the given file, creating it if it doesn't exist.
+	 *
+	 * @param file path of the log file
+	 * @throws IOException if the file can't be read
+	 */
+	public AnalysisCache(Path file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens the cache in the given file, creating it if it doesn't exist.
+	 *
+	 * @param file     path of the log file
+	 * @param capacity maximal number of entries, rounded up to a power of two
+	 * @throws IOException if the file can't be read
+	 */
+	public AnalysisCache(Path file, int capacity) throws IOException {
+		this.file = file;
+		int buckets = Integer.highestOneBit(Math.max(1, capacity / BUCKET_SIZE - 1)) << 1;
+		this.capacity = buckets * BUCKET_SIZE;
+		bucketMask = buckets - 1;
+		index = ByteBuffer.allocateDirect(this.capacity * 2 * Long.BYTES).asLongBuffer();
+		for (int i = 0; i < codecs.length; i++)
+			codecs[i] = new PositionCodec(RuleSet.values()[i].getTopology());
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		long end = replay();
+		channel.truncate(end);
+		channel.position(end);
+		if (records > MIN_COMPACTION_RECORDS && records > (long) COMPACTION_FACTOR * size)
+			compact();
+	}
+
+	/**
+	 * Looks up the analysis of the given position.
+	 *
+	 * @param position position to look up
+	 * @return stored analysis or null if the position wasn't analysed
+	 */
+	public synchronized Entry probe(Position position) {
+		int rules = RuleSet.indexOf(position.getRules());
+		if (rules < 0)
+			return null;
+		PositionCodec codec = codecs[rules];
+		long key = position.key();
+		int symmetry = codec.canonicalSymmetry(key);
+		probes++;
+		int slot = find(storedKey(rules, codec.transform(key, symmetry)));
+		if (slot < 0)
+			return null;
+		hits++;
+		long value = index.get(2 * slot + 1);
+		return new Entry(codec.transformMove(move(value), PositionCodec.inverse(symmetry)), score(value),
+				depth(value));
+	}
+
+	/**
+	 * Stores the analysis of the given position, unless a deeper analysis is
+	 * already stored.
+	 *
+	 * @param position analysed position
+	 * @param move     best move, see {@link Move}
+	 * @param score    score of the best move from the point of view of the side
+	 *                 to move
+	 * @param depth    depth of the search
+	 * @throws IOException if the log can't be written
+	 */
+	public synchronized void store(Position position, int move, int score, int depth) throws IOException {
+		int rules = RuleSet.indexOf(position.getRules());
+		if (rules < 0)
+			return;
+		PositionCodec codec = codecs[rules];
+		long key = position.key();
+		int symmetry = codec.canonicalSymmetry(key);
+		long stored = storedKey(rules, codec.transform(key, symmetry));
+		int canonicalMove = codec.transformMove(move, symmetry);
+		if (insert(stored, pack(canonicalMove, score, depth)))
+			append(stored, canonicalMove, score, depth);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getProbes() {
+		return probes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the part of lookups that found an entry since the cache was
+	 * opened.
+	 *
+	 * @return hit rate from 0 to 1
+	 */
+	public synchronized double getHitRate() {
+		return probes == 0 ? 0 : (double) hits / probes;
+	}
+
+	/**
+	 * Returns the number of entries that were dropped to make room for deeper
+	 * ones since the cache was opened.
+	 *
+	 * @return number of evicted entries
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel == null)
+			return;
+		channel.force(false);
+		channel.close();
+		channel = null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %d probes, hit rate %.1f%%", size(), getProbes(), getHitRate() * 100);
+	}
+
+	private static long storedKey(int rules, long canonicalKey) {
+		return USED | (long) rules << RULES_SHIFT | canonicalKey;
+	}
+
+	private static long pack(int move, int score, int depth) {
+		return (move & 0xFFFFL) | (score & 0xFFFFFFFFL) << 16 | (long) (depth & 0xFF) << 48;
+	}
+
+	private static int move(long value) {
+		int move = (int) (value & 0xFFFF);
+		return move == 0xFFFF ? Move.NULL : move;
+	}
+
+	private static int score(long value) {
+		return (int) (value >>> 16);
+	}
+
+	private static int depth(long value) {
+		return (int) (value >>> 48) & 0xFF;
+	}
+
+	private int bucket(long storedKey) {
+		long h = storedKey * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & bucketMask;
+	}
+
+	// Returns the slot holding the key or -1
+	private int find(long storedKey) {
+		int first = bucket(storedKey) * BUCKET_SIZE;
+		for (int slot = first; slot < first + BUCKET_SIZE; slot++)
+			if (index.get(2 * slot) == storedKey)
+				return slot;
+		return -1;
+	}
+
+	// Puts the entry into its bucket, replacing a shallower entry of the same
+	// position, an empty slot or the shallowest entry of a full bucket
+	private boolean insert(long storedKey, long value) {
+		int first = bucket(storedKey) * BUCKET_SIZE;
+		int target = -1;
+		int targetDepth = Integer.MAX_VALUE;
+		for (int slot = first; slot < first + BUCKET_SIZE; slot++) {
+			long k = index.get(2 * slot);
+			if (k == storedKey) {
+				if (depth(index.get(2 * slot + 1)) > depth(value))
+					return false;
+				index.put(2 * slot + 1, value);
+				return true;
+			}
+			int d = k == 0 ? -1 : depth(index.get(2 * slot + 1));
+			if (d < targetDepth) {
+				target = slot;
+				targetDepth = d;
+			}
+		}
+		if (targetDepth > depth(value))
+			return false;
+		if (targetDepth < 0)
+			size++;
+		else
+			evictions++;
+		index.put(2 * target, storedKey);
+		index.put(2 * target + 1, value);
+		return true;
+	}
+
+	private void append(long storedKey, int move, int score, int depth) throws IOException {
+		record.clear();
+		record.putLong(storedKey).putInt(move).putInt(score).putInt(depth);
+		crc.reset();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int) crc.getValue());
+		record.flip();
+		while (record.hasRemaining())
+			channel.write(record);
+		records++;
+	}
+
+	// Reads records into the index, returns the end of the last valid record
+	private long replay() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_RECORDS * RECORD_SIZE);
+		long position = 0;
+		while (true) {
+			buffer.clear();
+			int read = 0;
+			while (buffer.hasRemaining() && (read = channel.read(buffer, position + buffer.position())) > 0)
+				;
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				int start = buffer.position();
+				crc.reset();
+				crc.update(buffer.array(), start, RECORD_SIZE - 4);
+				long storedKey = buffer.getLong();
+				int move = buffer.getInt();
+				int score = buffer.getInt();
+				int depth = buffer.getInt();
+				if (buffer.getInt() != (int) crc.getValue() || (storedKey & USED) == 0) {
+					System.out.println("Analysis cache " + file + " is damaged after " + records + " records");
+					return position + start;
+				}
+				insert(storedKey, pack(move, score, depth));
+				records++;
+			}
+			position += buffer.position();
+			if (read <= 0)
+				return position;
+		}
+	}
+
+	// Rewrites the log so it only holds the entries of the index
+	private void compact() throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".compact");
+		FileChannel old = channel;
+		channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		records = 0;
+		for (int slot = 0; slot < capacity; slot++) {
+			long storedKey = index.get(2 * slot);
+			if (storedKey == 0)
+				continue;
+			long value = index.get(2 * slot + 1);
+			append(storedKey, move(value), score(value), depth(value));
+		}
+		channel.force(true);
+		channel.close();
+		old.close();
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+	}
+
+}
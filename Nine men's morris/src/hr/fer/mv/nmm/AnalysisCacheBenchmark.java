@@ -0,0 +1,113 @@
+package hr.fer.mv.nmm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures how much an {@link AnalysisCache} saves after a restart. Positions
+ * from random games are searched to a fixed depth with an empty cache, the
+ * cache is closed and opened again like after a restart of the server, and the
+ * same positions are searched again. The second time every position is turned
+ * by a random symmetry, so hits only come from canonical keys. Scores of both
+ * runs are compared.
+ * <p>
+ * Arguments: <code>[cache file] [positions] [depth] [capacity]</code>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class AnalysisCacheBenchmark {
+
+	private AnalysisCacheBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path file = Paths.get(args.length > 0 ? args[0] : "benchmark.cache");
+		int positions = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int capacity = args.length > 3 ? Integer.parseInt(args[3]) : AnalysisCache.DEFAULT_CAPACITY;
+		Files.deleteIfExists(file);
+
+		Position[] sample = collectPositions(positions);
+		int[] coldScores = new int[positions];
+		AnalysisCache cache = new AnalysisCache(file, capacity);
+		long coldNanos = search(cache, sample, depth, coldScores);
+		System.out.println(String.format("Cold: %d positions at depth %d in %d ms, %s", positions, depth,
+				coldNanos / 1_000_000, cache));
+		cache.close();
+
+		long start = System.nanoTime();
+		cache = new AnalysisCache(file, capacity);
+		long openNanos = System.nanoTime() - start;
+		System.out.println(String.format("Reopened with %d entries (%d KB log) in %.1f ms", cache.size(),
+				Files.size(file) / 1024, openNanos / 1e6));
+
+		PositionCodec codec = new PositionCodec(RuleSet.NINE_MENS_MORRIS.getTopology());
+		Random random = new Random(positions);
+		Position[] turned = new Position[positions];
+		for (int i = 0; i < positions; i++)
+			turned[i] = PositionCodec.unpack(
+					codec.transform(sample[i].key(), random.nextInt(PositionCodec.SYMMETRIES)),
+					RuleSet.NINE_MENS_MORRIS);
+		int[] warmScores = new int[positions];
+		long warmNanos = search(cache, turned, depth, warmScores);
+		System.out.println(String.format("Warm: %d symmetric positions in %d ms, %s", positions,
+				warmNanos / 1_000_000, cache));
+		cache.close();
+
+		int differences = 0;
+		for (int i = 0; i < positions; i++)
+			if (coldScores[i] != warmScores[i])
+				differences++;
+		System.out.println(String.format("Warm start is %.1f times faster, %d scores differ",
+				(double) coldNanos / Math.max(1, warmNanos + openNanos), differences));
+		Files.deleteIfExists(file);
+		if (differences > 0)
+			System.exit(1);
+	}
+
+	// Every position is searched with an empty transposition table, as if it
+	// came from a different session, returns the time spent searching
+	private static long search(AnalysisCache cache, Position[] sample, int depth, int[] scores) {
+		AlphaBetaSearch search = new AlphaBetaSearch(new TranspositionTable(AlphaBetaPlayer.DEFAULT_TABLE_SIZE));
+		search.setAnalysisCache(cache);
+		long nanos = 0;
+		for (int i = 0; i < sample.length; i++) {
+			search.getTranspositionTable().clear();
+			long start = System.nanoTime();
+			SearchResult result = search.search(sample[i], depth, null);
+			nanos += System.nanoTime() - start;
+			if (!sample[i].isLegal(result.getBestMove()))
+				throw new IllegalStateException("Illegal move " + Move.toString(result.getBestMove()) + " in "
+						+ sample[i]);
+			scores[i] = result.getScore();
+		}
+		return nanos;
+	}
+
+	// Plays random games and takes different positions that aren't over
+	private static Position[] collectPositions(int positions) {
+		Position[] sample = new Position[positions];
+		Set<Long> seen = new HashSet<>();
+		Random random = new Random(1);
+		int[] buffer = new int[Position.MAX_MOVES];
+		Position p = new Position(RuleSet.NINE_MENS_MORRIS);
+		for (int i = 0; i < positions;) {
+			int count = p.isGameOver() ? 0 : p.generateMoves(buffer);
+			if (count == 0) {
+				p = new Position(RuleSet.NINE_MENS_MORRIS);
+				continue;
+			}
+			if (seen.add(p.key()))
+				sample[i++] = new Position(p);
+			p.makeMove(buffer[random.nextInt(count)]);
+		}
+		return sample;
+	}
+
+}
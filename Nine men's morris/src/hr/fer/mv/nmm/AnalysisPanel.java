@@ -0,0 +1,146 @@
+package hr.fer.mv.nmm;
+
+import java.awt.Font;
+
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Panel that shows the analysis of the current game. When analysis is enabled
+ * the current position of the game played by a {@link GameActor} is searched on a background thread
+ * by an {@link AnalysisWorker}. The search is restarted every time the game
+ * state changes.
+ * <p>
+ * The panel polls the worker with a Swing timer a few times per second and
+ * shows the best move, its evaluation and the search depth. The best move is
+ * also highlighted on the {@link GameBoardDisplay}. Because the search never
+ * runs on the event dispatch thread, the board stays responsive even while
+ * tokens are animating.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public class AnalysisPanel extends JPanel {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+	public static final int REFRESH_MILISECONDS = 250;
+
+	private final GameActor game;
+	private final GameBoardDisplay gameDisplay;
+	private final AnalysisWorker worker = new AnalysisWorker();
+	private final JCheckBox enabledCheckBox = new JCheckBox("Analysis");
+	private final JLabel resultLabel = new JLabel(" ");
+	private final Timer refreshTimer;
+	private SearchResult shownResult;
+	// Position of the latest snapshot, only used on the event dispatch thread
+	private Position position;
+
+	/**
+	 * Creates a new analysis panel for the given game.
+	 *
+	 * @param game        game to analyse
+	 * @param gameDisplay display used for highlighting the best move
+	 */
+	public AnalysisPanel(GameActor game, GameBoardDisplay gameDisplay) {
+		this.game = game;
+		this.gameDisplay = gameDisplay;
+		// Keyboard controls of the frame must keep working
+		enabledCheckBox.setFocusable(false);
+		enabledCheckBox.addActionListener(e -> setAnalysisEnabled(enabledCheckBox.isSelected()));
+		add(enabledCheckBox);
+		add(resultLabel);
+
+		refreshTimer = new Timer(REFRESH_MILISECONDS, e -> refresh());
+		refreshTimer.setRepeats(true);
+		position = game.getSnapshot().getPosition();
+		game.addListener(s -> SwingUtilities.invokeLater(() -> positionChanged(s.getPosition())));
+	}
+
+	/**
+	 * Sets the cache of earlier analysis, see
+	 * {@link AnalysisWorker#setAnalysisCache(AnalysisCache)}.
+	 *
+	 * @param cache cache of earlier results, null for none
+	 */
+	public void setAnalysisCache(AnalysisCache cache) {
+		worker.setAnalysisCache(cache);
+	}
+
+	/**
+	 * Sets the font used for the analysis text.
+	 *
+	 * @param font font to use
+	 */
+	public void setResultFont(Font font) {
+		resultLabel.setFont(font);
+		enabledCheckBox.setFont(font);
+	}
+
+	/**
+	 * Turns the analysis on or off.
+	 *
+	 * @param enabled true to start analysing the current game
+	 */
+	public void setAnalysisEnabled(boolean enabled) {
+		enabledCheckBox.setSelected(enabled);
+		if (enabled) {
+			restart();
+			refreshTimer.start();
+		} else {
+			refreshTimer.stop();
+			worker.cancel();
+			shownResult = null;
+			resultLabel.setText(" ");
+			gameDisplay.clearHintMove();
+			gameDisplay.repaint();
+		}
+	}
+
+	public boolean isAnalysisEnabled() {
+		return enabledCheckBox.isSelected();
+	}
+
+	// Only a new position restarts the search, not selections or highlights
+	private void positionChanged(Position p) {
+		if (p.equals(position))
+			return;
+		position = p;
+		if (enabledCheckBox.isSelected())
+			restart();
+	}
+
+	private void restart() {
+		shownResult = null;
+		resultLabel.setText("Thinking...");
+		gameDisplay.clearHintMove();
+		gameDisplay.repaint();
+		worker.analyse(position);
+	}
+
+	private void refresh() {
+		SearchResult result = worker.getLatestResult();
+		if (result == null || result == shownResult)
+			return;
+		shownResult = result;
+		resultLabel.setText("Best: " + Move.toString(result.getBestMove()) + "   Eval: " + scoreToString(result)
+				+ "   Depth: " + result.getDepth());
+		gameDisplay.setHintMove(result.getBestMove());
+		gameDisplay.repaint();
+	}
+
+	// Score is shown in tokens for the side to move
+	private static String scoreToString(SearchResult result) {
+		int score = result.getScore();
+		if (result.isWinScore()) {
+			int plies = Evaluator.WIN_SCORE - Math.abs(score);
+			return (score > 0 ? "win in " : "loss in ") + plies;
+		}
+		return String.format("%+.2f", score / (double) Evaluator.TOKEN_WEIGHT);
+	}
+
+}
@@ -0,0 +1,142 @@
+package hr.fer.mv.nmm;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs an {@link AlphaBetaSearch} on its own thread. Every call to
+ * {@link #analyse(Position)} stops the search that is running and starts a new
+ * one for the given position, so the caller is never blocked.
+ * <p>
+ * The result of the last completed iteration can be read at any time with
+ * {@link #getLatestResult()}. Results are never pushed to the caller, which
+ * lets the display decide how often it wants to refresh.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public class AnalysisWorker {
+
+	// Result paired with the request it belongs to, so results of a cancelled
+	// search are never shown for a newer position
+	private static final class Analysis {
+		private final long request;
+		private final SearchResult result;
+
+		private Analysis(long request, SearchResult result) {
+			this.request = request;
+			this.result = result;
+		}
+	}
+
+	// Search and its transposition table are created on the worker thread
+	private volatile AlphaBetaSearch search;
+	private volatile AnalysisCache cache;
+	private final AtomicReference<Analysis> latest = new AtomicReference<>();
+	private final Object lock = new Object();
+	private final Thread thread;
+	private Position pendingPosition;
+	private volatile long request;
+
+	/**
+	 * Creates a new worker and starts its thread. The thread creates the search
+	 * and waits until there is a position to analyse.
+	 */
+	public AnalysisWorker() {
+		thread = new Thread(this::run, "Analysis");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Sets the cache consulted before every search, positions analysed earlier
+	 * are shown right away.
+	 *
+	 * @param cache cache of earlier results, null for none
+	 */
+	public void setAnalysisCache(AnalysisCache cache) {
+		this.cache = cache;
+		AlphaBetaSearch s = search;
+		if (s != null)
+			s.setAnalysisCache(cache);
+	}
+
+	/**
+	 * Stops the current search and starts analysing the given position.
+	 *
+	 * @param position position to analyse, it is copied
+	 */
+	public void analyse(Position position) {
+		synchronized (lock) {
+			pendingPosition = new Position(position);
+			request++;
+			lock.notifyAll();
+		}
+		stopSearch();
+	}
+
+	/**
+	 * Stops the current search without starting a new one.
+	 */
+	public void cancel() {
+		synchronized (lock) {
+			pendingPosition = null;
+			request++;
+		}
+		stopSearch();
+	}
+
+	/**
+	 * Returns the deepest result for the position that was last given to
+	 * {@link #analyse(Position)}.
+	 *
+	 * @return latest result or null if no iteration has been completed yet
+	 */
+	public SearchResult getLatestResult() {
+		Analysis a = latest.get();
+		return a != null && a.request == request ? a.result : null;
+	}
+
+	// A stop that comes before the search is created is caught by the listener
+	private void stopSearch() {
+		AlphaBetaSearch s = search;
+		if (s != null)
+			s.stop();
+	}
+
+	private void run() {
+		// Search is published before the cache is read, so a cache set meanwhile
+		// reaches it either way
+		AlphaBetaSearch search = new AlphaBetaSearch();
+		this.search = search;
+		search.setAnalysisCache(cache);
+		while (true) {
+			Position position;
+			long current;
+			synchronized (lock) {
+				while (pendingPosition == null) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				position = pendingPosition;
+				pendingPosition = null;
+				current = request;
+			}
+			search.search(position, AlphaBetaSearch.MAX_PLY, r -> {
+				latest.set(new Analysis(current, r));
+				// A stop that came before the search started is caught here
+				if (request != current)
+					search.stop();
+			});
+			synchronized (lock) {
+				// The search was stopped by the request that started it, run it again
+				if (search.isStopped() && request == current && pendingPosition == null)
+					pendingPosition = position;
+			}
+		}
+	}
+
+}
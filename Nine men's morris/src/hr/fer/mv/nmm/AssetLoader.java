@@ -0,0 +1,157 @@
+package hr.fer.mv.nmm;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Loads images and fonts found under {@link Dependencies#DEPENDENCIES_ROOT_PATH}
+ * on background threads. Every asset is decoded on its own thread, images are
+ * then converted once to a format compatible with the screen, so drawing them
+ * doesn't need any conversion later.
+ * <p>
+ * An asset that can't be loaded is reported and left null, the display then
+ * falls back to drawing with {@link java.awt.Graphics}.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class AssetLoader {
+
+	/**
+	 * Immutable set of loaded assets. Any of the assets can be null.
+	 */
+	public static final class Assets {
+		private final BufferedImage backgroundImage;
+		private final BufferedImage blackTokenImage;
+		private final BufferedImage whiteTokenImage;
+		private final Font font;
+
+		private Assets(BufferedImage backgroundImage, BufferedImage blackTokenImage, BufferedImage whiteTokenImage,
+				Font font) {
+			this.backgroundImage = backgroundImage;
+			this.blackTokenImage = blackTokenImage;
+			this.whiteTokenImage = whiteTokenImage;
+			this.font = font;
+		}
+
+		public BufferedImage getBackgroundImage() {
+			return backgroundImage;
+		}
+
+		public BufferedImage getBlackTokenImage() {
+			return blackTokenImage;
+		}
+
+		public BufferedImage getWhiteTokenImage() {
+			return whiteTokenImage;
+		}
+
+		/**
+		 * Returns the font used for texts, with the size of 1pt. Use
+		 * {@link Font#deriveFont(float)} to get the needed size.
+		 *
+		 * @return loaded font
+		 */
+		public Font getFont() {
+			return font;
+		}
+	}
+
+	private static final int LOADER_THREADS = 4;
+
+	/**
+	 * Starts loading all assets. The returned future completes when every asset
+	 * has been loaded or failed to load, it never completes exceptionally.
+	 *
+	 * @return future holding the loaded assets
+	 */
+	public static CompletableFuture<Assets> loadAsync() {
+		ExecutorService executor = Executors.newFixedThreadPool(LOADER_THREADS, r -> {
+			Thread t = new Thread(r, "Asset loader");
+			t.setDaemon(true);
+			return t;
+		});
+		CompletableFuture<BufferedImage> background = supply(() -> loadImage(Dependencies.GAME_BOARD_IMG), executor);
+		CompletableFuture<BufferedImage> blackToken = supply(() -> loadImage(Dependencies.BLACK_TOKEN_IMG), executor);
+		CompletableFuture<BufferedImage> whiteToken = supply(() -> loadImage(Dependencies.WHITE_TOKEN_IMG), executor);
+		CompletableFuture<Font> font = supply(() -> loadFont(Dependencies.PLAYER_DIRECTION_TEXT_FONT), executor);
+		CompletableFuture<Assets> assets = CompletableFuture.allOf(background, blackToken, whiteToken, font)
+				.thenApply(v -> new Assets(background.join(), blackToken.join(), whiteToken.join(), font.join()));
+		assets.whenComplete((a, e) -> executor.shutdown());
+		return assets;
+	}
+
+	/**
+	 * Loads all assets on the calling thread.
+	 *
+	 * @return loaded assets
+	 */
+	public static Assets load() {
+		return new Assets(loadImage(Dependencies.GAME_BOARD_IMG), loadImage(Dependencies.BLACK_TOKEN_IMG),
+				loadImage(Dependencies.WHITE_TOKEN_IMG), loadFont(Dependencies.PLAYER_DIRECTION_TEXT_FONT));
+	}
+
+	private static <T> CompletableFuture<T> supply(Supplier<T> supplier, ExecutorService executor) {
+		return CompletableFuture.supplyAsync(supplier, executor).exceptionally(e -> {
+			e.printStackTrace();
+			return null;
+		});
+	}
+
+	private static BufferedImage loadImage(String name) {
+		try (InputStream is = AssetLoader.class.getResourceAsStream(Dependencies.DEPENDENCIES_ROOT_PATH + "/" + name)) {
+			return toCompatibleImage(ImageIO.read(is));
+		} catch (IOException | SecurityException | IllegalArgumentException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static Font loadFont(String name) {
+		try (InputStream is = AssetLoader.class.getResourceAsStream(Dependencies.DEPENDENCIES_ROOT_PATH + "/" + name)) {
+			return Font.createFont(Font.TRUETYPE_FONT, is);
+		} catch (IOException | FontFormatException | SecurityException | NullPointerException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Copies the image into a format that matches the screen, so it can be drawn
+	 * without conversion. In headless mode the image is returned unchanged.
+	 *
+	 * @param image image to convert, can be null
+	 * @return converted image
+	 */
+	public static BufferedImage toCompatibleImage(BufferedImage image) {
+		if (image == null || GraphicsEnvironment.isHeadless())
+			return image;
+		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+				.getDefaultConfiguration();
+		if (image.getColorModel().equals(gc.getColorModel(image.getTransparency())))
+			return image;
+		BufferedImage compatible = gc.createCompatibleImage(image.getWidth(), image.getHeight(),
+				image.getTransparency() == Transparency.OPAQUE ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+		Graphics2D g = compatible.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return compatible;
+	}
+
+	private AssetLoader() {
+	}
+
+}
@@ -0,0 +1,258 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Evaluates large batches of positions, given by their keys (see
+ * {@link Position#key()}), many boards at a time. Scores are the same as the
+ * ones of {@link Evaluator#evaluate(Position)}, the number of full mills and the
+ * mobility of both players are available too.
+ * <p>
+ * Boards are bit-sliced: 64 boards are transposed into one <code>long</code>
+ * per point and player, bit <code>b</code> of the slice of a point tells if
+ * that point is taken on board <code>b</code>. A mill is then checked for all
+ * 64 boards with two <code>and</code> operations, and counts of mills and
+ * mobility are kept in bit-sliced counters, one <code>long</code> per bit of
+ * the count. Batches smaller than {@link #SCALAR_THRESHOLD} boards aren't worth
+ * transposing and are evaluated one board at a time.
+ * <p>
+ * An evaluator keeps its slices between calls and must be used by one thread
+ * at a time, create one for every thread.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class BatchEvaluator {
+
+	/**
+	 * Number of boards evaluated at once.
+	 */
+	public static final int BATCH_SIZE = Long.SIZE;
+	/**
+	 * Batches with fewer boards are evaluated by the scalar path.
+	 */
+	public static final int SCALAR_THRESHOLD = 16;
+	// Enough bits for the number of mills and the mobility of a player on any
+	// board
+	private static final int MILL_BITS = 5;
+	private static final int MOBILITY_BITS = 7;
+
+	private final BoardTopology topology;
+	// Points of every mill
+	private final int[] millA;
+	private final int[] millB;
+	private final int[] millC;
+	// Slices of both players tokens and of empty points, one long per point
+	private final long[][] tokens;
+	private final long[] empty;
+	// Bit-sliced counters for each player, one long per bit
+	private final long[][] fullMills = new long[2][MILL_BITS];
+	private final long[][] openMills = new long[2][MILL_BITS];
+	private final long[][] mobility = new long[2][MOBILITY_BITS];
+	// Counters read back for every board of the batch
+	private final int[][] fullMillCounts = new int[2][BATCH_SIZE];
+	private final int[][] openMillCounts = new int[2][BATCH_SIZE];
+	private final int[][] mobilityCounts = new int[2][BATCH_SIZE];
+
+	/**
+	 * Creates an evaluator for positions on the given board.
+	 *
+	 * @param topology board of the evaluated positions
+	 */
+	public BatchEvaluator(BoardTopology topology) {
+		this.topology = topology;
+		int mills = topology.mills.length;
+		millA = new int[mills];
+		millB = new int[mills];
+		millC = new int[mills];
+		for (int m = 0; m < mills; m++) {
+			int mill = topology.mills[m];
+			millA[m] = Integer.numberOfTrailingZeros(mill);
+			mill &= mill - 1;
+			millB[m] = Integer.numberOfTrailingZeros(mill);
+			mill &= mill - 1;
+			millC[m] = Integer.numberOfTrailingZeros(mill);
+		}
+		tokens = new long[2][topology.getNumberOfPoints()];
+		empty = new long[topology.getNumberOfPoints()];
+	}
+
+	public BoardTopology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Evaluates the given positions. Results for <code>keys[i]</code> are stored
+	 * at index <code>i</code> of the score array and at indexes
+	 * <code>2 * i + player</code> of the mill and mobility arrays.
+	 *
+	 * @param keys     keys of the positions
+	 * @param offset   index of the first evaluated position
+	 * @param count    number of evaluated positions
+	 * @param scores   array for scores from the point of view of the side to
+	 *                 move, can be null
+	 * @param mills    array for the number of full mills of each player, can be
+	 *                 null
+	 * @param mobility array for the number of moves to a neighbouring point of
+	 *                 each player, can be null
+	 */
+	public void evaluate(long[] keys, int offset, int count, int[] scores, int[] mills, int[] mobility) {
+		int end = offset + count;
+		for (int from = offset; from < end; from += BATCH_SIZE) {
+			int n = Math.min(BATCH_SIZE, end - from);
+			if (n < SCALAR_THRESHOLD)
+				evaluateScalar(keys, from, n, scores, mills, mobility);
+			else
+				evaluateSliced(keys, from, n, scores, mills, mobility);
+		}
+	}
+
+	/**
+	 * Evaluates the given positions one at a time, the results are the same as
+	 * the ones of {@link #evaluate(long[], int, int, int[], int[], int[])}.
+	 *
+	 * @param keys     keys of the positions
+	 * @param offset   index of the first evaluated position
+	 * @param count    number of evaluated positions
+	 * @param scores   array for scores, can be null
+	 * @param mills    array for the number of full mills, can be null
+	 * @param mobility array for the mobility, can be null
+	 */
+	public void evaluateScalar(long[] keys, int offset, int count, int[] scores, int[] mills, int[] mobility) {
+		for (int i = offset; i < offset + count; i++) {
+			long key = keys[i];
+			if (scores != null)
+				scores[i] = Evaluator.evaluate(topology, key);
+			int player1 = PositionCodec.getTokens(key, Position.PLAYER1);
+			int player2 = PositionCodec.getTokens(key, Position.PLAYER2);
+			int free = ~(player1 | player2) & topology.allPoints;
+			if (mills != null) {
+				mills[2 * i] = countMills(player1);
+				mills[2 * i + 1] = countMills(player2);
+			}
+			if (mobility != null) {
+				mobility[2 * i] = countMobility(player1, free);
+				mobility[2 * i + 1] = countMobility(player2, free);
+			}
+		}
+	}
+
+	private int countMills(int own) {
+		int count = 0;
+		for (int mill : topology.mills)
+			if ((own & mill) == mill)
+				count++;
+		return count;
+	}
+
+	private int countMobility(int own, int free) {
+		int count = 0;
+		for (int t = own; t != 0; t &= t - 1)
+			count += Integer.bitCount(topology.neighbours[Integer.numberOfTrailingZeros(t)] & free);
+		return count;
+	}
+
+	// Evaluates up to 64 boards at once
+	private void evaluateSliced(long[] keys, int from, int n, int[] scores, int[] mills, int[] mobilityResults) {
+		int points = empty.length;
+		long[] own1 = tokens[Position.PLAYER1];
+		long[] own2 = tokens[Position.PLAYER2];
+		for (int i = 0; i < points; i++) {
+			own1[i] = 0;
+			own2[i] = 0;
+		}
+		for (int b = 0; b < n; b++) {
+			long key = keys[from + b];
+			long bit = 1L << b;
+			for (int t = PositionCodec.getTokens(key, Position.PLAYER1); t != 0; t &= t - 1)
+				own1[Integer.numberOfTrailingZeros(t)] |= bit;
+			for (int t = PositionCodec.getTokens(key, Position.PLAYER2); t != 0; t &= t - 1)
+				own2[Integer.numberOfTrailingZeros(t)] |= bit;
+		}
+		long boards = n == BATCH_SIZE ? -1L : (1L << n) - 1;
+		for (int i = 0; i < points; i++)
+			empty[i] = ~(own1[i] | own2[i]) & boards;
+
+		for (int player = 0; player < 2; player++) {
+			long[] own = tokens[player];
+			long[] full = fullMills[player];
+			long[] open = openMills[player];
+			long[] moves = mobility[player];
+			clear(full);
+			clear(open);
+			clear(moves);
+			for (int m = 0; m < millA.length; m++) {
+				long a = own[millA[m]], b = own[millB[m]], c = own[millC[m]];
+				increment(full, a & b & c);
+				// Two tokens of a mill with an empty third point
+				increment(open, a & b & empty[millC[m]] | a & empty[millB[m]] & c | empty[millA[m]] & b & c);
+			}
+			for (int i = 0; i < points; i++) {
+				long t = own[i];
+				if (t == 0)
+					continue;
+				for (int nb = topology.neighbours[i]; nb != 0; nb &= nb - 1)
+					increment(moves, t & empty[Integer.numberOfTrailingZeros(nb)]);
+			}
+		}
+
+		for (int player = 0; player < 2; player++) {
+			scatter(fullMills[player], fullMillCounts[player]);
+			scatter(openMills[player], openMillCounts[player]);
+			scatter(mobility[player], mobilityCounts[player]);
+		}
+		for (int b = 0; b < n; b++) {
+			long key = keys[from + b];
+			int i = from + b;
+			int full1 = fullMillCounts[Position.PLAYER1][b];
+			int full2 = fullMillCounts[Position.PLAYER2][b];
+			int moves1 = mobilityCounts[Position.PLAYER1][b];
+			int moves2 = mobilityCounts[Position.PLAYER2][b];
+			if (mills != null) {
+				mills[2 * i] = full1;
+				mills[2 * i + 1] = full2;
+			}
+			if (mobilityResults != null) {
+				mobilityResults[2 * i] = moves1;
+				mobilityResults[2 * i + 1] = moves2;
+			}
+			if (scores != null) {
+				int score1 = (Integer.bitCount(PositionCodec.getTokens(key, Position.PLAYER1))
+						+ PositionCodec.getTokensToPlace(key, Position.PLAYER1))
+						* Evaluator.TOKEN_WEIGHT + full1 * Evaluator.MILL_WEIGHT
+						+ openMillCounts[Position.PLAYER1][b] * Evaluator.OPEN_MILL_WEIGHT
+						+ moves1 * Evaluator.MOBILITY_WEIGHT;
+				int score2 = (Integer.bitCount(PositionCodec.getTokens(key, Position.PLAYER2))
+						+ PositionCodec.getTokensToPlace(key, Position.PLAYER2))
+						* Evaluator.TOKEN_WEIGHT + full2 * Evaluator.MILL_WEIGHT
+						+ openMillCounts[Position.PLAYER2][b] * Evaluator.OPEN_MILL_WEIGHT
+						+ moves2 * Evaluator.MOBILITY_WEIGHT;
+				scores[i] = PositionCodec.getSideToMove(key) == Position.PLAYER1 ? score1 - score2 : score2 - score1;
+			}
+		}
+	}
+
+	private static void clear(long[] counter) {
+		for (int j = 0; j < counter.length; j++)
+			counter[j] = 0;
+	}
+
+	// Adds one to the counter of every board whose bit is set, a ripple carry
+	// adder working on all boards at once
+	private static void increment(long[] counter, long boards) {
+		for (int j = 0; boards != 0 && j < counter.length; j++) {
+			long carry = counter[j] & boards;
+			counter[j] ^= boards;
+			boards = carry;
+		}
+	}
+
+	// Reads the counters of all boards back, only the set bits are visited and
+	// most bits of a count are zero
+	private static void scatter(long[] counter, int[] values) {
+		for (int b = 0; b < BATCH_SIZE; b++)
+			values[b] = 0;
+		for (int j = 0; j < counter.length; j++)
+			for (long bits = counter[j]; bits != 0; bits &= bits - 1)
+				values[Long.numberOfTrailingZeros(bits)] += 1 << j;
+	}
+
+}
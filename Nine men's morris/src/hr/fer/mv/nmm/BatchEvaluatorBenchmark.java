@@ -0,0 +1,113 @@
+package hr.fer.mv.nmm;
+
+import java.util.Random;
+
+/**
+ * Compares the bit-sliced path of {@link BatchEvaluator} with evaluating one
+ * board at a time. Positions are collected from random games of every rule
+ * set, results of both paths are first checked against
+ * {@link Evaluator#evaluate(Position)}, then both paths evaluate the same
+ * positions several times and the time per board of the fastest round is
+ * printed.
+ * <p>
+ * Arguments: <code>[positions] [rounds]</code>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class BatchEvaluatorBenchmark {
+
+	private BatchEvaluatorBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		for (RuleSet rules : RuleSet.values())
+			if (!verify(rules, 100_000))
+				System.exit(1);
+		System.out.println("Results of both paths match the evaluator for every rule set");
+
+		Position[] sample = new Position[positions];
+		long[] keys = collectPositions(RuleSet.NINE_MENS_MORRIS, positions, sample);
+		BatchEvaluator evaluator = new BatchEvaluator(RuleSet.NINE_MENS_MORRIS.getTopology());
+		int[] scores = new int[positions];
+		int[] mills = new int[2 * positions];
+		int[] mobility = new int[2 * positions];
+		long bestPosition = Long.MAX_VALUE, bestScalar = Long.MAX_VALUE, bestSliced = Long.MAX_VALUE;
+		long checksum = 0;
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < positions; i++)
+				scores[i] = Evaluator.evaluate(sample[i]);
+			bestPosition = Math.min(bestPosition, System.nanoTime() - start);
+			checksum += scores[round % positions];
+
+			start = System.nanoTime();
+			evaluator.evaluateScalar(keys, 0, positions, scores, mills, mobility);
+			bestScalar = Math.min(bestScalar, System.nanoTime() - start);
+			checksum += scores[round % positions];
+
+			start = System.nanoTime();
+			evaluator.evaluate(keys, 0, positions, scores, mills, mobility);
+			bestSliced = Math.min(bestSliced, System.nanoTime() - start);
+			checksum += scores[round % positions];
+		}
+		System.out.println(String.format("%d positions, best of %d rounds (checksum %d)", positions, rounds, checksum));
+		System.out.println(String.format("Evaluator, one position at a time:   %6.1f ns per board",
+				(double) bestPosition / positions));
+		System.out.println(String.format("Scalar path, scores, mills, mobility: %6.1f ns per board",
+				(double) bestScalar / positions));
+		System.out.println(String.format("Bit-sliced, scores, mills, mobility:  %6.1f ns per board",
+				(double) bestSliced / positions));
+	}
+
+	// Checks both paths against the evaluator, batches of every length are used
+	// so the scalar path and partial batches are checked too
+	private static boolean verify(RuleSet rules, int positions) {
+		Position[] sample = new Position[positions];
+		long[] keys = collectPositions(rules, positions, sample);
+		BatchEvaluator evaluator = new BatchEvaluator(rules.getTopology());
+		int[] scores = new int[positions];
+		int[] mills = new int[2 * positions];
+		int[] mobility = new int[2 * positions];
+		int[] scalarScores = new int[positions];
+		int[] scalarMills = new int[2 * positions];
+		int[] scalarMobility = new int[2 * positions];
+		int length = 1;
+		for (int from = 0; from < positions; from += length, length = length % 200 + 1)
+			evaluator.evaluate(keys, from, Math.min(length, positions - from), scores, mills, mobility);
+		evaluator.evaluateScalar(keys, 0, positions, scalarScores, scalarMills, scalarMobility);
+		for (int i = 0; i < positions; i++) {
+			int expected = Evaluator.evaluate(sample[i]);
+			if (scores[i] != expected || scalarScores[i] != expected || mills[2 * i] != scalarMills[2 * i]
+					|| mills[2 * i + 1] != scalarMills[2 * i + 1] || mobility[2 * i] != scalarMobility[2 * i]
+					|| mobility[2 * i + 1] != scalarMobility[2 * i + 1]) {
+				System.out.println(rules + ": results differ for " + sample[i]);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Plays random games and stores every position that was reached
+	private static long[] collectPositions(RuleSet rules, int positions, Position[] sample) {
+		long[] keys = new long[positions];
+		Random random = new Random(positions);
+		int[] buffer = new int[Position.MAX_MOVES];
+		Position p = new Position(rules);
+		for (int i = 0; i < positions; i++) {
+			if (p.isGameOver())
+				p = new Position(rules);
+			sample[i] = new Position(p);
+			keys[i] = p.key();
+			int count = p.generateMoves(buffer);
+			if (count == 0)
+				p = new Position(rules);
+			else
+				p.makeMove(buffer[random.nextInt(count)]);
+		}
+		return keys;
+	}
+
+}
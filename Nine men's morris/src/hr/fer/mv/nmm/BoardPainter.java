@@ -0,0 +1,277 @@
+package hr.fer.mv.nmm;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the board, tokens, highlights and hints of a game at a given scale. It
+ * holds everything that doesn't depend on the state of the game: point
+ * coordinates, the background, token, highlight and hint sprites. All images
+ * are rescaled or drawn once when the painter is created, so painting only
+ * copies pixels and doesn't allocate.
+ * <p>
+ * Painters are immutable and can be used by any number of threads at once,
+ * {@link GameBoardDisplay} uses one for the screen and {@link BoardRenderer}
+ * for rendering images without a screen.
+ * <p>
+ * If the background or token images are null the board and tokens are drawn
+ * using {@link Graphics}.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class BoardPainter {
+
+	private static final Color HINT_COLOR = new Color(40, 160, 40);
+	private static final Color HINT_REMOVAL_COLOR = new Color(200, 40, 40);
+	private static final Color HIGHLIGHT_COLOR = new Color(255, 255, 120, 140);
+	private static final float HINT_STROKE_WIDTH = 4;
+
+	private final BoardTopology topology;
+	private final double scale;
+	private final int width;
+	private final int height;
+	// Centres of points on the scaled board, indexed by point index
+	private final int[] xs;
+	private final int[] ys;
+	private final int pointWidth;
+	private final int pointHeight;
+	private final BufferedImage background;
+	// Token sprites for every player, normal and focused
+	private final BufferedImage[][] sprites = new BufferedImage[2][2];
+	private final BufferedImage highlightSprite;
+	private final BufferedImage hintSprite;
+	private final BufferedImage hintRemovalSprite;
+
+	/**
+	 * Creates a painter for the given board.
+	 *
+	 * @param topology        board that is painted
+	 * @param scale           scale of the board, 1 is the size of
+	 *                        {@link Dependencies#BOARD_SIZE}
+	 * @param backgroundImage image of the board, can be null
+	 * @param tokenImages     images of both players tokens, elements can be null
+	 */
+	public BoardPainter(BoardTopology topology, double scale, Image backgroundImage, Image[] tokenImages) {
+		this.topology = topology;
+		this.scale = scale;
+		width = (int) Math.round(Dependencies.BOARD_SIZE.width * scale);
+		height = (int) Math.round(Dependencies.BOARD_SIZE.height * scale);
+		xs = new int[Dependencies.NUMBER_OF_POINTS];
+		ys = new int[Dependencies.NUMBER_OF_POINTS];
+		for (int i = 0; i < Dependencies.NUMBER_OF_POINTS; i++) {
+			Point2D.Double p = Dependencies.getNormalisedPointCoordinate(Position.squareOf(i), Position.placeOf(i));
+			xs[i] = (int) Math.round(p.x * width);
+			ys[i] = (int) Math.round(p.y * height);
+		}
+		pointWidth = (int) Math.round(Dependencies.POINT_SIZE.width * scale);
+		pointHeight = (int) Math.round(Dependencies.POINT_SIZE.height * scale);
+		highlightSprite = ovalSprite(pointWidth, pointHeight, HIGHLIGHT_COLOR);
+		hintSprite = ringSprite(pointWidth, pointHeight, (float) (HINT_STROKE_WIDTH * scale), HINT_COLOR);
+		hintRemovalSprite = ringSprite(pointWidth, pointHeight, (float) (HINT_STROKE_WIDTH * scale),
+				HINT_REMOVAL_COLOR);
+		background = backgroundImage == null ? null
+				: rescale(backgroundImage, width, height, BufferedImage.TYPE_INT_RGB);
+		Color[] colors = { Color.black, Color.white };
+		for (int player = 0; player < 2; player++)
+			for (int focused = 0; focused < 2; focused++) {
+				double s = scale * (focused == 1 ? Dependencies.FOCUS_SCALE_FACTOR : 1);
+				Image token = tokenImages != null && tokenImages.length > player ? tokenImages[player] : null;
+				sprites[player][focused] = token != null
+						? rescale(token, (int) (token.getWidth(null) * s), (int) (token.getHeight(null) * s),
+								BufferedImage.TYPE_INT_ARGB)
+						: ovalSprite((int) (Dependencies.POINT_SIZE.width * s),
+								(int) (Dependencies.POINT_SIZE.height * s), colors[player]);
+			}
+	}
+
+	public BoardTopology getTopology() {
+		return topology;
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Returns the width of the painted board.
+	 *
+	 * @return width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the painted board.
+	 *
+	 * @return height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Scales a length given for {@link Dependencies#BOARD_SIZE} to the size of
+	 * this painter.
+	 *
+	 * @param length length on the board layout
+	 * @return length in pixels
+	 */
+	public int scale(int length) {
+		return (int) Math.round(length * scale);
+	}
+
+	public int getX(int index) {
+		return xs[index];
+	}
+
+	public int getY(int index) {
+		return ys[index];
+	}
+
+	/**
+	 * Returns the index of the point that contains the given location.
+	 *
+	 * @param x horizontal coordinate
+	 * @param y vertical coordinate
+	 * @return index of the point or -1 if there is no point there
+	 */
+	public int pointAt(int x, int y) {
+		for (int i = 0; i < topology.getNumberOfPoints(); i++)
+			if (Math.abs(x - xs[i]) < pointWidth / 2 && Math.abs(y - ys[i]) < pointHeight / 2)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Paints the background image, or the lines of the board if there is no
+	 * image.
+	 *
+	 * @param g graphics to paint with
+	 */
+	public void paintBackground(Graphics g) {
+		if (background != null) {
+			g.drawImage(background, 0, 0, null);
+			return;
+		}
+		// Only neighbours with a higher index, so every line is drawn once
+		for (int i = 0; i < topology.getNumberOfPoints(); i++)
+			for (int n = topology.getNeighbours(i) & -(2 << i); n != 0; n &= n - 1) {
+				int neighbour = Integer.numberOfTrailingZeros(n);
+				g.drawLine(xs[i], ys[i], xs[neighbour], ys[neighbour]);
+			}
+	}
+
+	/**
+	 * Paints a highlight under every given point.
+	 *
+	 * @param g      graphics to paint with
+	 * @param points bitmask of point indexes
+	 */
+	public void paintHighlights(Graphics g, int points) {
+		for (int h = points; h != 0; h &= h - 1)
+			paintSprite(g, highlightSprite, Integer.numberOfTrailingZeros(h));
+	}
+
+	/**
+	 * Paints the tokens of both players.
+	 *
+	 * @param g             graphics to paint with
+	 * @param player1Tokens bitmask of the first players tokens
+	 * @param player2Tokens bitmask of the second players tokens
+	 * @param focusedIndex  index of the point whose token is enlarged, -1 for
+	 *                      none
+	 */
+	public void paintTokens(Graphics g, int player1Tokens, int player2Tokens, int focusedIndex) {
+		for (int t = player1Tokens; t != 0; t &= t - 1) {
+			int index = Integer.numberOfTrailingZeros(t);
+			paintToken(g, xs[index], ys[index], Position.PLAYER1, index == focusedIndex);
+		}
+		for (int t = player2Tokens; t != 0; t &= t - 1) {
+			int index = Integer.numberOfTrailingZeros(t);
+			paintToken(g, xs[index], ys[index], Position.PLAYER2, index == focusedIndex);
+		}
+	}
+
+	/**
+	 * Paints a single token centred on the given location.
+	 *
+	 * @param g       graphics to paint with
+	 * @param x       horizontal coordinate of the centre
+	 * @param y       vertical coordinate of the centre
+	 * @param player  owner of the token
+	 * @param focused true if the token is enlarged
+	 */
+	public void paintToken(Graphics g, int x, int y, int player, boolean focused) {
+		BufferedImage sprite = sprites[player][focused ? 1 : 0];
+		g.drawImage(sprite, x - sprite.getWidth() / 2, y - sprite.getHeight() / 2, null);
+	}
+
+	/**
+	 * Paints rings around the points of the given move.
+	 *
+	 * @param g    graphics to paint with
+	 * @param move encoded move, {@link Move#NULL} paints nothing
+	 */
+	public void paintHint(Graphics g, int move) {
+		if (move == Move.NULL)
+			return;
+		if (Move.from(move) != Move.NONE)
+			paintSprite(g, hintSprite, Move.from(move));
+		if (Move.to(move) != Move.NONE)
+			paintSprite(g, hintSprite, Move.to(move));
+		if (Move.removed(move) != Move.NONE)
+			paintSprite(g, hintRemovalSprite, Move.removed(move));
+	}
+
+	private void paintSprite(Graphics g, BufferedImage sprite, int index) {
+		g.drawImage(sprite, xs[index] - sprite.getWidth() / 2, ys[index] - sprite.getHeight() / 2, null);
+	}
+
+	// Draws the image into a new image of the given size with high quality
+	// interpolation
+	private static BufferedImage rescale(Image image, int width, int height, int type) {
+		BufferedImage scaled = AssetLoader
+				.toCompatibleImage(new BufferedImage(Math.max(1, width), Math.max(1, height), type));
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(image, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+		g.dispose();
+		return scaled;
+	}
+
+	private static BufferedImage ovalSprite(int width, int height, Color color) {
+		BufferedImage sprite = AssetLoader.toCompatibleImage(
+				new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_ARGB));
+		Graphics2D g = sprite.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(color);
+		g.fillOval(0, 0, sprite.getWidth(), sprite.getHeight());
+		g.dispose();
+		return sprite;
+	}
+
+	// Draws a ring of the given size, the image is larger so the stroke that
+	// goes over the edge of the ring isn't cut off
+	private static BufferedImage ringSprite(int width, int height, float strokeWidth, Color color) {
+		int border = (int) Math.ceil(strokeWidth / 2) + 1;
+		BufferedImage sprite = AssetLoader.toCompatibleImage(new BufferedImage(Math.max(1, width + 2 * border),
+				Math.max(1, height + 2 * border), BufferedImage.TYPE_INT_ARGB));
+		Graphics2D g = sprite.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setStroke(new BasicStroke(strokeWidth));
+		g.setColor(color);
+		g.drawOval(border, border, width, height);
+		g.dispose();
+		return sprite;
+	}
+
+}
@@ -0,0 +1,76 @@
+package hr.fer.mv.nmm;
+
+import java.awt.Image;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps {@link BoardPainter}s for the last few sizes the board was drawn in.
+ * Creating a painter rescales the background and token images, which is far
+ * too slow to do on every frame, while a window that is being resized or moved
+ * between screens with different scaling only uses a few sizes at a time.
+ * <p>
+ * Painters are kept in a least recently used order, when there are more sizes
+ * than the capacity the painter that wasn't used the longest is dropped.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class BoardPainterCache {
+
+	private final Map<Integer, BoardPainter> painters;
+	private BoardTopology topology;
+	private Image backgroundImage;
+	private Image[] tokenImages;
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param capacity        number of sizes whose painters are kept
+	 * @param topology        board that is painted
+	 * @param backgroundImage image of the board, can be null
+	 * @param tokenImages     images of both players tokens, elements can be null
+	 */
+	public BoardPainterCache(int capacity, BoardTopology topology, Image backgroundImage, Image[] tokenImages) {
+		painters = new LinkedHashMap<Integer, BoardPainter>(capacity * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, BoardPainter> eldest) {
+				return size() > capacity;
+			}
+		};
+		update(topology, backgroundImage, tokenImages);
+	}
+
+	/**
+	 * Returns the painter for a board of the given size, creating it if needed.
+	 *
+	 * @param size width and height of the board in pixels
+	 * @return painter for the given size
+	 */
+	public synchronized BoardPainter get(int size) {
+		BoardPainter painter = painters.get(size);
+		if (painter == null) {
+			painter = new BoardPainter(topology, (double) Math.max(1, size) / Dependencies.BOARD_SIZE.width,
+					backgroundImage, tokenImages);
+			painters.put(size, painter);
+		}
+		return painter;
+	}
+
+	/**
+	 * Changes what is painted, all cached painters are dropped.
+	 *
+	 * @param topology        board that is painted
+	 * @param backgroundImage image of the board, can be null
+	 * @param tokenImages     images of both players tokens, elements can be null
+	 */
+	public synchronized void update(BoardTopology topology, Image backgroundImage, Image[] tokenImages) {
+		this.topology = topology;
+		this.backgroundImage = backgroundImage;
+		this.tokenImages = tokenImages.clone();
+		painters.clear();
+	}
+
+}
@@ -0,0 +1,224 @@
+package hr.fer.mv.nmm;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders positions to PNG images without a screen, used for thumbnails of
+ * archived games and for sharing positions. Drawing is done by a
+ * {@link BoardPainter}, the same way {@link GameBoardDisplay} draws the board.
+ * <p>
+ * Rendering and encoding run on a pool of worker threads. Every worker borrows
+ * an image from a pool of images allocated once with the renderer, draws the
+ * position into it, encodes it and returns it, so no images are allocated
+ * while rendering.
+ * <p>
+ * When used from a program without a screen, set the
+ * <code>java.awt.headless</code> property to true before any AWT class is
+ * used, like {@link #main(String[])} does.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class BoardRenderer {
+
+	private final BoardPainter painter;
+	private final BlockingQueue<BufferedImage> images;
+	private final ExecutorService workers;
+	private final AtomicLong rendered = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * Creates a renderer.
+	 *
+	 * @param painter painter used for drawing, it sets the size of the images
+	 * @param threads number of threads that render and encode images
+	 */
+	public BoardRenderer(BoardPainter painter, int threads) {
+		this.painter = painter;
+		// Encoded images are written straight to the stream instead of a cache file
+		ImageIO.setUseCache(false);
+		images = new ArrayBlockingQueue<>(threads);
+		for (int i = 0; i < threads; i++)
+			images.add(new BufferedImage(painter.getWidth(), painter.getHeight(), BufferedImage.TYPE_INT_RGB));
+		workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "Board renderer");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Draws the position into the given image.
+	 *
+	 * @param position position to draw
+	 * @param lastMove move that led to the position, it is drawn as a hint,
+	 *                 {@link Move#NULL} for none
+	 * @param image    image of the painters size
+	 * @return the given image
+	 */
+	public BufferedImage render(Position position, int lastMove, BufferedImage image) {
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		g.setColor(Color.black);
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		painter.paintBackground(g);
+		painter.paintTokens(g, position.getTokens(Position.PLAYER1), position.getTokens(Position.PLAYER2), -1);
+		painter.paintHint(g, lastMove);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Renders the position and writes it as a PNG image on a worker thread. The
+	 * position is copied, so it can be changed after this method returns.
+	 *
+	 * @param position position to draw
+	 * @param lastMove move that led to the position, {@link Move#NULL} for none
+	 * @param file     file the image is written to, null only encodes the image
+	 * @return future that completes when the image is written
+	 */
+	public CompletableFuture<Void> writePng(Position position, int lastMove, Path file) {
+		Position copy = new Position(position);
+		return CompletableFuture.runAsync(() -> {
+			BufferedImage image = null;
+			try {
+				image = images.take();
+				render(copy, lastMove, image);
+				if (file == null) {
+					ByteArrayOutputStream os = new ByteArrayOutputStream(1 << 16);
+					ImageIO.write(image, "png", os);
+					bytes.addAndGet(os.size());
+				} else {
+					try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+						ImageIO.write(image, "png", os);
+					}
+					bytes.addAndGet(Files.size(file));
+				}
+				rendered.incrementAndGet();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				if (image != null)
+					images.add(image);
+			}
+		}, workers);
+	}
+
+	public long getRendered() {
+		return rendered.get();
+	}
+
+	/**
+	 * Returns the total size of encoded images.
+	 *
+	 * @return number of bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Waits for all images to be written and stops the worker threads.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException {
+		workers.shutdown();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Renders positions from random games and prints the throughput.
+	 * <p>
+	 * Arguments: <code>[-count n] [-scale s] [-threads n] [-out directory]</code>,
+	 * without a directory the images are only encoded.
+	 *
+	 * @param args command line arguments
+	 * @throws IOException          if the directory can't be created
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int count = 1000;
+		double scale = 0.25;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path out = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-count"))
+				count = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-scale"))
+				scale = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-out"))
+				out = Files.createDirectories(Paths.get(args[++i]));
+		}
+
+		List<Position> positions = new ArrayList<>(count);
+		int[] lastMoves = new int[count];
+		randomPositions(positions, lastMoves, count);
+
+		AssetLoader.Assets assets = AssetLoader.load();
+		long start = System.nanoTime();
+		BoardPainter painter = new BoardPainter(Dependencies.RULE_SET.getTopology(), scale,
+				assets.getBackgroundImage(), new Image[] { assets.getBlackTokenImage(), assets.getWhiteTokenImage() });
+		long prepared = System.nanoTime();
+		BoardRenderer renderer = new BoardRenderer(painter, threads);
+		for (int i = 0; i < count; i++)
+			renderer.writePng(positions.get(i), lastMoves[i],
+					out == null ? null : out.resolve(String.format("position-%06d.png", i)));
+		renderer.shutdown();
+		long time = System.nanoTime() - prepared;
+		System.out.println(String.format(
+				"%d positions of %dx%d rendered on %d threads in %d ms (%.0f positions/s, %.1f KB per image), "
+						+ "sprites prepared in %d ms",
+				renderer.getRendered(), painter.getWidth(), painter.getHeight(), threads, time / 1_000_000,
+				renderer.getRendered() * 1e9 / Math.max(1, time),
+				renderer.getBytes() / 1024.0 / Math.max(1, renderer.getRendered()), (prepared - start) / 1_000_000));
+	}
+
+	// Positions of random games, every position after a move
+	private static void randomPositions(List<Position> positions, int[] lastMoves, int count) {
+		Random random = new Random(1);
+		int[] buffer = new int[Position.MAX_MOVES];
+		Position p = new Position(Dependencies.RULE_SET);
+		while (positions.size() < count) {
+			int n = p.generateMoves(buffer);
+			if (p.isGameOver() || n == 0) {
+				p.reset();
+				continue;
+			}
+			int move = buffer[random.nextInt(n)];
+			p.makeMove(move);
+			lastMoves[positions.size()] = move;
+			positions.add(new Position(p));
+		}
+	}
+
+}
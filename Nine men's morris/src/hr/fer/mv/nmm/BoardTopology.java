@@ -0,0 +1,233 @@
+package hr.fer.mv.nmm;
+
+import java.util.Arrays;
+
+/**
+ * Describes a board made up from concentric squares: which points exist, which
+ * points are neighbours and which points form mills. Every square has 8 points
+ * with places numbered the same way as in {@link MPoint}, so a point index is
+ * always <code>square * 8 + place</code> and a whole board fits in an
+ * <code>int</code> bitmask.
+ * <p>
+ * All tables are built once when a topology is created and never change, so
+ * topologies can be shared by any number of games and threads. Code that needs
+ * speed reads the tables directly instead of asking which variant is played.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class BoardTopology {
+
+	public static final int POINTS_PER_SQUARE = 8;
+
+	/**
+	 * Two squares connected at the middle of each side, used by Six men's
+	 * morris.
+	 */
+	public static final BoardTopology TWO_SQUARES = new BoardTopology("Two squares", 2, false);
+	/**
+	 * Three squares connected at the middle of each side, the classic Nine men's
+	 * morris board.
+	 */
+	public static final BoardTopology THREE_SQUARES = new BoardTopology("Three squares", 3, false);
+	/**
+	 * Three squares connected at the middle of each side and at the corners, used
+	 * by Twelve men's morris.
+	 */
+	public static final BoardTopology THREE_SQUARES_DIAGONALS = new BoardTopology("Three squares with diagonals", 3,
+			true);
+
+	private final String name;
+	private final int squares;
+	private final int numberOfPoints;
+	private final boolean diagonals;
+	final int allPoints;
+	// Bitmask of neighbours for each point
+	final int[] neighbours;
+	// Bitmask of every mill on the board
+	final int[] mills;
+	// Bitmasks of mills each point belongs to
+	final int[][] pointMills;
+	// Indexes into mills for each point, used for keeping per mill counters
+	final int[][] pointMillIds;
+
+	private BoardTopology(String name, int squares, boolean diagonals) {
+		this.name = name;
+		this.squares = squares;
+		this.diagonals = diagonals;
+		numberOfPoints = squares * POINTS_PER_SQUARE;
+		allPoints = (1 << numberOfPoints) - 1;
+
+		int[] millList = new int[numberOfPoints * 2];
+		int millCount = 0;
+		for (int i = 0; i < squares; i++)
+			for (int j = 0; j < POINTS_PER_SQUARE; j += 2)
+				millList[millCount++] = bit(i, j) | bit(i, j + 1) | bit(i, (j + 2) % POINTS_PER_SQUARE);
+		// Mills that connect squares together only exist if a line crosses all squares
+		if (squares == 3)
+			for (int j = 0; j < POINTS_PER_SQUARE; j++)
+				if (j % 2 != 0 || diagonals)
+					millList[millCount++] = bit(0, j) | bit(1, j) | bit(2, j);
+		mills = Arrays.copyOf(millList, millCount);
+
+		neighbours = new int[numberOfPoints];
+		pointMills = new int[numberOfPoints][];
+		pointMillIds = new int[numberOfPoints][];
+		for (int i = 0; i < squares; i++)
+			for (int j = 0; j < POINTS_PER_SQUARE; j++) {
+				int index = indexOf(i, j);
+				neighbours[index] = bit(i, (j + 1) % POINTS_PER_SQUARE)
+						| bit(i, (j + POINTS_PER_SQUARE - 1) % POINTS_PER_SQUARE);
+				if (j % 2 != 0 || diagonals) {
+					if (i > 0)
+						neighbours[index] |= bit(i - 1, j);
+					if (i < squares - 1)
+						neighbours[index] |= bit(i + 1, j);
+				}
+				int count = 0;
+				for (int mill : mills)
+					if ((mill & 1 << index) != 0)
+						count++;
+				pointMills[index] = new int[count];
+				pointMillIds[index] = new int[count];
+				count = 0;
+				for (int m = 0; m < mills.length; m++)
+					if ((mills[m] & 1 << index) != 0) {
+						pointMills[index][count] = mills[m];
+						pointMillIds[index][count++] = m;
+					}
+			}
+	}
+
+	public static int indexOf(int square, int place) {
+		return square * POINTS_PER_SQUARE + place;
+	}
+
+	private static int bit(int square, int place) {
+		return 1 << indexOf(square, place);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSquares() {
+		return squares;
+	}
+
+	public int getNumberOfPoints() {
+		return numberOfPoints;
+	}
+
+	public boolean hasDiagonals() {
+		return diagonals;
+	}
+
+	/**
+	 * Returns a bitmask with a bit set for every point of the board.
+	 *
+	 * @return bitmask of all points
+	 */
+	public int getAllPoints() {
+		return allPoints;
+	}
+
+	/**
+	 * Returns a bitmask of neighbours of the point with the given index.
+	 *
+	 * @param index index of the point
+	 * @return bitmask of neighbouring points
+	 */
+	public int getNeighbours(int index) {
+		return neighbours[index];
+	}
+
+	public boolean areNeighbours(int index1, int index2) {
+		return (neighbours[index1] & 1 << index2) != 0;
+	}
+
+	public int getNumberOfMills() {
+		return mills.length;
+	}
+
+	/**
+	 * Returns the bitmask of the mill with the given index.
+	 *
+	 * @param mill index of the mill
+	 * @return bitmask of the three points forming the mill
+	 */
+	public int getMill(int mill) {
+		return mills[mill];
+	}
+
+	/**
+	 * Returns bitmasks of all mills the point with the given index belongs to.
+	 *
+	 * @param index index of the point
+	 * @return copy of the mill bitmasks
+	 */
+	public int[] getPointMills(int index) {
+		return Arrays.copyOf(pointMills[index], pointMills[index].length);
+	}
+
+	/**
+	 * Checks if the token on the given point would form a mill for a player that
+	 * owns the given tokens.
+	 *
+	 * @param playerTokens bitmask of the players tokens
+	 * @param index        index of the point
+	 * @return true if the point is a part of a full mill
+	 */
+	public boolean formsMill(int playerTokens, int index) {
+		for (int mill : pointMills[index])
+			if ((playerTokens & mill) == mill)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns a bitmask of the given tokens that are a part of a mill.
+	 *
+	 * @param playerTokens bitmask of the players tokens
+	 * @return bitmask of tokens in mills
+	 */
+	public int tokensInMills(int playerTokens) {
+		int inMills = 0;
+		for (int mill : mills)
+			if ((playerTokens & mill) == mill)
+				inMills |= mill;
+		return inMills;
+	}
+
+	/**
+	 * Returns a bitmask of the given tokens that can be removed by the opponent.
+	 * Tokens in mills can only be removed if there are no other tokens.
+	 *
+	 * @param playerTokens bitmask of the players tokens
+	 * @return bitmask of removable tokens
+	 */
+	public int removableTokens(int playerTokens) {
+		int free = playerTokens & ~tokensInMills(playerTokens);
+		return free != 0 ? free : playerTokens;
+	}
+
+	/**
+	 * Checks if any of the given tokens has an empty neighbouring point.
+	 *
+	 * @param playerTokens bitmask of the players tokens
+	 * @param empty        bitmask of empty points
+	 * @return true if at least one of the tokens can move
+	 */
+	public boolean hasMovableToken(int playerTokens, int empty) {
+		for (int t = playerTokens; t != 0; t &= t - 1)
+			if ((neighbours[Integer.numberOfTrailingZeros(t)] & empty) != 0)
+				return true;
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
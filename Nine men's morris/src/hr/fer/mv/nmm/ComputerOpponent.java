@@ -0,0 +1,125 @@
+package hr.fer.mv.nmm;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lets a {@link Player} play one side of a game played by a {@link GameActor}.
+ * When it is the players turn, he chooses a move on a background thread and
+ * the move is then sent to the actor, which plays it with
+ * {@link GameLogic#playMove(int)}, the same events a person sends by clicking
+ * the board.
+ * <p>
+ * A move is dropped if the game changed while the player was thinking. A
+ * player without a legal move ({@link Move#NULL}) gives up the game. The state
+ * of the opponent is only changed on the actor thread.
+ * <p>
+ * While the other side is thinking the player ponders (see
+ * {@link Player#ponder(Position)}) on the same background thread. Pondering is
+ * stopped as soon as the position changes, so the player can choose its move.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public class ComputerOpponent {
+
+	private final GameActor game;
+	private final Player player;
+	private final int side;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Computer opponent");
+		t.setDaemon(true);
+		return t;
+	});
+	private volatile boolean enabled = false;
+	private boolean thinking = false;
+	private volatile boolean pondering = Dependencies.COMPUTER_PONDERING;
+	// Position the player ponders on, null if it doesn't ponder
+	private Position ponderPosition;
+
+	/**
+	 * Creates a new opponent that waits until it is enabled.
+	 *
+	 * @param game   game to play
+	 * @param player player that chooses moves
+	 * @param side   side the player plays, see {@link Position#PLAYER1}
+	 */
+	public ComputerOpponent(GameActor game, Player player, int side) {
+		this.game = game;
+		this.player = player;
+		this.side = side;
+		game.addListener(this::update);
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public boolean isPondering() {
+		return pondering;
+	}
+
+	/**
+	 * Lets the player think while the other side is on the move.
+	 *
+	 * @param pondering true if the player should ponder
+	 */
+	public void setPondering(boolean pondering) {
+		this.pondering = pondering;
+		game.execute(g -> update(game.getSnapshot()));
+	}
+
+	/**
+	 * Enables or disables the opponent.
+	 *
+	 * @param enabled true if the opponent should play
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		System.out.println(player.getName() + (enabled ? " plays " : " stopped playing ")
+				+ (side == Position.PLAYER1 ? "Player1" : "Player2"));
+		PonderStatistics statistics = player.getPonderStatistics();
+		if (!enabled && statistics != null && statistics.getHits() + statistics.getMisses() > 0)
+			System.out.println(player.getName() + ": " + statistics);
+		game.execute(g -> update(game.getSnapshot()));
+	}
+
+	// Starts thinking if it is our turn and we aren't thinking already, ponders
+	// while it is the other sides turn, runs on the actor thread
+	private void update(GameSnapshot snapshot) {
+		Position position = snapshot.getPosition();
+		if (ponderPosition != null && (!enabled || !pondering || !ponderPosition.equals(position))) {
+			player.stopPondering();
+			ponderPosition = null;
+		}
+		if (!enabled || thinking || snapshot.isRemovalPending() || snapshot.isGameOver())
+			return;
+		if (snapshot.getSideToMove() != side) {
+			if (pondering && ponderPosition == null) {
+				ponderPosition = position;
+				executor.execute(() -> player.ponder(position));
+			}
+			return;
+		}
+		thinking = true;
+		executor.execute(() -> {
+			int move = player.selectMove(position);
+			game.execute(g -> {
+				thinking = false;
+				if (!enabled || !g.getPosition().equals(position))
+					update(game.getSnapshot());
+				else if (move != Move.NULL)
+					g.playMove(move);
+				else
+					// Player has no legal move and loses, asking it again would give the
+					// same answer
+					g.specialAction();
+			});
+		});
+	}
+
+}
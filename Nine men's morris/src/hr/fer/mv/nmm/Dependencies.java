@@ -2,11 +2,12 @@ package hr.fer.mv.nmm;
 
 import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.geom.Point2D;
 
 /**
  * Contains constants that are used to set up a game of Nine men's morris. It
- * has settings for tweaking the rules of the game as well as setting that are
- * used to display the board.
+ * has settings for choosing the rules of the game (see {@link RuleSet}) as well
+ * as setting that are used to display the board.
  * 
  * @author Matija Videkovi
  *
@@ -15,30 +16,56 @@ public final class Dependencies {
 
 	public static final String GAME_NAME = "Nine men's morris";
 	// You should not change these values in the current implementation
+	// They describe the largest board, every variant in RuleSet fits on it
 	public static final int NUMBER_OF_SQARES = 3;
 	public static final int NUMBER_OF_POINTS_PER_SQARE = 8;
 	public static final int NUMBER_OF_POINTS = 24;
 	// Everything below this point can be adjusted to your preference
-	public static final int NUMBER_OF_TOKENS_PER_PLAYER = 9;
-	public static final boolean CHECK_CHECKMATE = true;
-	public static final boolean ALLOW_FLYING = false;
+	// Variant of the game, see RuleSet for number of tokens, flying and checkmate
+	public static final RuleSet RULE_SET = RuleSet.NINE_MENS_MORRIS;
+	// Time each player has when the game starts, null plays without clocks
+	public static final TimeControl TIME_CONTROL = null;
+	// Time control the player can switch on during the game
+	public static final TimeControl OFFERED_TIME_CONTROL = new TimeControl(15 * 60_000, 10_000,
+			TimeControl.NO_MOVE_LIMIT);
+	public static final int CLOCK_REFRESH_MILISECONDS = 100;
+	// Time the computer opponent thinks about each move
+	public static final int COMPUTER_THINKING_TIME_MILISECONDS = 1000;
+	// Computer opponent thinks while the person is on the move
+	public static final boolean COMPUTER_PONDERING = true;
 
 	public static final String DEPENDENCIES_ROOT_PATH = "/hr/fer/mv/nmm/dependencies";
 	public static final String GAME_BOARD_IMG = "Nine_Men's_Morris_board.png";
 	public static final String BLACK_TOKEN_IMG = "Black_Token.png";
 	public static final String WHITE_TOKEN_IMG = "White_Token.png";
 	public static final String PLAYER_DIRECTION_TEXT_FONT = "zig_____.ttf";
+	// Journal used to restore an unfinished game after the program is restarted
+	public static final String JOURNAL_PATH = System.getProperty("user.home") + "/.nine-mens-morris/games.journal";
+	public static final long JOURNAL_GAME_ID = 1;
+	public static final String ANALYSIS_CACHE_PATH = System.getProperty("user.home")
+			+ "/.nine-mens-morris/analysis.cache";
+	public static final int ANALYSIS_CACHE_CAPACITY = 1 << 20;
 
+	// Size the window opens with, it can be resized down to the minimum size
 	public static final Dimension FRAME_SIZE = new Dimension(836, 900);
+	public static final Dimension MINIMUM_FRAME_SIZE = new Dimension(420, 500);
+	// Size of the board layout, point coordinates and sizes below are given for
+	// this size and scaled to the size the board is drawn in
+	public static final Dimension BOARD_SIZE = new Dimension(818, 818);
 	public static final Dimension POINT_SIZE = new Dimension(69, 69);
+	// Number of board sizes whose scaled images are kept, see BoardPainterCache
+	public static final int PAINTER_CACHE_SIZE = 4;
 	public static final float PLAYER_DIRECTION_TEXT_SIZE = 20;
 	public static final float TOOL_TIP_TEXT_SIZE = 10;
+	public static final float ANALYSIS_TEXT_SIZE = 14;
 	public static final int ANIMATION_STEP_MILISECONDS = 10;
 	public static final int TOKEN_TRANSLATE_TIME_MILISECONDS = 250;
 	public static final int FOCUS_TIME_MILISECONDS = 50;
 	public static final double FOCUS_SCALE_FACTOR = 1.2;
 	public static final int TOOL_TIP_TEXT_TIME_MILISECONDS = 2000;
 	public static final int PLAYER_DIRECTION_TEXT_TRANSLATE_TIME_MILISECONDS = 500;
+	// Direction text flies from the middle of the board to this location, the
+	// location and the text size are given for BOARD_SIZE
 	public static final Point PLAYER_DIRECTION_TEXT_LOCATION = new Point(20, 20);
 	public static final boolean PLAYER_DIRECTION_TEXT_FLYING = true;
 	// The board is made up of 3 squares
@@ -76,6 +103,43 @@ public final class Dependencies {
 		return new Point(POINT_COORDINATES[square][place]);
 	}
 
+	/**
+	 * Gets the horizontal coordinate of the given point on the board layout
+	 * without creating objects, used while painting.
+	 * 
+	 * @param square square number of the point
+	 * @param place  place number of the point
+	 * @return horizontal coordinate of the point
+	 */
+	public static int getPointX(int square, int place) {
+		return POINT_COORDINATES[square][place].x;
+	}
+
+	/**
+	 * Gets the vertical coordinate of the given point on the board layout
+	 * without creating objects, used while painting.
+	 * 
+	 * @param square square number of the point
+	 * @param place  place number of the point
+	 * @return vertical coordinate of the point
+	 */
+	public static int getPointY(int square, int place) {
+		return POINT_COORDINATES[square][place].y;
+	}
+
+	/**
+	 * Gets the location of the given point relative to the size of the board,
+	 * both coordinates are between 0 and 1.
+	 * 
+	 * @param square square number of the point
+	 * @param place  place number of the point
+	 * @return normalised location of the given point
+	 */
+	public static Point2D.Double getNormalisedPointCoordinate(int square, int place) {
+		return new Point2D.Double(getPointX(square, place) / BOARD_SIZE.getWidth(),
+				getPointY(square, place) / BOARD_SIZE.getHeight());
+	}
+
 	private Dependencies() {
 	}
 
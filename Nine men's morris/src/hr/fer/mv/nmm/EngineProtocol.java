@@ -0,0 +1,341 @@
+package hr.fer.mv.nmm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line based protocol that lets scripts and other programs use the
+ * {@link AlphaBetaSearch} without the board display, similar to UCI. Commands
+ * are read from the input, one per line:
+ * <ul>
+ * <li><code>hello</code> - answered with <code>id</code> lines and
+ * <code>ok</code>, an <code>id variant &lt;identifier&gt; &lt;name&gt;</code>
+ * line is sent for every variant the engine plays
+ * <li><code>isready</code> - answered with <code>readyok</code> right away,
+ * also while the engine is searching
+ * <li><code>newgame</code> - forgets everything learned in the previous game
+ * <li><code>position [variant &lt;name&gt;] (startpos | board &lt;board&gt;)
+ * [moves &lt;move&gt;...]</code> - sets the position to search, the board is
+ * written as by {@link Position#toString()} and moves as by
+ * {@link Move#toNotation(int)}, points are 'square,place' like in
+ * {@link MPoint}. The variant is given by its name, like
+ * <code>Six men's morris</code>, or its identifier, like
+ * <code>SIX_MENS_MORRIS</code>, see {@link RuleSet#getIdentifier()}. Without a
+ * variant the default rules are used.
+ * <li><code>go [depth &lt;n&gt;] [movetime &lt;ms&gt;] [wtime &lt;ms&gt;] [btime
+ * &lt;ms&gt;] [winc &lt;ms&gt;] [binc &lt;ms&gt;] [infinite]</code> - starts
+ * searching, every completed iteration is reported with an <code>info</code>
+ * line holding depth, score, nodes, nodes per second, time and principal
+ * variation, the search ends with a <code>bestmove</code> line
+ * <li><code>stop</code> - stops the search, <code>bestmove</code> follows
+ * right away
+ * <li><code>d</code> - prints the position
+ * <li><code>quit</code> - stops the search and exits
+ * </ul>
+ * Errors are reported with <code>info string</code> lines. The search runs on
+ * its own thread, so input is read while the engine is thinking and a
+ * <code>stop</code> reaches the search as soon as its line is read. The search
+ * checks the stop flag every few thousand nodes, well within a millisecond.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class EngineProtocol {
+
+	public static final String NAME = "Nine men's morris alpha-beta";
+	public static final String AUTHOR = "Matija Videkovi";
+	// With a clock the engine plans to spend this part of the remaining time
+	public static final int MOVES_TO_GO = 20;
+
+	private final BufferedReader in;
+	private final PrintWriter out;
+	private final AlphaBetaSearch search = new AlphaBetaSearch();
+	private final ExecutorService searcher = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Engine search");
+		t.setDaemon(true);
+		return t;
+	});
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "Engine timer");
+		t.setDaemon(true);
+		return t;
+	});
+	private final Object lock = new Object();
+	private Position position = new Position(Dependencies.RULE_SET);
+	private Future<?> current;
+	// Cleared before the best move is sent, so a go sent right after it is
+	// accepted
+	private boolean searching;
+	// Ids of searches, a search is stopped when a stop with its id was requested
+	private long searches;
+	private volatile long running;
+	private volatile long stopRequest;
+
+	/**
+	 * Creates a new engine that reads commands from the given input.
+	 *
+	 * @param in  input with commands
+	 * @param out output for answers
+	 */
+	public EngineProtocol(InputStream in, OutputStream out) {
+		this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Reads and executes commands until <code>quit</code> or the end of the input.
+	 *
+	 * @throws IOException if the input can't be read
+	 */
+	public void run() throws IOException {
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				if (!execute(line.trim()))
+					break;
+		} finally {
+			stopSearch();
+			waitForSearch();
+			searcher.shutdown();
+			timer.shutdown();
+		}
+	}
+
+	// Executes a single command, returns false if the engine should quit
+	private boolean execute(String line) {
+		if (line.isEmpty())
+			return true;
+		String[] words = line.split("\\s+");
+		try {
+			switch (words[0]) {
+			case "hello":
+				send("id name " + NAME);
+				send("id author " + AUTHOR);
+				for (RuleSet rules : RuleSet.values())
+					send("id variant " + rules.getIdentifier() + " " + rules.getName());
+				send("ok");
+				break;
+			case "isready":
+				send("readyok");
+				break;
+			case "newgame":
+				stopSearch();
+				waitForSearch();
+				search.getTranspositionTable().clear();
+				break;
+			case "position":
+				stopSearch();
+				waitForSearch();
+				position = parsePosition(words);
+				break;
+			case "go":
+				go(words);
+				break;
+			case "stop":
+				stopSearch();
+				break;
+			case "d":
+				send("info string " + position);
+				break;
+			case "quit":
+				return false;
+			default:
+				send("info string unknown command " + words[0]);
+			}
+		} catch (IllegalArgumentException e) {
+			send("info string " + e.getMessage());
+		}
+		return true;
+	}
+
+	private static Position parsePosition(String[] words) {
+		int i = 1;
+		RuleSet rules = Dependencies.RULE_SET;
+		if (i + 1 < words.length && words[i].equals("variant")) {
+			// Names of variants have spaces, the name ends where the position starts
+			int end = i + 1;
+			while (end < words.length && !words[end].equals("startpos") && !words[end].equals("board"))
+				end++;
+			rules = RuleSet.valueOf(String.join(" ", Arrays.copyOfRange(words, i + 1, end)));
+			i = end;
+		}
+		Position p;
+		if (i < words.length && words[i].equals("startpos")) {
+			p = new Position(rules);
+			i++;
+		} else if (i < words.length && words[i].equals("board")) {
+			int end = i + 1;
+			while (end < words.length && !words[end].equals("moves"))
+				end++;
+			p = Position.valueOf(String.join(" ", Arrays.copyOfRange(words, i + 1, end)), rules);
+			i = end;
+		} else
+			throw new IllegalArgumentException("position needs startpos or board");
+		if (i < words.length && words[i].equals("moves"))
+			for (i++; i < words.length; i++) {
+				int move = Move.valueOf(words[i]);
+				if (p.isGameOver() || !p.isLegal(move))
+					throw new IllegalArgumentException("Illegal move " + words[i] + " in " + p);
+				p.makeMove(move);
+			}
+		return p;
+	}
+
+	private void go(String[] words) {
+		int depth = AlphaBetaSearch.MAX_PLY;
+		long moveTime = 0;
+		long[] time = new long[2];
+		long[] increment = new long[2];
+		for (int i = 1; i < words.length; i++) {
+			String word = words[i];
+			if (word.equals("infinite"))
+				continue;
+			if (i + 1 >= words.length)
+				throw new IllegalArgumentException("go " + word + " needs a value");
+			long value;
+			try {
+				value = Long.parseLong(words[++i]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("go " + word + " needs a number");
+			}
+			switch (word) {
+			case "depth":
+				depth = (int) Math.max(1, Math.min(value, AlphaBetaSearch.MAX_PLY));
+				break;
+			case "movetime":
+				moveTime = value;
+				break;
+			case "wtime":
+				time[Position.PLAYER2] = value;
+				break;
+			case "btime":
+				time[Position.PLAYER1] = value;
+				break;
+			case "winc":
+				increment[Position.PLAYER2] = value;
+				break;
+			case "binc":
+				increment[Position.PLAYER1] = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown go parameter " + word);
+			}
+		}
+		int side = position.getSideToMove();
+		if (moveTime == 0 && time[side] > 0)
+			moveTime = Math.max(1, Math.min(time[side] / 2, time[side] / MOVES_TO_GO + increment[side]));
+		synchronized (lock) {
+			if (searching) {
+				send("info string search already running");
+				return;
+			}
+			searching = true;
+			long id = ++searches;
+			Position root = new Position(position);
+			int maxDepth = depth;
+			current = searcher.submit(() -> search(id, root, maxDepth));
+			if (moveTime > 0)
+				timer.schedule(() -> stop(id), moveTime, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// Runs on the search thread and reports the best move
+	private void search(long id, Position root, int maxDepth) {
+		running = id;
+		SearchResult result = null;
+		if (!root.isGameOver())
+			result = search.search(root, maxDepth, r -> {
+				sendInfo(r);
+				// A stop that came before the search started is caught here
+				if (stopRequest >= id)
+					search.stop();
+			});
+		synchronized (lock) {
+			running = 0;
+			searching = false;
+		}
+		int move = result != null ? result.getBestMove() : Move.NULL;
+		if (move == Move.NULL && !root.isGameOver()) {
+			// Stopped before the first iteration was completed
+			int[] moves = new int[Position.MAX_MOVES];
+			if (root.generateMoves(moves) > 0)
+				move = moves[0];
+		}
+		send("bestmove " + Move.toNotation(move));
+	}
+
+	private void sendInfo(SearchResult r) {
+		StringBuilder sb = new StringBuilder("info depth ").append(r.getDepth()).append(" score ")
+				.append(r.getScore()).append(" nodes ").append(r.getNodes()).append(" nps ")
+				.append(r.getNodes() * 1000 / Math.max(1, r.getTimeMillis())).append(" time ")
+				.append(r.getTimeMillis()).append(" pv");
+		for (int move : r.getPrincipalVariation())
+			sb.append(' ').append(Move.toNotation(move));
+		send(sb.toString());
+	}
+
+	// Stops the search with the given id if it is still running, the lock keeps
+	// the stop from reaching a later search
+	private void stop(long id) {
+		synchronized (lock) {
+			stopRequest = Math.max(stopRequest, id);
+			if (running == id)
+				search.stop();
+		}
+	}
+
+	private void stopSearch() {
+		synchronized (lock) {
+			if (searches > 0)
+				stop(searches);
+		}
+	}
+
+	private void waitForSearch() {
+		Future<?> f;
+		synchronized (lock) {
+			f = current;
+		}
+		if (f == null)
+			return;
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void send(String line) {
+		synchronized (out) {
+			out.println(line);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Runs the engine on the standard input and output.
+	 *
+	 * @param args not used
+	 * @throws IOException if the standard input can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		new EngineProtocol(System.in, System.out).run();
+	}
+
+}
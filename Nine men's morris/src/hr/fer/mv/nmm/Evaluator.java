@@ -0,0 +1,68 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Static evaluation of a {@link Position}. Scores are given from the point of
+ * view of the side to move, positive values are good for that side.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class Evaluator {
+
+	public static final int WIN_SCORE = 100000;
+	public static final int TOKEN_WEIGHT = 100;
+	public static final int MILL_WEIGHT = 20;
+	public static final int OPEN_MILL_WEIGHT = 15;
+	public static final int MOBILITY_WEIGHT = 4;
+
+	/**
+	 * Evaluates the given position for the side to move.
+	 *
+	 * @param p position to evaluate
+	 * @return score of the position
+	 */
+	public static int evaluate(Position p) {
+		int side = p.getSideToMove();
+		int empty = p.getEmpty();
+		BoardTopology topology = p.getTopology();
+		return evaluatePlayer(topology, p.getTokens(side), p.getTokensToPlace(side), empty)
+				- evaluatePlayer(topology, p.getTokens(1 - side), p.getTokensToPlace(1 - side), empty);
+	}
+
+	/**
+	 * Evaluates a position given by its key, see {@link Position#key()}, for the
+	 * side to move. Gives the same score as {@link #evaluate(Position)}.
+	 *
+	 * @param topology board of the position
+	 * @param key      key of the position
+	 * @return score of the position
+	 */
+	public static int evaluate(BoardTopology topology, long key) {
+		int player1 = PositionCodec.getTokens(key, Position.PLAYER1);
+		int player2 = PositionCodec.getTokens(key, Position.PLAYER2);
+		int empty = ~(player1 | player2) & topology.allPoints;
+		int score = evaluatePlayer(topology, player1, PositionCodec.getTokensToPlace(key, Position.PLAYER1), empty)
+				- evaluatePlayer(topology, player2, PositionCodec.getTokensToPlace(key, Position.PLAYER2), empty);
+		return PositionCodec.getSideToMove(key) == Position.PLAYER1 ? score : -score;
+	}
+
+	private static int evaluatePlayer(BoardTopology topology, int own, int toPlace, int empty) {
+		int score = (Integer.bitCount(own) + toPlace) * TOKEN_WEIGHT;
+		for (int mill : topology.mills) {
+			int taken = own & mill;
+			if (taken == mill)
+				score += MILL_WEIGHT;
+			// Two tokens of a mill with an empty third point
+			else if (Integer.bitCount(taken) == 2 && (empty & mill) != 0)
+				score += OPEN_MILL_WEIGHT;
+		}
+		int mobility = 0;
+		for (int t = own; t != 0; t &= t - 1)
+			mobility += Integer.bitCount(topology.neighbours[Integer.numberOfTrailingZeros(t)] & empty);
+		return score + mobility * MOBILITY_WEIGHT;
+	}
+
+	private Evaluator() {
+	}
+
+}
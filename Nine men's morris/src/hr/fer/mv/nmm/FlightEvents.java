@@ -0,0 +1,162 @@
+package hr.fer.mv.nmm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the game. Events are disabled unless a
+ * recording enables them, a disabled event costs a check of a flag and its
+ * object is removed by the JIT compiler. Events are recorded on the thread that
+ * does the work, so they line up with garbage collection, CPU samples and
+ * other JDK events of the same recording.
+ * <p>
+ * The events and a finer CPU sampling are enabled by
+ * <code>src/hr/fer/mv/nmm/dependencies/Flight_Recording.jfc</code>, which is
+ * used on top of the JDK profile. The JVM can't start a recording with
+ * settings from a path with spaces or quotes, like the folder of this project,
+ * so the file is copied to a plain path first:
+ *
+ * <pre>
+ * cp "Nine men's morris/src/hr/fer/mv/nmm/dependencies/Flight_Recording.jfc" /tmp/nmm.jfc
+ * java -XX:StartFlightRecording:settings=profile,settings=/tmp/nmm.jfc,filename=nmm.jfr ...
+ * </pre>
+ *
+ * The bare file name <code>settings=Flight_Recording.jfc</code> also works
+ * when java is started in the <code>dependencies</code> folder.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class FlightEvents {
+
+	private static final String CATEGORY = "Nine men's morris";
+
+	private FlightEvents() {
+	}
+
+	/**
+	 * Handling of one click, confirmation, timeout or hover by
+	 * {@link GameLogic}.
+	 */
+	@Name("hr.fer.mv.nmm.GameEventHandling")
+	@Label("Game Event Handling")
+	@Category({ CATEGORY, "Game" })
+	@Enabled(false)
+	@StackTrace(false)
+	public static final class GameEventHandling extends Event {
+
+		@Label("Event Type")
+		public String eventType;
+
+		@Label("Phase")
+		@Description("Phase of the game when the event came")
+		public String phase;
+
+		@Label("Player")
+		public String player;
+	}
+
+	/**
+	 * Mill formed by a placed or moved token.
+	 */
+	@Name("hr.fer.mv.nmm.MillFormed")
+	@Label("Mill Formed")
+	@Category({ CATEGORY, "Game" })
+	@Enabled(false)
+	@StackTrace(false)
+	public static final class MillFormed extends Event {
+
+		@Label("Player")
+		public String player;
+
+		@Label("Point")
+		@Description("Index of the point that closed the mill, square * 8 + place")
+		public int point;
+	}
+
+	/**
+	 * Token removed after a mill.
+	 */
+	@Name("hr.fer.mv.nmm.TokenRemoved")
+	@Label("Token Removed")
+	@Category({ CATEGORY, "Game" })
+	@Enabled(false)
+	@StackTrace(false)
+	public static final class TokenRemoved extends Event {
+
+		@Label("Owner")
+		@Description("Player whose token was removed")
+		public String owner;
+
+		@Label("Point")
+		@Description("Index of the point, square * 8 + place")
+		public int point;
+
+		@Label("Tokens Left")
+		@Description("Tokens of the owner on the board and still to place")
+		public int tokensLeft;
+	}
+
+	/**
+	 * One iteration of {@link AlphaBetaSearch}, also committed for an iteration
+	 * that was stopped.
+	 */
+	@Name("hr.fer.mv.nmm.SearchIteration")
+	@Label("Search Iteration")
+	@Category({ CATEGORY, "Engine" })
+	@Enabled(false)
+	@StackTrace(false)
+	public static final class SearchIteration extends Event {
+
+		@Label("Depth")
+		public int depth;
+
+		@Label("Score")
+		public int score;
+
+		@Label("Completed")
+		public boolean completed;
+
+		@Label("Nodes")
+		@Description("Nodes searched in this iteration")
+		public long nodes;
+
+		@Label("Table Probes")
+		public long tableProbes;
+
+		@Label("Table Hits")
+		public long tableHits;
+
+		@Label("Table Hit Rate")
+		@Percentage
+		public double tableHitRate;
+	}
+
+	/**
+	 * One frame painted by {@link GameBoardDisplay}.
+	 */
+	@Name("hr.fer.mv.nmm.PaintFrame")
+	@Label("Paint Frame")
+	@Category({ CATEGORY, "Display" })
+	@Enabled(false)
+	@StackTrace(false)
+	public static final class PaintFrame extends Event {
+
+		@Label("Active Animations")
+		@Description("Moving tokens and running text animations")
+		public int activeAnimations;
+
+		@Label("Width")
+		public int width;
+
+		@Label("Height")
+		public int height;
+	}
+
+}
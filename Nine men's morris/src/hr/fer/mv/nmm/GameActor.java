@@ -0,0 +1,216 @@
+package hr.fer.mv.nmm;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Plays a {@link GameLogic} game on its own thread. Other threads never touch
+ * the game, they send commands to the actor's inbox and receive immutable
+ * {@link GameSnapshot}s. Clicks on the board, moves of engines and timeouts of
+ * the clock are all processed one after another on the actor thread, so the
+ * event dispatch thread only draws and never waits for the rules.
+ * <p>
+ * The inbox is a linked queue for many producers and a single consumer. Adding
+ * a command swaps the tail of the queue with one atomic operation, only the
+ * actor thread reads from the head. When the inbox is empty the actor thread
+ * parks until the next command arrives.
+ * <p>
+ * After every command that changed the game a new snapshot is published to
+ * the listeners, on the actor thread. Listeners must not block, a display
+ * should store the snapshot and draw it on its own thread. The end of a game
+ * is reported as a separate event, the game then waits for a new game command.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameActor {
+
+	/**
+	 * Receives snapshots of the game. Methods are called on the actor thread.
+	 */
+	public interface Listener {
+		/**
+		 * Called after the game changed.
+		 *
+		 * @param snapshot new state of the game
+		 */
+		void stateChanged(GameSnapshot snapshot);
+
+		/**
+		 * Called once when a game ends, after {@link #stateChanged(GameSnapshot)}.
+		 *
+		 * @param snapshot final state of the game
+		 */
+		default void gameEnded(GameSnapshot snapshot) {
+		}
+	}
+
+	private static final class Node {
+		private final Consumer<GameLogic> command;
+		private volatile Node next;
+
+		private Node(Consumer<GameLogic> command) {
+			this.command = command;
+		}
+	}
+
+	private final GameLogic game;
+	private final Thread thread;
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+	// Producers append to the tail, only the actor thread moves the head
+	private final AtomicReference<Node> tail;
+	private Node head;
+	private volatile boolean waiting;
+	private volatile boolean running = true;
+	private volatile GameSnapshot snapshot;
+
+	/**
+	 * Creates an actor for the given game. The game must not be used by other
+	 * threads after {@link #start()} is called.
+	 *
+	 * @param game game played by this actor
+	 */
+	public GameActor(GameLogic game) {
+		this.game = game;
+		head = new Node(null);
+		tail = new AtomicReference<>(head);
+		snapshot = game.getSnapshot();
+		thread = new Thread(this::run, "Game actor");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts processing commands, commands sent before are processed first.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops the actor thread after the commands already in the inbox.
+	 */
+	public void stop() {
+		execute(g -> running = false);
+	}
+
+	public RuleSet getRules() {
+		return game.getRules();
+	}
+
+	/**
+	 * Returns the latest published snapshot, can be called from any thread.
+	 *
+	 * @return latest snapshot of the game
+	 */
+	public GameSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public boolean removeListener(Listener listener) {
+		return listeners.remove(listener);
+	}
+
+	/**
+	 * Sends a command that is run with the game on the actor thread. Can be
+	 * called from any thread, including the actor thread.
+	 *
+	 * @param command command to run
+	 */
+	public void execute(Consumer<GameLogic> command) {
+		Node node = new Node(command);
+		tail.getAndSet(node).next = node;
+		if (waiting)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Sends a click on the given point, see {@link GameLogic#pointClicked(MPoint)}.
+	 *
+	 * @param point point that was clicked
+	 */
+	public void pointClicked(MPoint point) {
+		execute(g -> g.pointClicked(point));
+	}
+
+	public void pointEntered(MPoint point) {
+		execute(g -> g.pointEntered(point));
+	}
+
+	public void pointExited(MPoint point) {
+		execute(g -> g.pointExited(point));
+	}
+
+	public void confirmAction() {
+		execute(GameLogic::confirmAction);
+	}
+
+	public void specialAction() {
+		execute(GameLogic::specialAction);
+	}
+
+	public void timeoutAction() {
+		execute(GameLogic::timeoutAction);
+	}
+
+	public void newGame() {
+		execute(GameLogic::newGame);
+	}
+
+	/**
+	 * Plays the move if the game is still in the given position, used by
+	 * players that chose the move while the game could change.
+	 *
+	 * @param move     encoded move, see {@link Move}
+	 * @param expected position the move was chosen for
+	 */
+	public void playMove(int move, Position expected) {
+		execute(g -> {
+			if (g.getPosition().equals(expected))
+				g.playMove(move);
+		});
+	}
+
+	private void run() {
+		while (running) {
+			Node next = head.next;
+			if (next == null) {
+				waiting = true;
+				// Checked again, a producer may have added a node before seeing the flag
+				if (head.next == null)
+					LockSupport.park(this);
+				waiting = false;
+				continue;
+			}
+			head = next;
+			boolean over = game.isGameOver();
+			try {
+				next.command.accept(game);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			if (game.getVersion() != snapshot.getVersion())
+				publish(!over && game.isGameOver());
+		}
+	}
+
+	private void publish(boolean ended) {
+		GameSnapshot s = game.getSnapshot();
+		snapshot = s;
+		for (Listener listener : listeners) {
+			try {
+				listener.stateChanged(s);
+				if (ended)
+					listener.gameEnded(s);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package hr.fer.mv.nmm;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Binary archive of finished games. Games are streamed to the archive as they
+ * finish, so a long tournament never keeps its games in memory. Any number of
+ * threads can write to one archive.
+ * <p>
+ * The file starts with the magic number {@link #MAGIC} and the format version,
+ * followed by records of the form <code>[length][type][payload][crc]</code>,
+ * where the crc covers the type and the payload. There are two types of
+ * records:
+ * <ul>
+ * <li>player - id of the player and his name
+ * <li>game - number of the game, ids of both players, index of the rule set
+ * (see {@link RuleSet#indexOf(RuleSet)}), result and all moves of the game,
+ * each stored in two bytes
+ * </ul>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameArchive implements Closeable {
+
+	public static final int MAGIC = 0x4E4D4D41;
+	public static final int VERSION = 1;
+	public static final byte PLAYER_RECORD = 1;
+	public static final byte GAME_RECORD = 2;
+	public static final byte RESULT_PLAYER1_WIN = 0;
+	public static final byte RESULT_PLAYER2_WIN = 1;
+	public static final byte RESULT_DRAW = 2;
+
+	private final DataOutputStream out;
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer record = ByteBuffer.allocate(1024);
+	private long games;
+
+	/**
+	 * Creates a new archive, an existing file is overwritten.
+	 *
+	 * @param file path of the archive
+	 * @throws IOException if the file can't be created
+	 */
+	public GameArchive(Path file) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	/**
+	 * Writes the name of the player with the given id.
+	 *
+	 * @param id   id used for the player in game records
+	 * @param name name of the player
+	 * @throws IOException if writing fails
+	 */
+	public synchronized void writePlayer(int id, String name) throws IOException {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ensureCapacity(7 + bytes.length);
+		record.clear();
+		record.put(PLAYER_RECORD);
+		record.putShort((short) id);
+		record.putInt(bytes.length);
+		record.put(bytes);
+		writeRecord();
+	}
+
+	/**
+	 * Writes a finished game.
+	 *
+	 * @param number  number of the game in the tournament
+	 * @param player1 id of the player that moved first
+	 * @param player2 id of the other player
+	 * @param rules   rules of the game
+	 * @param result  one of the result constants of this class
+	 * @param moves   moves of the game
+	 * @param count   number of moves
+	 * @throws IOException if writing fails
+	 */
+	public synchronized void writeGame(long number, int player1, int player2, RuleSet rules, byte result,
+			int[] moves, int count) throws IOException {
+		ensureCapacity(16 + 2 * count);
+		record.clear();
+		record.put(GAME_RECORD);
+		record.putLong(number);
+		record.putShort((short) player1);
+		record.putShort((short) player2);
+		record.put((byte) RuleSet.indexOf(rules));
+		record.put(result);
+		record.putShort((short) count);
+		for (int i = 0; i < count; i++)
+			record.putShort((short) moves[i]);
+		writeRecord();
+		games++;
+	}
+
+	public synchronized long getGameCount() {
+		return games;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	private void writeRecord() throws IOException {
+		crc.reset();
+		crc.update(record.array(), 0, record.position());
+		out.writeInt(record.position());
+		out.write(record.array(), 0, record.position());
+		out.writeInt((int) crc.getValue());
+	}
+
+	private void ensureCapacity(int size) {
+		if (record.capacity() < size)
+			record = ByteBuffer.allocate(Integer.highestOneBit(size) << 1);
+	}
+
+}
@@ -0,0 +1,199 @@
+package hr.fer.mv.nmm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the games of a {@link GameArchive} file in chunks that can be processed
+ * in parallel. The archive is memory-mapped and split into chunks at record
+ * boundaries, which are found by walking only the length fields of the
+ * records. Records of a chunk are checked against their crc and game records
+ * are decoded and given to a {@link GameVisitor}.
+ * <p>
+ * Damaged records and games with unknown rules are reported to the report
+ * stream and counted, the rest of the archive is still read. Different chunks
+ * can be read by different threads at the same time.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameArchiveReader implements Closeable {
+
+	public static final int HEADER_SIZE = 8;
+	// Length walking maps this much of the file at once
+	private static final long WINDOW_SIZE = 256L << 20;
+	private static final int MAX_RECORD_SIZE = 1 << 20;
+
+	/**
+	 * Receives the games of a chunk.
+	 */
+	public interface GameVisitor {
+		/**
+		 * Called for every game record of the chunk.
+		 *
+		 * @param number number of the game in the tournament
+		 * @param rules  rules of the game
+		 * @param result one of the result constants of {@link GameArchive}
+		 * @param moves  moves of the game, the array is reused for the next game
+		 * @param count  number of moves
+		 * @throws IOException if the game can't be processed
+		 */
+		void visitGame(long number, RuleSet rules, byte result, int[] moves, int count) throws IOException;
+	}
+
+	private final Path file;
+	private final FileChannel channel;
+	private final PrintStream report;
+	private final AtomicLong damagedRecords = new AtomicLong();
+	private final AtomicLong invalidGames = new AtomicLong();
+
+	/**
+	 * Opens an archive and checks its header.
+	 *
+	 * @param file   path of the archive
+	 * @param report stream problems are reported to
+	 * @throws IOException if the file can't be read or isn't an archive
+	 */
+	public GameArchiveReader(Path file, PrintStream report) throws IOException {
+		this.file = file;
+		this.report = report;
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(HEADER_SIZE, channel.size()));
+			if (header.capacity() < HEADER_SIZE || header.getInt(0) != GameArchive.MAGIC)
+				throw new IOException(file + " isn't a game archive");
+			if (header.getInt(4) != GameArchive.VERSION)
+				throw new IOException(file + " has unsupported version " + header.getInt(4));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public long getDamagedRecords() {
+		return damagedRecords.get();
+	}
+
+	/**
+	 * Returns the number of game records that were read but couldn't be given to
+	 * the visitor, because their rules are unknown or they have too many moves.
+	 *
+	 * @return number of invalid games
+	 */
+	public long getInvalidGames() {
+		return invalidGames.get();
+	}
+
+	/**
+	 * Walks the length fields and returns offsets of chunk boundaries, the last
+	 * one is the end of the last whole record. A damaged length ends the walk.
+	 *
+	 * @param chunks number of chunks the archive should be split into
+	 * @return offsets of chunk boundaries, chunk i is between offsets i and i + 1
+	 * @throws IOException if the file can't be read
+	 */
+	public long[] split(int chunks) throws IOException {
+		long size = channel.size();
+		long target = Math.max(1, (size - HEADER_SIZE) / chunks);
+		List<Long> bounds = new ArrayList<>();
+		bounds.add((long) HEADER_SIZE);
+		long position = HEADER_SIZE;
+		long chunkStart = position;
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		while (position + 4 <= size) {
+			if (window == null || position + 4 > windowStart + window.capacity()) {
+				windowStart = position;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_SIZE, size - windowStart));
+			}
+			int length = window.getInt((int) (position - windowStart));
+			long next = position + 4 + (long) length + 4;
+			if (length <= 0 || length > MAX_RECORD_SIZE || next > size) {
+				report.println(file + " @" + position + ": damaged record, rest of the file is skipped");
+				damagedRecords.incrementAndGet();
+				break;
+			}
+			position = next;
+			if (position - chunkStart >= target) {
+				bounds.add(position);
+				chunkStart = position;
+			}
+		}
+		if (bounds.get(bounds.size() - 1) != position)
+			bounds.add(position);
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = bounds.get(i);
+		return result;
+	}
+
+	/**
+	 * Reads the records of a chunk and gives its games to the visitor.
+	 *
+	 * @param start   offset of the first record of the chunk
+	 * @param end     offset after the last record of the chunk
+	 * @param visitor visitor of the games
+	 * @throws IOException if the file can't be read or the visitor fails
+	 */
+	public void readChunk(long start, long end, GameVisitor visitor) throws IOException {
+		MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		CRC32 crc = new CRC32();
+		byte[] record = new byte[256];
+		int[] moves = new int[Tournament.MAX_GAME_PLIES];
+		RuleSet[] variants = RuleSet.values();
+		int position = 0;
+		while (position < chunk.capacity()) {
+			int length = chunk.getInt(position);
+			if (record.length < length)
+				record = new byte[Integer.highestOneBit(length) << 1];
+			chunk.get(position + 4, record, 0, length);
+			crc.reset();
+			crc.update(record, 0, length);
+			long recordStart = start + position;
+			position += 4 + length + 4;
+			if ((int) crc.getValue() != chunk.getInt(position - 4)) {
+				report.println(file + " @" + recordStart + ": checksum mismatch");
+				damagedRecords.incrementAndGet();
+				continue;
+			}
+			if (record[0] != GameArchive.GAME_RECORD)
+				continue;
+			ByteBuffer buffer = ByteBuffer.wrap(record, 1, length - 1);
+			long number = buffer.getLong();
+			buffer.getShort();
+			buffer.getShort();
+			int rulesIndex = buffer.get();
+			byte result = buffer.get();
+			int count = buffer.getShort() & 0xFFFF;
+			if (rulesIndex < 0 || rulesIndex >= variants.length || count > moves.length) {
+				report.println(file + " game " + number + ": unknown rules or too many moves");
+				invalidGames.incrementAndGet();
+				continue;
+			}
+			for (int i = 0; i < count; i++)
+				moves[i] = buffer.getShort() & 0xFFFF;
+			visitor.visitGame(number, variants[rulesIndex], result, moves, count);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
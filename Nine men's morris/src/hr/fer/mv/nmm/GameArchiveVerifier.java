@@ -0,0 +1,179 @@
+package hr.fer.mv.nmm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that every game in one or more {@link GameArchive} files can be
+ * replayed under the current rules. Moves are replayed on a {@link Position},
+ * which follows the rules of {@link GameLogic}: removal of tokens in mills only
+ * when there are no free tokens, moves only to neighbouring points, flying
+ * with three tokens and the end conditions. The archived result has to match
+ * the way the replayed game ended.
+ * <p>
+ * Archives are split into chunks by a {@link GameArchiveReader} and the chunks
+ * are checked in parallel. The first illegal move of a game, a wrong result or
+ * a damaged record is reported as soon as it is found.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameArchiveVerifier {
+
+	public static final int CHUNKS_PER_THREAD = 4;
+
+	private final ForkJoinPool pool;
+	private final int threads;
+	private final PrintStream report;
+	private final AtomicLong games = new AtomicLong();
+	private final AtomicLong illegalGames = new AtomicLong();
+	private final AtomicLong damagedRecords = new AtomicLong();
+
+	/**
+	 * Creates a verifier.
+	 *
+	 * @param threads number of threads that check chunks
+	 * @param report  stream problems are reported to
+	 */
+	public GameArchiveVerifier(int threads, PrintStream report) {
+		this.threads = threads;
+		this.pool = new ForkJoinPool(threads);
+		this.report = report;
+	}
+
+	public long getGames() {
+		return games.get();
+	}
+
+	public long getIllegalGames() {
+		return illegalGames.get();
+	}
+
+	public long getDamagedRecords() {
+		return damagedRecords.get();
+	}
+
+	/**
+	 * Checks all games in the given archive.
+	 *
+	 * @param file path of the archive
+	 * @throws IOException if the file can't be read or isn't an archive
+	 */
+	public void verify(Path file) throws IOException {
+		try (GameArchiveReader reader = new GameArchiveReader(file, report)) {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			long[] bounds = reader.split(threads * CHUNKS_PER_THREAD);
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				long start = bounds[i];
+				long end = bounds[i + 1];
+				tasks.add(() -> {
+					reader.readChunk(start, end,
+							(number, rules, result, moves, count) -> verifyGame(number, rules, result, moves, count, file));
+					return null;
+				});
+			}
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+			// Games the reader couldn't decode can't be replayed
+			games.addAndGet(reader.getInvalidGames());
+			illegalGames.addAndGet(reader.getInvalidGames());
+			damagedRecords.addAndGet(reader.getDamagedRecords());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the threads of this verifier.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private void verifyGame(long number, RuleSet rules, byte result, int[] moves, int count, Path file) {
+		games.incrementAndGet();
+		Position p = new Position(rules);
+		PositionHistory history = new PositionHistory();
+		history.reset(p);
+		for (int i = 0; i < count; i++) {
+			if (p.isGameOver() || history.isDraw()) {
+				fail(file, number, "move " + (i + 1) + " is played after the game ended");
+				return;
+			}
+			if (!p.isLegal(moves[i])) {
+				fail(file, number, "move " + (i + 1) + " " + Move.toString(moves[i]) + " is illegal in " + p);
+				return;
+			}
+			p.makeMove(moves[i]);
+			history.push(p, moves[i]);
+		}
+
+		int[] legal = new int[Position.MAX_MOVES];
+		byte expected;
+		if (p.getWinner() == Position.PLAYER1)
+			expected = GameArchive.RESULT_PLAYER1_WIN;
+		else if (p.getWinner() == Position.PLAYER2)
+			expected = GameArchive.RESULT_PLAYER2_WIN;
+		else if (history.isDraw() || count >= Tournament.MAX_GAME_PLIES)
+			expected = GameArchive.RESULT_DRAW;
+		else if (p.generateMoves(legal) == 0)
+			// A player without moves loses
+			expected = p.getSideToMove() == Position.PLAYER1 ? GameArchive.RESULT_PLAYER2_WIN
+					: GameArchive.RESULT_PLAYER1_WIN;
+		else {
+			fail(file, number, "game ends after move " + count + " but isn't over");
+			return;
+		}
+		if (expected != result)
+			fail(file, number, "result " + result + " doesn't match the replayed result " + expected);
+	}
+
+	private void fail(Path file, long number, String message) {
+		illegalGames.incrementAndGet();
+		report.println(file + " game " + number + ": " + message);
+	}
+
+	/**
+	 * Verifies the given archives and prints the throughput.
+	 * <p>
+	 * Arguments: <code>[-threads n] archive...</code>
+	 *
+	 * @param args command line arguments
+	 * @throws IOException if an archive can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Path> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else
+				files.add(Paths.get(args[i]));
+		}
+		if (files.isEmpty()) {
+			System.out.println("Usage: GameArchiveVerifier [-threads n] archive...");
+			return;
+		}
+		GameArchiveVerifier verifier = new GameArchiveVerifier(threads, System.out);
+		long start = System.nanoTime();
+		for (Path file : files)
+			verifier.verify(file);
+		long time = System.nanoTime() - start;
+		verifier.shutdown();
+		System.out.println(verifier.getGames() + " games verified on " + threads + " threads in " + time / 1_000_000
+				+ " ms (" + verifier.getGames() * 1_000_000_000L / Math.max(1, time) + " games/s), "
+				+ verifier.getIllegalGames() + " illegal, " + verifier.getDamagedRecords() + " damaged records");
+	}
+
+}
@@ -1,33 +1,49 @@
 package hr.fer.mv.nmm;
 
 import java.awt.Color;
-import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
 import java.awt.Point;
+import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 /**
  * Class made to support user interaction by displaying the current state of the
  * board and additional data that guides the player. It's responsible for
- * parsing player mouse events. These events are then used to interact with
- * {@link GameLogic} which allows the game to advance.
+ * parsing player mouse events. These events are sent to a {@link GameActor}
+ * which plays the game on its own thread.
+ * <p>
+ * The display draws the latest {@link GameSnapshot} published by the actor.
+ * Snapshots arrive on the actor thread, only the newest one is kept and it is
+ * applied on the event dispatch thread, so a busy actor never slows painting
+ * and painting never slows the game.
  * <p>
  * If background or token images are null the board and tokens are drawn using
  * {@link Graphics}. Default font is used for fonts that are null.
  * <p>
+ * The board is drawn as the largest square that fits into the component, in
+ * pixels of the screen, so it stays sharp on screens that scale the interface.
+ * Images are scaled once for every size of the board (see
+ * {@link BoardPainterCache}), resizing the window doesn't make painting slower.
+ * <p>
  * Display setting can be found in {@link Dependencies} class.
  * 
  * @author Matija Videkovi
@@ -40,20 +56,46 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 	private Image backgroundImage;
 	private Image[] tokenImages;
 	private MPoint lastHoveredPoint;
-	private TokenSkin[][] board;
 	private BlockingQueue<TokenTranslate> tokenTranslateQueue;
-	private MPoint focusedPoint;
+	// Newest published snapshot and the one that is drawn
+	private final AtomicReference<GameSnapshot> publishedSnapshot = new AtomicReference<>();
+	private final AtomicBoolean applyPending = new AtomicBoolean();
+	private GameSnapshot snapshot;
+	// Points whose tokens are still moving there
+	private int translatedPoints;
+	private int hintMove = Move.NULL;
 	private String playerDirectionText = "";
 	private String toolTipText = "";
 	private Point lastMouseReleaseLocation;
 	private Point toolTipTextLocation;
-	private Rectangle2D toolTipTextDimension;
+	// Texts are drawn into images when they change, drawing text on every frame
+	// makes Java2D allocate
+	private BufferedImage playerDirectionTextSprite;
+	private BufferedImage toolTipTextSprite;
+	private int playerDirectionTextAscent;
+	private int toolTipTextAscent;
+	private double textSpriteScale;
+	// Board scale the direction text sprite was drawn for
+	private double playerDirectionTextScale;
+	// Direction text moves in coordinates of Dependencies.BOARD_SIZE
 	private AnimationTranslate playerDirectionTextAnimation;
 	private AnimationCounter toolTipTextTimer;
 	private Font playerDirectionTextFont;
 	private Font toolTipTextFont;
 	private JLabel[] tokenCountLabels;
-	private GameLogic gameLogic;
+	private GameActor game;
+	private BoardTopology topology = Dependencies.RULE_SET.getTopology();
+	// Painters with scaled images for recently used sizes of the board
+	private BoardPainterCache painters;
+	// Painter for the current size, the board is drawn in device pixels
+	private BoardPainter painter;
+	private GraphicsConfiguration deviceConfiguration;
+	private double deviceScale = 1;
+	private int boardX;
+	private int boardY;
+	// Size of the board relative to Dependencies.BOARD_SIZE
+	private double boardScale = 1;
+	private ActionListener firstPaintListener;
 
 	/**
 	 * Creates a new instance of this class. tokenImages and tokenCountLabels must
@@ -65,11 +107,11 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 	 * @param tokenCountLabels        labels for displaying current token situation
 	 * @param playerDirectionTextFont font used for the player direction texts
 	 * @param toolTipTextFont         font used for the tool tip texts
-	 * @param gameLogic               {@link GameLogic} instance used for advancing
-	 *                                the game.
+	 * @param game                    {@link GameActor} playing the game that is
+	 *                                displayed
 	 */
 	public GameBoardDisplay(Image backgroundImage, Image[] tokenImages, JLabel[] tokenCountLabels,
-			Font playerDirectionTextFont, Font toolTipTextFont, GameLogic gameLogic) {
+			Font playerDirectionTextFont, Font toolTipTextFont, GameActor game) {
 		super();
 		addMouseListener(this);
 		addMouseMotionListener(this);
@@ -83,7 +125,7 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 		this.backgroundImage = backgroundImage;
 		this.playerDirectionTextFont = playerDirectionTextFont;
 		this.toolTipTextFont = toolTipTextFont;
-		this.gameLogic = gameLogic;
+		updatePainter();
 
 		if (playerDirectionTextFont == null)
 			playerDirectionTextFont = new Font(null, Font.PLAIN, (int) Dependencies.PLAYER_DIRECTION_TEXT_SIZE);
@@ -93,16 +135,11 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 		tokenTranslateQueue = new ArrayBlockingQueue<>(10);
 		playerDirectionTextAnimation = new AnimationTranslate(
 				Dependencies.PLAYER_DIRECTION_TEXT_TRANSLATE_TIME_MILISECONDS / Dependencies.ANIMATION_STEP_MILISECONDS,
-				new Point(Dependencies.FRAME_SIZE.width / 2, Dependencies.FRAME_SIZE.height / 2),
+				new Point(Dependencies.BOARD_SIZE.width / 2, Dependencies.BOARD_SIZE.height / 2),
 				Dependencies.PLAYER_DIRECTION_TEXT_LOCATION);
 		toolTipTextTimer = new AnimationCounter(
 				Dependencies.TOOL_TIP_TEXT_TIME_MILISECONDS / Dependencies.ANIMATION_STEP_MILISECONDS);
 
-		board = new TokenSkin[Dependencies.NUMBER_OF_SQARES][Dependencies.NUMBER_OF_POINTS_PER_SQARE];
-		for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++)
-				board[i][j] = TokenSkin.NO_TOKEN;
-
 		toolTipTextLocation = new Point(0, 0);
 
 		// Swing timer events get executed on the event dispatch thread...
@@ -131,6 +168,7 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 		timer.setRepeats(true);
 		timer.setCoalesce(false);
 		timer.start();
+		setGame(game);
 	}
 
 	public GameBoardDisplay(Image backgroundImage, Image[] tokenImages, JLabel[] tokenCountLabels,
@@ -140,49 +178,93 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 
 	@Override
 	protected void paintComponent(Graphics g) {
+		FlightEvents.PaintFrame event = new FlightEvents.PaintFrame();
+		event.begin();
 		super.paintComponent(g);
-		drawBackground(g);
-		drawBoard(g);
-		drawTranslatedTokens(g);
+		// Nothing below allocates, the transform is changed in place and restored
+		Graphics2D g2 = (Graphics2D) g;
+		prepareBoard(g2);
+		double offsetX = Math.round(boardX * deviceScale) / deviceScale;
+		double offsetY = Math.round(boardY * deviceScale) / deviceScale;
+		g2.translate(offsetX, offsetY);
+		if (deviceScale != 1)
+			g2.scale(1 / deviceScale, 1 / deviceScale);
+		drawBackground(g2);
+		drawHighlights(g2);
+		drawBoard(g2);
+		drawTranslatedTokens(g2);
+		drawHint(g2);
+		if (deviceScale != 1)
+			g2.scale(deviceScale, deviceScale);
+		g2.translate(-offsetX, -offsetY);
+		if (textSpriteScale != deviceScale) {
+			textSpriteScale = deviceScale;
+			playerDirectionTextSprite = null;
+			toolTipTextSprite = null;
+		}
 		drawPlayerDirectionText(g);
 		if (!toolTipTextTimer.stepsCompleted())
 			drawToolTipText(g);
+		event.end();
+		if (event.shouldCommit()) {
+			event.activeAnimations = activeAnimations();
+			event.width = getWidth();
+			event.height = getHeight();
+			event.commit();
+		}
+		if (firstPaintListener != null) {
+			ActionListener al = firstPaintListener;
+			firstPaintListener = null;
+			al.actionPerformed(new ActionEvent(this, 0, ""));
+		}
 	}
 
-	private void drawBackground(Graphics g) {
-		if (backgroundImage != null)
-			g.drawImage(backgroundImage, 0, 0, null);
-		else {
-			for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-				for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
-					for (Mill m : new MPoint(i, j).getMills()) {
-						Point p1 = Dependencies.getPointCoordinate(m.p1);
-						Point p3 = Dependencies.getPointCoordinate(m.p3);
-						g.drawLine(p1.x, p1.y, p3.x, p3.y);
-					}
-				}
+	// Counts moving tokens and text animations that are still running
+	private int activeAnimations() {
+		int active = tokenTranslateQueue.size();
+		if (!playerDirectionTextAnimation.stepsCompleted())
+			active++;
+		if (!toolTipTextTimer.stepsCompleted())
+			active++;
+		return active;
+	}
+
+	// Picks the painter for the current size of the component and scaling of the
+	// screen, so one pixel of the painter is one pixel of the screen and images
+	// are drawn without scaling. Scaling of the screen is only read again when
+	// the component is moved to a different screen
+	private void prepareBoard(Graphics2D g) {
+		GraphicsConfiguration configuration = g.getDeviceConfiguration();
+		if (configuration != deviceConfiguration) {
+			deviceConfiguration = configuration;
+			deviceScale = configuration.getDefaultTransform().getScaleX();
 		}
+		int size = Math.min(getWidth(), getHeight());
+		boardX = (getWidth() - size) / 2;
+		boardY = (getHeight() - size) / 2;
+		boardScale = (double) size / Dependencies.BOARD_SIZE.width;
+		int deviceSize = (int) Math.round(size * deviceScale);
+		if (painter == null || painter.getWidth() != deviceSize)
+			painter = painters.get(deviceSize);
+	}
+
+	private void drawBackground(Graphics g) {
+		painter.paintBackground(g);
 	}
 
 	private void drawBoard(Graphics g) {
-		for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
-				double scaleFactor = (focusedPoint != null && i == focusedPoint.square && j == focusedPoint.place)
-						? Dependencies.FOCUS_SCALE_FACTOR
-						: 1;
-				TokenSkin ts = board[i][j];
-				if (ts == TokenSkin.BLACK_TOKEN)
-					drawTokenOnPoint(Dependencies.getPointCoordinate(i, j), scaleFactor, g, ts);
-				else if (ts == TokenSkin.WHITE_TOKEN)
-					drawTokenOnPoint(Dependencies.getPointCoordinate(i, j), scaleFactor, g, ts);
-			}
+		if (snapshot == null)
+			return;
+		painter.paintTokens(g, snapshot.getTokens(Position.PLAYER1) & ~translatedPoints,
+				snapshot.getTokens(Position.PLAYER2) & ~translatedPoints, snapshot.getSelectedPoint());
 	}
 
 	private void drawTranslatedTokens(Graphics g) {
 		try {
 			for (int i = 0; i < tokenTranslateQueue.size(); i++) {
 				TokenTranslate tT = tokenTranslateQueue.remove();
-				drawTokenOnPoint(tT.getCurrentPoint(), Dependencies.FOCUS_SCALE_FACTOR, g, tT.getTokenSkin());
+				Point p = tT.getCurrentPoint();
+				drawToken(painter.scale(p.x), painter.scale(p.y), true, g, tT.getTokenSkin());
 				tokenTranslateQueue.add(tT);
 			}
 		} catch (Exception e1) {
@@ -190,155 +272,243 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 		}
 	}
 
-	private void drawTokenOnPoint(Point p, double scaleFactor, Graphics g, TokenSkin ts) {
+	private void drawToken(int x, int y, boolean focused, Graphics g, TokenSkin ts) {
 		if (ts == TokenSkin.BLACK_TOKEN)
-			if (tokenImages[0] != null)
-				drawImageOnPoint(p, scaleFactor, g, tokenImages[0]);
-			else
-				drawOvalOnPoint(p, scaleFactor, g, Color.black);
+			painter.paintToken(g, x, y, Position.PLAYER1, focused);
 		else if (ts == TokenSkin.WHITE_TOKEN)
-			if (tokenImages[1] != null)
-				drawImageOnPoint(p, scaleFactor, g, tokenImages[1]);
-			else
-				drawOvalOnPoint(p, scaleFactor, g, Color.white);
+			painter.paintToken(g, x, y, Position.PLAYER2, focused);
 	}
 
-	private void drawImageOnPoint(Point p, double scaleFactor, Graphics g, Image img) {
-		int width = (int) (img.getWidth(null) * scaleFactor);
-		int height = (int) (img.getHeight(null) * scaleFactor);
-		int x = p.x - width / 2;
-		int y = p.y - height / 2;
-		g.drawImage(img, x, y, width, height, null);
+	private void drawHighlights(Graphics g) {
+		if (snapshot != null)
+			painter.paintHighlights(g, snapshot.getHighlightedPoints());
 	}
 
-	private void drawOvalOnPoint(Point p, double scaleFactor, Graphics g, Color c) {
-		int width = (int) (Dependencies.POINT_SIZE.getWidth() * scaleFactor);
-		int height = (int) (Dependencies.POINT_SIZE.getHeight() * scaleFactor);
-		int x = p.x - width / 2;
-		int y = p.y - height / 2;
-		Color defaultColor = g.getColor();
-		g.setColor(c);
-		g.fillOval(x, y, width, height);
-		g.setColor(defaultColor);
+	private void drawHint(Graphics g) {
+		painter.paintHint(g, hintMove);
 	}
 
+	// Text is placed and sized relative to the board, so it keeps its place on
+	// the board when the window is resized
 	private void drawPlayerDirectionText(Graphics g) {
+		if (playerDirectionTextSprite == null || playerDirectionTextScale != boardScale) {
+			playerDirectionTextScale = boardScale;
+			Font font = deviceFont(playerDirectionTextFont);
+			font = font.deriveFont((float) (font.getSize2D() * boardScale));
+			playerDirectionTextAscent = getFontMetrics(font).getAscent();
+			playerDirectionTextSprite = textSprite(playerDirectionText, font, null);
+		}
 		Point p = playerDirectionTextAnimation.getCurrentPoint();
-		Font defaultFont = g.getFont();
-		g.setFont(playerDirectionTextFont);
-		g.drawString(playerDirectionText, p.x, p.y);
-		g.setFont(defaultFont);
+		drawTextSprite(g, playerDirectionTextSprite, boardX + p.x * boardScale,
+				boardY + p.y * boardScale - playerDirectionTextAscent / textSpriteScale);
 	}
 
 	private void drawToolTipText(Graphics g) {
-		Font defaultFont = g.getFont();
-		Color defaultColor = g.getColor();
-		g.setFont(toolTipTextFont);
-		if (toolTipTextDimension == null)
-			toolTipTextDimension = g.getFontMetrics().getStringBounds(toolTipText, g);
-		int width = (int) toolTipTextDimension.getWidth();
-		int height = (int) toolTipTextDimension.getHeight();
+		if (toolTipTextSprite == null) {
+			Font font = deviceFont(toolTipTextFont);
+			toolTipTextAscent = getFontMetrics(font).getAscent();
+			toolTipTextSprite = textSprite(toolTipText, font, Color.white);
+		}
+		int width = (int) Math.ceil(toolTipTextSprite.getWidth() / textSpriteScale);
 		int x = toolTipTextLocation.x;
-		int y = toolTipTextLocation.y;
 		// magical number 20, had to add it because last two letters get cut off
-		if (x + width > Dependencies.FRAME_SIZE.getWidth())
-			x -= (x + width) - Dependencies.FRAME_SIZE.getWidth() + 20;
-		g.setColor(Color.white);
-		g.fillRect(x, y - height, width, height);
-		g.setColor(defaultColor);
-		g.drawString(toolTipText, x, y);
-		g.setFont(defaultFont);
-	}
-	
+		if (x + width > getWidth())
+			x -= (x + width) - getWidth() + 20;
+		drawTextSprite(g, toolTipTextSprite, x, toolTipTextLocation.y - toolTipTextAscent / textSpriteScale);
+	}
+
+	// Draws a sprite made in device pixels with its top left corner at the given
+	// location
+	private void drawTextSprite(Graphics g, BufferedImage sprite, double x, double y) {
+		Graphics2D g2 = (Graphics2D) g;
+		g2.translate(x, y);
+		if (textSpriteScale != 1)
+			g2.scale(1 / textSpriteScale, 1 / textSpriteScale);
+		g2.drawImage(sprite, 0, 0, null);
+		if (textSpriteScale != 1)
+			g2.scale(textSpriteScale, textSpriteScale);
+		g2.translate(-x, -y);
+	}
+
+	// Returns the font scaled to device pixels, or the default font if it's null
+	private Font deviceFont(Font font) {
+		if (font == null)
+			font = getFont() != null ? getFont() : new Font(null, Font.PLAIN, 12);
+		return textSpriteScale == 1 ? font : font.deriveFont((float) (font.getSize2D() * textSpriteScale));
+	}
+
+	// Draws the text into a new image, which is painted instead of the text
+	private BufferedImage textSprite(String text, Font font, Color background) {
+		FontMetrics metrics = getFontMetrics(font);
+		BufferedImage sprite = new BufferedImage(Math.max(1, metrics.stringWidth(text)),
+				Math.max(1, metrics.getHeight()), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = sprite.createGraphics();
+		if (background != null) {
+			g.setColor(background);
+			g.fillRect(0, 0, sprite.getWidth(), sprite.getHeight());
+		}
+		g.setFont(font);
+		g.setColor(getForeground() != null ? getForeground() : Color.black);
+		g.drawString(text, 0, metrics.getAscent());
+		g.dispose();
+		return sprite;
+	}
+
 	/**
-	 * Sets the {@link GameLogic} instance used for advancing the game.
+	 * Sets the {@link GameActor} whose game is displayed and which receives the
+	 * players actions.
 	 * 
-	 * @param gameLogic {@link GameLogic} instance
+	 * @param game {@link GameActor} instance, can be null
 	 */
-	public void setGameLogic(GameLogic gameLogic) {
-		this.gameLogic = gameLogic;
+	public void setGame(GameActor game) {
+		this.game = game;
+		if (game == null)
+			return;
+		topology = game.getRules().getTopology();
+		updatePainter();
+		game.addListener(this::snapshotPublished);
+		snapshotPublished(game.getSnapshot());
+	}
+
+	// Called on the actor thread, only the newest snapshot is applied on the
+	// event dispatch thread
+	private void snapshotPublished(GameSnapshot s) {
+		publishedSnapshot.set(s);
+		if (applyPending.compareAndSet(false, true))
+			SwingUtilities.invokeLater(this::applySnapshot);
+	}
+
+	private void applySnapshot() {
+		applyPending.set(false);
+		GameSnapshot s = publishedSnapshot.get();
+		GameSnapshot old = snapshot;
+		if (s == null || s == old)
+			return;
+		snapshot = s;
+		int move = s.getLastMove();
+		if (old != null && s.getMoveNumber() != old.getMoveNumber() && move != Move.NULL
+				&& Move.from(move) != Move.NONE) {
+			// Token is hidden on its new point until it gets there
+			int to = Move.to(move);
+			int bit = 1 << to;
+			translatedPoints |= bit;
+			translateToken(pointOf(Move.from(move)), pointOf(to),
+					(s.getTokens(Position.PLAYER1) & bit) != 0 ? TokenSkin.BLACK_TOKEN : TokenSkin.WHITE_TOKEN,
+					e -> translatedPoints &= ~bit);
+		}
+		if (old == null || s.getDirectionTextNumber() != old.getDirectionTextNumber())
+			updatePlayerDirectionText(s.getDirectionText());
+		if (old != null && s.getToolTipTextNumber() != old.getToolTipTextNumber())
+			showToolTipText(s.getToolTipText());
+		updateTokenCounter(s.getTokensToPlace(Position.PLAYER1), TokenSkin.BLACK_TOKEN);
+		updateTokenCounter(s.getTokensToPlace(Position.PLAYER2), TokenSkin.WHITE_TOKEN);
+		repaint();
+	}
+
+	private static MPoint pointOf(int index) {
+		return new MPoint(Position.squareOf(index), Position.placeOf(index));
 	}
 
 	/**
-	 * Set a token on the given point on the board. tokenSkin is used for the tokens
-	 * appearance.
+	 * Returns the snapshot that is currently drawn.
 	 * 
-	 * @param point     to set the token on
-	 * @param tokenSkin to be used for the appearance of the token
+	 * @return drawn snapshot, null before the first one arrives
 	 */
-	public void setPointToken(MPoint point, TokenSkin tokenSkin) {
-		board[point.square][point.place] = tokenSkin;
+	public GameSnapshot getSnapshot() {
+		return snapshot;
 	}
 
-	//
+	private void updatePainter() {
+		if (painters == null)
+			painters = new BoardPainterCache(Dependencies.PAINTER_CACHE_SIZE, topology, backgroundImage, tokenImages);
+		else
+			painters.update(topology, backgroundImage, tokenImages);
+		painter = null;
+		repaint();
+	}
 
 	/**
-	 * Sets a focus point which focuses any token on it.
+	 * Sets an {@link ActionListener} which gets executed once, after the board has
+	 * been painted for the first time.
 	 * 
-	 * @param point for focusing tokens
+	 * @param al listener to be executed
 	 */
-	public void setFocusPoint(MPoint point) {
-		focusedPoint = point;
+	public void setFirstPaintListener(ActionListener al) {
+		firstPaintListener = al;
 	}
 
 	/**
-	 * Disables focus point for tokens.
+	 * Sets the image drawn as the background of the board. If the image is null
+	 * the board is drawn using {@link Graphics}.
+	 * 
+	 * @param backgroundImage image to be drawn as the background of the board
 	 */
-	public void clearFocusPoint() {
-		focusedPoint = null;
+	public void setBackgroundImage(Image backgroundImage) {
+		this.backgroundImage = backgroundImage;
+		updatePainter();
 	}
 
 	/**
-	 * Starts an animation which translates a token with the given skin. Start of
-	 * the animation is at point1 and end at point2. After the transition has ended
-	 * there is no visible token as it disappears with the animation.
+	 * Sets the images used to distinct each players token. Must have the same
+	 * number of elements as the token count labels. Tokens with a null image are
+	 * drawn using {@link Graphics}.
 	 * 
-	 * @param point1    start point for the animation
-	 * @param point2    end point for the animation
-	 * @param tokenSkin used for the translated token
+	 * @param tokenImages images used to distinct each players token
 	 */
-	public void translateToken(MPoint point1, MPoint point2, TokenSkin tokenSkin) {
-		try {
-			tokenTranslateQueue.put(new TokenTranslate(
-					(int) Dependencies.TOKEN_TRANSLATE_TIME_MILISECONDS / Dependencies.ANIMATION_STEP_MILISECONDS,
-					Dependencies.getPointCoordinate(point1), Dependencies.getPointCoordinate(point2), tokenSkin));
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+	public void setTokenImages(Image[] tokenImages) {
+		if (tokenImages.length != this.tokenImages.length)
+			throw new IllegalArgumentException("tokenImages must contain " + this.tokenImages.length + " elements");
+		this.tokenImages = new Image[tokenImages.length];
+		System.arraycopy(tokenImages, 0, this.tokenImages, 0, tokenImages.length);
+		updatePainter();
 	}
 
 	/**
-	 * Starts an animation which translates a token with the given skin. Start of
-	 * the animation is at point1 and end at point2. After the transition has ended
-	 * there is no visible token as it disappears with the animation. When the
-	 * animation ends onEndAction gets executed.
+	 * Sets fonts used for texts drawn on the board. Default font is used for fonts
+	 * that are null.
 	 * 
-	 * @param point1      start point for the animation
-	 * @param point2      end point for the animation
-	 * @param tokenSkin   token skin used for the translated token
-	 * @param onEndAction {@link ActionListener} that gets executed on animation end
+	 * @param playerDirectionTextFont font used for the player direction texts
+	 * @param toolTipTextFont         font used for the tool tip texts
 	 */
-	public void translateToken(MPoint point1, MPoint point2, TokenSkin tokenSkin, ActionListener onEndAction) {
-		try {
-			TokenTranslate tT = new TokenTranslate(
-					(int) Dependencies.TOKEN_TRANSLATE_TIME_MILISECONDS / Dependencies.ANIMATION_STEP_MILISECONDS,
-					Dependencies.getPointCoordinate(point1), Dependencies.getPointCoordinate(point2), tokenSkin);
-			tT.addActionListener(onEndAction);
-			tokenTranslateQueue.put(tT);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+	public void setFonts(Font playerDirectionTextFont, Font toolTipTextFont) {
+		this.playerDirectionTextFont = playerDirectionTextFont;
+		this.toolTipTextFont = toolTipTextFont;
+		playerDirectionTextSprite = null;
+		toolTipTextSprite = null;
+		repaint();
 	}
-	// Info panel
 
 	/**
-	 * Updates the token counter for the tokens with the given skin with the given
-	 * value.
+	 * Highlights the points of the given move as a hint for the current player.
 	 * 
-	 * @param tokensLeft number that the token counter is set to
-	 * @param tokenSkin  skin for which the counter is set
+	 * @param move move encoded as described in {@link Move}, {@link Move#NULL}
+	 *             removes the hint
 	 */
-	public void updateTokenCounter(int tokensLeft, TokenSkin tokenSkin) {
+	public void setHintMove(int move) {
+		hintMove = move;
+	}
+
+	/**
+	 * Removes the hint highlight from the board.
+	 */
+	public void clearHintMove() {
+		hintMove = Move.NULL;
+	}
+
+	// Starts an animation which translates a token with the given skin, the token
+	// disappears when it ends and onEndAction gets executed
+	private void translateToken(MPoint point1, MPoint point2, TokenSkin tokenSkin, ActionListener onEndAction) {
+		TokenTranslate tT = new TokenTranslate(
+				(int) Dependencies.TOKEN_TRANSLATE_TIME_MILISECONDS / Dependencies.ANIMATION_STEP_MILISECONDS,
+				Dependencies.getPointCoordinate(point1), Dependencies.getPointCoordinate(point2), tokenSkin);
+		tT.addActionListener(onEndAction);
+		// Moves that come faster than they can be animated are shown right away
+		if (!tokenTranslateQueue.offer(tT))
+			onEndAction.actionPerformed(new ActionEvent(this, 0, ""));
+	}
+	// Info panel
+
+	private void updateTokenCounter(int tokensLeft, TokenSkin tokenSkin) {
 		if (tokenSkin == TokenSkin.BLACK_TOKEN)
 			tokenCountLabels[0].setText("" + tokensLeft);
 		else if (tokenSkin == TokenSkin.WHITE_TOKEN)
@@ -360,27 +530,20 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 			System.exit(0);
 	}
 
-	/**
-	 * Update the text which is used to indicate the players next step in the game.
-	 * 
-	 * @param text text containing information about the players next move.
-	 */
-	public void updatePlayerDirectionText(String text) {
+	private void updatePlayerDirectionText(String text) {
 		playerDirectionText = text;
+		playerDirectionTextSprite = null;
 		if (Dependencies.PLAYER_DIRECTION_TEXT_FLYING)
 			playerDirectionTextAnimation.reset();
 	}
 
-	/**
-	 * Shows a tool tip text which helps the player complete his current move. Used
-	 * when the player is trying to do illegal moves.
-	 * 
-	 * @param text text to be displayed as a tool tip
-	 */
-	public void showToolTipText(String text) {
+	// Shows a tool tip text which helps the player complete his current move, next
+	// to the last click
+	private void showToolTipText(String text) {
 		toolTipText = text;
-		toolTipTextDimension = null;
-		toolTipTextLocation = lastMouseReleaseLocation.getLocation();
+		toolTipTextSprite = null;
+		if (lastMouseReleaseLocation != null)
+			toolTipTextLocation.setLocation(lastMouseReleaseLocation);
 		toolTipTextTimer.reset();
 	}
 
@@ -394,8 +557,12 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 	@Override
 	public void mouseMoved(MouseEvent mouseEvent) {
 		MPoint p = eventToPoint(mouseEvent.getPoint());
-		if (p != null && !p.equals(lastHoveredPoint) && gameLogic != null)
-			gameLogic.pointEntered(p);
+		if (game != null && (p == null ? lastHoveredPoint != null : !p.equals(lastHoveredPoint))) {
+			if (lastHoveredPoint != null)
+				game.pointExited(lastHoveredPoint);
+			if (p != null)
+				game.pointEntered(p);
+		}
 		lastHoveredPoint = p;
 	}
 
@@ -410,7 +577,9 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 
 	@Override
 	public void mouseExited(MouseEvent arg0) {
-
+		if (lastHoveredPoint != null && game != null)
+			game.pointExited(lastHoveredPoint);
+		lastHoveredPoint = null;
 	}
 
 	private MPoint mousePressPoint;
@@ -423,20 +592,15 @@ public class GameBoardDisplay extends JComponent implements MouseListener, Mouse
 	@Override
 	public void mouseReleased(MouseEvent mouseEvent) {
 		lastMouseReleaseLocation = mouseEvent.getPoint();
-		if (mousePressPoint != null && mousePressPoint.equals(eventToPoint(mouseEvent.getPoint())) && gameLogic != null)
-			gameLogic.pointClicked(mousePressPoint);
+		if (mousePressPoint != null && mousePressPoint.equals(eventToPoint(mouseEvent.getPoint())) && game != null)
+			game.pointClicked(mousePressPoint);
 	}
 
 	private MPoint eventToPoint(Point event) {
-		for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
-				Point point = Dependencies.getPointCoordinate(i, j);
-				Dimension size = Dependencies.POINT_SIZE;
-				if ((event.x > point.x - size.width / 2 && event.x < point.x + size.width / 2)
-						&& (event.y > point.y - size.height / 2 && event.y < point.y + size.height / 2)) {
-					return new MPoint(i, j);
-				}
-			}
-		return null;
+		if (painter == null)
+			return null;
+		int index = painter.pointAt((int) Math.round((event.x - boardX) * deviceScale),
+				(int) Math.round((event.y - boardY) * deviceScale));
+		return index < 0 ? null : new MPoint(Position.squareOf(index), Position.placeOf(index));
 	}
-}
+}
\ No newline at end of file
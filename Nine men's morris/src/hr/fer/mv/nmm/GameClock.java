@@ -0,0 +1,176 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Chess clock for one game. Only the clock of the player on turn runs, when he
+ * ends his turn the clock is switched to his opponent. The clock doesn't use a
+ * thread of its own, it schedules a single timer on a shared {@link TimerWheel}
+ * for the moment the running clock would run out, so any number of games can be
+ * timed at once.
+ * <p>
+ * When time runs out the clock is stopped and the listener is called on the
+ * wheel thread. Methods of this class can be called from any thread.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameClock {
+
+	public static final int NO_PLAYER = -1;
+
+	/**
+	 * Listener called when a players time runs out.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the timer wheel thread when the given players time has run out.
+		 *
+		 * @param clock  clock that expired
+		 * @param player index of the player, see {@link Position#PLAYER1}
+		 */
+		void timeExpired(GameClock clock, int player);
+	}
+
+	private final TimeControl timeControl;
+	private final TimerWheel wheel;
+	private Listener listener;
+	private final long[] remaining = new long[2];
+	private int running = NO_PLAYER;
+	private long turnStartNanos;
+	private TimerWheel.Timer timer;
+	private int expiredPlayer = NO_PLAYER;
+
+	/**
+	 * Creates a stopped clock.
+	 *
+	 * @param timeControl time limits of the game
+	 * @param wheel       wheel used for timing the running clock
+	 */
+	public GameClock(TimeControl timeControl, TimerWheel wheel) {
+		this.timeControl = timeControl;
+		this.wheel = wheel;
+		reset();
+	}
+
+	public TimeControl getTimeControl() {
+		return timeControl;
+	}
+
+	public synchronized void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Stops the clock and gives both players the base time.
+	 */
+	public synchronized void reset() {
+		stop();
+		remaining[0] = timeControl.getBaseMiliseconds();
+		remaining[1] = timeControl.getBaseMiliseconds();
+		expiredPlayer = NO_PLAYER;
+	}
+
+	/**
+	 * Starts the clock of the given player.
+	 *
+	 * @param player index of the player whose turn it is
+	 */
+	public synchronized void start(int player) {
+		if (expiredPlayer != NO_PLAYER)
+			return;
+		stop();
+		running = player;
+		turnStartNanos = System.nanoTime();
+		long delay = remaining[player];
+		if (timeControl.hasMoveLimit())
+			delay = Math.min(delay, timeControl.getMoveLimitMiliseconds());
+		timer = wheel.schedule(() -> expire(player), delay);
+	}
+
+	/**
+	 * Ends the turn of the running player, adds the increment to his time and
+	 * starts the clock of the opponent.
+	 *
+	 * @return false if the running player ran out of time before ending the turn
+	 */
+	public synchronized boolean switchTurn() {
+		if (running == NO_PLAYER)
+			return expiredPlayer == NO_PLAYER;
+		int player = running;
+		if (!stopRunning()) {
+			markExpired(player);
+			return false;
+		}
+		remaining[player] += timeControl.getIncrementMiliseconds();
+		start(1 - player);
+		return true;
+	}
+
+	/**
+	 * Stops the running clock without ending the turn.
+	 */
+	public synchronized void stop() {
+		if (running != NO_PLAYER)
+			stopRunning();
+	}
+
+	/**
+	 * Returns the time the given player has left, including the running turn.
+	 *
+	 * @param player index of the player
+	 * @return remaining time in miliseconds, never negative
+	 */
+	public synchronized long getRemainingMiliseconds(int player) {
+		long left = remaining[player];
+		if (player == running)
+			left -= (System.nanoTime() - turnStartNanos) / 1_000_000;
+		return Math.max(0, left);
+	}
+
+	/**
+	 * Returns the player that ran out of time.
+	 *
+	 * @return index of the player or {@link #NO_PLAYER} if time hasn't run out
+	 */
+	public synchronized int getExpiredPlayer() {
+		return expiredPlayer;
+	}
+
+	public synchronized int getRunningPlayer() {
+		return running;
+	}
+
+	// Charges the running player for the turn, returns false if he went over
+	// his time or the move limit
+	private boolean stopRunning() {
+		long elapsed = (System.nanoTime() - turnStartNanos) / 1_000_000;
+		int player = running;
+		remaining[player] -= elapsed;
+		running = NO_PLAYER;
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		return remaining[player] > 0 && !(timeControl.hasMoveLimit() && elapsed > timeControl.getMoveLimitMiliseconds());
+	}
+
+	private void expire(int player) {
+		Listener l;
+		synchronized (this) {
+			// The turn may have ended while the timer was firing
+			if (running != player || timer == null || !timer.isExpired())
+				return;
+			timer = null;
+			stopRunning();
+			markExpired(player);
+			l = listener;
+		}
+		if (l != null)
+			l.timeExpired(this, player);
+	}
+
+	private void markExpired(int player) {
+		expiredPlayer = player;
+		remaining[player] = Math.max(0, remaining[player]);
+	}
+
+}
@@ -0,0 +1,450 @@
+package hr.fer.mv.nmm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal that keeps games alive if the program dies. Every accepted
+ * move is appended to a memory-mapped file shared by all games, so an append is
+ * only a few writes to memory. A background thread forces written records to
+ * the disk every few milliseconds, one force covers all records written by all
+ * games in that time (group commit). Callers that must know a move is on the
+ * disk can wait for it with {@link #awaitDurable(long)}.
+ * <p>
+ * Every record has the form <code>[length][type][game id][payload][crc]</code>.
+ * Besides moves the journal writes a snapshot of the board and counters of a
+ * game every {@link #SNAPSHOT_INTERVAL} moves. When the file grows over the
+ * compaction limit it is rewritten so it only contains one snapshot per open
+ * game.
+ * <p>
+ * Opening a journal replays it and restores every game that hasn't ended, see
+ * {@link #getRecoveredGames()}. A torn record at the end of the file (a crash in
+ * the middle of a write) is detected by its checksum and ignored.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameJournal implements Closeable {
+
+	public static final int SNAPSHOT_INTERVAL = 64;
+	public static final long DEFAULT_COMPACTION_LIMIT = 64L << 20;
+	public static final int DEFAULT_COMMIT_INTERVAL_MILISECONDS = 5;
+
+	private static final byte NEW_GAME = 1;
+	private static final byte MOVE = 2;
+	private static final byte SNAPSHOT = 3;
+	private static final byte END_GAME = 4;
+	// length, type and game id before the payload, crc after it
+	private static final int HEADER_SIZE = 4 + 1 + 8;
+	private static final int MAX_RECORD_SIZE = HEADER_SIZE + 16 + 4;
+	private static final int SEGMENT_SIZE = 8 << 20;
+
+	// State of a game that is still open
+	private static final class GameState {
+		private final Position position;
+		private int movesSinceSnapshot;
+
+		private GameState(Position position) {
+			this.position = position;
+		}
+	}
+
+	private final Path file;
+	private final long compactionLimit;
+	private final Map<Long, GameState> games = new HashMap<>();
+	private final Map<Long, Position> recoveredGames;
+	private final CRC32 crc = new CRC32();
+	private final ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_SIZE);
+	private final Object durableLock = new Object();
+	private final Thread committer;
+	private FileChannel channel;
+	private MappedByteBuffer segment;
+	private long segmentStart;
+	private long writePosition;
+	private long forcedPosition;
+	// Bytes appended since the journal was opened, compaction doesn't change it
+	private long appended;
+	private volatile long durablePosition;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the journal in the given file, creating it if it doesn't exist, and
+	 * replays it.
+	 *
+	 * @param file path of the journal file
+	 * @throws IOException if the file can't be opened
+	 */
+	public GameJournal(Path file) throws IOException {
+		this(file, DEFAULT_COMPACTION_LIMIT, DEFAULT_COMMIT_INTERVAL_MILISECONDS);
+	}
+
+	/**
+	 * Opens the journal in the given file, creating it if it doesn't exist, and
+	 * replays it.
+	 *
+	 * @param file                     path of the journal file
+	 * @param compactionLimit          size in bytes after which the journal is
+	 *                                 compacted
+	 * @param commitIntervalMiliseconds time between two forces of the file to the
+	 *                                 disk
+	 * @throws IOException if the file can't be opened
+	 */
+	public GameJournal(Path file, long compactionLimit, int commitIntervalMiliseconds) throws IOException {
+		this.file = file;
+		this.compactionLimit = compactionLimit;
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		writePosition = replay();
+		forcedPosition = writePosition;
+		Map<Long, Position> recovered = new HashMap<>();
+		for (Map.Entry<Long, GameState> e : games.entrySet())
+			recovered.put(e.getKey(), new Position(e.getValue().position));
+		recoveredGames = Collections.unmodifiableMap(recovered);
+		mapSegment(writePosition);
+
+		committer = new Thread(() -> commitLoop(commitIntervalMiliseconds), "Journal committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Returns games that were open when the journal was opened, mapped by their
+	 * id. Positions are copies, changing them doesn't affect the journal.
+	 *
+	 * @return unmodifiable map of recovered games
+	 */
+	public Map<Long, Position> getRecoveredGames() {
+		return recoveredGames;
+	}
+
+	/**
+	 * Starts a new game with the given id. An open game with the same id is
+	 * replaced.
+	 *
+	 * @param gameId id of the game
+	 * @param rules  rules of the game, must be one of {@link RuleSet#values()}
+	 * @return journal position after the record
+	 * @throws IOException if writing fails
+	 */
+	public synchronized long newGame(long gameId, RuleSet rules) throws IOException {
+		return newGame(gameId, new Position(rules));
+	}
+
+	/**
+	 * Starts a game with the given id from the given position, used for games
+	 * that were started before the journal was opened. An open game with the
+	 * same id is replaced.
+	 *
+	 * @param gameId   id of the game
+	 * @param position position the game continues from, it is copied
+	 * @return journal position after the record
+	 * @throws IOException if writing fails
+	 */
+	public synchronized long newGame(long gameId, Position position) throws IOException {
+		Position copy = new Position(position);
+		games.put(gameId, new GameState(copy));
+		return writeSnapshot(gameId, copy, NEW_GAME);
+	}
+
+	/**
+	 * Appends a move of the given game. The move is applied to the journals copy
+	 * of the game, which is used for snapshots.
+	 *
+	 * @param gameId id of the game
+	 * @param move   encoded move, see {@link Move}
+	 * @return journal position after the record
+	 * @throws IOException           if writing fails
+	 * @throws IllegalStateException if the game isn't open
+	 */
+	public synchronized long appendMove(long gameId, int move) throws IOException {
+		GameState state = games.get(gameId);
+		if (state == null)
+			throw new IllegalStateException("Game " + gameId + " isn't open");
+		state.position.makeMove(move);
+		startRecord(MOVE, gameId);
+		record.putInt(move);
+		long end = finishRecord();
+		if (++state.movesSinceSnapshot >= SNAPSHOT_INTERVAL) {
+			end = writeSnapshot(gameId, state.position, SNAPSHOT);
+			state.movesSinceSnapshot = 0;
+		}
+		if (writePosition > compactionLimit)
+			compact();
+		return end;
+	}
+
+	/**
+	 * Marks the given game as finished, it won't be recovered.
+	 *
+	 * @param gameId id of the game
+	 * @return journal position after the record
+	 * @throws IOException if writing fails
+	 */
+	public synchronized long endGame(long gameId) throws IOException {
+		games.remove(gameId);
+		startRecord(END_GAME, gameId);
+		return finishRecord();
+	}
+
+	/**
+	 * Returns the number of games that are open.
+	 *
+	 * @return number of open games
+	 */
+	public synchronized int getOpenGameCount() {
+		return games.size();
+	}
+
+	/**
+	 * Waits until everything up to the given journal position has been forced to
+	 * the disk. Journal positions count bytes appended since the journal was
+	 * opened, so they stay valid after compaction.
+	 *
+	 * @param position journal position returned by one of the append methods
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void awaitDurable(long position) throws InterruptedException {
+		synchronized (durableLock) {
+			while (durablePosition < position && !closed)
+				durableLock.wait();
+		}
+	}
+
+	/**
+	 * Forces everything written so far to the disk and waits for it.
+	 *
+	 * @throws IOException if forcing fails
+	 */
+	public void flush() throws IOException {
+		commit();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		commit();
+		closed = true;
+		committer.interrupt();
+		synchronized (durableLock) {
+			durableLock.notifyAll();
+		}
+		synchronized (this) {
+			// Segments are mapped ahead, the unused tail is cut off so the file only
+			// holds records. Systems that can't truncate a mapped file keep the tail,
+			// replay stops at it anyway
+			try {
+				channel.truncate(writePosition);
+			} catch (IOException e) {
+				System.out.println("Journal tail not truncated: " + e.getMessage());
+			}
+			channel.close();
+		}
+	}
+
+	private void commitLoop(int intervalMiliseconds) {
+		while (!closed) {
+			try {
+				Thread.sleep(intervalMiliseconds);
+				commit();
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// One force covers all records written since the last one
+	private void commit() throws IOException {
+		MappedByteBuffer toForce;
+		long from, to, durable;
+		synchronized (this) {
+			durable = appended;
+			if (writePosition == forcedPosition || !channel.isOpen()) {
+				markDurable(durable);
+				return;
+			}
+			toForce = segment;
+			from = Math.max(forcedPosition, segmentStart);
+			to = writePosition;
+			forcedPosition = to;
+			// Offsets are relative to the segment, it is captured so a remap doesn't matter
+			from -= segmentStart;
+			to -= segmentStart;
+		}
+		toForce.force((int) from, (int) (to - from));
+		markDurable(durable);
+	}
+
+	private void markDurable(long position) {
+		synchronized (durableLock) {
+			if (position > durablePosition) {
+				durablePosition = position;
+				durableLock.notifyAll();
+			}
+		}
+	}
+
+	private long writeSnapshot(long gameId, Position p, byte type) throws IOException {
+		startRecord(type, gameId);
+		record.put((byte) ruleSetIndex(p.getRules()));
+		record.putInt(p.getTokens(Position.PLAYER1));
+		record.putInt(p.getTokens(Position.PLAYER2));
+		record.put((byte) p.getTokensToPlace(Position.PLAYER1));
+		record.put((byte) p.getTokensToPlace(Position.PLAYER2));
+		record.put((byte) p.getSideToMove());
+		record.put((byte) (p.isRemovalPending() ? 1 : 0));
+		return finishRecord();
+	}
+
+	private void startRecord(byte type, long gameId) {
+		record.clear();
+		record.putInt(0);
+		record.put(type);
+		record.putLong(gameId);
+	}
+
+	private long finishRecord() throws IOException {
+		int length = record.position() - 4;
+		record.putInt(0, length);
+		crc.reset();
+		crc.update(record.array(), 4, length);
+		record.putInt((int) crc.getValue());
+		int size = record.position();
+		if (writePosition + size > segmentStart + SEGMENT_SIZE) {
+			// Records written to the old segment must reach the disk before it's dropped
+			segment.force();
+			forcedPosition = writePosition;
+			mapSegment(writePosition);
+		}
+		int offset = (int) (writePosition - segmentStart);
+		for (int i = 0; i < size; i++)
+			segment.put(offset + i, record.get(i));
+		writePosition += size;
+		appended += size;
+		return appended;
+	}
+
+	private void mapSegment(long start) throws IOException {
+		segmentStart = start;
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_SIZE);
+	}
+
+	// Reads every valid record and rebuilds open games, returns the end of the
+	// last valid record
+	private long replay() throws IOException {
+		long size = channel.size();
+		long position = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD_SIZE);
+		CRC32 check = new CRC32();
+		MappedByteBuffer map = null;
+		long mapStart = 0;
+		while (position + HEADER_SIZE + 4 <= size) {
+			if (map == null || position + MAX_RECORD_SIZE > mapStart + map.capacity()) {
+				mapStart = position;
+				map = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(SEGMENT_SIZE, size - mapStart));
+			}
+			int offset = (int) (position - mapStart);
+			int length = map.getInt(offset);
+			if (length < HEADER_SIZE - 4 || length > MAX_RECORD_SIZE - 8 || offset + 4 + length + 4 > map.capacity())
+				break;
+			buffer.clear();
+			for (int i = 0; i < length; i++)
+				buffer.put(map.get(offset + 4 + i));
+			check.reset();
+			check.update(buffer.array(), 0, length);
+			if ((int) check.getValue() != map.getInt(offset + 4 + length))
+				break;
+			buffer.flip();
+			applyRecord(buffer);
+			position += 4 + length + 4;
+		}
+		return position;
+	}
+
+	private void applyRecord(ByteBuffer buffer) {
+		byte type = buffer.get();
+		long gameId = buffer.getLong();
+		switch (type) {
+		case NEW_GAME:
+		case SNAPSHOT:
+			Position p = new Position(RuleSet.values()[buffer.get()]);
+			p.set(buffer.getInt(), buffer.getInt(), buffer.get(), buffer.get(), buffer.get(), buffer.get() != 0);
+			games.put(gameId, new GameState(p));
+			break;
+		case MOVE:
+			GameState state = games.get(gameId);
+			if (state != null) {
+				state.position.makeMove(buffer.getInt());
+				state.movesSinceSnapshot++;
+			}
+			break;
+		case END_GAME:
+			games.remove(gameId);
+			break;
+		default:
+			break;
+		}
+	}
+
+	// Rewrites the journal so it contains only a snapshot of every open game
+	private void compact() throws IOException {
+		segment.force();
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Map.Entry<Long, GameState> e : games.entrySet()) {
+				writeSnapshotTo(out, e.getKey(), e.getValue().position);
+				e.getValue().movesSinceSnapshot = 0;
+			}
+			out.force(true);
+		}
+		channel.close();
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		writePosition = channel.size();
+		forcedPosition = writePosition;
+		mapSegment(writePosition);
+	}
+
+	private void writeSnapshotTo(FileChannel out, long gameId, Position p) throws IOException {
+		startRecord(SNAPSHOT, gameId);
+		record.put((byte) ruleSetIndex(p.getRules()));
+		record.putInt(p.getTokens(Position.PLAYER1));
+		record.putInt(p.getTokens(Position.PLAYER2));
+		record.put((byte) p.getTokensToPlace(Position.PLAYER1));
+		record.put((byte) p.getTokensToPlace(Position.PLAYER2));
+		record.put((byte) p.getSideToMove());
+		record.put((byte) (p.isRemovalPending() ? 1 : 0));
+		int length = record.position() - 4;
+		record.putInt(0, length);
+		crc.reset();
+		crc.update(record.array(), 4, length);
+		record.putInt((int) crc.getValue());
+		record.flip();
+		while (record.hasRemaining())
+			out.write(record);
+	}
+
+	private static int ruleSetIndex(RuleSet rules) {
+		int index = RuleSet.indexOf(rules);
+		if (index < 0)
+			throw new IllegalArgumentException("Only predefined rule sets can be journaled");
+		return index;
+	}
+
+}
@@ -0,0 +1,104 @@
+package hr.fer.mv.nmm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how fast a {@link GameJournal} accepts moves from many games at once
+ * and how long recovery takes when a large number of games is open. Every
+ * thread plays random games, some of them are finished and the rest are left
+ * open. The journal is then closed, opened again and recovered games are
+ * compared with the games that were played.
+ * <p>
+ * Arguments: <code>[journal file] [games] [moves per game] [threads]</code>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameJournalBenchmark {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path file = Paths.get(args.length > 0 ? args[0] : "benchmark.journal");
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+		int movesPerGame = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		Files.deleteIfExists(file);
+
+		Position[] played = new Position[games];
+		AtomicLong moves = new AtomicLong();
+		AtomicLong waits = new AtomicLong();
+		AtomicLong waitNanos = new AtomicLong();
+		GameJournal journal = new GameJournal(file);
+		long start = System.nanoTime();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int first = t;
+			workers[t] = new Thread(() -> {
+				Random random = new Random(first);
+				int[] buffer = new int[Position.MAX_MOVES];
+				try {
+					for (int g = first; g < games; g += threads) {
+						Position p = new Position(RuleSet.NINE_MENS_MORRIS);
+						journal.newGame(g, p.getRules());
+						long end = 0;
+						for (int m = 0; m < movesPerGame && !p.isGameOver(); m++) {
+							int count = p.generateMoves(buffer);
+							int move = buffer[random.nextInt(count)];
+							p.makeMove(move);
+							end = journal.appendMove(g, move);
+							moves.incrementAndGet();
+						}
+						if (p.isGameOver())
+							journal.endGame(g);
+						else
+							played[g] = p;
+						// Some games wait for the disk, like a server confirming a move would
+						if (g % 100 == 0) {
+							long waitStart = System.nanoTime();
+							journal.awaitDurable(end);
+							waitNanos.addAndGet(System.nanoTime() - waitStart);
+							waits.incrementAndGet();
+						}
+					}
+				} catch (IOException | InterruptedException e) {
+					e.printStackTrace();
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread w : workers)
+			w.join();
+		long appendNanos = System.nanoTime() - start;
+		int open = journal.getOpenGameCount();
+		journal.close();
+
+		System.out.println("Games: " + games + ", open: " + open + ", threads: " + threads);
+		System.out.println("Moves appended: " + moves.get() + " in " + appendNanos / 1_000_000 + " ms ("
+				+ moves.get() * 1_000_000_000L / Math.max(1, appendNanos) + " moves/s)");
+		System.out.println("Average wait for group commit: "
+				+ waitNanos.get() / Math.max(1, waits.get()) / 1000 + " us");
+		System.out.println("Journal size: " + Files.size(file) / 1024 + " KiB");
+
+		start = System.nanoTime();
+		GameJournal recovered = new GameJournal(file);
+		long recoveryNanos = System.nanoTime() - start;
+		Map<Long, Position> restored = recovered.getRecoveredGames();
+		int mismatches = 0;
+		for (int g = 0; g < games; g++)
+			if (played[g] != null && !played[g].equals(restored.get((long) g)))
+				mismatches++;
+		recovered.close();
+		System.out.println("Recovered " + restored.size() + " open games in " + recoveryNanos / 1_000_000 + " ms, "
+				+ mismatches + " mismatches");
+		Files.deleteIfExists(file);
+	}
+
+	private GameJournalBenchmark() {
+	}
+
+}
@@ -2,6 +2,9 @@ package hr.fer.mv.nmm;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class that simulates a game of Nine men's morris. The game consists of two
@@ -24,10 +27,16 @@ import java.awt.event.ActionListener;
  * any token and send the confirm event to skip removal. Special event is sent
  * when the current player wants to surrender.
  * <p>
- * This class works with {@link GameBoardDisplay} to display current game state.
+ * The game doesn't draw anything itself. Everything a display needs is kept
+ * with the state of the game and can be taken as an immutable
+ * {@link GameSnapshot}. A game is not thread safe, it is normally owned by a
+ * {@link GameActor} which plays it on its own thread.
  * <p>
- * Game settings such as number of tokens per player or flying can be found in
- * {@link Dependencies}.
+ * When the game ends it stays over, ignoring all actions, until
+ * {@link #newGame()} is called.
+ * <p>
+ * Game settings such as number of tokens per player or flying are given by a
+ * {@link RuleSet}, the default one can be found in {@link Dependencies}.
  * 
  * @author Matija Videkovi
  *
@@ -43,7 +52,7 @@ public class GameLogic {
 	}
 
 	// We use Confirm to let player confirm their choice
-	// Timeout could be sent if we want to time players turn
+	// Timeout is sent when the clock of a player runs out
 	private enum EventType {
 		PointClick, PointEnter, PointExit, Confirm, Timeout
 	}
@@ -74,18 +83,64 @@ public class GameLogic {
 	private int[] playerTokensToPlace = new int[2];
 
 	private MPoint selectedPoint;
+	private MPoint hoveredPoint;
+	// Bitmasks of each players tokens, kept in sync with the board
+	private int[] tokenMasks = new int[2];
+	// Counters below are updated on every change of the board, so rules never
+	// have to scan the board. Number of tokens each player has in every mill
+	private int[][] millOccupancy;
+	// Number of full mills every point is a part of
+	private int[] millCoverage = new int[Dependencies.NUMBER_OF_POINTS];
+	// Number of tokens of each player that are a part of at least one full mill
+	private int[] tokensInMills = new int[2];
+	// Number of (token, empty neighbouring point) pairs of each player
+	private int[] mobility = new int[2];
+	// Xor of the Zobrist numbers of all tokens on the board, see
+	// Position#tokenHash(int, int)
+	private long tokensHash;
+	// Highlight sets are computed once per board state and reused while hovering
+	private int[] destinationMasks = new int[Dependencies.NUMBER_OF_POINTS];
+	private int[] removableMasks = new int[2];
+	private boolean highlightsValid = false;
+	private int shownHighlights = 0;
 	private boolean checkForMills = false;
 	private boolean millMade = false;
-
-	private GameBoardDisplay boardDisplay;
+	// Move made in the current turn, written to the journal when the turn ends
+	private int turnMove = Move.NULL;
+	private GameJournal journal;
+	private long gameId;
+	private GameClock clock;
+	// Results are printed to the console unless the game runs headless
+	private boolean printingResults = true;
+	// Positions since the last placement or removal, used for draw rules
+	private final PositionHistory history = new PositionHistory();
+	// State shown to the players, see GameSnapshot. Version grows with every
+	// change a display has to show
+	private long version;
+	private int focusedPoint = -1;
+	private String directionText = "";
+	private long directionTextNumber;
+	private String toolTipText = "";
+	private long toolTipTextNumber;
+	private int lastMove = Move.NULL;
+	private long moveNumber;
+	private boolean gameOver;
+	private int winner = Position.NO_WINNER;
+	private String resultText;
+
+	private final RuleSet rules;
+	private final BoardTopology topology;
+	private List<ActionListener> listeners = new ArrayList<>();
 
 	/**
-	 * Creates a new instance of this class.
+	 * Creates a new instance of this class which plays by the given rules.
 	 * 
-	 * @param boardDisplay {@link GameBoardDisplay} instance
+	 * @param rules rules of the game
 	 */
-	public GameLogic(GameBoardDisplay boardDisplay) {
-		this.boardDisplay = boardDisplay;
+	public GameLogic(RuleSet rules) {
+		this.rules = rules;
+		this.topology = rules.getTopology();
+		this.millOccupancy = new int[2][topology.getNumberOfMills()];
 		setupGame();
 	}
 
@@ -93,17 +148,123 @@ public class GameLogic {
 	 * Creates a new instance of this class.
 	 */
 	public GameLogic() {
-		this(null);
-		setupGame();
+		this(Dependencies.RULE_SET);
+	}
+
+	public RuleSet getRules() {
+		return rules;
+	}
+
+	/**
+	 * Sets whether the result of every finished game is printed to the console.
+	 * Servers that host many games turn it off, so a move never waits for the
+	 * console.
+	 * 
+	 * @param printingResults true to print results, which is the default
+	 */
+	public void setPrintingResults(boolean printingResults) {
+		this.printingResults = printingResults;
+	}
+
+	/**
+	 * Sets the {@link GameJournal} every finished turn of this game is written to.
+	 * If the journal recovered an open game with the given id and no move was
+	 * played yet, that game is restored. Otherwise a new game is started in the
+	 * journal, from the current position if the game already started.
+	 * 
+	 * @param journal journal shared by all games
+	 * @param gameId  id of this game in the journal
+	 */
+	public void setJournal(GameJournal journal, long gameId) {
+		this.journal = journal;
+		this.gameId = gameId;
+		Position position = getPosition();
+		boolean started = gameOver || !position.equals(new Position(rules));
+		Position recovered = journal.getRecoveredGames().get(gameId);
+		if (!started && recovered != null && recovered.getRules() == rules && !recovered.isGameOver()) {
+			setPosition(recovered);
+			System.out.println("Restored game " + gameId + " from the journal");
+		} else if (!gameOver)
+			journalNewGame();
+	}
+
+	/**
+	 * Replaces the state of this game with the given position, used for restoring
+	 * saved games. A pending removal is not restored, the position must be taken
+	 * at the end of a turn.
+	 * 
+	 * @param position position to continue the game from
+	 */
+	public void setPosition(Position position) {
+		for (int i = 0; i < topology.getSquares(); i++)
+			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
+				MPoint p = new MPoint(i, j);
+				int bit = 1 << Position.indexOf(p);
+				PointOwner po = PointOwner.Empty;
+				if ((position.getTokens(Position.PLAYER1) & bit) != 0)
+					po = PointOwner.Player1;
+				else if ((position.getTokens(Position.PLAYER2) & bit) != 0)
+					po = PointOwner.Player2;
+				setPointOwner(p, po);
+			}
+		for (int player = 0; player < 2; player++) {
+			playerTokenNum[player] = Integer.bitCount(position.getTokens(player));
+			playerTokensToPlace[player] = position.getTokensToPlace(player);
+		}
+		currentGamePhase = playerTokensToPlace[0] <= 0 && playerTokensToPlace[1] <= 0 ? GamePhase.Moving
+				: GamePhase.Placing;
+		currentPlayer = position.getSideToMove() == Position.PLAYER1 ? PointOwner.Player1 : PointOwner.Player2;
+		selectedPoint = null;
+		clearFocusPointToken();
+		checkForMills = false;
+		millMade = false;
+		turnMove = Move.NULL;
+		history.reset(position);
+		clearResult();
+		startClock();
+		int currentPlayerIndex = currentPlayer == PointOwner.Player1 ? 0 : 1;
+		if (currentGamePhase == GamePhase.Placing && playerTokensToPlace[currentPlayerIndex] > 0)
+			updatePlayerDirectionText(currentPlayer.toString() + " place a new token");
+		else
+			updatePlayerDirectionText(currentPlayer.toString() + " move one of your tokens");
+		updateHighlights();
+		fireStateChanged();
 	}
 
 	/**
-	 * Sets the {@link GameBoardDisplay} used for displaying current game state.
+	 * Sets the {@link GameClock} that times this game. The clock is reset and the
+	 * current players clock is started. When the clock reports that time ran out
+	 * {@link #timeoutAction()} has to be called on the thread that plays the game.
 	 * 
-	 * @param boardDisplay {@link GameBoardDisplay} instance
+	 * @param clock clock of this game, or null to play without time limits
 	 */
-	public void setGameBoardDisplay(GameBoardDisplay boardDisplay) {
-		this.boardDisplay = boardDisplay;
+	public void setClock(GameClock clock) {
+		if (this.clock != null)
+			this.clock.stop();
+		this.clock = clock;
+		startClock();
+	}
+
+	public GameClock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Generate a timeout action which ends the game if the clock says a player ran
+	 * out of time. The player whose time ran out loses, late or repeated timeouts
+	 * are ignored.
+	 */
+	public void timeoutAction() {
+		gameEventHandler(new GameEvent(MPoint.zero, EventType.Timeout));
+		updateHighlights();
+		fireStateChanged();
+	}
+
+	private void startClock() {
+		if (clock == null)
+			return;
+		clock.reset();
+		clock.start(currentPlayer == PointOwner.Player1 ? Position.PLAYER1 : Position.PLAYER2);
 	}
 
 	private void setupGame() {
@@ -111,19 +272,19 @@ public class GameLogic {
 		currentPlayer = PointOwner.Player1;
 		playerTokenNum[0] = 0;
 		playerTokenNum[1] = 0;
-		playerTokensToPlace[0] = Dependencies.NUMBER_OF_TOKENS_PER_PLAYER;
-		playerTokensToPlace[1] = Dependencies.NUMBER_OF_TOKENS_PER_PLAYER;
-		updateTokenCounter(playerTokensToPlace[0], TokenSkin.BLACK_TOKEN);
-		updateTokenCounter(playerTokensToPlace[1], TokenSkin.WHITE_TOKEN);
-		for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
-				MPoint p = new MPoint(i, j);
-				setPointOwner(p, PointOwner.Empty);
-				drawTokenOnPoint(p, PointOwner.Empty);
-			}
+		playerTokensToPlace[0] = rules.getTokensPerPlayer();
+		playerTokensToPlace[1] = rules.getTokensPerPlayer();
+		for (int i = 0; i < topology.getSquares(); i++)
+			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++)
+				setPointOwner(new MPoint(i, j), PointOwner.Empty);
 		selectedPoint = null;
+		clearFocusPointToken();
 		checkForMills = false;
 		millMade = false;
+		turnMove = Move.NULL;
+		history.reset(getPosition());
+		clearResult();
+		startClock();
 		updatePlayerDirectionText(currentPlayer.toString() + " place your token");
 	}
 
@@ -135,6 +296,8 @@ public class GameLogic {
 	 */
 	public void pointClicked(MPoint point) {
 		gameEventHandler(new GameEvent(point, EventType.PointClick));
+		updateHighlights();
+		fireStateChanged();
 	}
 
 	/**
@@ -144,6 +307,7 @@ public class GameLogic {
 	 * @param point point which the mouse entered
 	 */
 	public void pointEntered(MPoint point) {
+		hoverEventHandler(new GameEvent(point, EventType.PointEnter));
 	}
 
 	/**
@@ -153,7 +317,7 @@ public class GameLogic {
 	 * @param point point which the mouse exited
 	 */
 	public void pointExited(MPoint point) {
-
+		hoverEventHandler(new GameEvent(point, EventType.PointExit));
 	}
 
 	/**
@@ -163,6 +327,31 @@ public class GameLogic {
 	 */
 	public void confirmAction() {
 		gameEventHandler(new GameEvent(MPoint.zero, EventType.Confirm));
+		updateHighlights();
+		fireStateChanged();
+	}
+
+	/**
+	 * Plays an encoded move (see {@link Move}) by sending the same point and
+	 * confirm events a player sends by clicking the board, so moves of engines
+	 * are checked by the same rules as moves of people.
+	 * 
+	 * @param move encoded move
+	 */
+	public void playMove(int move) {
+		if (Move.from(move) != Move.NONE)
+			pointClicked(pointOf(Move.from(move)));
+		if (Move.to(move) != Move.NONE)
+			pointClicked(pointOf(Move.to(move)));
+		if (millMade) {
+			if (Move.removed(move) != Move.NONE)
+				pointClicked(pointOf(Move.removed(move)));
+			confirmAction();
+		}
+	}
+
+	private static MPoint pointOf(int index) {
+		return new MPoint(Position.squareOf(index), Position.placeOf(index));
 	}
 
 	/**
@@ -170,18 +359,147 @@ public class GameLogic {
 	 * the game. In this case it ends the game by surrender.
 	 */
 	public void specialAction() {
+		if (gameOver)
+			return;
 		currentPlayer = currentPlayer == PointOwner.Player1 ? PointOwner.Player2 : PointOwner.Player1;
 		endGame();
+		updateHighlights();
+		fireStateChanged();
+	}
+
+	/**
+	 * Adds an {@link ActionListener} which gets executed after every click,
+	 * confirm or special action has been processed.
+	 * 
+	 * @param al listener to be added
+	 */
+	public void addActionListener(ActionListener al) {
+		listeners.add(al);
+	}
+
+	/**
+	 * Removes an {@link ActionListener} from this game.
+	 * 
+	 * @param al listener to be removed
+	 * @return true if the listener was present, false if it was not
+	 */
+	public boolean removeActionListener(ActionListener al) {
+		return listeners.remove(al);
+	}
+
+	/**
+	 * Returns a copy of the current game state which can be used by engines and
+	 * other tools without affecting this game.
+	 * 
+	 * @return current state of the game as a {@link Position}
+	 */
+	public Position getPosition() {
+		Position position = new Position(rules);
+		position.set(tokenMasks[0], tokenMasks[1], playerTokensToPlace[0],
+				playerTokensToPlace[1], currentPlayer == PointOwner.Player1 ? Position.PLAYER1 : Position.PLAYER2,
+				millMade);
+		return position;
+	}
+
+	/**
+	 * Returns the current game state packed into a key, see
+	 * {@link PositionCodec}. Unlike {@link #getPosition()} it doesn't create any
+	 * objects.
+	 * 
+	 * @return key of the current position
+	 */
+	public long getKey() {
+		return PositionCodec.pack(tokenMasks[0], tokenMasks[1], playerTokensToPlace[0], playerTokensToPlace[1],
+				currentPlayer == PointOwner.Player1 ? Position.PLAYER1 : Position.PLAYER2, millMade);
+	}
+
+	// Zobrist hash of the current position from the running hash of the tokens,
+	// equal to getPosition().hash()
+	private long hash() {
+		return Position.hash(tokensHash, playerTokensToPlace[0], playerTokensToPlace[1],
+				currentPlayer == PointOwner.Player1 ? Position.PLAYER1 : Position.PLAYER2, millMade);
+	}
+
+	/**
+	 * Starts a new game after the previous one ended, or abandons the current
+	 * game.
+	 */
+	public void newGame() {
+		if (journal != null && !gameOver) {
+			try {
+				journal.endGame(gameId);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		setupGame();
+		journalNewGame();
+		updateHighlights();
+		fireStateChanged();
+	}
+
+	public boolean isGameOver() {
+		return gameOver;
+	}
+
+	/**
+	 * Returns a number that grows with every change of the game, including
+	 * changes that are only visible, like a highlight or a tool tip.
+	 * 
+	 * @return version of the game state
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns an immutable copy of everything a display needs to show the game.
+	 * 
+	 * @return snapshot of the current state
+	 */
+	public GameSnapshot getSnapshot() {
+		return new GameSnapshot(version, getPosition(), focusedPoint, shownHighlights, directionText,
+				directionTextNumber, toolTipText, toolTipTextNumber, lastMove, moveNumber, gameOver, winner,
+				resultText);
+	}
+
+	private void fireStateChanged() {
+		for (ActionListener al : listeners)
+			al.actionPerformed(new ActionEvent(this, 0, ""));
+	}
+
+	// Handles an event and records it for the flight recorder
+	private void gameEventHandler(GameEvent ev) {
+		FlightEvents.GameEventHandling event = new FlightEvents.GameEventHandling();
+		event.begin();
+		GamePhase phase = currentGamePhase;
+		PointOwner player = currentPlayer;
+		handleGameEvent(ev);
+		event.end();
+		if (event.shouldCommit()) {
+			event.eventType = ev.getEventType().name();
+			event.phase = phase.name();
+			event.player = player.name();
+			event.commit();
+		}
 	}
 
 //	  Gets called every time there is an interaction between the player and one of
 //	  the points on the board Here we do most of the work concerning the rules and
 //	  the natural flow of the game
-	private void gameEventHandler(GameEvent ev) {
+	private void handleGameEvent(GameEvent ev) {
 		MPoint eventPoint = ev.getPoint();
 		PointOwner eventPointOwner = getPointOwner(eventPoint);
 		PointOwner opponent = currentPlayer == PointOwner.Player1 ? PointOwner.Player2 : PointOwner.Player1;
 		int currentPlayerIndex = currentPlayer == PointOwner.Player1 ? 0 : 1;
+		// A finished game waits for a new game to be started
+		if (gameOver)
+			return;
+		// The player whose clock ran out forfeits the game
+		if (ev.getEventType() == EventType.Timeout) {
+			forfeitOnTime();
+			return;
+		}
 		// Special selection mode we enter when a player forms a mill
 		if (millMade) {
 			// Select one of the enemy tokens
@@ -222,13 +540,20 @@ public class GameLogic {
 				// Check if any token was selected
 				if (selectedPoint != null) {
 					int opponentIndex = getPointOwner(selectedPoint) == PointOwner.Player1 ? 0 : 1;
+					turnMove = Move.withRemoval(turnMove, Position.indexOf(selectedPoint));
 					playerTokenNum[opponentIndex]--;
 					setPointOwner(selectedPoint, PointOwner.Empty);
-					drawTokenOnPoint(selectedPoint, PointOwner.Empty);
 					clearFocusPointToken();
+					FlightEvents.TokenRemoved removed = new FlightEvents.TokenRemoved();
+					if (removed.shouldCommit()) {
+						removed.owner = opponent.name();
+						removed.point = Position.indexOf(selectedPoint);
+						removed.tokensLeft = playerTokenNum[opponentIndex] + playerTokensToPlace[opponentIndex];
+						removed.commit();
+					}
 					// Opponent ran out of tokens
 					if ((playerTokenNum[opponentIndex] + playerTokensToPlace[opponentIndex]) <= 2
-							|| !hasMovableToken(opponent)) {
+							|| isBlocked(opponent)) {
 						endGame();
 						return;
 					}
@@ -236,20 +561,20 @@ public class GameLogic {
 				// End your turn
 				endTurn();
 			}
-		} else if (currentGamePhase == GamePhase.Placing) {
+		} else if (currentGamePhase == GamePhase.Placing && playerTokensToPlace[currentPlayerIndex] > 0
+				&& !(rules.isMovingWhilePlacing() && (eventPointOwner == currentPlayer || selectedPoint != null))) {
+			// Some variants let the player move a token instead, that is handled below
 			if (ev.getEventType() == EventType.PointClick) {
 				if (eventPointOwner == PointOwner.Empty) {
 					// Update board state
 					playerTokensToPlace[currentPlayerIndex]--;
 					playerTokenNum[currentPlayerIndex]++;
+					turnMove = Move.place(Position.indexOf(eventPoint));
 					setPointOwner(eventPoint, currentPlayer);
-					// Update board appearance and counter
-					updateTokenCounter(playerTokensToPlace[currentPlayerIndex],
-							currentPlayer == PointOwner.Player1 ? TokenSkin.BLACK_TOKEN : TokenSkin.WHITE_TOKEN);
-					drawTokenOnPoint(eventPoint, currentPlayer);
+					tokenMoved();
 
-					// When the second player places all of his pieces the second phase begins
-					if (currentPlayer == PointOwner.Player2 && playerTokensToPlace[currentPlayerIndex] <= 0)
+					// When both players place all of their pieces the second phase begins
+					if (playerTokensToPlace[0] <= 0 && playerTokensToPlace[1] <= 0)
 						currentGamePhase = GamePhase.Moving;
 					// Check for mills every time a new token is placed
 					checkForMills = true;
@@ -261,34 +586,32 @@ public class GameLogic {
 					updateToolTipText("This point is taken by your opponent");
 				}
 			}
-		} else if (currentGamePhase == GamePhase.Moving) {
+		} else {
 			if (ev.getEventType() == EventType.PointClick) {
 				// Player picks his tokens for moving for as long as he wants
 				if (eventPointOwner == currentPlayer) {
-					selectedPoint = eventPoint;
-					setFocusPointToken(selectedPoint);
+					if (eventPoint.equals(selectedPoint) && playerTokensToPlace[currentPlayerIndex] > 0) {
+						// Reselecting lets the player place a token instead of moving
+						selectedPoint = null;
+						clearFocusPointToken();
+					} else {
+						selectedPoint = eventPoint;
+						setFocusPointToken(selectedPoint);
+					}
 				} else if (selectedPoint != null) {
 					if (eventPointOwner == PointOwner.Empty) {
-						if (selectedPoint.isNeighbour(eventPoint)
-								|| (playerTokenNum[currentPlayerIndex] == 3 && Dependencies.ALLOW_FLYING)) {
+						if (topology.areNeighbours(Position.indexOf(selectedPoint), Position.indexOf(eventPoint))
+								|| (playerTokenNum[currentPlayerIndex] == 3 && rules.isFlyingAllowed())) {
 							// Move the token to it's new place
+							turnMove = Move.move(Position.indexOf(selectedPoint), Position.indexOf(eventPoint));
 							setPointOwner(selectedPoint, PointOwner.Empty);
 							setPointOwner(eventPoint, currentPlayer);
-							drawTokenOnPoint(selectedPoint, PointOwner.Empty);
-							// Animate the translation, when it ends draw translated token on end position
-							translateToken(selectedPoint, eventPoint, currentPlayer, new ActionListener() {
-								MPoint actionPoint = new MPoint(eventPoint);
-								PointOwner actionOwner = Enum.valueOf(PointOwner.class, currentPlayer.name());
-
-								@Override
-								public void actionPerformed(ActionEvent arg0) {
-									drawTokenOnPoint(actionPoint, actionOwner);
-								}
-							});
+							// Displays animate the move from the snapshot
+							tokenMoved();
 							clearFocusPointToken();
 							selectedPoint = null;
 							// After we move a token check for checkmate
-							if (Dependencies.CHECK_CHECKMATE && !hasMovableToken(opponent)) {
+							if (rules.isCheckCheckmate() && isBlocked(opponent)) {
 								endGame();
 								return;
 							}
@@ -316,30 +639,181 @@ public class GameLogic {
 			if (formsMill(eventPoint, currentPlayer)) {
 				updatePlayerDirectionText(currentPlayer.toString() + " take enemy token if you wish");
 				millMade = true;
+				FlightEvents.MillFormed mill = new FlightEvents.MillFormed();
+				if (mill.shouldCommit()) {
+					mill.player = currentPlayer.name();
+					mill.point = Position.indexOf(eventPoint);
+					mill.commit();
+				}
 			} else
 				endTurn();
 			checkForMills = false;
 		}
 	}
 
+	// Hovering only shows which points the player can interact with, it never
+	// changes the state of the game
+	private void hoverEventHandler(GameEvent ev) {
+		FlightEvents.GameEventHandling event = new FlightEvents.GameEventHandling();
+		event.begin();
+		if (ev.getEventType() == EventType.PointExit) {
+			if (ev.getPoint().equals(hoveredPoint))
+				hoveredPoint = null;
+		} else if (ev.getEventType() == EventType.PointEnter)
+			hoveredPoint = ev.getPoint();
+		updateHighlights();
+		event.end();
+		if (event.shouldCommit()) {
+			event.eventType = ev.getEventType().name();
+			event.phase = currentGamePhase.name();
+			event.player = currentPlayer.name();
+			event.commit();
+		}
+	}
+
+	// Highlights legal destinations of the hovered token in the moving phase or
+	// removable enemy tokens after a mill was made
+	private void updateHighlights() {
+		int highlighted = 0;
+		if (hoveredPoint != null) {
+			if (!highlightsValid)
+				computeHighlights();
+			int currentPlayerIndex = currentPlayer == PointOwner.Player1 ? 0 : 1;
+			if (millMade)
+				highlighted = removableMasks[1 - currentPlayerIndex];
+			else if (currentGamePhase == GamePhase.Moving && getPointOwner(hoveredPoint) == currentPlayer)
+				highlighted = destinationMasks[Position.indexOf(hoveredPoint)];
+		}
+		if (highlighted != shownHighlights) {
+			shownHighlights = highlighted;
+			version++;
+		}
+	}
+
+	// Computes highlight sets for both players from the token bitmasks
+	private void computeHighlights() {
+		int empty = ~(tokenMasks[0] | tokenMasks[1]) & topology.getAllPoints();
+		for (int player = 0; player < 2; player++) {
+			boolean flying = playerTokenNum[player] == 3 && rules.isFlyingAllowed();
+			for (int t = tokenMasks[player]; t != 0; t &= t - 1) {
+				int i = Integer.numberOfTrailingZeros(t);
+				destinationMasks[i] = flying ? empty : topology.getNeighbours(i) & empty;
+			}
+			removableMasks[player] = topology.removableTokens(tokenMasks[player]);
+		}
+		highlightsValid = true;
+	}
+
 	// Ends the current players turn and gives a turn to the opponent. Also displays
 	// a direction text for the new active player.
 	private void endTurn() {
+		// A turn that was finished too late is lost
+		if (clock != null && !clock.switchTurn()) {
+			forfeitOnTime();
+			return;
+		}
 		currentPlayer = currentPlayer == PointOwner.Player1 ? PointOwner.Player2 : PointOwner.Player1;
 		selectedPoint = null;
 		millMade = false;
-		if (currentGamePhase == GamePhase.Placing)
+		int move = turnMove;
+		journalMove();
+		int currentPlayerIndex = currentPlayer == PointOwner.Player1 ? 0 : 1;
+		// A player that can't move in the moving phase has lost, the same rule as
+		// in Position#makeMove(int)
+		if (playerTokensToPlace[currentPlayerIndex] <= 0 && !canFly(currentPlayerIndex)
+				&& mobility[currentPlayerIndex] == 0) {
+			currentPlayer = currentPlayer == PointOwner.Player1 ? PointOwner.Player2 : PointOwner.Player1;
+			endGame();
+			return;
+		}
+		// Players that keep moving tokens back and forth end the game in a draw
+		if (move != Move.NULL && history.push(hash(), move)) {
+			endDraw(history.getDrawReason());
+			return;
+		}
+		if (currentGamePhase == GamePhase.Placing && playerTokensToPlace[currentPlayerIndex] > 0)
 			updatePlayerDirectionText(currentPlayer.toString() + " place a new token");
-		else if (currentGamePhase == GamePhase.Moving)
+		else
 			updatePlayerDirectionText(currentPlayer.toString() + " move one of your tokens");
 	}
 
-	// Ends the game by showing the game end dialog with the current player as the
-	// winner, the game is reset if the player chooses to play again.
+	// Ends the game if the clock says a player ran out of time, his opponent wins
+	private void forfeitOnTime() {
+		int expiredPlayer = clock == null ? GameClock.NO_PLAYER : clock.getExpiredPlayer();
+		if (expiredPlayer == GameClock.NO_PLAYER)
+			return;
+		if (printingResults)
+			System.out.println((expiredPlayer == 0 ? "Player1" : "Player2") + " ran out of time");
+		currentPlayer = expiredPlayer == 0 ? PointOwner.Player2 : PointOwner.Player1;
+		endGame();
+	}
+
+	// Ends the game with the current player as the winner, the game stays over
+	// until a new game is started
 	private void endGame() {
-		showGameEndDialog(currentPlayer.toString() + " Won!\n Do you want to play again?");
-		System.out.println("Winner: " + (currentPlayer == PointOwner.Player1 ? "Player1" : "Player2"));
-		setupGame();
+		if (printingResults)
+			System.out.println("Winner: " + (currentPlayer == PointOwner.Player1 ? "Player1" : "Player2"));
+		finishGame(currentPlayer == PointOwner.Player1 ? Position.PLAYER1 : Position.PLAYER2,
+				currentPlayer.toString() + " Won!");
+	}
+
+	// Ends the game without a winner
+	private void endDraw(String reason) {
+		if (printingResults)
+			System.out.println(reason);
+		finishGame(Position.NO_WINNER, reason + "!");
+	}
+
+	private void finishGame(int winner, String text) {
+		if (clock != null)
+			clock.stop();
+		selectedPoint = null;
+		millMade = false;
+		clearFocusPointToken();
+		gameOver = true;
+		this.winner = winner;
+		resultText = text;
+		updatePlayerDirectionText(text);
+		if (journal != null) {
+			try {
+				journal.endGame(gameId);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void clearResult() {
+		gameOver = false;
+		winner = Position.NO_WINNER;
+		resultText = null;
+		lastMove = Move.NULL;
+		version++;
+	}
+
+	// Writes the move of the finished turn to the journal, it is made durable by
+	// the journals next group commit
+	private void journalMove() {
+		if (journal != null && turnMove != Move.NULL) {
+			try {
+				journal.appendMove(gameId, turnMove);
+			} catch (IOException | IllegalStateException e) {
+				e.printStackTrace();
+			}
+		}
+		turnMove = Move.NULL;
+	}
+
+	// Journals the current position, the start of a new game or a game that was
+	// started before the journal was opened
+	private void journalNewGame() {
+		if (journal == null)
+			return;
+		try {
+			journal.newGame(gameId, getPosition());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	private PointOwner getPointOwner(MPoint p) {
@@ -347,106 +821,116 @@ public class GameLogic {
 	}
 
 	private void setPointOwner(MPoint p, PointOwner po) {
+		int index = Position.indexOf(p);
+		PointOwner old = board[p.square][p.place];
+		if (old == po)
+			return;
+		if (old == PointOwner.Player1 || old == PointOwner.Player2)
+			removeToken(old == PointOwner.Player1 ? 0 : 1, index);
+		if (po == PointOwner.Player1 || po == PointOwner.Player2)
+			addToken(po == PointOwner.Player1 ? 0 : 1, index);
 		board[p.square][p.place] = po;
+		highlightsValid = false;
+		version++;
+	}
+
+	// Puts a token of the player on an empty point and updates the counters
+	private void addToken(int player, int index) {
+		int bit = 1 << index;
+		int neighbours = topology.neighbours[index];
+		// Neighbouring tokens lose this point as a place to move to
+		mobility[0] -= Integer.bitCount(neighbours & tokenMasks[0]);
+		mobility[1] -= Integer.bitCount(neighbours & tokenMasks[1]);
+		tokenMasks[player] |= bit;
+		tokensHash ^= Position.tokenHash(player, index);
+		mobility[player] += Integer.bitCount(neighbours & ~(tokenMasks[0] | tokenMasks[1]));
+		for (int mill : topology.pointMillIds[index])
+			if (++millOccupancy[player][mill] == 3)
+				coverMill(player, topology.mills[mill], 1);
+	}
+
+	// Removes a token of the player from a point and updates the counters
+	private void removeToken(int player, int index) {
+		int bit = 1 << index;
+		int neighbours = topology.neighbours[index];
+		for (int mill : topology.pointMillIds[index])
+			if (millOccupancy[player][mill]-- == 3)
+				coverMill(player, topology.mills[mill], -1);
+		mobility[player] -= Integer.bitCount(neighbours & ~(tokenMasks[0] | tokenMasks[1]));
+		tokenMasks[player] &= ~bit;
+		tokensHash ^= Position.tokenHash(player, index);
+		mobility[0] += Integer.bitCount(neighbours & tokenMasks[0]);
+		mobility[1] += Integer.bitCount(neighbours & tokenMasks[1]);
+	}
+
+	// Adds or removes a full mill from the coverage of its points
+	private void coverMill(int player, int mill, int change) {
+		for (int m = mill; m != 0; m &= m - 1) {
+			int point = Integer.numberOfTrailingZeros(m);
+			int before = millCoverage[point];
+			millCoverage[point] += change;
+			if (before == 0)
+				tokensInMills[player]++;
+			else if (millCoverage[point] == 0)
+				tokensInMills[player]--;
+		}
 	}
 
 	// Check if a point forms a mill for the given point owner
 	private boolean formsMill(MPoint p, PointOwner po) {
-		for (Mill m : p.getMills())
-			if (getPointOwner(m.p1) == po && getPointOwner(m.p2) == po && getPointOwner(m.p3) == po)
-				return true;
-		return false;
+		return getPointOwner(p) == po && millCoverage[Position.indexOf(p)] > 0;
 	}
 
 	// Check if the provided owner has tokens that aren't part of a mill
 	private boolean hasFreeToken(PointOwner po) {
-		for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
-				MPoint p = new MPoint(i, j);
-				if (getPointOwner(p) == po) {
-					if (formsMill(p, po))
-						continue;
-					return true;
-				}
-			}
-		return false;
+		int index = po == PointOwner.Player1 ? 0 : 1;
+		return Integer.bitCount(tokenMasks[index]) > tokensInMills[index];
+	}
+
+	// Check if a player has three tokens left and may fly with them
+	private boolean canFly(int player) {
+		return rules.isFlyingAllowed() && playerTokenNum[player] == 3;
 	}
 
 	// Check if a PointOwner has any movable tokens
 	private boolean hasMovableToken(PointOwner po) {
-		for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-			for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
-				MPoint p = new MPoint(i, j);
-				if (getPointOwner(p) == po) {
-					for (MPoint neighbour : p.getNeighbours())
-						if (getPointOwner(neighbour) == PointOwner.Empty)
-							return true;
-				}
-			}
-		return false;
+		return mobility[po == PointOwner.Player1 ? 0 : 1] > 0;
 	}
 
-	// Draw a token associated with the given PointOwner on the given point.
-	private void drawTokenOnPoint(MPoint p, PointOwner po) {
-		if (boardDisplay == null)
-			return;
-		TokenSkin ts = TokenSkin.NO_TOKEN;
-		if (po == PointOwner.Player1)
-			ts = TokenSkin.BLACK_TOKEN;
-		else if (po == PointOwner.Player2)
-			ts = TokenSkin.WHITE_TOKEN;
-		boardDisplay.setPointToken(p, ts);
-		boardDisplay.repaint();
+	// Check if a PointOwner is unable to move, a player that can still place
+	// tokens in a variant that allows moving while placing is never blocked
+	private boolean isBlocked(PointOwner po) {
+		int index = po == PointOwner.Player1 ? 0 : 1;
+		return !(rules.isMovingWhilePlacing() && playerTokensToPlace[index] > 0) && !hasMovableToken(po);
 	}
 
-	private void translateToken(MPoint p1, MPoint p2, PointOwner po, ActionListener onEnd) {
-		if (boardDisplay == null)
-			return;
-		boardDisplay.translateToken(p1, p2, po == PointOwner.Player1 ? TokenSkin.BLACK_TOKEN : TokenSkin.WHITE_TOKEN,
-				onEnd);
-		boardDisplay.repaint();
+	// Remembers the placement or move of the current turn, displays animate it
+	private void tokenMoved() {
+		lastMove = turnMove;
+		moveNumber++;
+		version++;
 	}
 
 	private void setFocusPointToken(MPoint p) {
-		if (boardDisplay == null)
-			return;
-		boardDisplay.setFocusPoint(p);
-		boardDisplay.repaint();
+		focusedPoint = Position.indexOf(p);
+		version++;
 	}
 
 	private void clearFocusPointToken() {
-		if (boardDisplay == null)
-			return;
-		boardDisplay.clearFocusPoint();
-		boardDisplay.repaint();
-	}
-
-	private void updateTokenCounter(int cnt, TokenSkin ts) {
-		if (boardDisplay == null)
-			return;
-		boardDisplay.updateTokenCounter(cnt, ts);
-		boardDisplay.repaint();
+		focusedPoint = -1;
+		version++;
 	}
 
 	private void updatePlayerDirectionText(String text) {
-		if (boardDisplay == null)
-			return;
-		boardDisplay.updatePlayerDirectionText(text);
-		boardDisplay.repaint();
+		directionText = text;
+		directionTextNumber++;
+		version++;
 	}
 
 	private void updateToolTipText(String text) {
-		if (boardDisplay == null)
-			return;
-		boardDisplay.showToolTipText(text);
-		boardDisplay.repaint();
-	}
-
-	private void showGameEndDialog(String text) {
-		if (boardDisplay == null)
-			return;
-		boardDisplay.showConfirmDialog(text, "GAMEOVER");
-		boardDisplay.repaint();
+		toolTipText = text;
+		toolTipTextNumber++;
+		version++;
 	}
 
 }
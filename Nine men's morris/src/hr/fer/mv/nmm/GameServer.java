@@ -0,0 +1,157 @@
+package hr.fer.mv.nmm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hosts many {@link GameLogic} games in one process for clients on other
+ * threads. Each game has its own lock, moves of different games never wait for
+ * each other. Clients wait for their turn with
+ * {@link #awaitTurn(long, int, long)} and play with
+ * {@link #play(long, int, int)}, a move is only accepted from the side to move.
+ * A game that ends is counted and started again, so its clients can keep
+ * playing.
+ * <p>
+ * Locks are {@link ReentrantLock}s rather than monitors, a virtual thread that
+ * waits for its turn doesn't hold on to its carrier thread.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameServer {
+
+	private static final class Game {
+		private final GameLogic logic;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+
+		private Game(RuleSet rules) {
+			logic = new GameLogic(rules);
+			// Results would be printed while the lock of the game is held
+			logic.setPrintingResults(false);
+		}
+	}
+
+	private final ConcurrentHashMap<Long, Game> games = new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong(1);
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder rejectedMoves = new LongAdder();
+	private final LongAdder finishedGames = new LongAdder();
+
+	/**
+	 * Starts a new game.
+	 *
+	 * @param rules rules of the game
+	 * @return id of the game
+	 */
+	public long createGame(RuleSet rules) {
+		long id = nextId.getAndIncrement();
+		games.put(id, new Game(rules));
+		return id;
+	}
+
+	/**
+	 * Removes a game, clients waiting for their turn in it are woken up.
+	 *
+	 * @param id id of the game
+	 * @return false if there is no such game
+	 */
+	public boolean removeGame(long id) {
+		Game game = games.remove(id);
+		if (game == null)
+			return false;
+		game.lock.lock();
+		try {
+			game.changed.signalAll();
+		} finally {
+			game.lock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until the given side is to move.
+	 *
+	 * @param id           id of the game
+	 * @param side         {@link Position#PLAYER1} or {@link Position#PLAYER2}
+	 * @param timeoutNanos longest time to wait
+	 * @return position to move in or null if the time ran out or the game was
+	 *         removed
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public Position awaitTurn(long id, int side, long timeoutNanos) throws InterruptedException {
+		Game game = games.get(id);
+		if (game == null)
+			return null;
+		game.lock.lock();
+		try {
+			long remaining = timeoutNanos;
+			while (true) {
+				Position position = game.logic.getPosition();
+				if (position.getSideToMove() == side && !game.logic.isGameOver())
+					return position;
+				if (remaining <= 0 || games.get(id) != game)
+					return null;
+				remaining = game.changed.awaitNanos(remaining);
+			}
+		} finally {
+			game.lock.unlock();
+		}
+	}
+
+	/**
+	 * Plays a move for the given side. A move that ends the game starts a new
+	 * one.
+	 *
+	 * @param id   id of the game
+	 * @param side side that plays the move
+	 * @param move encoded move, see {@link Move}
+	 * @return false if there is no such game, the side isn't to move or the move
+	 *         is illegal
+	 */
+	public boolean play(long id, int side, int move) {
+		Game game = games.get(id);
+		if (game == null) {
+			rejectedMoves.increment();
+			return false;
+		}
+		game.lock.lock();
+		try {
+			Position position = game.logic.getPosition();
+			if (game.logic.isGameOver() || position.getSideToMove() != side || !position.isLegal(move)) {
+				rejectedMoves.increment();
+				return false;
+			}
+			game.logic.playMove(move);
+			moves.increment();
+			if (game.logic.isGameOver()) {
+				finishedGames.increment();
+				game.logic.newGame();
+			}
+			game.changed.signalAll();
+			return true;
+		} finally {
+			game.lock.unlock();
+		}
+	}
+
+	public int getGames() {
+		return games.size();
+	}
+
+	public long getMoves() {
+		return moves.sum();
+	}
+
+	public long getRejectedMoves() {
+		return rejectedMoves.sum();
+	}
+
+	public long getFinishedGames() {
+		return finishedGames.sum();
+	}
+
+}
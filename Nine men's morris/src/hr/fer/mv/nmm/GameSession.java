@@ -0,0 +1,76 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Game between two players of the hosted version, created by the
+ * {@link Matchmaker} once it finds them a match. A session only holds the
+ * players and the position, it has no display, so a server can keep many of
+ * them.
+ * <p>
+ * A session is not thread safe, moves of one session have to be played by one
+ * thread at a time.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameSession {
+
+	private final long id;
+	private final int player1;
+	private final int player2;
+	private final Position position;
+	private final long createdNanos;
+
+	/**
+	 * Creates a session in the starting position of the given rules.
+	 *
+	 * @param id      id of the session
+	 * @param player1 id of the player that moves first
+	 * @param player2 id of the other player
+	 * @param rules   rules of the game
+	 */
+	public GameSession(long id, int player1, int player2, RuleSet rules) {
+		this.id = id;
+		this.player1 = player1;
+		this.player2 = player2;
+		this.position = new Position(rules);
+		this.createdNanos = System.nanoTime();
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the id of the player that plays the given side.
+	 *
+	 * @param side {@link Position#PLAYER1} or {@link Position#PLAYER2}
+	 * @return id of the player
+	 */
+	public int getPlayer(int side) {
+		return side == Position.PLAYER1 ? player1 : player2;
+	}
+
+	/**
+	 * Returns the position of the game, moves are played on it directly.
+	 *
+	 * @return position of the game
+	 */
+	public Position getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the time the session was created, in {@link System#nanoTime()}.
+	 *
+	 * @return creation time
+	 */
+	public long getCreatedNanos() {
+		return createdNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "Session " + id + ": " + player1 + " vs " + player2;
+	}
+
+}
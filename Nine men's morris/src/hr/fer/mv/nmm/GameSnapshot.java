@@ -0,0 +1,165 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Immutable state of a game at one moment, published by a {@link GameActor}
+ * after every change. It holds everything needed to draw the game: tokens,
+ * tokens left to place, the selected token, highlighted points, texts for the
+ * player and the result once the game is over.
+ * <p>
+ * Texts and moves come with counters that grow every time a new text is shown
+ * or a move is played, so a display that skipped some snapshots can still tell
+ * if it has to start an animation.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class GameSnapshot {
+
+	private final long version;
+	private final Position position;
+	private final int selectedPoint;
+	private final int highlightedPoints;
+	private final String directionText;
+	private final long directionTextNumber;
+	private final String toolTipText;
+	private final long toolTipTextNumber;
+	private final int lastMove;
+	private final long moveNumber;
+	private final boolean gameOver;
+	private final int winner;
+	private final String resultText;
+
+	GameSnapshot(long version, Position position, int selectedPoint, int highlightedPoints, String directionText,
+			long directionTextNumber, String toolTipText, long toolTipTextNumber, int lastMove, long moveNumber,
+			boolean gameOver, int winner, String resultText) {
+		this.version = version;
+		this.position = new Position(position);
+		this.selectedPoint = selectedPoint;
+		this.highlightedPoints = highlightedPoints;
+		this.directionText = directionText;
+		this.directionTextNumber = directionTextNumber;
+		this.toolTipText = toolTipText;
+		this.toolTipTextNumber = toolTipTextNumber;
+		this.lastMove = lastMove;
+		this.moveNumber = moveNumber;
+		this.gameOver = gameOver;
+		this.winner = winner;
+		this.resultText = resultText;
+	}
+
+	/**
+	 * Returns a number that is larger in every later snapshot of the same game.
+	 *
+	 * @return version of the snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns a copy of the position, changing it doesn't change the snapshot.
+	 *
+	 * @return position of the game
+	 */
+	public Position getPosition() {
+		return new Position(position);
+	}
+
+	public RuleSet getRules() {
+		return position.getRules();
+	}
+
+	public int getTokens(int player) {
+		return position.getTokens(player);
+	}
+
+	public int getTokensToPlace(int player) {
+		return position.getTokensToPlace(player);
+	}
+
+	public int getSideToMove() {
+		return position.getSideToMove();
+	}
+
+	public boolean isRemovalPending() {
+		return position.isRemovalPending();
+	}
+
+	/**
+	 * Returns the point of the token the current player selected.
+	 *
+	 * @return index of the point or -1 if no token is selected
+	 */
+	public int getSelectedPoint() {
+		return selectedPoint;
+	}
+
+	/**
+	 * Returns the points the player can move the hovered token to, or tokens he
+	 * can remove.
+	 *
+	 * @return bitmask of point indexes
+	 */
+	public int getHighlightedPoints() {
+		return highlightedPoints;
+	}
+
+	public String getDirectionText() {
+		return directionText;
+	}
+
+	public long getDirectionTextNumber() {
+		return directionTextNumber;
+	}
+
+	/**
+	 * Returns the last tool tip text, which explains why an action wasn't
+	 * allowed.
+	 *
+	 * @return tool tip text, empty if none was shown yet
+	 */
+	public String getToolTipText() {
+		return toolTipText;
+	}
+
+	public long getToolTipTextNumber() {
+		return toolTipTextNumber;
+	}
+
+	/**
+	 * Returns the last move that was played, see {@link Move}.
+	 *
+	 * @return encoded move or {@link Move#NULL} if no move was played yet
+	 */
+	public int getLastMove() {
+		return lastMove;
+	}
+
+	public long getMoveNumber() {
+		return moveNumber;
+	}
+
+	public boolean isGameOver() {
+		return gameOver;
+	}
+
+	/**
+	 * Returns the winner of a game that is over.
+	 *
+	 * @return {@link Position#PLAYER1}, {@link Position#PLAYER2} or
+	 *         {@link Position#NO_WINNER} for a draw or a game that isn't over
+	 */
+	public int getWinner() {
+		return winner;
+	}
+
+	/**
+	 * Returns a readable description of the result.
+	 *
+	 * @return result of the game or null if the game isn't over
+	 */
+	public String getResultText() {
+		return resultText;
+	}
+
+}
@@ -0,0 +1,257 @@
+package hr.fer.mv.nmm;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Finds how many concurrent games a node sustains. Simulated players are paired
+ * into games on a {@link GameServer} in this process. Each player waits for its
+ * turn, thinks for a time drawn from a distribution and plays a random legal
+ * move. The time the server takes to accept a move is its latency.
+ * <p>
+ * Every player runs on its own virtual thread when the runtime has them (Java
+ * 21 and later), otherwise on a platform thread with a small stack. Results are
+ * measured after a warm up: moves and finished games per second, move latency
+ * percentiles and pauses reported by the garbage collectors. They are printed
+ * and written as JSON to the results file, so runs of different builds can be
+ * compared.
+ * <p>
+ * Think time is given as <code>none</code>, <code>fixed:ms</code>,
+ * <code>uniform:min-max</code>, <code>exponential:mean</code> or
+ * <code>lognormal:median,sigma</code>.
+ * <p>
+ * Arguments: <code>[players] [seconds] [think time] [results file] [warm up
+ * seconds]</code>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class LoadTest {
+
+	// Players check if the test is over at least this often
+	private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	// Stack of a platform thread running one player
+	private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+	private LoadTest() {
+	}
+
+	/**
+	 * Distribution of the time a player thinks before a move.
+	 */
+	private interface ThinkTime {
+		long sampleNanos(SplittableRandom random);
+
+		static ThinkTime valueOf(String text) {
+			String[] parts = text.split(":", 2);
+			String kind = parts[0].toLowerCase(Locale.ROOT);
+			if (kind.equals("none"))
+				return random -> 0;
+			if (parts.length < 2)
+				throw new IllegalArgumentException("Think time needs parameters: " + text);
+			String[] values = parts[1].split("[-,]");
+			double first = Double.parseDouble(values[0]) * 1e6;
+			double second = values.length > 1 ? Double.parseDouble(values[1]) : 0;
+			switch (kind) {
+			case "fixed":
+				return random -> (long) first;
+			case "uniform":
+				double last = second * 1e6;
+				return random -> (long) (first + random.nextDouble() * (last - first));
+			case "exponential":
+				return random -> (long) (-first * Math.log(1 - random.nextDouble()));
+			case "lognormal":
+				return random -> (long) (first * Math.exp(second * gaussian(random)));
+			default:
+				throw new IllegalArgumentException("Unknown think time: " + text);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		String thinkText = args.length > 2 ? args[2] : "exponential:200";
+		Path file = Paths.get(args.length > 3 ? args[3] : "loadtest.json");
+		int warmUpSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+		ThinkTime think = ThinkTime.valueOf(thinkText);
+		RuleSet rules = Dependencies.RULE_SET;
+
+		GameServer server = new GameServer();
+		long[] games = new long[(players + 1) / 2];
+		for (int g = 0; g < games.length; g++)
+			games[g] = server.createGame(rules);
+
+		LatencyHistogram moveLatency = new LatencyHistogram();
+		LatencyHistogram gcPauses = new LatencyHistogram();
+		LongAdder failures = new LongAdder();
+		listenToCollectors(gcPauses);
+		boolean virtual = hasVirtualThreads();
+		ExecutorService executor = playerExecutor(virtual);
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(warmUpSeconds + seconds);
+		for (int p = 0; p < players; p++) {
+			long game = games[p / 2];
+			int side = p % 2 == 0 ? Position.PLAYER1 : Position.PLAYER2;
+			SplittableRandom random = new SplittableRandom(p);
+			executor.execute(() -> {
+				try {
+					play(server, game, side, think, random, end, moveLatency);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException e) {
+					failures.increment();
+					e.printStackTrace();
+				}
+			});
+		}
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmUpSeconds));
+		moveLatency.reset();
+		gcPauses.reset();
+		long measuredStart = System.nanoTime();
+		long startMoves = server.getMoves();
+		long startFinished = server.getFinishedGames();
+		long startGcTime = collectionTimeMiliseconds();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+		long measuredNanos = System.nanoTime() - measuredStart;
+		long moves = server.getMoves() - startMoves;
+		long finished = server.getFinishedGames() - startFinished;
+		long gcTime = collectionTimeMiliseconds() - startGcTime;
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		double movesPerSecond = moves * 1e9 / measuredNanos;
+		double gamesPerSecond = finished * 1e9 / measuredNanos;
+		System.out.println(String.format("%d players in %d games on %s threads, think time %s, %d s after %d s warm up",
+				players, games.length, virtual ? "virtual" : "platform", thinkText, seconds, warmUpSeconds));
+		System.out.println(String.format("%d moves (%.0f moves/s), %d games finished (%.1f games/s), %d rejected moves",
+				moves, movesPerSecond, finished, gamesPerSecond, server.getRejectedMoves()));
+		System.out.println("Move latency: " + moveLatency);
+		System.out.println(String.format("GC: %d pauses, %d ms in collections, %s", gcPauses.getCount(), gcTime,
+				gcPauses));
+
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write(String.format(Locale.ROOT,
+					"{\n  \"java\": \"%s\",\n  \"players\": %d,\n  \"games\": %d,\n  \"threads\": \"%s\",\n"
+							+ "  \"thinkTime\": \"%s\",\n  \"seconds\": %d,\n  \"warmUpSeconds\": %d,\n"
+							+ "  \"moves\": %d,\n  \"movesPerSecond\": %.1f,\n  \"finishedGames\": %d,\n"
+							+ "  \"gamesPerSecond\": %.2f,\n  \"rejectedMoves\": %d,\n  \"failures\": %d,\n",
+					System.getProperty("java.version"), players, games.length, virtual ? "virtual" : "platform",
+					thinkText, seconds, warmUpSeconds, moves, movesPerSecond, finished, gamesPerSecond,
+					server.getRejectedMoves(), failures.sum()));
+			out.write("  \"moveLatencyMiliseconds\": " + percentiles(moveLatency) + ",\n");
+			out.write(String.format(Locale.ROOT, "  \"gcPauses\": %d,\n  \"gcTimeMiliseconds\": %d,\n",
+					gcPauses.getCount(), gcTime));
+			out.write("  \"gcPauseMiliseconds\": " + percentiles(gcPauses) + "\n}\n");
+		}
+		System.out.println("Results written to " + file.toAbsolutePath());
+		if (server.getRejectedMoves() > 0 || failures.sum() > 0)
+			System.exit(1);
+	}
+
+	// Plays one side of a game until the end of the test
+	private static void play(GameServer server, long game, int side, ThinkTime think, SplittableRandom random,
+			long end, LatencyHistogram latency) throws InterruptedException {
+		int[] moves = new int[Position.MAX_MOVES];
+		while (System.nanoTime() < end) {
+			Position position = server.awaitTurn(game, side, Math.min(POLL_NANOS, end - System.nanoTime()));
+			if (position == null)
+				continue;
+			long thinkNanos = Math.min(think.sampleNanos(random), end - System.nanoTime());
+			if (thinkNanos > 0)
+				TimeUnit.NANOSECONDS.sleep(thinkNanos);
+			int n = position.generateMoves(moves);
+			// The server ends a game whose player to move is blocked
+			if (n == 0)
+				throw new IllegalStateException("Server offered a position without moves in game " + game + ": "
+						+ position);
+			int move = moves[random.nextInt(n)];
+			long t = System.nanoTime();
+			boolean accepted = server.play(game, side, move);
+			latency.record(System.nanoTime() - t);
+			if (!accepted)
+				throw new IllegalStateException("Server rejected a legal move in game " + game);
+		}
+	}
+
+	// Records the duration of every collection that ends from now on
+	private static void listenToCollectors(LatencyHistogram pauses) {
+		NotificationListener listener = (notification, handback) -> {
+			if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+				return;
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+					.from((CompositeData) notification.getUserData());
+			pauses.record(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+		};
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			if (bean instanceof NotificationEmitter)
+				((NotificationEmitter) bean).addNotificationListener(listener, null, null);
+	}
+
+	private static long collectionTimeMiliseconds() {
+		long time = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, bean.getCollectionTime());
+		return time;
+	}
+
+	private static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	// Virtual threads are created through reflection so the harness also runs
+	// on runtimes without them
+	private static ExecutorService playerExecutor(boolean virtual) {
+		if (virtual) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				e.printStackTrace();
+			}
+		}
+		LongAdder created = new LongAdder();
+		return Executors.newCachedThreadPool(r -> {
+			created.increment();
+			Thread thread = new Thread(null, r, "Player " + created.sum(), PLATFORM_STACK_SIZE);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static String percentiles(LatencyHistogram histogram) {
+		return String.format(Locale.ROOT, "{ \"p50\": %.3f, \"p99\": %.3f, \"p999\": %.3f, \"max\": %.3f, \"mean\": %.3f }",
+				histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(99) / 1e6,
+				histogram.getPercentileNanos(99.9) / 1e6, histogram.getMaxNanos() / 1e6,
+				histogram.getMeanNanos() / 1e6);
+	}
+
+	// Standard normal value from two uniform ones (Box-Muller)
+	private static double gaussian(SplittableRandom random) {
+		return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+	}
+
+}
@@ -2,7 +2,6 @@ package hr.fer.mv.nmm;
 
 import java.awt.Point;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,7 +17,8 @@ import java.util.Map;
  * list). For this point you can find out to which mills it contributes and
  * which points are it's neighbours.
  * <p>
- * Information about the board can be found in {@link Dependencies}.
+ * Mills and neighbours are taken from the {@link BoardTopology} of
+ * {@link Dependencies#RULE_SET}.
  * 
  * @author Matija Videkovi
  *
@@ -47,59 +47,42 @@ public class MPoint {
 	public MPoint(int s, int p) {
 		square = s;
 		place = p;
-		if (mills == null) {
-			mills = new HashMap<>();
-			Map<MPoint, List<Mill>> millsLists = new HashMap<>();
-			for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-				for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++)
-					millsLists.put(new MPoint(i, j), new ArrayList<Mill>());
-			for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-				for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j += 2) {
-					MPoint i_j = new MPoint(i, j);
-					MPoint i_j1 = new MPoint(i, j + 1);
-					MPoint i_j2 = new MPoint(i, (j + 2) % Dependencies.NUMBER_OF_POINTS_PER_SQARE);
-					Mill m1 = new Mill(i_j, i_j1, i_j2);
-					millsLists.get(i_j).add(m1);
-					millsLists.get(i_j1).add(m1);
-					millsLists.get(i_j2).add(m1);
-					if (i == 0) {
-						// mills that connect squares together
-						MPoint i1_j1 = new MPoint(i + 1, j + 1);
-						MPoint i2_j1 = new MPoint(i + 2, j + 1);
-						Mill m2 = new Mill(i_j1, i1_j1, i2_j1);
-						millsLists.get(i_j1).add(m2);
-						millsLists.get(i1_j1).add(m2);
-						millsLists.get(i2_j1).add(m2);
-					}
+		if (mills == null)
+			buildTables();
+	}
+
+	// Builds mills and neighbours of every point from the topology of the board
+	private static void buildTables() {
+		mills = new HashMap<>();
+		neighbours = new HashMap<>();
+		BoardTopology topology = Dependencies.RULE_SET.getTopology();
+		for (int i = 0; i < topology.getNumberOfPoints(); i++) {
+			MPoint p = new MPoint(Position.squareOf(i), Position.placeOf(i));
+			int[] pointMills = topology.getPointMills(i);
+			Mill[] millArray = new Mill[pointMills.length];
+			for (int k = 0; k < pointMills.length; k++) {
+				int mask = pointMills[k];
+				// The middle point of the chain neighbours both other points
+				int middle = 0;
+				for (int m = mask; m != 0; m &= m - 1) {
+					int index = Integer.numberOfTrailingZeros(m);
+					if ((topology.getNeighbours(index) & mask) == (mask & ~(1 << index)))
+						middle = index;
 				}
-			for (MPoint k : millsLists.keySet()) {
-				Object[] array = millsLists.get(k).toArray();
-				mills.put(k, Arrays.copyOf(array, array.length, Mill[].class));
+				int ends = mask & ~(1 << middle);
+				int first = Integer.numberOfTrailingZeros(ends);
+				int last = 31 - Integer.numberOfLeadingZeros(ends);
+				millArray[k] = new Mill(new MPoint(Position.squareOf(first), Position.placeOf(first)),
+						new MPoint(Position.squareOf(middle), Position.placeOf(middle)),
+						new MPoint(Position.squareOf(last), Position.placeOf(last)));
 			}
-		}
-		if (neighbours == null) {
-			neighbours = new HashMap<>();
-			Map<MPoint, List<MPoint>> neighboursLists = new HashMap<>();
-			for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-				for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++)
-					neighboursLists.put(new MPoint(i, j), new ArrayList<MPoint>());
-
-			for (int i = 0; i < Dependencies.NUMBER_OF_SQARES; i++)
-				for (int j = 0; j < Dependencies.NUMBER_OF_POINTS_PER_SQARE; j++) {
-					MPoint i_j = new MPoint(i, j);
-					for (int k = i; k < Dependencies.NUMBER_OF_SQARES; k++)
-						for (int l = j; l < Dependencies.NUMBER_OF_POINTS_PER_SQARE; l++) {
-							MPoint k_l = new MPoint(k, l);
-							if (k_l.isNeighbour(i_j)) {
-								neighboursLists.get(i_j).add(k_l);
-								neighboursLists.get(k_l).add(i_j);
-							}
-						}
-				}
-			for (MPoint k : neighboursLists.keySet()) {
-				Object[] array = neighboursLists.get(k).toArray();
-				neighbours.put(k, Arrays.copyOf(array, array.length, MPoint[].class));
+			mills.put(p, millArray);
+			List<MPoint> neighbourList = new ArrayList<>();
+			for (int n = topology.getNeighbours(i); n != 0; n &= n - 1) {
+				int index = Integer.numberOfTrailingZeros(n);
+				neighbourList.add(new MPoint(Position.squareOf(index), Position.placeOf(index)));
 			}
+			neighbours.put(p, neighbourList.toArray(new MPoint[neighbourList.size()]));
 		}
 	}
 
@@ -170,29 +153,37 @@ public class MPoint {
 
 	
 	/**
-	 * Checks if the given point is neighbouring this point.
+	 * Checks if the given point is neighbouring this point on the board of
+	 * {@link Dependencies#RULE_SET}.
 	 * 
 	 * @param p point to check
 	 * @return true if this point is neighbouring the given point, false if not
+	 * @deprecated use {@link #isNeighbour(MPoint, BoardTopology)} with the board
+	 *             of the game
 	 */
+	@Deprecated
 	public boolean isNeighbour(MPoint p) {
-		if (square == p.square) {
-			if (getNextNeighbourPlace() == p.place || getPreviousNeighbourPlace() == p.place)
-				return true;
-			return false;
-		}
-		if (place % 2 != 0)
-			if (Math.abs(p.square - square) <= 1 && place == p.place)
-				return true;
-		return false;
+		return isNeighbour(p, Dependencies.RULE_SET.getTopology());
 	}
 
-	private int getNextNeighbourPlace() {
-		return (place + 1) % Dependencies.NUMBER_OF_POINTS_PER_SQARE;
+	/**
+	 * Checks if the given point is neighbouring this point on the given board.
+	 * 
+	 * @param p        point to check
+	 * @param topology board both points are on
+	 * @return true if this point is neighbouring the given point, false if not or
+	 *         if either point isn't on the board, like {@link #NULL}
+	 */
+	public boolean isNeighbour(MPoint p, BoardTopology topology) {
+		if (!isOnBoard(topology) || !p.isOnBoard(topology))
+			return false;
+		return topology.areNeighbours(Position.indexOf(this), Position.indexOf(p));
 	}
 
-	private int getPreviousNeighbourPlace() {
-		return ((place - 1) == -1 ? Dependencies.NUMBER_OF_POINTS_PER_SQARE - 1 : place - 1);
+	// Points outside the board have no index in the topology
+	private boolean isOnBoard(BoardTopology topology) {
+		return square >= 0 && square < topology.getSquares() && place >= 0
+				&& place < BoardTopology.POINTS_PER_SQUARE;
 	}
 
 	/**
@@ -2,47 +2,85 @@ package hr.fer.mv.nmm;
 
 import java.awt.BorderLayout;
 import java.awt.Font;
-import java.awt.FontFormatException;
 import java.awt.Image;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
-import javax.imageio.ImageIO;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.WindowConstants;
 
+/**
+ * Main window of the game. The frame is shown right away with a board drawn
+ * using {@link java.awt.Graphics}, while images and fonts are loaded by the
+ * {@link AssetLoader} on background threads. Loaded assets are swapped into the
+ * {@link GameBoardDisplay} as soon as they are ready. The {@link AnalysisCache}
+ * and the {@link GameJournal} are opened in the background as well, searches
+ * run without the cache until then and an unfinished game is restored when the
+ * journal has been replayed.
+ * 
+ * @author Matija Videkovi
+ *
+ */
 public class MainFrame extends JFrame {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	// Class is loaded when the program starts, used for measuring startup time
+	private static final long START_NANOS = System.nanoTime();
 
-	private BufferedImage blackTokenImg, whiteTokenImg, backgroundImage;
 	private GameLogic gameLogic;
+	// Plays the game on its own thread, the frame only sends it actions
+	private GameActor game;
 	private JLabel blackTokenCountLable;
 	private JLabel whiteTokenCountLable;
-	private Font playerDirectionTextFont;
-	private Font toolTipTextFont;
+	// Opened on a background thread, it is replayed from its log
+	private CompletableFuture<AnalysisCache> analysisCache;
+	// Created the first time the computer is enabled, only used on the event
+	// dispatch thread
+	private ComputerOpponent computer;
+	private boolean computerStarting;
+	// Clock of the game and the timer that shows it, null while playing without
+	// time limits
+	private GameClock clock;
+	private Timer clockTimer;
+	private JLabel clockLabel;
 
+	/**
+	 * Creates the main window and starts loading assets.
+	 */
 	public MainFrame() {
+		this(AssetLoader.loadAsync());
+	}
+
+	/**
+	 * Creates the main window. Assets are applied when the given future
+	 * completes.
+	 * 
+	 * @param assets future holding assets that are being loaded
+	 */
+	public MainFrame(CompletableFuture<AssetLoader.Assets> assets) {
 		// Frame initialization
 		setSize(Dependencies.FRAME_SIZE);
-		setResizable(false);
+		setMinimumSize(Dependencies.MINIMUM_FRAME_SIZE);
 		setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
 		setTitle(Dependencies.GAME_NAME);
 		this.setFocusable(true);
-		setVisible(true);
 
+		JPanel southPanel = new JPanel(new BorderLayout());
 		JButton confirmBtn = new JButton("Confirm");
-		confirmBtn.addActionListener(e -> gameLogic.confirmAction());
-		add(confirmBtn, BorderLayout.SOUTH);
+		confirmBtn.addActionListener(e -> game.confirmAction());
+		southPanel.add(confirmBtn, BorderLayout.SOUTH);
+		add(southPanel, BorderLayout.SOUTH);
 
 		JPanel infoPanel = new JPanel();
 		JLabel blackTCL = new JLabel("Black token count: ");
@@ -57,39 +95,36 @@ public class MainFrame extends JFrame {
 		infoPanel.add(whiteTokenCountLable);
 		add(infoPanel, BorderLayout.NORTH);
 
-		// Load dependencies
-		try (InputStream backgroundImageIS = getClass()
-				.getResourceAsStream(Dependencies.DEPENDENCIES_ROOT_PATH + "/" + Dependencies.GAME_BOARD_IMG);
-				InputStream blackTokenImgIS = getClass()
-						.getResourceAsStream(Dependencies.DEPENDENCIES_ROOT_PATH + "/" + Dependencies.BLACK_TOKEN_IMG);
-				InputStream whiteTokenImgIS = getClass()
-						.getResourceAsStream(Dependencies.DEPENDENCIES_ROOT_PATH + "/" + Dependencies.WHITE_TOKEN_IMG);
-				InputStream fontIS = getClass().getResourceAsStream(
-						Dependencies.DEPENDENCIES_ROOT_PATH + "/" + Dependencies.PLAYER_DIRECTION_TEXT_FONT)) {
-			backgroundImage = ImageIO.read(backgroundImageIS);
-			blackTokenImg = ImageIO.read(blackTokenImgIS);
-			whiteTokenImg = ImageIO.read(whiteTokenImgIS);
-			playerDirectionTextFont = Font.createFont(Font.TRUETYPE_FONT, fontIS)
-					.deriveFont(Dependencies.PLAYER_DIRECTION_TEXT_SIZE);
-			toolTipTextFont = playerDirectionTextFont.deriveFont(Dependencies.TOOL_TIP_TEXT_SIZE);
-		} catch (IOException | FontFormatException | SecurityException | NullPointerException e) {
-			e.printStackTrace();
-		}
-		if (backgroundImage != null)
-			setIconImage(backgroundImage);
-		if (playerDirectionTextFont != null) {
-			blackTCL.setFont(playerDirectionTextFont);
-			blackTokenCountLable.setFont(playerDirectionTextFont);
-			whiteTCL.setFont(playerDirectionTextFont);
-			whiteTokenCountLable.setFont(playerDirectionTextFont);
-		}
+		// Board is drawn without images until the assets are loaded
+		GameBoardDisplay gameDisplay = new GameBoardDisplay(null, new Image[] { null, null },
+				new JLabel[] { blackTokenCountLable, whiteTokenCountLable }, null, null);
+		gameDisplay.setFirstPaintListener(e -> System.out.println(
+				"Time to first frame: " + (System.nanoTime() - START_NANOS) / 1_000_000 + " ms"));
 
-		GameBoardDisplay gameDisplay = new GameBoardDisplay(backgroundImage,
-				new Image[] { blackTokenImg, whiteTokenImg },
-				new JLabel[] { blackTokenCountLable, whiteTokenCountLable }, playerDirectionTextFont, toolTipTextFont);
+		// Game is set up before the actor thread starts, afterwards only the actor
+		// touches it
+		gameLogic = new GameLogic();
+		game = new GameActor(gameLogic);
+		clockLabel = new JLabel();
+		infoPanel.add(clockLabel);
+		if (Dependencies.TIME_CONTROL != null)
+			startClock(Dependencies.TIME_CONTROL);
+		gameDisplay.setGame(game);
+		game.addListener(new GameActor.Listener() {
+			@Override
+			public void stateChanged(GameSnapshot snapshot) {
+			}
 
-		gameLogic = new GameLogic(gameDisplay);
-		gameDisplay.setGameLogic(gameLogic);
+			@Override
+			public void gameEnded(GameSnapshot snapshot) {
+				SwingUtilities.invokeLater(() -> showGameEndDialog(snapshot));
+			}
+		});
+
+		analysisCache = CompletableFuture.supplyAsync(MainFrame::openAnalysisCache);
+		AnalysisPanel analysisPanel = new AnalysisPanel(game, gameDisplay);
+		analysisCache.thenAccept(analysisPanel::setAnalysisCache);
+		southPanel.add(analysisPanel, BorderLayout.NORTH);
 
 		this.add(gameDisplay, BorderLayout.CENTER);
 
@@ -102,34 +137,179 @@ public class MainFrame extends JFrame {
 			@Override
 			public void keyReleased(KeyEvent keyEvent) {
 				if (keyEvent.getKeyCode() == KeyEvent.VK_R)
-					gameLogic.specialAction();
+					game.specialAction();
 				else if (keyEvent.getKeyCode() == KeyEvent.VK_SPACE)
-					gameLogic.confirmAction();
+					game.confirmAction();
+				else if (keyEvent.getKeyCode() == KeyEvent.VK_A)
+					analysisPanel.setAnalysisEnabled(!analysisPanel.isAnalysisEnabled());
+				else if (keyEvent.getKeyCode() == KeyEvent.VK_C)
+					toggleComputer();
+				else if (keyEvent.getKeyCode() == KeyEvent.VK_T)
+					toggleClock();
 			}
 
 			@Override
 			public void keyPressed(KeyEvent keyEvent) {
 			}
 		});
+		game.start();
+		openJournal();
+		setVisible(true);
 
-		gameDisplay.showConfirmDialog(
+		assets.thenAccept(a -> SwingUtilities.invokeLater(() -> {
+			System.out.println("Assets loaded after " + (System.nanoTime() - START_NANOS) / 1_000_000 + " ms");
+			if (a.getBackgroundImage() != null)
+				setIconImage(a.getBackgroundImage());
+			// Board image only shows the classic board, other boards are drawn
+			if (Dependencies.RULE_SET.getTopology() == BoardTopology.THREE_SQUARES)
+				gameDisplay.setBackgroundImage(a.getBackgroundImage());
+			gameDisplay.setTokenImages(new Image[] { a.getBlackTokenImage(), a.getWhiteTokenImage() });
+			if (a.getFont() != null) {
+				Font playerDirectionTextFont = a.getFont().deriveFont(Dependencies.PLAYER_DIRECTION_TEXT_SIZE);
+				Font toolTipTextFont = a.getFont().deriveFont(Dependencies.TOOL_TIP_TEXT_SIZE);
+				blackTCL.setFont(playerDirectionTextFont);
+				blackTokenCountLable.setFont(playerDirectionTextFont);
+				whiteTCL.setFont(playerDirectionTextFont);
+				whiteTokenCountLable.setFont(playerDirectionTextFont);
+				gameDisplay.setFonts(playerDirectionTextFont, toolTipTextFont);
+				analysisPanel.setResultFont(a.getFont().deriveFont(Dependencies.ANALYSIS_TEXT_SIZE));
+			}
+			gameDisplay.repaint();
+		}));
+
+		// Welcome dialog is shown after the first frame, assets keep loading behind it
+		SwingUtilities.invokeLater(() -> gameDisplay.showConfirmDialog(
 				"Greetings, traveler!\n\n" + "Welcome to the game of Merels.\n"
 						+ "Your goal is to place three tokens in a horizontal line or a vertical line.\n"
 						+ "After you have done this you are allowed to take one of your opponents tokens.\n"
-						+ "Beware! If you are left with 2 tokens you lose.\n" + "If you are unable to move, you lose.\n"
+						+ "Beware! If you are left with 2 tokens you lose.\n" + "If you are unable to move or your time runs out, you lose.\n"
 						+ "So grab a friend and sit down for a game of Merels!\n\n" + "Controls:\n" + "R - surrender\n"
-						+ "Space (Confirm button) - confirm your selection\n\n" + "Do you wish to play the game?",
-				"Welcome to Merels!");
+						+ "Space (Confirm button) - confirm your selection\n" + "A - show analysis of the game\n" + "C - play against the computer\n"
+						+ "T - play with a clock of " + Dependencies.OFFERED_TIME_CONTROL + "\n\n"
+						+ "Do you wish to play the game?",
+				"Welcome to Merels!"));
 	}
 
-	public static void main(String[] args) {
+	// Clocks are shown above the board, time running out is sent to the game
+	// actor like any other action. Both players start with the full time when
+	// the clock is switched on during a game
+	private void startClock(TimeControl timeControl) {
+		GameClock gameClock = new GameClock(timeControl, TimerWheel.shared());
+		gameClock.setListener((c, player) -> game.timeoutAction());
+		game.execute(g -> g.setClock(gameClock));
+		clock = gameClock;
+		clockTimer = new Timer(Dependencies.CLOCK_REFRESH_MILISECONDS, e -> clockLabel.setText(formatTime(
+				gameClock.getRemainingMiliseconds(0)) + " : " + formatTime(gameClock.getRemainingMiliseconds(1))));
+		clockTimer.start();
+	}
+
+	private void stopClock() {
+		game.execute(g -> g.setClock(null));
+		clockTimer.stop();
+		clockTimer = null;
+		clock = null;
+		clockLabel.setText("");
+	}
+
+	private void toggleClock() {
+		if (clock == null)
+			startClock(Dependencies.OFFERED_TIME_CONTROL);
+		else
+			stopClock();
+	}
+
+	// The computer player allocates its whole search tree, so it is created on a
+	// background thread the first time it is enabled, not before the first frame
+	private void toggleComputer() {
+		if (computer != null) {
+			computer.setEnabled(!computer.isEnabled());
+			return;
+		}
+		if (computerStarting)
+			return;
+		computerStarting = true;
+		CompletableFuture.supplyAsync(() -> {
+			MctsPlayer player = new MctsPlayer(Runtime.getRuntime().availableProcessors(),
+					Dependencies.COMPUTER_THINKING_TIME_MILISECONDS);
+			analysisCache.thenAccept(player::setAnalysisCache);
+			return player;
+		}).whenComplete((player, e) -> SwingUtilities.invokeLater(() -> {
+			computerStarting = false;
+			if (e != null) {
+				e.printStackTrace();
+				return;
+			}
+			computer = new ComputerOpponent(game, player, Position.PLAYER2);
+			computer.setEnabled(true);
+		}));
+	}
+
+	// The game waits until the player decides, the board keeps painting while the
+	// dialog is open
+	private void showGameEndDialog(GameSnapshot snapshot) {
+		int option = JOptionPane.showConfirmDialog(this, snapshot.getResultText() + "\n Do you want to play again?",
+				"GAMEOVER", JOptionPane.YES_NO_OPTION);
+		if (option == JOptionPane.NO_OPTION || option == JOptionPane.CLOSED_OPTION)
+			System.exit(0);
+		game.newGame();
+	}
+
+	private static String formatTime(long miliseconds) {
+		long seconds = (miliseconds + 999) / 1000;
+		return String.format("%d:%02d", seconds / 60, seconds % 60);
+	}
+
+	// Journal is replayed on a background thread and given to the game actor, which
+	// restores the unfinished game if no move was played meanwhile. The game is
+	// still playable if the journal can't be opened
+	private void openJournal() {
+		CompletableFuture.runAsync(() -> {
+			try {
+				long start = System.nanoTime();
+				GameJournal journal = new GameJournal(Paths.get(Dependencies.JOURNAL_PATH));
+				System.out.println("Journal replayed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					try {
+						journal.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}));
+				game.execute(g -> g.setJournal(journal, Dependencies.JOURNAL_GAME_ID));
+			} catch (IOException | SecurityException e) {
+				e.printStackTrace();
+			}
+		});
+	}
+
+	// Analysis of earlier sessions, engines search without it if it can't be
+	// opened
+	private static AnalysisCache openAnalysisCache() {
 		try {
-			SwingUtilities.invokeAndWait(() -> {
-				MainFrame mainFrame = new MainFrame();
-			});
-		} catch (InvocationTargetException | InterruptedException e) {
+			long start = System.nanoTime();
+			AnalysisCache cache = new AnalysisCache(Paths.get(Dependencies.ANALYSIS_CACHE_PATH),
+					Dependencies.ANALYSIS_CACHE_CAPACITY);
+			System.out.println("Analysis cache with " + cache.size() + " entries loaded in "
+					+ (System.nanoTime() - start) / 1_000_000 + " ms");
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					System.out.println("Analysis cache: " + cache);
+					cache.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}));
+			return cache;
+		} catch (IOException | SecurityException e) {
 			e.printStackTrace();
+			return null;
 		}
 	}
 
+	public static void main(String[] args) {
+		// Decoding starts before the event dispatch thread builds the frame
+		CompletableFuture<AssetLoader.Assets> assets = AssetLoader.loadAsync();
+		SwingUtilities.invokeLater(() -> new MainFrame(assets));
+	}
+
 }
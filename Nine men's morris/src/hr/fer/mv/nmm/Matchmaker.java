@@ -0,0 +1,392 @@
+package hr.fer.mv.nmm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pairs waiting players of the hosted version by rating. Waiting players are
+ * kept in buckets of {@link #BUCKET_WIDTH} rating points, every bucket is a
+ * concurrent skip list sorted by rating, so players can join and leave from
+ * any thread without a lock.
+ * <p>
+ * Players are paired in sweeps that run every
+ * {@link #SWEEP_INTERVAL_MILISECONDS}. Buckets are split into stripes that are
+ * swept in parallel. For every waiting player the sweep looks for the closest
+ * rating within the rating window of both players. The window starts at
+ * {@link #INITIAL_WINDOW} and grows with the time a player waits, up to
+ * {@link #MAX_WINDOW}. Neighbouring stripes may try to take the same player,
+ * so both players of a pair are claimed with a compare and set of their state
+ * and a pair that can't be claimed is left for the next sweep.
+ * <p>
+ * Every pair gets a new {@link GameSession}, the player that waited longer
+ * moves first. The session is passed to the future of both tickets and the
+ * time from joining to the session is recorded for every player.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class Matchmaker {
+
+	public static final int MAX_RATING = 4000;
+	public static final int BUCKET_WIDTH = 25;
+	public static final int INITIAL_WINDOW = 50;
+	public static final int WINDOW_GROWTH_PER_SECOND = 100;
+	public static final int MAX_WINDOW = 800;
+	public static final int SWEEP_INTERVAL_MILISECONDS = 10;
+	public static final int STRIPES_PER_THREAD = 4;
+
+	private static final int WAITING = 0;
+	private static final int CLAIMED = 1;
+	private static final int MATCHED = 2;
+	private static final int CANCELLED = 3;
+	private static final AtomicIntegerFieldUpdater<Ticket> STATE = AtomicIntegerFieldUpdater.newUpdater(Ticket.class,
+			"state");
+	private static final Comparator<Ticket> BY_RATING = Comparator.<Ticket>comparingInt(t -> t.rating)
+			.thenComparingLong(t -> t.number);
+
+	/**
+	 * Creates the session of a pair of players.
+	 */
+	public interface SessionFactory {
+		/**
+		 * Creates a new session.
+		 *
+		 * @param id      id of the session
+		 * @param player1 ticket of the player that moves first
+		 * @param player2 ticket of the other player
+		 * @return new session
+		 */
+		GameSession createSession(long id, Ticket player1, Ticket player2);
+	}
+
+	/**
+	 * Place of a player in the queue, returned by {@link Matchmaker#join(int, int)}.
+	 */
+	public static final class Ticket {
+		private final int player;
+		private final int rating;
+		private final long number;
+		private final long joinedNanos;
+		private final CompletableFuture<GameSession> session = new CompletableFuture<>();
+		private volatile int state = WAITING;
+
+		private Ticket(int player, int rating, long number, long joinedNanos) {
+			this.player = player;
+			this.rating = rating;
+			this.number = number;
+			this.joinedNanos = joinedNanos;
+		}
+
+		public int getPlayer() {
+			return player;
+		}
+
+		public int getRating() {
+			return rating;
+		}
+
+		/**
+		 * Returns the time the player joined the queue, in
+		 * {@link System#nanoTime()}.
+		 *
+		 * @return time of joining
+		 */
+		public long getJoinedNanos() {
+			return joinedNanos;
+		}
+
+		/**
+		 * Returns the future completed with the session of the player once he is
+		 * matched, or cancelled if the player leaves the queue.
+		 *
+		 * @return future session of the player
+		 */
+		public CompletableFuture<GameSession> getSession() {
+			return session;
+		}
+
+		public boolean isWaiting() {
+			int s = state;
+			return s == WAITING || s == CLAIMED;
+		}
+
+		@Override
+		public String toString() {
+			return "Ticket of " + player + " (" + rating + ")";
+		}
+	}
+
+	private final int threads;
+	private final SessionFactory factory;
+	private final ForkJoinPool pool;
+	private final int stripes;
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final NavigableSet<Ticket>[] buckets = new NavigableSet[MAX_RATING / BUCKET_WIDTH];
+	private final AtomicLong tickets = new AtomicLong();
+	private final AtomicLong sessions = new AtomicLong();
+	private final LongAdder waiting = new LongAdder();
+	private final LongAdder matches = new LongAdder();
+	private final LongAdder ratingDifference = new LongAdder();
+	private final LatencyHistogram matchLatency = new LatencyHistogram();
+	private ScheduledExecutorService sweeper;
+
+	/**
+	 * Creates a matchmaker whose sessions are games with the given rules.
+	 *
+	 * @param threads number of threads that sweep buckets
+	 * @param rules   rules of the games
+	 */
+	public Matchmaker(int threads, RuleSet rules) {
+		this(threads, (id, player1, player2) -> new GameSession(id, player1.getPlayer(), player2.getPlayer(), rules));
+	}
+
+	/**
+	 * Creates a matchmaker.
+	 *
+	 * @param threads number of threads that sweep buckets
+	 * @param factory creates the session of every pair
+	 */
+	public Matchmaker(int threads, SessionFactory factory) {
+		this.threads = threads;
+		this.factory = factory;
+		pool = new ForkJoinPool(threads);
+		stripes = Math.min(buckets.length, threads * STRIPES_PER_THREAD);
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new ConcurrentSkipListSet<>(BY_RATING);
+	}
+
+	/**
+	 * Starts sweeping every {@link #SWEEP_INTERVAL_MILISECONDS}.
+	 */
+	public synchronized void start() {
+		if (sweeper != null)
+			return;
+		sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Matchmaker");
+			t.setDaemon(true);
+			return t;
+		});
+		sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MILISECONDS, SWEEP_INTERVAL_MILISECONDS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops sweeping and the threads of the matchmaker. Players still waiting
+	 * stay in the queue.
+	 */
+	public synchronized void shutdown() {
+		if (sweeper != null)
+			sweeper.shutdown();
+		pool.shutdown();
+	}
+
+	/**
+	 * Puts a player into the queue. Can be called from any thread.
+	 *
+	 * @param player id of the player
+	 * @param rating rating of the player, limited to the range from 0 to
+	 *               {@link #MAX_RATING}
+	 * @return ticket of the player
+	 */
+	public Ticket join(int player, int rating) {
+		Ticket ticket = new Ticket(player, Math.max(0, Math.min(MAX_RATING - 1, rating)), tickets.incrementAndGet(),
+				System.nanoTime());
+		waiting.increment();
+		buckets[ticket.rating / BUCKET_WIDTH].add(ticket);
+		return ticket;
+	}
+
+	/**
+	 * Takes a player out of the queue, his session future is cancelled.
+	 *
+	 * @param ticket ticket of the player
+	 * @return false if the player was already matched
+	 */
+	public boolean leave(Ticket ticket) {
+		while (true) {
+			int s = ticket.state;
+			if (s == MATCHED || s == CANCELLED)
+				return false;
+			// A claimed ticket is either matched or released shortly
+			if (s == WAITING && STATE.compareAndSet(ticket, WAITING, CANCELLED))
+				break;
+			Thread.onSpinWait();
+		}
+		buckets[ticket.rating / BUCKET_WIDTH].remove(ticket);
+		waiting.decrement();
+		ticket.session.cancel(false);
+		return true;
+	}
+
+	/**
+	 * Pairs waiting players once, stripes of buckets are swept in parallel.
+	 * Called by the sweeping thread, can also be called directly.
+	 *
+	 * @return number of pairs made
+	 */
+	public int sweep() {
+		long now = System.nanoTime();
+		List<Callable<Integer>> tasks = new ArrayList<>();
+		for (int s = 0; s < stripes; s++) {
+			int stripe = s;
+			tasks.add(() -> sweepStripe(stripe, now));
+		}
+		int pairs = 0;
+		try {
+			for (Future<Integer> f : pool.invokeAll(tasks))
+				pairs += f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+		return pairs;
+	}
+
+	/**
+	 * Returns the number of players in the queue.
+	 *
+	 * @return number of waiting players
+	 */
+	public long getWaiting() {
+		return waiting.sum();
+	}
+
+	/**
+	 * Returns the number of sessions created.
+	 *
+	 * @return number of pairs made
+	 */
+	public long getMatches() {
+		return matches.sum();
+	}
+
+	/**
+	 * Returns the average difference of ratings within a pair.
+	 *
+	 * @return average rating difference
+	 */
+	public double getAverageRatingDifference() {
+		long m = matches.sum();
+		return m == 0 ? 0 : (double) ratingDifference.sum() / m;
+	}
+
+	/**
+	 * Returns the times from joining the queue to getting a session, one for
+	 * every matched player.
+	 *
+	 * @return histogram of match latencies
+	 */
+	public LatencyHistogram getMatchLatency() {
+		return matchLatency;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	// Rating window of a ticket at the given time
+	private static int window(Ticket t, long now) {
+		long waited = Math.max(0, now - t.joinedNanos);
+		return (int) Math.min(MAX_WINDOW, INITIAL_WINDOW + waited * WINDOW_GROWTH_PER_SECOND / 1_000_000_000L);
+	}
+
+	// Sweeps buckets whose index modulo the number of stripes is the stripe
+	private int sweepStripe(int stripe, long now) {
+		int pairs = 0;
+		for (int b = stripe; b < buckets.length; b += stripes) {
+			for (Ticket t : buckets[b]) {
+				if (t.state != WAITING)
+					continue;
+				Ticket partner = findPartner(t, now);
+				if (partner != null && claim(t, partner)) {
+					match(t, partner);
+					pairs++;
+				}
+			}
+		}
+		return pairs;
+	}
+
+	// Finds the waiting ticket with the closest rating that both windows accept
+	private Ticket findPartner(Ticket t, long now) {
+		int w = window(t, now);
+		int low = Math.max(0, t.rating - w);
+		int high = Math.min(MAX_RATING - 1, t.rating + w);
+		Ticket best = null;
+		int bestDifference = Integer.MAX_VALUE;
+		for (int b = low / BUCKET_WIDTH; b <= high / BUCKET_WIDTH; b++) {
+			NavigableSet<Ticket> bucket = buckets[b];
+			// Closest above the ticket and closest below it
+			Ticket above = closest(bucket.tailSet(t, false).iterator(), t, now, true, high);
+			Ticket below = closest(bucket.headSet(t, false).descendingIterator(), t, now, false, low);
+			for (Ticket c : new Ticket[] { above, below }) {
+				if (c == null)
+					continue;
+				int difference = Math.abs(c.rating - t.rating);
+				if (difference < bestDifference) {
+					best = c;
+					bestDifference = difference;
+				}
+			}
+		}
+		return best;
+	}
+
+	// Returns the first waiting ticket that accepts the given one, stops at the
+	// limit of the window of the given ticket
+	private static Ticket closest(Iterator<Ticket> it, Ticket t, long now, boolean ascending, int limit) {
+		while (it.hasNext()) {
+			Ticket c = it.next();
+			if (ascending ? c.rating > limit : c.rating < limit)
+				return null;
+			if (c.state == WAITING && Math.abs(c.rating - t.rating) <= window(c, now))
+				return c;
+		}
+		return null;
+	}
+
+	// Claims both tickets or none of them
+	private static boolean claim(Ticket t, Ticket partner) {
+		if (!STATE.compareAndSet(t, WAITING, CLAIMED))
+			return false;
+		if (STATE.compareAndSet(partner, WAITING, CLAIMED))
+			return true;
+		t.state = WAITING;
+		return false;
+	}
+
+	private void match(Ticket t, Ticket partner) {
+		Ticket first = t.number < partner.number ? t : partner;
+		Ticket second = first == t ? partner : t;
+		for (Ticket ticket : new Ticket[] { first, second }) {
+			buckets[ticket.rating / BUCKET_WIDTH].remove(ticket);
+			ticket.state = MATCHED;
+			waiting.decrement();
+		}
+		matches.increment();
+		ratingDifference.add(Math.abs(first.rating - second.rating));
+		GameSession session = factory.createSession(sessions.incrementAndGet(), first, second);
+		long now = System.nanoTime();
+		matchLatency.record(now - first.joinedNanos);
+		matchLatency.record(now - second.joinedNanos);
+		first.session.complete(session);
+		second.session.complete(session);
+	}
+
+}
@@ -0,0 +1,92 @@
+package hr.fer.mv.nmm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates clients of the hosted version looking for games and measures how
+ * long they wait for a {@link Matchmaker}. Clients join at a steady rate from
+ * several threads, with ratings from a normal distribution, and a part of them
+ * gives up and leaves the queue after a random time. Every client that gets a
+ * session checks that it is in it. Latency percentiles are printed at the end.
+ * <p>
+ * Arguments: <code>[clients per second] [seconds] [client threads] [sweep
+ * threads] [leaving part]</code>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class MatchmakerBenchmark {
+
+	public static final int MEAN_RATING = 1500;
+	public static final int RATING_DEVIATION = 350;
+	// Clients that leave wait up to this long before they do
+	public static final int MAX_PATIENCE_MILISECONDS = 2000;
+
+	private MatchmakerBenchmark() {
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int clientThreads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int sweepThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		double leaving = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+
+		Matchmaker matchmaker = new Matchmaker(sweepThreads, RuleSet.NINE_MENS_MORRIS);
+		matchmaker.start();
+		AtomicLong joined = new AtomicLong();
+		AtomicLong left = new AtomicLong();
+		AtomicLong wrongSessions = new AtomicLong();
+		AtomicLong maxWaiting = new AtomicLong();
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) * clientThreads / rate;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		Thread[] clients = new Thread[clientThreads];
+		for (int c = 0; c < clientThreads; c++) {
+			int first = c;
+			clients[c] = new Thread(() -> {
+				Random random = new Random(first);
+				long next = start + first * intervalNanos / clientThreads;
+				for (int player = first; next < end; player += clientThreads, next += intervalNanos) {
+					LockSupport.parkNanos(next - System.nanoTime());
+					int rating = (int) Math.round(MEAN_RATING + random.nextGaussian() * RATING_DEVIATION);
+					Matchmaker.Ticket ticket = matchmaker.join(player, rating);
+					joined.incrementAndGet();
+					int id = player;
+					ticket.getSession().thenAccept(session -> {
+						if (session.getPlayer(Position.PLAYER1) != id && session.getPlayer(Position.PLAYER2) != id)
+							wrongSessions.incrementAndGet();
+					});
+					if (random.nextDouble() < leaving)
+						TimerWheel.shared().schedule(() -> {
+							if (matchmaker.leave(ticket))
+								left.incrementAndGet();
+						}, random.nextInt(MAX_PATIENCE_MILISECONDS));
+					maxWaiting.accumulateAndGet(matchmaker.getWaiting(), Math::max);
+				}
+			}, "Client " + c);
+			clients[c].start();
+		}
+		for (Thread t : clients)
+			t.join();
+		// Let the last clients find a match or leave
+		Thread.sleep(MAX_PATIENCE_MILISECONDS + 1000);
+		long time = System.nanoTime() - start;
+		matchmaker.shutdown();
+
+		System.out.println(String.format("%d clients joined in %d s on %d threads, %d sweep threads", joined.get(),
+				seconds, clientThreads, sweepThreads));
+		System.out.println(String.format("%d pairs (%.0f pairs/s), %d left the queue, %d still waiting, at most %d waiting",
+				matchmaker.getMatches(), matchmaker.getMatches() * 1e9 / time, left.get(), matchmaker.getWaiting(),
+				maxWaiting.get()));
+		System.out.println(String.format("Average rating difference %.1f, %d wrong sessions",
+				matchmaker.getAverageRatingDifference(), wrongSessions.get()));
+		System.out.println("Match latency: " + matchmaker.getMatchLatency());
+		if (wrongSessions.get() > 0 || 2 * matchmaker.getMatches() + left.get() + matchmaker.getWaiting() != joined.get())
+			System.exit(1);
+	}
+
+}
@@ -0,0 +1,432 @@
+package hr.fer.mv.nmm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link Player} that chooses moves with Monte Carlo tree search. Every
+ * iteration walks down the tree choosing children by UCT, expands the leaf it
+ * reaches and plays a random game from there. The move that was visited the
+ * most is played.
+ * <p>
+ * The tree is searched by several threads at once (tree parallelism). A thread
+ * counts a visit on its way down and only adds the result on its way back up,
+ * so until it returns the visit counts as a loss (virtual loss) and other
+ * threads prefer different paths. Visits and results are atomic counters.
+ * <p>
+ * Nodes are kept in an arena of primitive arrays allocated once with the
+ * player, a node is only an index into them. Children of a node are stored
+ * next to each other, so a node only needs the index of its first child and
+ * the number of children. When the arena is full the tree stops growing and
+ * the remaining time is spent on playouts from existing leaves.
+ * <p>
+ * Playouts are either light (uniformly random moves) or heavy (a move that
+ * removes an enemy token is always preferred).
+ * <p>
+ * The tree is kept between moves. When the next position is the root or one
+ * of its children, that subtree becomes the new root and its visits are
+ * reused. While pondering the tree of the position where the opponent is to
+ * move is grown until pondering stops, the most visited reply is the predicted
+ * one. The search time of a move is shortened by the time the reused visits
+ * would have taken, so a ponder hit is answered sooner.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class MctsPlayer implements Player {
+
+	public static final int DEFAULT_CAPACITY = 1 << 21;
+	public static final double EXPLORATION = 1.4;
+	// Playouts longer than this are counted as draws
+	public static final int MAX_PLAYOUT_PLIES = 200;
+	/**
+	 * Cached results of searches at least this deep are played without thinking.
+	 */
+	public static final int MIN_CACHED_DEPTH = 8;
+	/**
+	 * Part of the thinking time that is always spent, however many visits were
+	 * reused.
+	 */
+	public static final double MIN_TIME_FRACTION = 0.1;
+	private static final int MAX_PATH = 256;
+
+	private static final int UNEXPANDED = 0;
+	private static final int EXPANDING = 1;
+	private static final int EXPANDED = 2;
+
+	private final String name;
+	private final int threads;
+	private final long timeMiliseconds;
+	private final boolean heavyPlayouts;
+	private final int capacity;
+	// Arena, each array is indexed by node
+	private final int[] moves;
+	private final int[] firstChild;
+	private final int[] childCount;
+	// Player that made the move leading into the node
+	private final byte[] mover;
+	private final AtomicIntegerArray state;
+	private final AtomicIntegerArray visits;
+	// Results in half points, 2 for a win of the mover and 1 for a draw
+	private final AtomicLongArray value;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong playouts = new AtomicLong();
+	private final ExecutorService pool;
+	private volatile boolean arenaFull;
+	private volatile AnalysisCache cache;
+	private long lastPlayouts;
+	private long lastTimeNanos;
+	// Node and position the tree is rooted at, rootPosition is null when the
+	// tree is empty
+	private int root;
+	private Position rootPosition;
+	private final PonderStatistics ponderStatistics = new PonderStatistics();
+	// Every ponder is matched with one stop, a ponder is stopped when there are
+	// as many stops as ponders
+	private final AtomicLong ponders = new AtomicLong();
+	private final AtomicLong ponderStops = new AtomicLong();
+	private Position ponderPosition;
+	private int predictedMove = Move.NULL;
+
+	/**
+	 * Creates a player that thinks for the given time on the given number of
+	 * threads, using heavy playouts.
+	 *
+	 * @param threads         number of search threads
+	 * @param timeMiliseconds time spent on each move
+	 */
+	public MctsPlayer(int threads, long timeMiliseconds) {
+		this("MCTS " + threads + "x" + timeMiliseconds + "ms", threads, timeMiliseconds, true, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new player.
+	 *
+	 * @param name            name of the player
+	 * @param threads         number of search threads
+	 * @param timeMiliseconds time spent on each move
+	 * @param heavyPlayouts   true if playouts prefer moves that remove tokens
+	 * @param capacity        maximal number of nodes in the tree
+	 */
+	public MctsPlayer(String name, int threads, long timeMiliseconds, boolean heavyPlayouts, int capacity) {
+		this.name = name;
+		this.threads = threads;
+		this.timeMiliseconds = timeMiliseconds;
+		this.heavyPlayouts = heavyPlayouts;
+		this.capacity = capacity;
+		moves = new int[capacity];
+		firstChild = new int[capacity];
+		childCount = new int[capacity];
+		mover = new byte[capacity];
+		state = new AtomicIntegerArray(capacity);
+		visits = new AtomicIntegerArray(capacity);
+		value = new AtomicLongArray(capacity);
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "MCTS");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int selectMove(Position position) {
+		int[] legal = new int[Position.MAX_MOVES];
+		int n = position.generateMoves(legal);
+		if (n <= 1)
+			return n == 1 ? legal[0] : Move.NULL;
+		AnalysisCache cache = this.cache;
+		AnalysisCache.Entry cached = cache != null ? cache.probe(position) : null;
+		if (cached != null && cached.getDepth() >= MIN_CACHED_DEPTH && position.isLegal(cached.getMove()))
+			return cached.getMove();
+
+		long start = System.nanoTime();
+		boolean pondered = ponderPosition != null;
+		boolean hit = PonderStatistics.isHit(ponderPosition, predictedMove, position);
+		ponderPosition = null;
+		long time = timeMiliseconds * 1_000_000;
+		int reused = moveRoot(position);
+		if (reused > 0 && lastTimeNanos > 0)
+			time = Math.max((long) (time * MIN_TIME_FRACTION),
+					time - (long) ((double) reused * lastTimeNanos / Math.max(1, lastPlayouts)));
+		search(position, start + time, Long.MAX_VALUE);
+		lastTimeNanos = System.nanoTime() - start;
+		lastPlayouts = playouts.get();
+		ponderStatistics.record(pondered, hit, lastTimeNanos);
+		int best = mostVisitedMove();
+		return best != Move.NULL ? best : legal[0];
+	}
+
+	@Override
+	public void newGame() {
+		rootPosition = null;
+		ponderPosition = null;
+	}
+
+	@Override
+	public void ponder(Position position) {
+		long id = ponders.incrementAndGet();
+		if (ponderStops.get() >= id || position.isGameOver())
+			return;
+		moveRoot(position);
+		ponderPosition = new Position(position);
+		search(position, Long.MAX_VALUE, id);
+		predictedMove = mostVisitedMove();
+	}
+
+	@Override
+	public void stopPondering() {
+		ponderStops.incrementAndGet();
+	}
+
+	@Override
+	public PonderStatistics getPonderStatistics() {
+		return ponderStatistics;
+	}
+
+	/**
+	 * Returns the number of playouts per second on each thread during the last
+	 * call of {@link #selectMove(Position)}.
+	 *
+	 * @return playouts per second per thread
+	 */
+	public double getPlayoutsPerSecondPerThread() {
+		return lastTimeNanos == 0 ? 0 : lastPlayouts * 1e9 / lastTimeNanos / threads;
+	}
+
+	/**
+	 * Sets the cache consulted before every search. The tree search has no
+	 * depth, so its results aren't stored.
+	 *
+	 * @param cache cache of results of deeper searches, null for none
+	 */
+	public void setAnalysisCache(AnalysisCache cache) {
+		this.cache = cache;
+	}
+
+	public long getLastPlayouts() {
+		return lastPlayouts;
+	}
+
+	/**
+	 * Returns the number of nodes the tree had after the last search.
+	 *
+	 * @return number of nodes
+	 */
+	public int getTreeSize() {
+		return Math.min(size.get(), capacity);
+	}
+
+	/**
+	 * Stops the search threads, the player can't be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Roots the tree at the given position, keeping the subtree if the position
+	// is the root or one of its children, returns the number of reused visits
+	private int moveRoot(Position position) {
+		int node = findNode(position);
+		if (node < 0 || arenaFull) {
+			size.set(1);
+			arenaFull = false;
+			initNode(0, Move.NULL, 1 - position.getSideToMove());
+			node = 0;
+		}
+		root = node;
+		rootPosition = new Position(position);
+		return visits.get(root);
+	}
+
+	private int findNode(Position position) {
+		if (rootPosition == null)
+			return -1;
+		if (rootPosition.equals(position))
+			return root;
+		if (state.get(root) != EXPANDED)
+			return -1;
+		Position p = new Position(rootPosition);
+		for (int c = firstChild[root]; c < firstChild[root] + childCount[root]; c++) {
+			p.copyFrom(rootPosition);
+			p.makeMove(moves[c]);
+			if (p.equals(position))
+				return c;
+		}
+		return -1;
+	}
+
+	// Runs the search threads until the deadline or until the ponder with the
+	// given id is stopped
+	private void search(Position position, long deadline, long ponderId) {
+		playouts.set(0);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < threads; i++)
+			tasks.add(() -> {
+				searchUntil(position, deadline, ponderId);
+				return null;
+			});
+		try {
+			pool.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int mostVisitedMove() {
+		int best = Move.NULL;
+		int bestVisits = -1;
+		for (int c = firstChild[root]; c < firstChild[root] + childCount[root]; c++)
+			if (visits.get(c) > bestVisits) {
+				bestVisits = visits.get(c);
+				best = moves[c];
+			}
+		return best;
+	}
+
+	private void initNode(int node, int move, int player) {
+		moves[node] = move;
+		mover[node] = (byte) player;
+		childCount[node] = 0;
+		visits.set(node, 0);
+		value.set(node, 0);
+		// Written last so other threads see the rest of the node
+		state.set(node, UNEXPANDED);
+	}
+
+	// One search thread, runs iterations until the deadline or the stop of the
+	// ponder
+	private void searchUntil(Position rootPosition, long deadline, long ponderId) {
+		Position p = new Position(rootPosition);
+		int[] buffer = new int[Position.MAX_MOVES];
+		int[] path = new int[MAX_PATH];
+		PositionHistory history = new PositionHistory();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long done = 0;
+		while (System.nanoTime() < deadline && ponderStops.get() < ponderId) {
+			p.copyFrom(rootPosition);
+			int node = root;
+			int length = 0;
+			path[length++] = node;
+			visits.incrementAndGet(node);
+			// Selection, every visit is counted right away as a virtual loss
+			while (state.get(node) == EXPANDED && childCount[node] > 0 && length < MAX_PATH) {
+				node = selectChild(node);
+				p.makeMove(moves[node]);
+				path[length++] = node;
+				visits.incrementAndGet(node);
+			}
+			// Expansion, other threads playout from the node while it is expanded
+			if (!p.isGameOver() && length < MAX_PATH && !arenaFull && state.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+				int count = expand(node, p, buffer);
+				if (count > 0) {
+					node = firstChild[node] + random.nextInt(count);
+					p.makeMove(moves[node]);
+					path[length++] = node;
+					visits.incrementAndGet(node);
+				}
+			}
+			int winner = playout(p, buffer, history, random);
+			for (int i = 0; i < length; i++) {
+				int n = path[i];
+				value.addAndGet(n, winner == Position.NO_WINNER ? 1 : winner == mover[n] ? 2 : 0);
+			}
+			done++;
+		}
+		playouts.addAndGet(done);
+	}
+
+	private int selectChild(int node) {
+		int first = firstChild[node];
+		int last = first + childCount[node];
+		double logParent = Math.log(Math.max(1, visits.get(node)));
+		int best = first;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int c = first; c < last; c++) {
+			int n = visits.get(c);
+			if (n == 0)
+				return c;
+			double score = value.get(c) / (2.0 * n) + EXPLORATION * Math.sqrt(logParent / n);
+			if (score > bestScore) {
+				bestScore = score;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	private int expand(int node, Position p, int[] buffer) {
+		int count = p.generateMoves(buffer);
+		int first = size.getAndAdd(count);
+		if (first + count > capacity) {
+			arenaFull = true;
+			state.set(node, UNEXPANDED);
+			return 0;
+		}
+		int side = p.getSideToMove();
+		for (int i = 0; i < count; i++)
+			initNode(first + i, buffer[i], side);
+		firstChild[node] = first;
+		childCount[node] = count;
+		state.set(node, EXPANDED);
+		return count;
+	}
+
+	// Plays random moves until the game ends, returns the winner or
+	// Position.NO_WINNER for a draw
+	private int playout(Position p, int[] buffer, PositionHistory history, ThreadLocalRandom random) {
+		history.reset(p);
+		for (int ply = 0; ply < MAX_PLAYOUT_PLIES && !p.isGameOver(); ply++) {
+			int count = p.generateMoves(buffer);
+			if (count == 0)
+				return 1 - p.getSideToMove();
+			int move = buffer[random.nextInt(count)];
+			if (heavyPlayouts) {
+				int captures = 0;
+				for (int i = 0; i < count; i++)
+					if (Move.isRemoval(buffer[i]))
+						buffer[captures++] = buffer[i];
+				if (captures > 0)
+					move = buffer[random.nextInt(captures)];
+			}
+			p.makeMove(move);
+			if (history.push(p, move))
+				return Position.NO_WINNER;
+		}
+		return p.getWinner();
+	}
+
+	/**
+	 * Measures playouts per second per thread from the starting position for 1 up
+	 * to the given number of threads.
+	 * <p>
+	 * Arguments: <code>[max threads] [miliseconds per search]</code>
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		long time = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		for (int t = 1; t <= maxThreads; t *= 2) {
+			MctsPlayer player = new MctsPlayer(t, time);
+			int move = player.selectMove(new Position(Dependencies.RULE_SET));
+			System.out.println(String.format("%d threads: %d playouts, %.0f playouts/s per thread, %d nodes, move %s",
+					t, player.getLastPlayouts(), player.getPlayoutsPerSecondPerThread(), player.getTreeSize(),
+					Move.toString(move)));
+			player.shutdown();
+		}
+	}
+
+}
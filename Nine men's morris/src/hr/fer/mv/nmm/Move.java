@@ -0,0 +1,177 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Helper methods for moves encoded as a single <code>int</code>. A move is made
+ * up from three point indexes (see {@link Position#indexOf(int, int)}):
+ * <ul>
+ * <li>bits 0-4 hold the point the token is placed or moved to
+ * <li>bits 5-9 hold the point the token is moved from
+ * <li>bits 10-14 hold the enemy point whose token is removed
+ * </ul>
+ * Missing parts are marked with {@link #NONE}. A placement has no 'from' point,
+ * a move that doesn't form a mill has no 'removed' point and a move made while
+ * the position is waiting for a removal (see {@link Position#isRemovalPending()})
+ * only has the 'removed' point. A move with no parts at all skips the removal.
+ * <p>
+ * Encoding moves this way lets the search store millions of them in primitive
+ * arrays without creating any objects.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class Move {
+
+	public static final int NONE = 31;
+	public static final int NULL = -1;
+	public static final int SKIP_REMOVAL = NONE | NONE << 5 | NONE << 10;
+
+	/**
+	 * Creates a move which places a new token on the given point.
+	 *
+	 * @param to index of the point to place the token on
+	 * @return encoded move
+	 */
+	public static int place(int to) {
+		return to | NONE << 5 | NONE << 10;
+	}
+
+	/**
+	 * Creates a move which moves a token from one point to another.
+	 *
+	 * @param from index of the point the token is moved from
+	 * @param to   index of the point the token is moved to
+	 * @return encoded move
+	 */
+	public static int move(int from, int to) {
+		return to | from << 5 | NONE << 10;
+	}
+
+	/**
+	 * Creates a move which only removes an enemy token. Used when the position is
+	 * waiting for a removal.
+	 *
+	 * @param removed index of the point whose token is removed
+	 * @return encoded move
+	 */
+	public static int removal(int removed) {
+		return NONE | NONE << 5 | removed << 10;
+	}
+
+	/**
+	 * Adds a removal of an enemy token to the given move.
+	 *
+	 * @param move    encoded move
+	 * @param removed index of the point whose token is removed
+	 * @return encoded move
+	 */
+	public static int withRemoval(int move, int removed) {
+		return (move & 0x3FF) | removed << 10;
+	}
+
+	public static int to(int move) {
+		return move & 0x1F;
+	}
+
+	public static int from(int move) {
+		return (move >>> 5) & 0x1F;
+	}
+
+	public static int removed(int move) {
+		return (move >>> 10) & 0x1F;
+	}
+
+	public static boolean isPlacement(int move) {
+		return to(move) != NONE && from(move) == NONE;
+	}
+
+	public static boolean isRemoval(int move) {
+		return removed(move) != NONE;
+	}
+
+	/**
+	 * Returns a readable form of the move in which points are written as
+	 * 'square,place', for example "0,1-0,2 x1,5".
+	 *
+	 * @param move encoded move
+	 * @return readable form of the move
+	 */
+	public static String toString(int move) {
+		if (move == NULL)
+			return "none";
+		if (move == SKIP_REMOVAL)
+			return "skip";
+		StringBuilder sb = new StringBuilder();
+		if (from(move) != NONE)
+			sb.append(pointToString(from(move))).append('-');
+		if (to(move) != NONE)
+			sb.append(pointToString(to(move)));
+		if (removed(move) != NONE) {
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append('x').append(pointToString(removed(move)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the form of the move used by {@link EngineProtocol}, the same as
+	 * {@link #toString(int)} without spaces, for example "0,1-0,2x1,5".
+	 *
+	 * @param move encoded move
+	 * @return move as a single word
+	 */
+	public static String toNotation(int move) {
+		return toString(move).replace(" ", "");
+	}
+
+	/**
+	 * Reads a move written by {@link #toString(int)} or
+	 * {@link #toNotation(int)}. The move is not checked against any position.
+	 *
+	 * @param text readable form of the move
+	 * @return encoded move
+	 * @throws IllegalArgumentException if the text isn't a move
+	 */
+	public static int valueOf(String text) {
+		String s = text.replace(" ", "");
+		if (s.equals("none"))
+			return NULL;
+		if (s.equals("skip"))
+			return SKIP_REMOVAL;
+		int removed = NONE;
+		int x = s.indexOf('x');
+		if (x >= 0) {
+			removed = pointValueOf(s.substring(x + 1), text);
+			s = s.substring(0, x);
+		}
+		if (s.isEmpty())
+			return removal(removed);
+		int dash = s.indexOf('-');
+		int move = dash < 0 ? place(pointValueOf(s, text))
+				: move(pointValueOf(s.substring(0, dash), text), pointValueOf(s.substring(dash + 1), text));
+		return removed == NONE ? move : withRemoval(move, removed);
+	}
+
+	private static String pointToString(int index) {
+		return Position.squareOf(index) + "," + Position.placeOf(index);
+	}
+
+	private static int pointValueOf(String point, String text) {
+		int comma = point.indexOf(',');
+		try {
+			if (comma > 0) {
+				int square = Integer.parseInt(point.substring(0, comma));
+				int place = Integer.parseInt(point.substring(comma + 1));
+				if (square >= 0 && place >= 0 && place < BoardTopology.POINTS_PER_SQUARE
+						&& Position.indexOf(square, place) < NONE)
+					return Position.indexOf(square, place);
+			}
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException("Not a move: " + text);
+	}
+
+	private Move() {
+	}
+
+}
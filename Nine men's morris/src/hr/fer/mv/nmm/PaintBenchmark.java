@@ -0,0 +1,107 @@
+package hr.fer.mv.nmm;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Random;
+
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Checks that painting the board doesn't allocate. A {@link GameBoardDisplay}
+ * showing a game in progress is painted into an image many times on the event
+ * dispatch thread, and the bytes allocated by that thread are measured with
+ * {@link com.sun.management.ThreadMXBean}. The program prints the time and
+ * bytes per frame and exits with status 1 when a frame allocates more than
+ * {@link #ALLOCATION_BUDGET_BYTES_PER_FRAME}, so it can be run as a check
+ * after changes to the display.
+ * <p>
+ * Java2D allocates while drawing text or stroked shapes, so the display draws
+ * them into images once and only copies images on every frame. The budget
+ * leaves room for the occasional allocation of the event queue, but not for
+ * anything created on every frame.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class PaintBenchmark {
+
+	public static final long ALLOCATION_BUDGET_BYTES_PER_FRAME = 64;
+	public static final int WARMUP_FRAMES = 5_000;
+	public static final int MEASURED_FRAMES = 20_000;
+
+	private PaintBenchmark() {
+	}
+
+	/**
+	 * Runs the check.
+	 * <p>
+	 * Arguments: <code>[frames]</code>
+	 *
+	 * @param args command line arguments
+	 * @throws InvocationTargetException if painting throws an exception
+	 * @throws InterruptedException      if interrupted while waiting for the
+	 *                                   event dispatch thread
+	 */
+	public static void main(String[] args) throws InvocationTargetException, InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : MEASURED_FRAMES;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		AssetLoader.Assets assets = AssetLoader.load();
+
+		GameLogic game = new GameLogic();
+		playRandomMoves(game, 12);
+		GameActor actor = new GameActor(game);
+		long[] result = new long[2];
+		GameBoardDisplay[] display = new GameBoardDisplay[1];
+		SwingUtilities.invokeAndWait(() -> {
+			display[0] = new GameBoardDisplay(assets.getBackgroundImage(),
+					new Image[] { assets.getBlackTokenImage(), assets.getWhiteTokenImage() },
+					new JLabel[] { new JLabel(), new JLabel() },
+					assets.getFont() == null ? null : assets.getFont().deriveFont(Dependencies.PLAYER_DIRECTION_TEXT_SIZE),
+					null, actor);
+			display[0].setSize(Dependencies.BOARD_SIZE);
+			display[0].setHintMove(actor.getSnapshot().getLastMove());
+		});
+		// Snapshot is applied by a task queued while creating the display
+		SwingUtilities.invokeAndWait(() -> {
+		});
+		SwingUtilities.invokeAndWait(() -> {
+			BufferedImage image = new BufferedImage(Dependencies.BOARD_SIZE.width, Dependencies.BOARD_SIZE.height,
+					BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = image.createGraphics();
+			for (int i = 0; i < WARMUP_FRAMES; i++)
+				display[0].paintComponent(g);
+			long thread = Thread.currentThread().getId();
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for (int i = 0; i < frames; i++)
+				display[0].paintComponent(g);
+			result[0] = System.nanoTime() - start;
+			result[1] = threads.getThreadAllocatedBytes(thread) - bytes;
+			g.dispose();
+		});
+		double bytesPerFrame = (double) result[1] / frames;
+		System.out.println(String.format("%d frames, %.1f us per frame, %.1f bytes allocated per frame (budget %d)",
+				frames, result[0] / 1000.0 / frames, bytesPerFrame, ALLOCATION_BUDGET_BYTES_PER_FRAME));
+		System.exit(bytesPerFrame > ALLOCATION_BUDGET_BYTES_PER_FRAME ? 1 : 0);
+	}
+
+	// Plays random legal moves, so the board has tokens of both players
+	private static void playRandomMoves(GameLogic game, int moves) {
+		Random random = new Random(1);
+		int[] buffer = new int[Position.MAX_MOVES];
+		for (int i = 0; i < moves; i++) {
+			Position p = game.getPosition();
+			int n = p.generateMoves(buffer);
+			if (n == 0 || p.isGameOver())
+				return;
+			game.playMove(buffer[random.nextInt(n)]);
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Someone or something that chooses moves in a game. Engines implement this
+ * interface so they can play against each other without a board display.
+ * <p>
+ * A player is used by one game at a time, a player that is used from several
+ * threads has to be created once for each of them.
+ * <p>
+ * A player can ponder, think on the opponents time about the position where
+ * the opponent is to move. Pondering runs on the thread that chooses moves and
+ * is ended by {@link #stopPondering()} from any other thread.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public interface Player {
+
+	String getName();
+
+	/**
+	 * Chooses a move for the side to move in the given position. The game must
+	 * not be over.
+	 *
+	 * @param position current position, it must not be changed
+	 * @return encoded move, see {@link Move}
+	 */
+	int selectMove(Position position);
+
+	/**
+	 * Called before a new game starts, lets the player forget the previous one.
+	 */
+	default void newGame() {
+	}
+
+	/**
+	 * Thinks about the given position, where the opponent is to move, until
+	 * pondering is stopped. Results are used by the next call of
+	 * {@link #selectMove(Position)}. Players that can't ponder return right
+	 * away.
+	 *
+	 * @param position position after the players move, it must not be changed
+	 */
+	default void ponder(Position position) {
+	}
+
+	/**
+	 * Stops pondering. Every call of {@link #ponder(Position)} is ended by exactly
+	 * one call of this method, which may also come before pondering started.
+	 */
+	default void stopPondering() {
+	}
+
+	/**
+	 * Returns the statistics of pondering.
+	 *
+	 * @return statistics or null if the player can't ponder
+	 */
+	default PonderStatistics getPonderStatistics() {
+		return null;
+	}
+
+}
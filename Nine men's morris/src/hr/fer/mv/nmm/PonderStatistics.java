@@ -0,0 +1,102 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Counts how often a {@link Player} guessed the opponents reply while
+ * pondering and how long it thought about its next move. Comparing the time
+ * after a ponder hit with the time without pondering gives the latency saved
+ * by pondering.
+ * <p>
+ * Methods are synchronized, statistics are written by the thinking thread of
+ * the player and can be read from any thread.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class PonderStatistics {
+
+	private long hits;
+	private long misses;
+	private long unpondered;
+	private long hitNanos;
+	private long missNanos;
+	private long unponderedNanos;
+
+	/**
+	 * Checks if the game reached the given position by playing the predicted move
+	 * in the pondered position.
+	 *
+	 * @param pondered      position the player pondered on
+	 * @param predictedMove reply the player expected, see {@link Move}
+	 * @param actual        position the player has to move in
+	 * @return true if the prediction was right
+	 */
+	public static boolean isHit(Position pondered, int predictedMove, Position actual) {
+		if (pondered == null || predictedMove == Move.NULL || !pondered.isLegal(predictedMove))
+			return false;
+		Position p = new Position(pondered);
+		p.makeMove(predictedMove);
+		return p.equals(actual);
+	}
+
+	/**
+	 * Records the time the player spent choosing a move.
+	 *
+	 * @param pondered true if the player pondered while the opponent was thinking
+	 * @param hit      true if the opponent played the predicted reply
+	 * @param nanos    time spent choosing the move
+	 */
+	public synchronized void record(boolean pondered, boolean hit, long nanos) {
+		if (!pondered) {
+			unpondered++;
+			unponderedNanos += nanos;
+		} else if (hit) {
+			hits++;
+			hitNanos += nanos;
+		} else {
+			misses++;
+			missNanos += nanos;
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the part of pondered moves where the reply was predicted.
+	 *
+	 * @return hit rate from 0 to 1
+	 */
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	public synchronized double getAverageHitMiliseconds() {
+		return average(hitNanos, hits);
+	}
+
+	public synchronized double getAverageMissMiliseconds() {
+		return average(missNanos, misses);
+	}
+
+	public synchronized double getAverageUnponderedMiliseconds() {
+		return average(unponderedNanos, unpondered);
+	}
+
+	private static double average(long nanos, long count) {
+		return count == 0 ? 0 : nanos / 1e6 / count;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"ponder hits %d/%d (%.0f%%), move after a hit %.1f ms, after a miss %.1f ms, without pondering %.1f ms",
+				hits, hits + misses, getHitRate() * 100, getAverageHitMiliseconds(), getAverageMissMiliseconds(),
+				getAverageUnponderedMiliseconds());
+	}
+
+}
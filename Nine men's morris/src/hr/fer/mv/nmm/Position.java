@@ -0,0 +1,515 @@
+package hr.fer.mv.nmm;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Compact copy of a game state which follows the same rules as
+ * {@link GameLogic}, but isn't tied to a display. It's used by engines and
+ * tools that need to play through many positions quickly.
+ * <p>
+ * Every point of the board has an index <code>square * 8 + place</code>, so
+ * the tokens of each player fit in a single <code>int</code> bitmask. The rules
+ * and the tables of neighbours and mills come from the {@link RuleSet} of the
+ * position, which is shared by all positions of the same variant. Moves are
+ * encoded as described in {@link Move}.
+ * <p>
+ * Positions are mutable, a move is applied with {@link #makeMove(int)}. Search
+ * code keeps one position per ply and uses {@link #copyFrom(Position)} instead
+ * of undoing moves.
+ * <p>
+ * Every position also has a 64-bit Zobrist hash which is updated with each
+ * move instead of being computed from the whole position, it is used for
+ * finding repeated positions (see {@link PositionHistory}).
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class Position {
+
+	public static final int PLAYER1 = 0;
+	public static final int PLAYER2 = 1;
+	public static final int NO_WINNER = -1;
+	public static final int MAX_MOVES = 256;
+
+	// Random numbers for every part of the position, the hash is a xor of the
+	// numbers of all parts that are present
+	private static final long[][] ZOBRIST_TOKENS = new long[2][32];
+	private static final long[][] ZOBRIST_TO_PLACE = new long[2][16];
+	private static final long ZOBRIST_SIDE;
+	private static final long ZOBRIST_PENDING;
+
+	static {
+		SplittableRandom random = new SplittableRandom(0x4E4D4DL);
+		for (int player = 0; player < 2; player++) {
+			for (int i = 0; i < ZOBRIST_TOKENS[player].length; i++)
+				ZOBRIST_TOKENS[player][i] = random.nextLong();
+			for (int i = 0; i < ZOBRIST_TO_PLACE[player].length; i++)
+				ZOBRIST_TO_PLACE[player][i] = random.nextLong();
+		}
+		ZOBRIST_SIDE = random.nextLong();
+		ZOBRIST_PENDING = random.nextLong();
+	}
+
+	private final RuleSet rules;
+	private final BoardTopology topology;
+	private final int[] tokens = new int[2];
+	private final int[] tokensToPlace = new int[2];
+	private int sideToMove;
+	private boolean removalPending;
+	private int winner;
+	private long hash;
+
+	/**
+	 * Creates the starting position of the game with rules from
+	 * {@link Dependencies#RULE_SET}.
+	 */
+	public Position() {
+		this(Dependencies.RULE_SET);
+	}
+
+	/**
+	 * Creates the starting position of the game with the given rules.
+	 *
+	 * @param rules rules of the game
+	 */
+	public Position(RuleSet rules) {
+		this.rules = rules;
+		this.topology = rules.getTopology();
+		reset();
+	}
+
+	/**
+	 * Creates a copy of the given position.
+	 *
+	 * @param p position to copy
+	 */
+	public Position(Position p) {
+		this(p.rules);
+		copyFrom(p);
+	}
+
+	/**
+	 * Sets this position to the starting position of the game.
+	 */
+	public void reset() {
+		tokens[PLAYER1] = 0;
+		tokens[PLAYER2] = 0;
+		tokensToPlace[PLAYER1] = rules.getTokensPerPlayer();
+		tokensToPlace[PLAYER2] = rules.getTokensPerPlayer();
+		sideToMove = PLAYER1;
+		removalPending = false;
+		winner = NO_WINNER;
+		hash = computeHash();
+	}
+
+	/**
+	 * Copies the given position into this one. Both positions must have the same
+	 * rules.
+	 *
+	 * @param p position to copy
+	 * @throws IllegalArgumentException if the rules of the positions differ
+	 */
+	public void copyFrom(Position p) {
+		if (p.rules != rules)
+			throw new IllegalArgumentException("Can't copy a position of " + p.rules + " into " + rules);
+		tokens[PLAYER1] = p.tokens[PLAYER1];
+		tokens[PLAYER2] = p.tokens[PLAYER2];
+		tokensToPlace[PLAYER1] = p.tokensToPlace[PLAYER1];
+		tokensToPlace[PLAYER2] = p.tokensToPlace[PLAYER2];
+		sideToMove = p.sideToMove;
+		removalPending = p.removalPending;
+		winner = p.winner;
+		hash = p.hash;
+	}
+
+	/**
+	 * Sets every part of this position. Used to copy the state of a
+	 * {@link GameLogic} instance.
+	 *
+	 * @param player1Tokens  bitmask of the first players tokens
+	 * @param player2Tokens  bitmask of the second players tokens
+	 * @param player1ToPlace number of tokens the first player still has to place
+	 * @param player2ToPlace number of tokens the second player still has to place
+	 * @param sideToMove     {@link #PLAYER1} or {@link #PLAYER2}
+	 * @param removalPending true if the side to move formed a mill and has to
+	 *                       choose an enemy token for removal
+	 */
+	public void set(int player1Tokens, int player2Tokens, int player1ToPlace, int player2ToPlace, int sideToMove,
+			boolean removalPending) {
+		tokens[PLAYER1] = player1Tokens;
+		tokens[PLAYER2] = player2Tokens;
+		tokensToPlace[PLAYER1] = player1ToPlace;
+		tokensToPlace[PLAYER2] = player2ToPlace;
+		this.sideToMove = sideToMove;
+		this.removalPending = removalPending;
+		winner = NO_WINNER;
+		hash = computeHash();
+	}
+
+	private long computeHash() {
+		long tokensHash = 0;
+		for (int player = 0; player < 2; player++)
+			for (int t = tokens[player]; t != 0; t &= t - 1)
+				tokensHash ^= ZOBRIST_TOKENS[player][Integer.numberOfTrailingZeros(t)];
+		return hash(tokensHash, tokensToPlace[PLAYER1], tokensToPlace[PLAYER2], sideToMove, removalPending);
+	}
+
+	/**
+	 * Returns the part of the hash that stands for a token of the player on the
+	 * given point. Classes that keep the board in another form can xor it into a
+	 * running hash of their tokens with every change, see
+	 * {@link #hash(long, int, int, int, boolean)}.
+	 *
+	 * @param player {@link #PLAYER1} or {@link #PLAYER2}
+	 * @param index  index of the point
+	 * @return part of the hash for the token
+	 */
+	public static long tokenHash(int player, int index) {
+		return ZOBRIST_TOKENS[player][index];
+	}
+
+	/**
+	 * Returns the hash of a position from the hash of its tokens and the rest of
+	 * its parts, equal to {@link #hash()} of that position.
+	 *
+	 * @param tokensHash     xor of {@link #tokenHash(int, int)} of every token on
+	 *                       the board
+	 * @param player1ToPlace number of tokens the first player still has to place
+	 * @param player2ToPlace number of tokens the second player still has to place
+	 * @param sideToMove     {@link #PLAYER1} or {@link #PLAYER2}
+	 * @param removalPending true if the side to move has to remove a token
+	 * @return hash of the position
+	 */
+	public static long hash(long tokensHash, int player1ToPlace, int player2ToPlace, int sideToMove,
+			boolean removalPending) {
+		long h = tokensHash ^ ZOBRIST_TO_PLACE[PLAYER1][player1ToPlace] ^ ZOBRIST_TO_PLACE[PLAYER2][player2ToPlace];
+		if (sideToMove == PLAYER2)
+			h ^= ZOBRIST_SIDE;
+		if (removalPending)
+			h ^= ZOBRIST_PENDING;
+		return h;
+	}
+
+	public static int indexOf(int square, int place) {
+		return BoardTopology.indexOf(square, place);
+	}
+
+	public static int indexOf(MPoint p) {
+		return indexOf(p.square, p.place);
+	}
+
+	public static int squareOf(int index) {
+		return index / BoardTopology.POINTS_PER_SQUARE;
+	}
+
+	public static int placeOf(int index) {
+		return index % BoardTopology.POINTS_PER_SQUARE;
+	}
+
+	public RuleSet getRules() {
+		return rules;
+	}
+
+	public BoardTopology getTopology() {
+		return topology;
+	}
+
+	public int getTokens(int player) {
+		return tokens[player];
+	}
+
+	public int getTokensToPlace(int player) {
+		return tokensToPlace[player];
+	}
+
+	public int getTokenCount(int player) {
+		return Integer.bitCount(tokens[player]);
+	}
+
+	public int getSideToMove() {
+		return sideToMove;
+	}
+
+	public boolean isRemovalPending() {
+		return removalPending;
+	}
+
+	public boolean isPlacingPhase() {
+		return tokensToPlace[sideToMove] > 0;
+	}
+
+	/**
+	 * Returns the winner of the game or {@link #NO_WINNER} if the game is still
+	 * in progress.
+	 *
+	 * @return {@link #PLAYER1}, {@link #PLAYER2} or {@link #NO_WINNER}
+	 */
+	public int getWinner() {
+		return winner;
+	}
+
+	public boolean isGameOver() {
+		return winner != NO_WINNER;
+	}
+
+	public int getEmpty() {
+		return ~(tokens[PLAYER1] | tokens[PLAYER2]) & topology.allPoints;
+	}
+
+	/**
+	 * Returns the Zobrist hash of this position. Equal positions have equal
+	 * hashes, different positions have equal hashes only by a very rare
+	 * accident.
+	 *
+	 * @return 64-bit hash of this position
+	 */
+	public long hash() {
+		return hash;
+	}
+
+	/**
+	 * Returns a key that uniquely identifies this position. Tokens of both players
+	 * take the lower 48 bits, followed by tokens to place, side to move and the
+	 * pending removal flag, see {@link PositionCodec}.
+	 *
+	 * @return key of this position
+	 */
+	public long key() {
+		return PositionCodec.pack(tokens[PLAYER1], tokens[PLAYER2], tokensToPlace[PLAYER1], tokensToPlace[PLAYER2],
+				sideToMove, removalPending);
+	}
+
+	private boolean canFly(int player) {
+		return rules.isFlyingAllowed() && Integer.bitCount(tokens[player]) == 3;
+	}
+
+	// A player that can still place a token in a variant with moving while placing
+	// is never blocked
+	private boolean isBlocked(int player, int playerTokens, int empty) {
+		return !(rules.isMovingWhilePlacing() && tokensToPlace[player] > 0)
+				&& !topology.hasMovableToken(playerTokens, empty);
+	}
+
+	/**
+	 * Fills the given array with all legal moves in this position. When a move
+	 * forms a mill only the variants that remove an enemy token are generated,
+	 * unless there is nothing to remove.
+	 *
+	 * @param moves array for storing moves, at least {@link #MAX_MOVES} long
+	 * @return number of generated moves
+	 */
+	public int generateMoves(int[] moves) {
+		if (winner != NO_WINNER)
+			return 0;
+		int own = tokens[sideToMove];
+		int enemy = tokens[1 - sideToMove];
+		int empty = getEmpty();
+		int n = 0;
+		if (removalPending) {
+			int removable = topology.removableTokens(enemy);
+			if (removable == 0)
+				moves[n++] = Move.SKIP_REMOVAL;
+			for (int r = removable; r != 0; r &= r - 1)
+				moves[n++] = Move.removal(Integer.numberOfTrailingZeros(r));
+			return n;
+		}
+		if (isPlacingPhase()) {
+			for (int e = empty; e != 0; e &= e - 1) {
+				int to = Integer.numberOfTrailingZeros(e);
+				n = addMove(moves, n, Move.place(to), own | 1 << to, enemy, false);
+			}
+			if (!rules.isMovingWhilePlacing())
+				return n;
+		}
+		boolean flying = canFly(sideToMove);
+		for (int o = own; o != 0; o &= o - 1) {
+			int from = Integer.numberOfTrailingZeros(o);
+			int targets = flying ? empty : topology.neighbours[from] & empty;
+			for (; targets != 0; targets &= targets - 1) {
+				int to = Integer.numberOfTrailingZeros(targets);
+				int newOwn = own & ~(1 << from) | 1 << to;
+				boolean blocks = rules.isCheckCheckmate()
+						&& isBlocked(1 - sideToMove, enemy, ~(newOwn | enemy) & topology.allPoints);
+				n = addMove(moves, n, Move.move(from, to), newOwn, enemy, blocks);
+			}
+		}
+		return n;
+	}
+
+	private int addMove(int[] moves, int n, int move, int newOwn, int enemy, boolean endsGame) {
+		int to = Move.to(move);
+		if (endsGame || !topology.formsMill(newOwn, to) || enemy == 0) {
+			moves[n++] = move;
+			return n;
+		}
+		for (int r = topology.removableTokens(enemy); r != 0; r &= r - 1)
+			moves[n++] = Move.withRemoval(move, Integer.numberOfTrailingZeros(r));
+		return n;
+	}
+
+	/**
+	 * Checks if the given move is legal in this position. Unlike
+	 * {@link #generateMoves(int[])} this also accepts moves that form a mill but
+	 * skip the removal, as {@link GameLogic} allows that.
+	 *
+	 * @param move encoded move
+	 * @return true if the move can be made
+	 */
+	public boolean isLegal(int move) {
+		if (winner != NO_WINNER || move == Move.NULL)
+			return false;
+		int own = tokens[sideToMove];
+		int enemy = tokens[1 - sideToMove];
+		int empty = getEmpty();
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int removed = Move.removed(move);
+		if (removalPending)
+			return to == Move.NONE && from == Move.NONE
+					&& (removed == Move.NONE || (topology.removableTokens(enemy) & 1 << removed) != 0);
+		if (to == Move.NONE || (empty & 1 << to) == 0)
+			return false;
+		int newOwn;
+		if (from == Move.NONE) {
+			if (!isPlacingPhase())
+				return false;
+			newOwn = own | 1 << to;
+		} else {
+			if (isPlacingPhase() && !rules.isMovingWhilePlacing())
+				return false;
+			if ((own & 1 << from) == 0)
+				return false;
+			if (!canFly(sideToMove) && (topology.neighbours[from] & 1 << to) == 0)
+				return false;
+			newOwn = own & ~(1 << from) | 1 << to;
+			if (rules.isCheckCheckmate() && isBlocked(1 - sideToMove, enemy, ~(newOwn | enemy) & topology.allPoints))
+				return removed == Move.NONE;
+		}
+		if (removed == Move.NONE)
+			return true;
+		return topology.formsMill(newOwn, to) && (topology.removableTokens(enemy) & 1 << removed) != 0;
+	}
+
+	/**
+	 * Applies a move to this position. The move has to be legal, this method
+	 * doesn't check it.
+	 *
+	 * @param move encoded move
+	 */
+	public void makeMove(int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int removed = Move.removed(move);
+		int opponent = 1 - sideToMove;
+		long[] own = ZOBRIST_TOKENS[sideToMove];
+		if (to != Move.NONE) {
+			if (from == Move.NONE) {
+				hash ^= ZOBRIST_TO_PLACE[sideToMove][tokensToPlace[sideToMove]] ^ own[to];
+				tokensToPlace[sideToMove]--;
+				hash ^= ZOBRIST_TO_PLACE[sideToMove][tokensToPlace[sideToMove]];
+				tokens[sideToMove] |= 1 << to;
+			} else {
+				hash ^= own[from] ^ own[to];
+				tokens[sideToMove] = tokens[sideToMove] & ~(1 << from) | 1 << to;
+				// After we move a token check for checkmate
+				if (rules.isCheckCheckmate() && isBlocked(opponent, tokens[opponent], getEmpty())) {
+					winner = sideToMove;
+					return;
+				}
+			}
+		}
+		if (removalPending)
+			hash ^= ZOBRIST_PENDING;
+		removalPending = false;
+		if (removed != Move.NONE) {
+			hash ^= ZOBRIST_TOKENS[opponent][removed];
+			tokens[opponent] &= ~(1 << removed);
+			// Opponent ran out of tokens
+			if (Integer.bitCount(tokens[opponent]) + tokensToPlace[opponent] <= 2
+					|| isBlocked(opponent, tokens[opponent], getEmpty())) {
+				winner = sideToMove;
+				return;
+			}
+		}
+		sideToMove = opponent;
+		hash ^= ZOBRIST_SIDE;
+		// A player that can't move in the moving phase has lost
+		if (!isPlacingPhase() && !canFly(sideToMove) && !topology.hasMovableToken(tokens[sideToMove], getEmpty()))
+			winner = 1 - sideToMove;
+	}
+
+	/**
+	 * Ends the game with the opponent of the side to move as the winner.
+	 */
+	public void surrender() {
+		winner = 1 - sideToMove;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Position))
+			return false;
+		Position p = (Position) obj;
+		return rules == p.rules && key() == p.key() && winner == p.winner;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(key());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < topology.getNumberOfPoints(); i++)
+			sb.append((tokens[PLAYER1] & 1 << i) != 0 ? 'B' : (tokens[PLAYER2] & 1 << i) != 0 ? 'W' : '.');
+		return sb.append(' ').append(tokensToPlace[PLAYER1]).append(' ').append(tokensToPlace[PLAYER2])
+				.append(sideToMove == PLAYER1 ? " b" : " w").append(removalPending ? " r" : "").toString();
+	}
+
+	/**
+	 * Reads a position written by {@link #toString()}: one character for every
+	 * point ('B' for the first player, 'W' for the second and '.' for an empty
+	 * point), tokens both players still have to place, the side to move ('b' or
+	 * 'w') and an optional 'r' if a removal is pending.
+	 *
+	 * @param text  position as written by {@link #toString()}
+	 * @param rules rules of the game
+	 * @return new position
+	 * @throws IllegalArgumentException if the text isn't a valid position
+	 */
+	public static Position valueOf(String text, RuleSet rules) {
+		String[] parts = text.trim().split("\\s+");
+		int points = rules.getTopology().getNumberOfPoints();
+		if (parts.length < 4 || parts.length > 5 || parts[0].length() != points
+				|| (parts.length == 5 && !parts[4].equals("r")) || !parts[3].matches("[bw]"))
+			throw new IllegalArgumentException("Not a position: " + text);
+		int[] tokens = new int[2];
+		for (int i = 0; i < points; i++) {
+			char c = parts[0].charAt(i);
+			if (c == 'B')
+				tokens[PLAYER1] |= 1 << i;
+			else if (c == 'W')
+				tokens[PLAYER2] |= 1 << i;
+			else if (c != '.')
+				throw new IllegalArgumentException("Not a position: " + text);
+		}
+		int[] toPlace = new int[2];
+		for (int player = 0; player < 2; player++) {
+			try {
+				toPlace[player] = Integer.parseInt(parts[1 + player]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a position: " + text);
+			}
+			if (toPlace[player] < 0 || toPlace[player] > rules.getTokensPerPlayer()
+					|| Integer.bitCount(tokens[player]) + toPlace[player] > rules.getTokensPerPlayer())
+				throw new IllegalArgumentException("Too many tokens: " + text);
+		}
+		Position p = new Position(rules);
+		p.set(tokens[PLAYER1], tokens[PLAYER2], toPlace[PLAYER1], toPlace[PLAYER2],
+				parts[3].equals("b") ? PLAYER1 : PLAYER2, parts.length == 5);
+		return p;
+	}
+
+}
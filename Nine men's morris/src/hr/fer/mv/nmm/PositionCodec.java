@@ -0,0 +1,356 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Packs a position into a single <code>long</code> and ranks boards densely.
+ * <p>
+ * A packed position, also called a key, holds the tokens of the first player
+ * in bits 0-23, the tokens of the second player in bits 24-47, the tokens
+ * both players still have to place in bits 48-51 and 52-55, the side to move
+ * in bit 56 and the pending removal flag in bit 57. Keys are used as the
+ * storage, hashing and wire format of positions: equal positions have equal
+ * keys and a key can be compared, hashed and stored without creating any
+ * objects.
+ * <p>
+ * An instance for a {@link BoardTopology} additionally ranks boards. All
+ * boards with the same number of tokens of each player form a subspace, and
+ * {@link #rank(int, int)} maps every board of a subspace onto a distinct
+ * number from 0 to {@link #subspaceSize(int, int)} - 1, so tables indexed by
+ * rank have no holes. The first players tokens are ranked in the
+ * combinatorial number system among all points, the second players tokens
+ * among the points that are left.
+ * <p>
+ * Boards also have {@link #SYMMETRIES} symmetries: four rotations, each with
+ * or without a reflection, and each of those with or without swapping the
+ * innermost and the outermost square. Symmetric positions have the same value
+ * and the same best moves, {@link #canonical(long)} picks one key for all of
+ * them so caches can share their entries.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class PositionCodec {
+
+	public static final int PLAYER2_SHIFT = 24;
+	public static final int PLAYER1_TO_PLACE_SHIFT = 48;
+	public static final int PLAYER2_TO_PLACE_SHIFT = 52;
+	public static final int SIDE_TO_MOVE_SHIFT = 56;
+	public static final int REMOVAL_PENDING_SHIFT = 57;
+	private static final int TOKENS_MASK = 0xFFFFFF;
+	private static final int TO_PLACE_MASK = 0xF;
+	/**
+	 * Number of symmetries of a board.
+	 */
+	public static final int SYMMETRIES = 16;
+	// Symmetry bits: two bits of rotation, reflection and swapping of squares
+	private static final int REFLECTION = 4;
+	private static final int SQUARE_SWAP = 8;
+	private static final int PLACES = BoardTopology.POINTS_PER_SQUARE;
+	// Places of a square after a rotation and reflection, for every 8 bits of
+	// places of a square
+	private static final int[][] PLACE_TABLES = new int[REFLECTION * 2][1 << PLACES];
+
+	static {
+		for (int symmetry = 0; symmetry < REFLECTION * 2; symmetry++)
+			for (int places = 0; places < 1 << PLACES; places++)
+				for (int place = 0; place < PLACES; place++)
+					if ((places & 1 << place) != 0)
+						PLACE_TABLES[symmetry][places] |= 1 << transformPlace(place, symmetry);
+	}
+
+	private final BoardTopology topology;
+	private final int points;
+	// binomial[n][k] is n choose k
+	private final long[][] binomial;
+
+	/**
+	 * Creates a codec that ranks boards of the given topology.
+	 *
+	 * @param topology board of the ranked positions
+	 */
+	public PositionCodec(BoardTopology topology) {
+		this.topology = topology;
+		points = topology.getNumberOfPoints();
+		binomial = new long[points + 1][points + 1];
+		for (int n = 0; n <= points; n++) {
+			binomial[n][0] = 1;
+			for (int k = 1; k <= n; k++)
+				binomial[n][k] = binomial[n - 1][k - 1] + binomial[n - 1][k];
+		}
+	}
+
+	/**
+	 * Packs every part of a position.
+	 *
+	 * @param player1Tokens  bitmask of the first players tokens
+	 * @param player2Tokens  bitmask of the second players tokens
+	 * @param player1ToPlace number of tokens the first player still has to place
+	 * @param player2ToPlace number of tokens the second player still has to place
+	 * @param sideToMove     {@link Position#PLAYER1} or {@link Position#PLAYER2}
+	 * @param removalPending true if the side to move has to remove a token
+	 * @return key of the position
+	 */
+	public static long pack(int player1Tokens, int player2Tokens, int player1ToPlace, int player2ToPlace,
+			int sideToMove, boolean removalPending) {
+		return player1Tokens | (long) player2Tokens << PLAYER2_SHIFT | (long) player1ToPlace << PLAYER1_TO_PLACE_SHIFT
+				| (long) player2ToPlace << PLAYER2_TO_PLACE_SHIFT | (long) sideToMove << SIDE_TO_MOVE_SHIFT
+				| (removalPending ? 1L << REMOVAL_PENDING_SHIFT : 0);
+	}
+
+	public static long pack(Position p) {
+		return p.key();
+	}
+
+	public static long pack(GameLogic game) {
+		return game.getKey();
+	}
+
+	/**
+	 * Sets the given position to the packed one.
+	 *
+	 * @param key      key of the position
+	 * @param position position that is changed
+	 * @return the given position
+	 */
+	public static Position unpack(long key, Position position) {
+		position.set(getTokens(key, Position.PLAYER1), getTokens(key, Position.PLAYER2),
+				getTokensToPlace(key, Position.PLAYER1), getTokensToPlace(key, Position.PLAYER2), getSideToMove(key),
+				isRemovalPending(key));
+		return position;
+	}
+
+	/**
+	 * Creates the packed position.
+	 *
+	 * @param key   key of the position
+	 * @param rules rules the position is played by
+	 * @return new position
+	 */
+	public static Position unpack(long key, RuleSet rules) {
+		return unpack(key, new Position(rules));
+	}
+
+	public static int getTokens(long key, int player) {
+		return (int) (key >>> (player == Position.PLAYER1 ? 0 : PLAYER2_SHIFT)) & TOKENS_MASK;
+	}
+
+	public static int getTokensToPlace(long key, int player) {
+		return (int) (key >>> (player == Position.PLAYER1 ? PLAYER1_TO_PLACE_SHIFT : PLAYER2_TO_PLACE_SHIFT))
+				& TO_PLACE_MASK;
+	}
+
+	public static int getSideToMove(long key) {
+		return (int) (key >>> SIDE_TO_MOVE_SHIFT) & 1;
+	}
+
+	public static boolean isRemovalPending(long key) {
+		return (key >>> REMOVAL_PENDING_SHIFT & 1) != 0;
+	}
+
+	public BoardTopology getTopology() {
+		return topology;
+	}
+
+	// Reflects the square over the diagonal through place 0 and then rotates it
+	// clockwise, corners stay corners
+	private static int transformPlace(int place, int symmetry) {
+		if ((symmetry & REFLECTION) != 0)
+			place = (PLACES - place) % PLACES;
+		return (place + 2 * (symmetry & 3)) % PLACES;
+	}
+
+	/**
+	 * Returns the symmetry that undoes the given one.
+	 *
+	 * @param symmetry symmetry from 0 to {@link #SYMMETRIES} - 1
+	 * @return inverse symmetry
+	 */
+	public static int inverse(int symmetry) {
+		// Reflections are their own inverse, rotations are turned back
+		if ((symmetry & REFLECTION) != 0)
+			return symmetry;
+		return symmetry & ~3 | (4 - (symmetry & 3)) & 3;
+	}
+
+	/**
+	 * Returns the index of the point the given point is moved to by the symmetry.
+	 *
+	 * @param index    index of the point
+	 * @param symmetry symmetry from 0 to {@link #SYMMETRIES} - 1
+	 * @return index of the transformed point
+	 */
+	public int transformPoint(int index, int symmetry) {
+		int square = Position.squareOf(index);
+		if ((symmetry & SQUARE_SWAP) != 0)
+			square = topology.getSquares() - 1 - square;
+		return BoardTopology.indexOf(square, transformPlace(Position.placeOf(index), symmetry));
+	}
+
+	/**
+	 * Returns the bitmask of points transformed by the symmetry.
+	 *
+	 * @param points   bitmask of points
+	 * @param symmetry symmetry from 0 to {@link #SYMMETRIES} - 1
+	 * @return bitmask of transformed points
+	 */
+	public int transformPoints(int points, int symmetry) {
+		int[] table = PLACE_TABLES[symmetry & (REFLECTION * 2 - 1)];
+		int squares = topology.getSquares();
+		int result = 0;
+		for (int square = 0; square < squares; square++) {
+			int target = (symmetry & SQUARE_SWAP) != 0 ? squares - 1 - square : square;
+			result |= table[points >>> square * PLACES & (1 << PLACES) - 1] << target * PLACES;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the move transformed by the symmetry, see {@link Move}.
+	 *
+	 * @param move     encoded move
+	 * @param symmetry symmetry from 0 to {@link #SYMMETRIES} - 1
+	 * @return transformed move, {@link Move#NULL} stays the same
+	 */
+	public int transformMove(int move, int symmetry) {
+		if (move == Move.NULL)
+			return move;
+		int to = Move.to(move), from = Move.from(move), removed = Move.removed(move);
+		return (to == Move.NONE ? Move.NONE : transformPoint(to, symmetry))
+				| (from == Move.NONE ? Move.NONE : transformPoint(from, symmetry)) << 5
+				| (removed == Move.NONE ? Move.NONE : transformPoint(removed, symmetry)) << 10;
+	}
+
+	/**
+	 * Returns the key with the board transformed by the symmetry, other parts of
+	 * the position stay the same.
+	 *
+	 * @param key      key of the position
+	 * @param symmetry symmetry from 0 to {@link #SYMMETRIES} - 1
+	 * @return key of the transformed position
+	 */
+	public long transform(long key, int symmetry) {
+		long board = transformPoints(getTokens(key, Position.PLAYER1), symmetry)
+				| (long) transformPoints(getTokens(key, Position.PLAYER2), symmetry) << PLAYER2_SHIFT;
+		return key & -1L << PLAYER1_TO_PLACE_SHIFT | board;
+	}
+
+	/**
+	 * Returns the symmetry that turns the position into its canonical form, the
+	 * smallest key of all symmetric positions.
+	 *
+	 * @param key key of the position
+	 * @return symmetry from 0 to {@link #SYMMETRIES} - 1
+	 */
+	public int canonicalSymmetry(long key) {
+		int best = 0;
+		long bestKey = key;
+		for (int symmetry = 1; symmetry < SYMMETRIES; symmetry++) {
+			long k = transform(key, symmetry);
+			if (k < bestKey) {
+				bestKey = k;
+				best = symmetry;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the canonical form of the position, which is the same for all
+	 * symmetric positions.
+	 *
+	 * @param key key of the position
+	 * @return smallest key of all symmetric positions
+	 */
+	public long canonical(long key) {
+		return transform(key, canonicalSymmetry(key));
+	}
+
+	/**
+	 * Returns the number of boards with the given number of tokens.
+	 *
+	 * @param player1Count number of the first players tokens
+	 * @param player2Count number of the second players tokens
+	 * @return number of ranks in the subspace, 0 if the tokens don't fit
+	 */
+	public long subspaceSize(int player1Count, int player2Count) {
+		if (player1Count < 0 || player2Count < 0 || player1Count + player2Count > points)
+			return 0;
+		return binomial[points][player1Count] * binomial[points - player1Count][player2Count];
+	}
+
+	/**
+	 * Returns the rank of the board in the subspace of boards with the same number
+	 * of tokens.
+	 *
+	 * @param player1Tokens bitmask of the first players tokens
+	 * @param player2Tokens bitmask of the second players tokens, must not share
+	 *                      points with the first player
+	 * @return rank from 0 to {@link #subspaceSize(int, int)} - 1
+	 */
+	public long rank(int player1Tokens, int player2Tokens) {
+		long rank1 = 0;
+		int k = 1;
+		for (int t = player1Tokens; t != 0; t &= t - 1)
+			rank1 += binomial[Integer.numberOfTrailingZeros(t)][k++];
+		// Second players tokens are numbered among points without the first players
+		// tokens
+		long rank2 = 0;
+		k = 1;
+		for (int t = player2Tokens; t != 0; t &= t - 1) {
+			int index = Integer.numberOfTrailingZeros(t);
+			rank2 += binomial[index - Integer.bitCount(player1Tokens & ((1 << index) - 1))][k++];
+		}
+		return rank1 * binomial[points - Integer.bitCount(player1Tokens)][Integer.bitCount(player2Tokens)] + rank2;
+	}
+
+	/**
+	 * Returns the rank of the board of the packed position, other parts of the
+	 * position are ignored.
+	 *
+	 * @param key key of the position
+	 * @return rank of the board
+	 */
+	public long rank(long key) {
+		return rank(getTokens(key, Position.PLAYER1), getTokens(key, Position.PLAYER2));
+	}
+
+	/**
+	 * Returns the board with the given rank, the inverse of
+	 * {@link #rank(int, int)}.
+	 *
+	 * @param player1Count number of the first players tokens
+	 * @param player2Count number of the second players tokens
+	 * @param rank         rank from 0 to {@link #subspaceSize(int, int)} - 1
+	 * @return key with only the tokens of both players set
+	 */
+	public long unrank(int player1Count, int player2Count, long rank) {
+		long size = subspaceSize(player1Count, player2Count);
+		if (rank < 0 || rank >= size)
+			throw new IllegalArgumentException("Rank " + rank + " is not in subspace " + player1Count + "/"
+					+ player2Count + " of " + size + " boards");
+		long size2 = binomial[points - player1Count][player2Count];
+		int player1Tokens = unrankSubset(rank / size2, player1Count, points);
+		int compressed = unrankSubset(rank % size2, player2Count, points - player1Count);
+		// Spreads the compressed indexes over the points not taken by the first
+		// player
+		int player2Tokens = 0;
+		int free = ~player1Tokens & topology.allPoints;
+		for (int i = 0; free != 0; i++, free &= free - 1)
+			if ((compressed & 1 << i) != 0)
+				player2Tokens |= Integer.lowestOneBit(free);
+		return pack(player1Tokens, player2Tokens, 0, 0, Position.PLAYER1, false);
+	}
+
+	// Finds the k-subset with the given rank in the combinatorial number system,
+	// taking the largest element first
+	private int unrankSubset(long rank, int k, int n) {
+		int subset = 0;
+		for (int c = n - 1; k > 0; c--)
+			if (binomial[c][k] <= rank) {
+				rank -= binomial[c][k];
+				subset |= 1 << c;
+				k--;
+			}
+		return subset;
+	}
+
+}
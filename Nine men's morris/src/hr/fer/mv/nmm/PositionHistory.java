@@ -0,0 +1,122 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Draw rules of a game. A game is drawn when the same position appears for the
+ * third time, or when the players make a given number of moves without placing
+ * or removing a token.
+ * <p>
+ * Only hashes of positions since the last placement or removal are kept (see
+ * {@link Position#hash()}). Those moves can't be undone, so no earlier position
+ * can ever appear again. Because the second rule ends the game before too many
+ * moves are made after one of them, the history never holds more than a fixed
+ * number of hashes, and a repetition check only compares every second hash of
+ * a short array.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class PositionHistory {
+
+	public static final int REPETITIONS_FOR_DRAW = 3;
+	public static final int DEFAULT_MOVES_WITHOUT_MILL = 50;
+
+	private final int pliesWithoutMill;
+	// Hashes of positions since the last irreversible move, the first one is the
+	// position right after it
+	private final long[] hashes;
+	private int size;
+	private String drawReason;
+
+	/**
+	 * Creates a history that draws after {@link #DEFAULT_MOVES_WITHOUT_MILL}
+	 * moves of each player without a placement or removal.
+	 */
+	public PositionHistory() {
+		this(DEFAULT_MOVES_WITHOUT_MILL);
+	}
+
+	/**
+	 * Creates a new history.
+	 *
+	 * @param movesWithoutMill number of moves each player can make without
+	 *                         placing or removing a token before the game is
+	 *                         drawn
+	 */
+	public PositionHistory(int movesWithoutMill) {
+		this.pliesWithoutMill = movesWithoutMill * 2;
+		hashes = new long[pliesWithoutMill + 1];
+	}
+
+	/**
+	 * Clears the history and starts it with the given position.
+	 *
+	 * @param start position the game continues from
+	 */
+	public void reset(Position start) {
+		hashes[0] = start.hash();
+		size = 1;
+		drawReason = null;
+	}
+
+	/**
+	 * Adds a position reached by the given move and checks the draw rules.
+	 *
+	 * @param after position after the move
+	 * @param move  encoded move that was made
+	 * @return true if the game is drawn
+	 */
+	public boolean push(Position after, int move) {
+		return push(after.hash(), move);
+	}
+
+	/**
+	 * Adds a position reached by the given move and checks the draw rules. Used
+	 * by games that keep the hash of their position up to date themselves.
+	 *
+	 * @param hash hash of the position after the move, see {@link Position#hash()}
+	 * @param move encoded move that was made
+	 * @return true if the game is drawn
+	 */
+	public boolean push(long hash, int move) {
+		if (Move.isPlacement(move) || Move.isRemoval(move))
+			size = 0;
+		if (size == hashes.length)
+			size = 0;
+		hashes[size++] = hash;
+		if (drawReason != null)
+			return true;
+		// Only positions with the same side to move can be equal
+		int repetitions = 1;
+		for (int i = size - 3; i >= 0 && repetitions < REPETITIONS_FOR_DRAW; i -= 2)
+			if (hashes[i] == hash)
+				repetitions++;
+		if (repetitions >= REPETITIONS_FOR_DRAW)
+			drawReason = "Draw by threefold repetition";
+		else if (size > pliesWithoutMill)
+			drawReason = "Draw after " + pliesWithoutMill / 2 + " moves without a mill";
+		return drawReason != null;
+	}
+
+	public boolean isDraw() {
+		return drawReason != null;
+	}
+
+	/**
+	 * Returns the reason the game was drawn.
+	 *
+	 * @return readable reason or null if the game isn't drawn
+	 */
+	public String getDrawReason() {
+		return drawReason;
+	}
+
+	/**
+	 * Returns the number of plies since the last placement or removal.
+	 *
+	 * @return number of plies
+	 */
+	public int getPliesSinceIrreversible() {
+		return size - 1;
+	}
+
+}
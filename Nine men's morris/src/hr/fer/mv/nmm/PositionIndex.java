@@ -0,0 +1,370 @@
+package hr.fer.mv.nmm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Finds the games that reached a position. The index is built from
+ * {@link GameArchive} files by {@link PositionIndexBuilder} and maps the
+ * canonical key of every position (see {@link PositionCodec#canonical(long)})
+ * to the list of games that reached the position or one of its symmetric
+ * positions.
+ * <p>
+ * The file starts with a header <code>[magic][version][keys][key table
+ * offset][archive list offset]</code>, followed by posting lists, the key table
+ * and the paths of the archives the index was built from. The key table is
+ * sorted and holds the key of every position and the offset of its posting
+ * list, it is memory-mapped and searched in place, only every
+ * {@link #SAMPLE_INTERVAL}th key is kept on the heap to narrow the search down
+ * to a few pages. A posting list starts with the number of games and the wins
+ * of both players, followed by the games sorted by id. Each game is stored as
+ * the difference from the previous one, with its result in the two lowest
+ * bits, in a variable length encoding of 7 bits per byte.
+ * <p>
+ * Archives number their games from 0, so the id of a game holds the index of
+ * its archive in the archive list above the number of the game, see
+ * {@link #gameId(int, long)}.
+ * <p>
+ * Lookups don't change the index, one index can be used by any number of
+ * threads.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class PositionIndex implements Closeable {
+
+	public static final int MAGIC = 0x4E4D4D50;
+	public static final int VERSION = 2;
+	public static final int SAMPLE_INTERVAL = 1 << 10;
+	static final int HEADER_SIZE = 32;
+	// Key and posting list offset
+	static final int ENTRY_SIZE = 16;
+	// Stored keys hold the index of the rule set above the position
+	static final int RULES_SHIFT = 58;
+	static final int RESULT_BITS = 2;
+	// Game ids hold the index of the archive above the number of the game, ids
+	// with their result fit in a positive long
+	static final int ARCHIVE_SHIFT = 40;
+	public static final long MAX_GAME_NUMBER = (1L << ARCHIVE_SHIFT) - 1;
+	public static final int MAX_ARCHIVES = 1 << (63 - RESULT_BITS - ARCHIVE_SHIFT);
+	// Key table is mapped in parts, a single mapping is limited to 2 GB
+	private static final int SEGMENT_ENTRIES = 1 << 26;
+	// Longest possible header of a posting list, three variable length numbers
+	private static final int MAX_COUNTS_SIZE = 30;
+
+	/**
+	 * Games that reached a position.
+	 */
+	public final class Entry {
+		private final long offset;
+		private final int length;
+		private final int games;
+		private final int player1Wins;
+		private final int player2Wins;
+		private final int headerLength;
+
+		private Entry(long offset, int length, ByteBuffer counts) {
+			this.offset = offset;
+			this.length = length;
+			games = (int) readVarLong(counts);
+			player1Wins = (int) readVarLong(counts);
+			player2Wins = (int) readVarLong(counts);
+			headerLength = counts.position();
+		}
+
+		public int getGames() {
+			return games;
+		}
+
+		public int getPlayer1Wins() {
+			return player1Wins;
+		}
+
+		public int getPlayer2Wins() {
+			return player2Wins;
+		}
+
+		public int getDraws() {
+			return games - player1Wins - player2Wins;
+		}
+
+		/**
+		 * Reads the ids of all games that reached the position, in ascending order.
+		 * An id is <code>archive &lt;&lt; 40 | number</code>, where archive is the
+		 * index of the archive in {@link PositionIndex#getArchives()} and number is
+		 * the number of the game in that archive, as written by
+		 * {@link GameArchive#writeGame(long, int, int, RuleSet, byte, int[], int)}.
+		 * Use {@link PositionIndex#archiveOf(long)} and
+		 * {@link PositionIndex#numberOf(long)} to take an id apart.
+		 *
+		 * @return ids of games
+		 * @throws IOException if the index can't be read
+		 */
+		public long[] readGameNumbers() throws IOException {
+			ByteBuffer buffer = read(offset + headerLength, length - headerLength);
+			long[] numbers = new long[games];
+			long value = 0;
+			for (int i = 0; i < games; i++) {
+				value += readVarLong(buffer);
+				numbers[i] = value >>> RESULT_BITS;
+			}
+			return numbers;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d games, Player1 won %d, Player2 won %d, %d draws", games, player1Wins,
+					player2Wins, getDraws());
+		}
+	}
+
+	private final FileChannel channel;
+	private final long keys;
+	private final long keyTableOffset;
+	private final List<Path> archives;
+	private final MappedByteBuffer[] segments;
+	private final long[] samples;
+	private final PositionCodec[] codecs = new PositionCodec[RuleSet.values().length];
+
+	/**
+	 * Opens an index built by {@link PositionIndexBuilder}.
+	 *
+	 * @param file path of the index
+	 * @throws IOException if the file can't be read or isn't an index
+	 */
+	public PositionIndex(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+			;
+		if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+			channel.close();
+			throw new IOException(file + " isn't a position index");
+		}
+		if (header.getInt(4) != VERSION) {
+			channel.close();
+			throw new IOException(file + " has unsupported version " + header.getInt(4));
+		}
+		keys = header.getLong(8);
+		keyTableOffset = header.getLong(16);
+		archives = readArchives(header.getLong(24));
+		segments = new MappedByteBuffer[(int) ((keys + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+		for (int i = 0; i < segments.length; i++) {
+			long first = (long) i * SEGMENT_ENTRIES;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, keyTableOffset + first * ENTRY_SIZE,
+					Math.min(SEGMENT_ENTRIES, keys - first) * ENTRY_SIZE);
+		}
+		samples = new long[(int) ((keys + SAMPLE_INTERVAL - 1) / SAMPLE_INTERVAL)];
+		for (int i = 0; i < samples.length; i++)
+			samples[i] = key((long) i * SAMPLE_INTERVAL);
+		for (int i = 0; i < codecs.length; i++)
+			codecs[i] = new PositionCodec(RuleSet.values()[i].getTopology());
+	}
+
+	/**
+	 * Returns the number of different positions in the index, symmetric
+	 * positions are counted once.
+	 *
+	 * @return number of positions
+	 */
+	public long size() {
+		return keys;
+	}
+
+	/**
+	 * Returns the archives the index was built from, paths are given as they were
+	 * passed to the builder.
+	 *
+	 * @return paths of the archives, the index of a path is the archive of a game
+	 *         id
+	 */
+	public List<Path> getArchives() {
+		return archives;
+	}
+
+	/**
+	 * Returns the id of a game in the index.
+	 *
+	 * @param archive index of the archive of the game
+	 * @param number  number of the game in the archive, at most
+	 *                {@link #MAX_GAME_NUMBER}
+	 * @return id of the game
+	 */
+	public static long gameId(int archive, long number) {
+		return (long) archive << ARCHIVE_SHIFT | number;
+	}
+
+	/**
+	 * Returns the index of the archive of a game, see {@link #getArchives()}.
+	 *
+	 * @param gameId id of the game
+	 * @return index of the archive
+	 */
+	public static int archiveOf(long gameId) {
+		return (int) (gameId >>> ARCHIVE_SHIFT);
+	}
+
+	/**
+	 * Returns the number of a game in its archive.
+	 *
+	 * @param gameId id of the game
+	 * @return number of the game
+	 */
+	public static long numberOf(long gameId) {
+		return gameId & MAX_GAME_NUMBER;
+	}
+
+	/**
+	 * Looks up the games that reached the given position or one of its
+	 * symmetric positions.
+	 *
+	 * @param position position to look up
+	 * @return games that reached the position or null if no game did
+	 * @throws IOException if the index can't be read
+	 */
+	public Entry lookup(Position position) throws IOException {
+		int rules = RuleSet.indexOf(position.getRules());
+		if (rules < 0)
+			return null;
+		long stored = storedKey(rules, codecs[rules].canonical(position.key()));
+		long i = find(stored);
+		if (i < 0)
+			return null;
+		long offset = offset(i);
+		long end = i + 1 < keys ? offset(i + 1) : keyTableOffset;
+		int length = (int) (end - offset);
+		return new Entry(offset, length, read(offset, Math.min(length, MAX_COUNTS_SIZE)));
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	static long storedKey(int rules, long canonicalKey) {
+		return (long) rules << RULES_SHIFT | canonicalKey;
+	}
+
+	static long readVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	// Archive list is the number of archives followed by the length and UTF-8
+	// bytes of every path
+	private List<Path> readArchives(long offset) throws IOException {
+		ByteBuffer list = read(offset, (int) (channel.size() - offset));
+		Path[] paths = new Path[list.getInt()];
+		for (int i = 0; i < paths.length; i++) {
+			byte[] name = new byte[list.getInt()];
+			list.get(name);
+			paths[i] = Paths.get(new String(name, StandardCharsets.UTF_8));
+		}
+		return Collections.unmodifiableList(Arrays.asList(paths));
+	}
+
+	private long key(long i) {
+		return segments[(int) (i / SEGMENT_ENTRIES)].getLong((int) (i % SEGMENT_ENTRIES) * ENTRY_SIZE);
+	}
+
+	private long offset(long i) {
+		return segments[(int) (i / SEGMENT_ENTRIES)].getLong((int) (i % SEGMENT_ENTRIES) * ENTRY_SIZE + 8);
+	}
+
+	// Finds the sample block on the heap, then the key inside the mapped block
+	private long find(long stored) {
+		int lo = 0;
+		int hi = samples.length - 1;
+		if (hi < 0 || stored < samples[0])
+			return -1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (samples[mid] <= stored)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		long first = (long) lo * SAMPLE_INTERVAL;
+		long last = Math.min(keys, first + SAMPLE_INTERVAL) - 1;
+		while (first <= last) {
+			long mid = (first + last) >>> 1;
+			long k = key(mid);
+			if (k < stored)
+				first = mid + 1;
+			else if (k > stored)
+				last = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0)
+			;
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Looks up random positions of the index and prints the time of a lookup.
+	 * <p>
+	 * Arguments: <code>index [lookups]</code>
+	 *
+	 * @param args command line arguments
+	 * @throws IOException if the index can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: PositionIndex index [lookups]");
+			return;
+		}
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+		try (PositionIndex index = new PositionIndex(Paths.get(args[0]))) {
+			RuleSet[] variants = RuleSet.values();
+			Random random = new Random(lookups);
+			Position[] sample = new Position[lookups];
+			for (int i = 0; i < lookups; i++) {
+				long stored = index.key((long) (random.nextDouble() * index.size()));
+				sample[i] = PositionCodec.unpack(stored & ((1L << RULES_SHIFT) - 1),
+						variants[(int) (stored >>> RULES_SHIFT)]);
+			}
+			long games = 0;
+			long worst = 0;
+			long start = System.nanoTime();
+			for (Position p : sample) {
+				long t = System.nanoTime();
+				Entry entry = index.lookup(p);
+				if (entry == null)
+					throw new IllegalStateException("Position of the index wasn't found: " + p);
+				games += entry.getGames();
+				worst = Math.max(worst, System.nanoTime() - t);
+			}
+			long time = System.nanoTime() - start;
+			System.out.println(index.getArchives().size() + " archives");
+			System.out.println(String.format("%d positions, %d lookups, %.2f us per lookup, slowest %.3f ms, %d games",
+					index.size(), lookups, time / 1e3 / lookups, worst / 1e6, games));
+			Entry initial = index.lookup(new Position(Dependencies.RULE_SET));
+			if (initial != null)
+				System.out.println("Starting position: " + initial);
+		}
+	}
+
+}
@@ -0,0 +1,458 @@
+package hr.fer.mv.nmm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds a {@link PositionIndex} from {@link GameArchive} files. Archives are
+ * split into chunks by a {@link GameArchiveReader}, like
+ * {@link GameArchiveVerifier} does. Chunks are replayed in parallel on a
+ * {@link Position}, which follows the rules of {@link GameLogic}, and every
+ * position a game reached is paired with the id and the result of the game.
+ * Ids are unique across all archives of the index, see
+ * {@link PositionIndex#gameId(int, long)}. Pairs are sorted in buffers of {@link #RUN_PAIRS} and written to
+ * temporary run files, so the build never keeps all positions in memory. Runs
+ * are finally merged into the index.
+ * <p>
+ * A game that reaches the same position twice is listed once. Replaying stops
+ * at the first illegal move of a game, positions before it are still indexed.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class PositionIndexBuilder {
+
+	public static final int CHUNKS_PER_THREAD = 4;
+	public static final int RUN_PAIRS = 1 << 21;
+	private static final int STREAM_BUFFER_SIZE = 1 << 16;
+	// Pairs shorter than this are sorted by insertion
+	private static final int INSERTION_SORT_LIMIT = 16;
+
+	// Sorted run of pairs read during the merge
+	private static final class Run implements Comparable<Run> {
+		private final DataInputStream in;
+		private long key;
+		private long value;
+
+		private Run(Path file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), STREAM_BUFFER_SIZE));
+		}
+
+		// Reads the next pair, returns false at the end of the run
+		private boolean next() throws IOException {
+			try {
+				key = in.readLong();
+				value = in.readLong();
+				return true;
+			} catch (EOFException e) {
+				in.close();
+				return false;
+			}
+		}
+
+		@Override
+		public int compareTo(Run r) {
+			int c = Long.compare(key, r.key);
+			return c != 0 ? c : Long.compare(value, r.value);
+		}
+	}
+
+	// Collects positions of the games of one chunk
+	private final class ChunkIndexer implements GameArchiveReader.GameVisitor {
+		private final int archive;
+		private final Path file;
+		private final Path directory;
+		private final List<Path> runs;
+		private final long[] keys = new long[RUN_PAIRS];
+		private final long[] values = new long[RUN_PAIRS];
+		private final PositionCodec[] codecs = new PositionCodec[RuleSet.values().length];
+		private int pairs;
+
+		private ChunkIndexer(int archive, Path file, Path directory, List<Path> runs) {
+			this.archive = archive;
+			this.file = file;
+			this.directory = directory;
+			this.runs = runs;
+		}
+
+		@Override
+		public void visitGame(long number, RuleSet rules, byte result, int[] moves, int count) throws IOException {
+			if (number < 0 || number > PositionIndex.MAX_GAME_NUMBER) {
+				report.println(file + " game " + number + ": number is too large to be indexed");
+				illegalGames.incrementAndGet();
+				return;
+			}
+			if (pairs + count + 1 > RUN_PAIRS)
+				flush();
+			int rulesIndex = RuleSet.indexOf(rules);
+			if (codecs[rulesIndex] == null)
+				codecs[rulesIndex] = new PositionCodec(rules.getTopology());
+			PositionCodec codec = codecs[rulesIndex];
+			long value = PositionIndex.gameId(archive, number) << PositionIndex.RESULT_BITS | result;
+			Position p = new Position(rules);
+			keys[pairs] = PositionIndex.storedKey(rulesIndex, codec.canonical(p.key()));
+			values[pairs++] = value;
+			for (int i = 0; i < count; i++) {
+				if (p.isGameOver() || !p.isLegal(moves[i])) {
+					illegalGames.incrementAndGet();
+					break;
+				}
+				p.makeMove(moves[i]);
+				keys[pairs] = PositionIndex.storedKey(rulesIndex, codec.canonical(p.key()));
+				values[pairs++] = value;
+			}
+			games.incrementAndGet();
+		}
+
+		// Writes the collected pairs to a run
+		private void flush() throws IOException {
+			if (pairs > 0)
+				writeRun(keys, values, pairs, directory, runs);
+			pairs = 0;
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final int threads;
+	private final PrintStream report;
+	private final AtomicLong games = new AtomicLong();
+	private final AtomicLong positions = new AtomicLong();
+	private final AtomicLong illegalGames = new AtomicLong();
+	private final AtomicLong damagedRecords = new AtomicLong();
+	private long keys;
+
+	/**
+	 * Creates a builder.
+	 *
+	 * @param threads number of threads that replay games
+	 * @param report  stream problems are reported to
+	 */
+	public PositionIndexBuilder(int threads, PrintStream report) {
+		this.threads = threads;
+		this.pool = new ForkJoinPool(threads);
+		this.report = report;
+	}
+
+	public long getGames() {
+		return games.get();
+	}
+
+	/**
+	 * Returns the number of positions reached by all games, a position is counted
+	 * again for every game that reached it.
+	 *
+	 * @return number of positions
+	 */
+	public long getPositions() {
+		return positions.get();
+	}
+
+	/**
+	 * Returns the number of different positions written to the index by the last
+	 * build.
+	 *
+	 * @return number of keys in the index
+	 */
+	public long getKeys() {
+		return keys;
+	}
+
+	public long getIllegalGames() {
+		return illegalGames.get();
+	}
+
+	public long getDamagedRecords() {
+		return damagedRecords.get();
+	}
+
+	/**
+	 * Builds an index of all games in the given archives. Temporary files are
+	 * created next to the index.
+	 *
+	 * @param archives paths of the archives, at most
+	 *                 {@link PositionIndex#MAX_ARCHIVES}
+	 * @param index    path of the index, an existing file is overwritten
+	 * @throws IOException if an archive can't be read or the index can't be
+	 *                     written
+	 */
+	public void build(List<Path> archives, Path index) throws IOException {
+		if (archives.size() > PositionIndex.MAX_ARCHIVES)
+			throw new IOException("An index can't hold more than " + PositionIndex.MAX_ARCHIVES + " archives");
+		Path directory = index.toAbsolutePath().getParent();
+		List<Path> runs = Collections.synchronizedList(new ArrayList<>());
+		List<GameArchiveReader> readers = new ArrayList<>();
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int a = 0; a < archives.size(); a++) {
+				int archive = a;
+				GameArchiveReader reader = new GameArchiveReader(archives.get(a), report);
+				readers.add(reader);
+				long[] bounds = reader.split(threads * CHUNKS_PER_THREAD);
+				for (int i = 0; i + 1 < bounds.length; i++) {
+					long start = bounds[i];
+					long end = bounds[i + 1];
+					tasks.add(() -> {
+						indexChunk(reader, archive, start, end, directory, runs);
+						return null;
+					});
+				}
+			}
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+			for (GameArchiveReader reader : readers) {
+				illegalGames.addAndGet(reader.getInvalidGames());
+				damagedRecords.addAndGet(reader.getDamagedRecords());
+			}
+			merge(runs, archives, index);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			for (GameArchiveReader reader : readers)
+				reader.close();
+			for (Path run : runs)
+				Files.deleteIfExists(run);
+		}
+	}
+
+	/**
+	 * Stops the threads of this builder.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Replays the games of a chunk and writes their positions to sorted runs
+	private void indexChunk(GameArchiveReader reader, int archive, long start, long end, Path directory,
+			List<Path> runs) throws IOException {
+		ChunkIndexer indexer = new ChunkIndexer(archive, reader.getFile(), directory, runs);
+		reader.readChunk(start, end, indexer);
+		indexer.flush();
+	}
+
+	// Sorts pairs and writes them without duplicates
+	private void writeRun(long[] keys, long[] values, int pairs, Path directory, List<Path> runs)
+			throws IOException {
+		sort(keys, values, 0, pairs - 1);
+		Path file = Files.createTempFile(directory, "positions", ".run");
+		runs.add(file);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), STREAM_BUFFER_SIZE))) {
+			for (int i = 0; i < pairs; i++) {
+				if (i > 0 && keys[i] == keys[i - 1] && values[i] == values[i - 1])
+					continue;
+				out.writeLong(keys[i]);
+				out.writeLong(values[i]);
+				positions.incrementAndGet();
+			}
+		}
+	}
+
+	// Merges the runs, writes posting lists after the header, the key table
+	// after the posting lists and the archive list at the end
+	private void merge(List<Path> runFiles, List<Path> archives, Path index) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<>();
+		for (Path file : runFiles) {
+			Run run = new Run(file);
+			if (run.next())
+				queue.add(run);
+		}
+		Path keyTable = Files.createTempFile(index.toAbsolutePath().getParent(), "keys", ".tmp");
+		keys = 0;
+		long offset = PositionIndex.HEADER_SIZE;
+		try {
+			try (DataOutputStream postings = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(index), STREAM_BUFFER_SIZE));
+					DataOutputStream table = new DataOutputStream(
+							new BufferedOutputStream(Files.newOutputStream(keyTable), STREAM_BUFFER_SIZE))) {
+				postings.write(new byte[PositionIndex.HEADER_SIZE]);
+				long[] values = new long[256];
+				ByteBuffer list = ByteBuffer.allocate(1 << 12);
+				while (!queue.isEmpty()) {
+					long key = queue.peek().key;
+					int count = 0;
+					// Runs are sorted by key and value, so values of a key come in order
+					while (!queue.isEmpty() && queue.peek().key == key) {
+						Run run = queue.poll();
+						if (count == 0 || values[count - 1] != run.value) {
+							if (count == values.length)
+								values = Arrays.copyOf(values, 2 * count);
+							values[count++] = run.value;
+						}
+						if (run.next())
+							queue.add(run);
+					}
+					int[] wins = new int[2];
+					for (int i = 0; i < count; i++) {
+						int result = (int) (values[i] & ((1 << PositionIndex.RESULT_BITS) - 1));
+						if (result == GameArchive.RESULT_PLAYER1_WIN)
+							wins[Position.PLAYER1]++;
+						else if (result == GameArchive.RESULT_PLAYER2_WIN)
+							wins[Position.PLAYER2]++;
+					}
+					if (list.capacity() < 30 + 10 * count)
+						list = ByteBuffer.allocate(Integer.highestOneBit(30 + 10 * count) << 1);
+					list.clear();
+					writeVarLong(list, count);
+					writeVarLong(list, wins[Position.PLAYER1]);
+					writeVarLong(list, wins[Position.PLAYER2]);
+					for (int i = 0; i < count; i++)
+						writeVarLong(list, i == 0 ? values[0] : values[i] - values[i - 1]);
+					postings.write(list.array(), 0, list.position());
+					table.writeLong(key);
+					table.writeLong(offset);
+					offset += list.position();
+					keys++;
+				}
+			}
+			try (FileChannel out = FileChannel.open(index, StandardOpenOption.WRITE);
+					FileChannel in = FileChannel.open(keyTable, StandardOpenOption.READ)) {
+				long size = in.size();
+				for (long done = 0; done < size;)
+					done += in.transferTo(done, size - done, out.position(offset + done));
+				long archiveListOffset = offset + size;
+				writeFully(out, archiveList(archives), archiveListOffset);
+				ByteBuffer header = ByteBuffer.allocate(PositionIndex.HEADER_SIZE);
+				header.putInt(PositionIndex.MAGIC).putInt(PositionIndex.VERSION).putLong(keys).putLong(offset)
+						.putLong(archiveListOffset);
+				header.flip();
+				writeFully(out, header, 0);
+				out.force(true);
+			}
+		} finally {
+			Files.deleteIfExists(keyTable);
+		}
+	}
+
+	// Number of archives followed by the length and UTF-8 bytes of every path
+	private static ByteBuffer archiveList(List<Path> archives) {
+		List<byte[]> names = new ArrayList<>();
+		int size = 4;
+		for (Path archive : archives) {
+			byte[] name = archive.toString().getBytes(StandardCharsets.UTF_8);
+			names.add(name);
+			size += 4 + name.length;
+		}
+		ByteBuffer list = ByteBuffer.allocate(size);
+		list.putInt(names.size());
+		for (byte[] name : names)
+			list.putInt(name.length).put(name);
+		list.flip();
+		return list;
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += out.write(buffer, position);
+	}
+
+	private static void writeVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	// Quicksort of pairs by key and then by value
+	private static void sort(long[] keys, long[] values, int lo, int hi) {
+		while (hi - lo >= INSERTION_SORT_LIMIT) {
+			int mid = (lo + hi) >>> 1;
+			long pivotKey = keys[mid];
+			long pivotValue = values[mid];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (compare(keys[i], values[i], pivotKey, pivotValue) < 0)
+					i++;
+				while (compare(keys[j], values[j], pivotKey, pivotValue) > 0)
+					j--;
+				if (i <= j)
+					swap(keys, values, i++, j--);
+			}
+			// Smaller part is sorted recursively, so the stack stays shallow
+			if (j - lo < hi - i) {
+				sort(keys, values, lo, j);
+				lo = i;
+			} else {
+				sort(keys, values, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++)
+			for (int j = i; j > lo && compare(keys[j - 1], values[j - 1], keys[j], values[j]) > 0; j--)
+				swap(keys, values, j - 1, j);
+	}
+
+	private static int compare(long key1, long value1, long key2, long value2) {
+		int c = Long.compare(key1, key2);
+		return c != 0 ? c : Long.compare(value1, value2);
+	}
+
+	private static void swap(long[] keys, long[] values, int i, int j) {
+		long k = keys[i];
+		keys[i] = keys[j];
+		keys[j] = k;
+		long v = values[i];
+		values[i] = values[j];
+		values[j] = v;
+	}
+
+	/**
+	 * Builds an index of the given archives and prints the throughput.
+	 * <p>
+	 * Arguments: <code>[-threads n] index archive...</code>
+	 *
+	 * @param args command line arguments
+	 * @throws IOException if an archive can't be read or the index can't be
+	 *                     written
+	 */
+	public static void main(String[] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Path> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else
+				files.add(Paths.get(args[i]));
+		}
+		if (files.size() < 2) {
+			System.out.println("Usage: PositionIndexBuilder [-threads n] index archive...");
+			return;
+		}
+		PositionIndexBuilder builder = new PositionIndexBuilder(threads, System.out);
+		long start = System.nanoTime();
+		builder.build(files.subList(1, files.size()), files.get(0));
+		long time = System.nanoTime() - start;
+		builder.shutdown();
+		System.out.println(builder.getGames() + " games, " + builder.getPositions() + " positions, "
+				+ builder.getKeys() + " keys indexed on " + threads + " threads in " + time / 1_000_000 + " ms ("
+				+ builder.getGames() * 1_000_000_000L / Math.max(1, time) + " games/s), " + builder.getIllegalGames()
+				+ " illegal games, " + builder.getDamagedRecords() + " damaged records, "
+				+ Files.size(files.get(0)) / 1024 + " KB");
+	}
+
+}
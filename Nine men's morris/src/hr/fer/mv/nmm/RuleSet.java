@@ -0,0 +1,147 @@
+package hr.fer.mv.nmm;
+
+import java.util.Locale;
+
+/**
+ * Rules of a variant of the game: the board it is played on, number of tokens
+ * per player and optional rules. Rule sets are immutable and share their
+ * {@link BoardTopology}, so one instance of each variant is enough for any
+ * number of games.
+ * <p>
+ * Supported variants:
+ * <ul>
+ * <li>Six men's morris - two squares, 6 tokens, no mills between squares
+ * <li>Nine men's morris - the classic game with 9 tokens
+ * <li>Twelve men's morris - squares are also connected at the corners, 12
+ * tokens
+ * <li>Lasker morris - 10 tokens and players may move a token instead of placing
+ * a new one
+ * </ul>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class RuleSet {
+
+	public static final RuleSet SIX_MENS_MORRIS = new RuleSet("Six men's morris", BoardTopology.TWO_SQUARES, 6,
+			false, true, false);
+	public static final RuleSet NINE_MENS_MORRIS = new RuleSet("Nine men's morris", BoardTopology.THREE_SQUARES, 9,
+			false, true, false);
+	public static final RuleSet TWELVE_MENS_MORRIS = new RuleSet("Twelve men's morris",
+			BoardTopology.THREE_SQUARES_DIAGONALS, 12, false, true, false);
+	public static final RuleSet LASKER_MORRIS = new RuleSet("Lasker morris", BoardTopology.THREE_SQUARES, 10, true,
+			true, true);
+
+	private static final RuleSet[] VALUES = { SIX_MENS_MORRIS, NINE_MENS_MORRIS, TWELVE_MENS_MORRIS,
+			LASKER_MORRIS };
+
+	private final String name;
+	private final BoardTopology topology;
+	private final int tokensPerPlayer;
+	private final boolean flying;
+	private final boolean checkCheckmate;
+	private final boolean movingWhilePlacing;
+
+	/**
+	 * Creates a new rule set.
+	 *
+	 * @param name               name of the variant
+	 * @param topology           board the variant is played on
+	 * @param tokensPerPlayer    number of tokens each player places
+	 * @param flying             true if a player with three tokens can move to
+	 *                           any empty point
+	 * @param checkCheckmate     true if a player that blocks all opponents tokens
+	 *                           wins
+	 * @param movingWhilePlacing true if a player can move a token instead of
+	 *                           placing a new one
+	 */
+	public RuleSet(String name, BoardTopology topology, int tokensPerPlayer, boolean flying, boolean checkCheckmate,
+			boolean movingWhilePlacing) {
+		if (tokensPerPlayer < 3 || tokensPerPlayer > 15)
+			throw new IllegalArgumentException("Unsupported number of tokens per player: " + tokensPerPlayer);
+		this.name = name;
+		this.topology = topology;
+		this.tokensPerPlayer = tokensPerPlayer;
+		this.flying = flying;
+		this.checkCheckmate = checkCheckmate;
+		this.movingWhilePlacing = movingWhilePlacing;
+	}
+
+	/**
+	 * Returns all predefined variants.
+	 *
+	 * @return array of predefined rule sets
+	 */
+	public static RuleSet[] values() {
+		return VALUES.clone();
+	}
+
+	/**
+	 * Returns the predefined variant with the given name or identifier, ignoring
+	 * case.
+	 *
+	 * @param name name of the variant or its {@link #getIdentifier()}
+	 * @return rule set with the given name
+	 * @throws IllegalArgumentException if there is no such variant
+	 */
+	public static RuleSet valueOf(String name) {
+		for (RuleSet rs : VALUES)
+			if (rs.name.equalsIgnoreCase(name) || rs.getIdentifier().equalsIgnoreCase(name))
+				return rs;
+		throw new IllegalArgumentException("Unknown variant: " + name);
+	}
+
+	/**
+	 * Returns the index of the given rule set in {@link #values()}, used for
+	 * storing rule sets in files.
+	 *
+	 * @param rules rule set to look for
+	 * @return index of the rule set or -1 if it isn't predefined
+	 */
+	public static int indexOf(RuleSet rules) {
+		for (int i = 0; i < VALUES.length; i++)
+			if (VALUES[i] == rules)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Returns the name without spaces and apostrophes, like the name of a
+	 * constant, for example <code>SIX_MENS_MORRIS</code>.
+	 *
+	 * @return identifier of the variant
+	 */
+	public String getIdentifier() {
+		return name.toUpperCase(Locale.ROOT).replace("'", "").replace(' ', '_');
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public BoardTopology getTopology() {
+		return topology;
+	}
+
+	public int getTokensPerPlayer() {
+		return tokensPerPlayer;
+	}
+
+	public boolean isFlyingAllowed() {
+		return flying;
+	}
+
+	public boolean isCheckCheckmate() {
+		return checkCheckmate;
+	}
+
+	public boolean isMovingWhilePlacing() {
+		return movingWhilePlacing;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,79 @@
+package hr.fer.mv.nmm;
+
+import java.util.Arrays;
+
+/**
+ * Immutable result of a single iteration of a search. Instances are created on
+ * the search thread and can be safely handed to other threads.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class SearchResult {
+
+	private final int bestMove;
+	private final int score;
+	private final int depth;
+	private final long nodes;
+	private final long timeMillis;
+	private final int[] principalVariation;
+
+	public SearchResult(int bestMove, int score, int depth, long nodes, long timeMillis, int[] principalVariation) {
+		this.bestMove = bestMove;
+		this.score = score;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.timeMillis = timeMillis;
+		this.principalVariation = Arrays.copyOf(principalVariation, principalVariation.length);
+	}
+
+	public int getBestMove() {
+		return bestMove;
+	}
+
+	/**
+	 * Returns the score of the best move from the point of view of the side to
+	 * move in the searched position.
+	 *
+	 * @return score of the best move
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * Returns the expected continuation of the game, starting with the best move.
+	 *
+	 * @return copy of the principal variation
+	 */
+	public int[] getPrincipalVariation() {
+		return Arrays.copyOf(principalVariation, principalVariation.length);
+	}
+
+	/**
+	 * Checks if the score means that one side can force a win.
+	 *
+	 * @return true if the score is a forced win or loss
+	 */
+	public boolean isWinScore() {
+		return Math.abs(score) > Evaluator.WIN_SCORE - AlphaBetaSearch.MAX_PLY;
+	}
+
+	@Override
+	public String toString() {
+		return "depth " + depth + " score " + score + " nodes " + nodes + " move " + Move.toString(bestMove);
+	}
+
+}
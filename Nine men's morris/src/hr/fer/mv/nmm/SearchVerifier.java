@@ -0,0 +1,72 @@
+package hr.fer.mv.nmm;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link AlphaBetaSearch} plays by the rules of the position it
+ * searches. Positions of random games are collected for every
+ * {@link RuleSet}, all of them are searched by one instance, so the rules
+ * change between searches, and every move of the principal variation has to be
+ * legal in the position it is played in. Positions of finished games are
+ * replaced by new ones, so the given number of positions is searched for every
+ * rule set.
+ * <p>
+ * Arguments: <code>[positions per rule set] [depth]</code>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class SearchVerifier {
+
+	private SearchVerifier() {
+	}
+
+	public static void main(String[] args) {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+		AlphaBetaSearch search = new AlphaBetaSearch(new TranspositionTable(1 << 16));
+		Random random = new Random(positions);
+		int[] moves = new int[Position.MAX_MOVES];
+		int searched = 0;
+		int illegal = 0;
+		for (int i = 0; i < positions; i++) {
+			for (RuleSet rules : RuleSet.values()) {
+				Position root = randomPosition(rules, random, moves);
+				while (root.isGameOver())
+					root = randomPosition(rules, random, moves);
+				search.getTranspositionTable().clear();
+				SearchResult result = search.search(root, depth, null);
+				searched++;
+				Position p = new Position(root);
+				for (int move : result.getPrincipalVariation()) {
+					if (!p.isLegal(move)) {
+						illegal++;
+						System.out.println(rules + ": illegal move " + Move.toNotation(move) + " in " + p
+								+ " searched from " + root);
+						break;
+					}
+					p.makeMove(move);
+				}
+			}
+		}
+		System.out.println(searched + " positions of " + RuleSet.values().length + " rule sets searched to depth "
+				+ depth + ", " + illegal + " with illegal moves");
+		if (illegal > 0)
+			System.exit(1);
+	}
+
+	// Plays a random number of random moves from the start
+	private static Position randomPosition(RuleSet rules, Random random, int[] moves) {
+		Position p = new Position(rules);
+		int plies = random.nextInt(4 * rules.getTokensPerPlayer());
+		for (int i = 0; i < plies && !p.isGameOver(); i++) {
+			int n = p.generateMoves(moves);
+			if (n == 0)
+				break;
+			p.makeMove(moves[random.nextInt(n)]);
+		}
+		return p;
+	}
+
+}
@@ -0,0 +1,494 @@
+package hr.fer.mv.nmm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps many correspondence games of the hosted version in a small heap. A
+ * game is stored in one slot of primitive arrays, five longs and a flag: the
+ * id of the session, the key of its position (see {@link PositionCodec}), ids
+ * of both players packed into one long, the rule set, winner and number of
+ * moves packed into another, the time of its last move and a flag that marks
+ * the game as recently used. A {@link GameLogic} with its board, counters and
+ * listeners takes hundreds of bytes more.
+ * <p>
+ * Arrays hold a fixed number of resident games. Games that didn't move for
+ * longer than the idle time are written to a segment file by
+ * {@link #evictIdle()} and their slot is reused. When a paged game is used
+ * again it is read back into a free slot, if there is none a game that wasn't
+ * used recently is paged out first, chosen by a clock over the slots. Sessions
+ * are found by id in an open addressing table of longs, which holds the slot
+ * of a resident game or the offset of a paged one. Records of games that were
+ * read back stay in the segment until it is compacted.
+ * <p>
+ * The segment only extends the memory, it is emptied when the store is opened.
+ * Games that have to survive a restart are kept in a {@link GameJournal}.
+ * Methods are synchronized.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class SessionStore implements Closeable {
+
+	public static final long DEFAULT_IDLE_MILISECONDS = 10 * 60_000;
+	// Segment is compacted when it holds this many times more records than games
+	private static final int COMPACTION_FACTOR = 2;
+	private static final int MIN_COMPACTION_RECORDS = 1 << 12;
+	private static final int COMPACTION_BUFFER_RECORDS = 1 << 12;
+	// id, key, players, info and time of the last move
+	private static final int RECORD_SIZE = 5 * 8;
+	private static final int RULES_MASK = 0xF;
+	private static final int WINNER_SHIFT = 4;
+	private static final int PLIES_SHIFT = 8;
+	private static final int MAX_PLIES = (1 << 24) - 1;
+	private static final int FREE = -1;
+
+	private final Path file;
+	private final long idleMiliseconds;
+	private final int capacity;
+	// Resident games, indexed by slot
+	private final long[] ids;
+	private final long[] keys;
+	private final long[] players;
+	private final long[] infos;
+	private final long[] lastMoves;
+	private final boolean[] used;
+	private int hand;
+	private final int[] freeSlots;
+	private int freeCount;
+	// Session id to slot, or to -(offset + 1) of a paged game
+	private long[] tableIds;
+	private long[] tableLocations;
+	private int tableSize;
+	private final Position[] scratch = new Position[RuleSet.values().length];
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+	private FileChannel channel;
+	private long segmentEnd;
+	private long nextId = 1;
+	private int paged;
+	private long faults;
+	private long evictions;
+	private long compactions;
+
+	/**
+	 * Opens a store with the default idle time.
+	 *
+	 * @param file     path of the segment file, it is emptied
+	 * @param capacity maximal number of resident games
+	 * @throws IOException if the segment file can't be created
+	 */
+	public SessionStore(Path file, int capacity) throws IOException {
+		this(file, capacity, DEFAULT_IDLE_MILISECONDS);
+	}
+
+	/**
+	 * Opens a store.
+	 *
+	 * @param file            path of the segment file, it is emptied
+	 * @param capacity        maximal number of resident games
+	 * @param idleMiliseconds games that didn't move for longer are paged out by
+	 *                        {@link #evictIdle()}
+	 * @throws IOException if the segment file can't be created
+	 */
+	public SessionStore(Path file, int capacity, long idleMiliseconds) throws IOException {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		this.file = file;
+		this.capacity = capacity;
+		this.idleMiliseconds = idleMiliseconds;
+		ids = new long[capacity];
+		keys = new long[capacity];
+		players = new long[capacity];
+		infos = new long[capacity];
+		lastMoves = new long[capacity];
+		used = new boolean[capacity];
+		freeSlots = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			freeSlots[freeCount++] = capacity - 1 - i;
+		tableIds = new long[Integer.highestOneBit(capacity) << 2];
+		tableLocations = new long[tableIds.length];
+		for (int i = 0; i < scratch.length; i++)
+			scratch[i] = new Position(RuleSet.values()[i]);
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Starts a new game.
+	 *
+	 * @param player1 id of the player that moves first
+	 * @param player2 id of the other player
+	 * @param rules   rules of the game, one of {@link RuleSet#values()}
+	 * @return id of the session
+	 * @throws IOException if a game had to be paged out and the segment can't be
+	 *                     written
+	 */
+	public synchronized long create(int player1, int player2, RuleSet rules) throws IOException {
+		int rulesIndex = RuleSet.indexOf(rules);
+		if (rulesIndex < 0)
+			throw new IllegalArgumentException("Only predefined rule sets can be stored");
+		int slot = takeSlot();
+		long id = nextId++;
+		ids[slot] = id;
+		keys[slot] = PositionCodec.pack(new Position(rules));
+		players[slot] = (long) player1 << 32 | player2 & 0xFFFFFFFFL;
+		infos[slot] = rulesIndex;
+		lastMoves[slot] = System.currentTimeMillis();
+		put(id, slot);
+		return id;
+	}
+
+	/**
+	 * Returns the current position of a game, a paged game is read back.
+	 *
+	 * @param id id of the session
+	 * @return copy of the position
+	 * @throws IOException if the game can't be read from the segment
+	 */
+	public synchronized Position getPosition(long id) throws IOException {
+		int slot = resident(id);
+		return PositionCodec.unpack(keys[slot], RuleSet.values()[(int) (infos[slot] & RULES_MASK)]);
+	}
+
+	/**
+	 * Plays a move in a game, a paged game is read back.
+	 *
+	 * @param id   id of the session
+	 * @param move encoded move, see {@link Move}
+	 * @return false if the game is over or the move is illegal
+	 * @throws IOException if the game can't be read from the segment
+	 */
+	public synchronized boolean play(long id, int move) throws IOException {
+		int slot = resident(id);
+		long info = infos[slot];
+		if ((info >>> WINNER_SHIFT & 3) != 0)
+			return false;
+		Position p = PositionCodec.unpack(keys[slot], scratch[(int) (info & RULES_MASK)]);
+		if (!p.isLegal(move))
+			return false;
+		p.makeMove(move);
+		int plies = (int) Math.min(MAX_PLIES, (info >>> PLIES_SHIFT) + 1);
+		int winner = p.getWinner();
+		keys[slot] = PositionCodec.pack(p);
+		infos[slot] = (info & RULES_MASK) | (long) (winner + 1) << WINNER_SHIFT | (long) plies << PLIES_SHIFT;
+		lastMoves[slot] = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * Returns the winner of a game.
+	 *
+	 * @param id id of the session
+	 * @return {@link Position#PLAYER1}, {@link Position#PLAYER2} or
+	 *         {@link Position#NO_WINNER} while the game goes on
+	 * @throws IOException if the game can't be read from the segment
+	 */
+	public synchronized int getWinner(long id) throws IOException {
+		return (int) (infos[resident(id)] >>> WINNER_SHIFT & 3) - 1;
+	}
+
+	/**
+	 * Returns the id of the player that plays the given side.
+	 *
+	 * @param id   id of the session
+	 * @param side {@link Position#PLAYER1} or {@link Position#PLAYER2}
+	 * @return id of the player
+	 * @throws IOException if the game can't be read from the segment
+	 */
+	public synchronized int getPlayer(long id, int side) throws IOException {
+		long p = players[resident(id)];
+		return (int) (side == Position.PLAYER1 ? p >>> 32 : p);
+	}
+
+	/**
+	 * Returns the number of moves played in a game.
+	 *
+	 * @param id id of the session
+	 * @return number of moves
+	 * @throws IOException if the game can't be read from the segment
+	 */
+	public synchronized int getPlies(long id) throws IOException {
+		return (int) (infos[resident(id)] >>> PLIES_SHIFT);
+	}
+
+	/**
+	 * Removes a finished or abandoned game.
+	 *
+	 * @param id id of the session
+	 * @return false if there is no such session
+	 */
+	public synchronized boolean remove(long id) {
+		int i = find(id);
+		if (i < 0)
+			return false;
+		long location = tableLocations[i];
+		if (location >= 0)
+			releaseSlot((int) location);
+		else
+			paged--;
+		delete(i);
+		return true;
+	}
+
+	/**
+	 * Pages out every resident game that didn't move for longer than the idle
+	 * time.
+	 *
+	 * @return number of games paged out
+	 * @throws IOException if the segment can't be written
+	 */
+	public synchronized int evictIdle() throws IOException {
+		long limit = System.currentTimeMillis() - idleMiliseconds;
+		int evicted = 0;
+		for (int slot = 0; slot < capacity; slot++)
+			if (ids[slot] != 0 && lastMoves[slot] < limit) {
+				pageOut(slot);
+				evicted++;
+			}
+		compactIfNeeded();
+		return evicted;
+	}
+
+	/**
+	 * Returns the number of games in the store, resident or paged.
+	 *
+	 * @return number of games
+	 */
+	public synchronized int size() {
+		return tableSize;
+	}
+
+	public synchronized int getResident() {
+		return capacity - freeCount;
+	}
+
+	public synchronized int getPaged() {
+		return paged;
+	}
+
+	/**
+	 * Returns the number of paged games that were read back since the store was
+	 * opened.
+	 *
+	 * @return number of page faults
+	 */
+	public synchronized long getFaults() {
+		return faults;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getCompactions() {
+		return compactions;
+	}
+
+	public synchronized long getSegmentSize() {
+		return segmentEnd;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel == null)
+			return;
+		channel.close();
+		channel = null;
+		Files.deleteIfExists(file);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d games, %d resident, %d paged, %d faults, %d evictions, %d KB segment", size(),
+				getResident(), getPaged(), getFaults(), getEvictions(), getSegmentSize() / 1024);
+	}
+
+	// Returns the slot of a game, reading it back if it is paged
+	private int resident(long id) throws IOException {
+		int i = find(id);
+		if (i < 0)
+			throw new IllegalArgumentException("No session " + id);
+		long location = tableLocations[i];
+		if (location >= 0) {
+			used[(int) location] = true;
+			return (int) location;
+		}
+		int slot = takeSlot();
+		// Taking a slot may have paged out another game and compacted the segment
+		long offset = -tableLocations[i] - 1;
+		record.clear();
+		while (record.hasRemaining() && channel.read(record, offset + record.position()) > 0)
+			;
+		if (record.hasRemaining() || record.getLong(0) != id) {
+			releaseSlot(slot);
+			throw new IOException("Session " + id + " is damaged in " + file);
+		}
+		ids[slot] = id;
+		keys[slot] = record.getLong(8);
+		players[slot] = record.getLong(16);
+		infos[slot] = record.getLong(24);
+		lastMoves[slot] = record.getLong(32);
+		tableLocations[i] = slot;
+		paged--;
+		faults++;
+		return slot;
+	}
+
+	// Returns a free slot, if there is none pages out a game that wasn't used
+	// since the clock hand last passed it
+	private int takeSlot() throws IOException {
+		if (freeCount == 0) {
+			while (used[hand]) {
+				used[hand] = false;
+				hand = (hand + 1) % capacity;
+			}
+			pageOut(hand);
+			compactIfNeeded();
+		}
+		int slot = freeSlots[--freeCount];
+		used[slot] = true;
+		return slot;
+	}
+
+	private void releaseSlot(int slot) {
+		ids[slot] = 0;
+		freeSlots[freeCount++] = slot;
+	}
+
+	private void pageOut(int slot) throws IOException {
+		long id = ids[slot];
+		long offset = append(id, keys[slot], players[slot], infos[slot], lastMoves[slot]);
+		tableLocations[find(id)] = -offset - 1;
+		releaseSlot(slot);
+		paged++;
+		evictions++;
+	}
+
+	private long append(long id, long key, long player, long info, long lastMove) throws IOException {
+		record.clear();
+		record.putLong(id).putLong(key).putLong(player).putLong(info).putLong(lastMove);
+		record.flip();
+		long offset = segmentEnd;
+		while (record.hasRemaining())
+			channel.write(record, offset + record.position());
+		segmentEnd += RECORD_SIZE;
+		return offset;
+	}
+
+	// Rewrites the segment so it only holds paged games. The old segment is read
+	// in order and a record is kept if its game still points to it.
+	private void compactIfNeeded() throws IOException {
+		long records = segmentEnd / RECORD_SIZE;
+		if (records <= MIN_COMPACTION_RECORDS || records <= (long) COMPACTION_FACTOR * paged)
+			return;
+		Path temporary = file.resolveSibling(file.getFileName() + ".compact");
+		ByteBuffer in = ByteBuffer.allocate(COMPACTION_BUFFER_RECORDS * RECORD_SIZE);
+		ByteBuffer out = ByteBuffer.allocate(COMPACTION_BUFFER_RECORDS * RECORD_SIZE);
+		long written = 0;
+		try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (long offset = 0; offset < segmentEnd; offset += in.limit()) {
+				in.clear();
+				in.limit((int) Math.min(in.capacity(), segmentEnd - offset));
+				while (in.hasRemaining() && channel.read(in, offset + in.position()) > 0)
+					;
+				if (in.hasRemaining())
+					throw new IOException("Segment " + file + " is shorter than expected");
+				for (int r = 0; r < in.limit(); r += RECORD_SIZE) {
+					int i = find(in.getLong(r));
+					if (i < 0 || tableLocations[i] != -(offset + r) - 1)
+						continue;
+					tableLocations[i] = -(written + out.position()) - 1;
+					out.put(in.array(), r, RECORD_SIZE);
+					if (!out.hasRemaining())
+						written += flush(target, out, written);
+				}
+			}
+			written += flush(target, out, written);
+		}
+		channel.close();
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segmentEnd = written;
+		compactions++;
+	}
+
+	// Writes the buffer at the given offset and empties it, returns the number
+	// of bytes written
+	private static int flush(FileChannel target, ByteBuffer buffer, long offset) throws IOException {
+		buffer.flip();
+		int length = buffer.remaining();
+		while (buffer.hasRemaining())
+			target.write(buffer, offset + buffer.position());
+		buffer.clear();
+		return length;
+	}
+
+	private static int hash(long id, int mask) {
+		return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	private int find(long id) {
+		int mask = tableIds.length - 1;
+		for (int i = hash(id, mask);; i = (i + 1) & mask) {
+			if (tableIds[i] == id)
+				return i;
+			if (tableIds[i] == 0)
+				return -1;
+		}
+	}
+
+	private void put(long id, long location) {
+		if (2 * (tableSize + 1) > tableIds.length)
+			resize(tableIds.length * 2);
+		int mask = tableIds.length - 1;
+		int i = hash(id, mask);
+		while (tableIds[i] != 0)
+			i = (i + 1) & mask;
+		tableIds[i] = id;
+		tableLocations[i] = location;
+		tableSize++;
+	}
+
+	// Removes an entry and moves later entries of its run back, so lookups never
+	// stop at a hole
+	private void delete(int i) {
+		int mask = tableIds.length - 1;
+		int hole = i;
+		for (int j = (i + 1) & mask; tableIds[j] != 0; j = (j + 1) & mask) {
+			int home = hash(tableIds[j], mask);
+			// Entry can fill the hole if its home isn't between the hole and itself
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				tableIds[hole] = tableIds[j];
+				tableLocations[hole] = tableLocations[j];
+				hole = j;
+			}
+		}
+		tableIds[hole] = 0;
+		tableSize--;
+	}
+
+	private void resize(int length) {
+		long[] oldIds = tableIds;
+		long[] oldLocations = tableLocations;
+		tableIds = new long[length];
+		tableLocations = new long[length];
+		tableSize = 0;
+		for (int i = 0; i < oldIds.length; i++)
+			if (oldIds[i] != 0)
+				put(oldIds[i], oldLocations[i]);
+	}
+
+}
@@ -0,0 +1,128 @@
+package hr.fer.mv.nmm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Measures the memory a {@link SessionStore} needs for many concurrent games
+ * and the cost of paging. The heap taken by a {@link GameLogic} and by a
+ * {@link GameSession} is measured first, then the store is filled with games
+ * and random moves are played in random games. With fewer resident slots than
+ * games most moves page a game in from the segment. Positions of every game are
+ * also kept in a plain array and compared with the store at the end.
+ * <p>
+ * Arguments: <code>[segment file] [games] [resident games] [moves] [idle
+ * miliseconds]</code>
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class SessionStoreBenchmark {
+
+	// Number of objects created to measure the size of one
+	private static final int SAMPLE = 20_000;
+
+	private SessionStoreBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path file = Paths.get(args.length > 0 ? args[0] : "benchmark.sessions");
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+		int resident = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+		int moves = args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000;
+		long idle = args.length > 4 ? Long.parseLong(args[4]) : 1_000;
+		RuleSet rules = RuleSet.NINE_MENS_MORRIS;
+
+		long before = usedHeap();
+		Object[] sample = new Object[SAMPLE];
+		for (int i = 0; i < SAMPLE; i++)
+			sample[i] = new GameLogic(rules);
+		long logicBytes = (usedHeap() - before) / SAMPLE;
+		for (int i = 0; i < SAMPLE; i++)
+			sample[i] = new GameSession(i, 2 * i, 2 * i + 1, rules);
+		long sessionBytes = (usedHeap() - before) / SAMPLE;
+		sample = null;
+
+		before = usedHeap();
+		SessionStore store = new SessionStore(file, games, idle);
+		long[] ids = new long[games];
+		for (int g = 0; g < games; g++)
+			ids[g] = store.create(2 * g, 2 * g + 1, rules);
+		long storeBytes = usedHeap() - before;
+		System.out.println(String.format("Heap per game: GameLogic %d B, GameSession %d B, SessionStore %.1f B",
+				logicBytes, sessionBytes, (double) storeBytes / games));
+		store.close();
+
+		store = new SessionStore(file, resident, idle);
+		long[] expected = new long[games];
+		for (int g = 0; g < games; g++) {
+			ids[g] = store.create(2 * g, 2 * g + 1, rules);
+			expected[g] = PositionCodec.pack(new Position(rules));
+		}
+		System.out.println(String.format("%d games with %d resident slots, %s", games, resident, store));
+
+		Random random = new Random(games);
+		Position position = new Position(rules);
+		int[] legal = new int[Position.MAX_MOVES];
+		LatencyHistogram residentLatency = new LatencyHistogram();
+		LatencyHistogram faultLatency = new LatencyHistogram();
+		int finished = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < moves; i++) {
+			int g = random.nextInt(games);
+			PositionCodec.unpack(expected[g], position);
+			int move = legal[random.nextInt(position.generateMoves(legal))];
+			long faults = store.getFaults();
+			long t = System.nanoTime();
+			boolean played = store.play(ids[g], move);
+			t = System.nanoTime() - t;
+			(store.getFaults() == faults ? residentLatency : faultLatency).record(t);
+			if (!played)
+				throw new IllegalStateException("Store rejected a legal move in game " + ids[g]);
+			position.makeMove(move);
+			expected[g] = PositionCodec.pack(position);
+			if (position.isGameOver()) {
+				if (store.getWinner(ids[g]) != position.getWinner())
+					throw new IllegalStateException("Wrong winner in game " + ids[g]);
+				store.remove(ids[g]);
+				ids[g] = store.create(2 * g, 2 * g + 1, rules);
+				expected[g] = PositionCodec.pack(new Position(rules));
+				finished++;
+			}
+		}
+		long time = System.nanoTime() - start;
+		System.out.println(String.format("%d moves in %d ms (%.0f moves/s), %d games finished, %s", moves,
+				time / 1_000_000, moves * 1e9 / time, finished, store));
+		System.out.println("Resident moves: " + residentLatency);
+		System.out.println("Paged moves:    " + faultLatency);
+
+		Thread.sleep(idle + 1);
+		start = System.nanoTime();
+		int evicted = store.evictIdle();
+		System.out.println(String.format("Paged out %d idle games in %.1f ms, %s", evicted,
+				(System.nanoTime() - start) / 1e6, store));
+
+		int differences = 0;
+		for (int g = 0; g < games; g++)
+			if (PositionCodec.pack(store.getPosition(ids[g])) != expected[g])
+				differences++;
+		System.out.println(String.format("%d games compared, %d differ, %d compactions", games, differences,
+				store.getCompactions()));
+		store.close();
+		if (differences > 0)
+			System.exit(1);
+	}
+
+	// Returns the used heap after collecting garbage
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,58 @@
+package hr.fer.mv.nmm;
+
+/**
+ * Time limits of a game. Each player starts with the base time, gets the
+ * increment after every finished turn and can optionally be limited to a
+ * maximum time per move. A player whose time runs out loses the game. Time
+ * controls are immutable.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class TimeControl {
+
+	public static final long NO_MOVE_LIMIT = 0;
+
+	private final long baseMiliseconds;
+	private final long incrementMiliseconds;
+	private final long moveLimitMiliseconds;
+
+	/**
+	 * Creates a new time control.
+	 *
+	 * @param baseMiliseconds      time each player starts with
+	 * @param incrementMiliseconds time added to a player after each of his turns
+	 * @param moveLimitMiliseconds maximum time for one turn, or
+	 *                             {@link #NO_MOVE_LIMIT}
+	 */
+	public TimeControl(long baseMiliseconds, long incrementMiliseconds, long moveLimitMiliseconds) {
+		if (baseMiliseconds <= 0 || incrementMiliseconds < 0 || moveLimitMiliseconds < 0)
+			throw new IllegalArgumentException("Invalid time control");
+		this.baseMiliseconds = baseMiliseconds;
+		this.incrementMiliseconds = incrementMiliseconds;
+		this.moveLimitMiliseconds = moveLimitMiliseconds;
+	}
+
+	public long getBaseMiliseconds() {
+		return baseMiliseconds;
+	}
+
+	public long getIncrementMiliseconds() {
+		return incrementMiliseconds;
+	}
+
+	public long getMoveLimitMiliseconds() {
+		return moveLimitMiliseconds;
+	}
+
+	public boolean hasMoveLimit() {
+		return moveLimitMiliseconds != NO_MOVE_LIMIT;
+	}
+
+	@Override
+	public String toString() {
+		String s = baseMiliseconds / 1000 + "+" + incrementMiliseconds / 1000.0 + "s";
+		return hasMoveLimit() ? s + " (" + moveLimitMiliseconds / 1000.0 + "s per move)" : s;
+	}
+
+}
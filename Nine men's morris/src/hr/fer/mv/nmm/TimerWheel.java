@@ -0,0 +1,223 @@
+package hr.fer.mv.nmm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Hashed timer wheel that runs scheduled tasks on a single thread. Time is
+ * divided into ticks and the wheel has a bucket for every tick of one
+ * revolution. A timer is put in the bucket of the tick it expires in, together
+ * with the number of whole revolutions left until then. Scheduling and
+ * cancelling are O(1), every tick only the timers of one bucket are visited.
+ * <p>
+ * Timers are handed to the wheel thread through lock free queues, so any thread
+ * can schedule or cancel them. Tasks run on the wheel thread and must be short,
+ * a task that needs more work should pass it to another thread.
+ * <p>
+ * Timers expire at the tick after their deadline, so they can be late by up to
+ * one tick but never early.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class TimerWheel {
+
+	public static final int DEFAULT_TICK_MILISECONDS = 10;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+	private static final AtomicIntegerFieldUpdater<Timer> STATE = AtomicIntegerFieldUpdater.newUpdater(Timer.class,
+			"state");
+
+	private static TimerWheel shared;
+
+	/**
+	 * Handle of a scheduled task.
+	 */
+	public static final class Timer {
+		private final TimerWheel wheel;
+		private final Runnable task;
+		private final long deadline;
+		private volatile int state = PENDING;
+		// Fields below are only used by the wheel thread
+		private long rounds;
+		private int bucket = -1;
+		private Timer previous;
+		private Timer next;
+
+		private Timer(TimerWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the task if it hasn't run yet.
+		 *
+		 * @return true if the task was cancelled, false if it already ran or was
+		 *         cancelled before
+		 */
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+				return false;
+			wheel.cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+	}
+
+	private final long tickNanos;
+	private final Timer[] buckets;
+	private final int mask;
+	private final Queue<Timer> scheduled = new ConcurrentLinkedQueue<>();
+	private final Queue<Timer> cancelled = new ConcurrentLinkedQueue<>();
+	private final long startNanos;
+	private final Thread worker;
+	private long tick;
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a wheel with the default tick length and size.
+	 */
+	public TimerWheel() {
+		this(DEFAULT_TICK_MILISECONDS, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Creates a new wheel and starts its thread.
+	 *
+	 * @param tickMiliseconds length of one tick
+	 * @param wheelSize       number of buckets, rounded up to a power of two
+	 */
+	public TimerWheel(int tickMiliseconds, int wheelSize) {
+		if (tickMiliseconds <= 0 || wheelSize <= 0)
+			throw new IllegalArgumentException("Tick length and wheel size must be positive");
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMiliseconds);
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize)
+			size <<= 1;
+		buckets = new Timer[size];
+		mask = size - 1;
+		startNanos = System.nanoTime();
+		worker = new Thread(this::run, "Timer wheel");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Returns a wheel shared by the whole program, it is created when first
+	 * needed.
+	 *
+	 * @return shared timer wheel
+	 */
+	public static synchronized TimerWheel shared() {
+		if (shared == null)
+			shared = new TimerWheel();
+		return shared;
+	}
+
+	/**
+	 * Schedules a task that runs on the wheel thread after the given delay.
+	 *
+	 * @param task            task to run
+	 * @param delayMiliseconds delay before the task runs
+	 * @return handle that can cancel the task
+	 */
+	public Timer schedule(Runnable task, long delayMiliseconds) {
+		if (stopped)
+			throw new IllegalStateException("Timer wheel is stopped");
+		long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMiliseconds));
+		Timer timer = new Timer(this, task, deadline);
+		scheduled.add(timer);
+		return timer;
+	}
+
+	/**
+	 * Stops the wheel thread, pending tasks never run.
+	 */
+	public void stop() {
+		stopped = true;
+		worker.interrupt();
+	}
+
+	private void run() {
+		while (!stopped) {
+			long sleepNanos = (tick + 1) * tickNanos - (System.nanoTime() - startNanos);
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+			removeCancelled();
+			addScheduled();
+			expireBucket(buckets[(int) (tick & mask)]);
+			tick++;
+		}
+	}
+
+	private void removeCancelled() {
+		for (Timer t = cancelled.poll(); t != null; t = cancelled.poll())
+			if (t.bucket >= 0)
+				unlink(t);
+	}
+
+	private void addScheduled() {
+		for (Timer t = scheduled.poll(); t != null; t = scheduled.poll()) {
+			if (t.state != PENDING)
+				continue;
+			// A timer whose deadline has passed goes into the current bucket
+			long expiresAt = Math.max(t.deadline / tickNanos, tick);
+			t.rounds = (expiresAt - tick) / buckets.length;
+			t.bucket = (int) (expiresAt & mask);
+			t.next = buckets[t.bucket];
+			if (t.next != null)
+				t.next.previous = t;
+			buckets[t.bucket] = t;
+		}
+	}
+
+	private void expireBucket(Timer head) {
+		Timer t = head;
+		while (t != null) {
+			Timer next = t.next;
+			if (t.rounds <= 0) {
+				unlink(t);
+				if (STATE.compareAndSet(t, PENDING, EXPIRED)) {
+					try {
+						t.task.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			} else
+				t.rounds--;
+			t = next;
+		}
+	}
+
+	private void unlink(Timer t) {
+		if (t.previous != null)
+			t.previous.next = t.next;
+		else
+			buckets[t.bucket] = t.next;
+		if (t.next != null)
+			t.next.previous = t.previous;
+		t.previous = null;
+		t.next = null;
+		t.bucket = -1;
+	}
+
+}
@@ -0,0 +1,429 @@
+package hr.fer.mv.nmm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Plays many games between engines to find out which one is stronger. Games
+ * are played on a {@link Position}, without any board display, and run in
+ * parallel on a {@link ForkJoinPool}. Every thread creates its own instance of
+ * each player, so players don't have to be thread safe.
+ * <p>
+ * Games are played in pairs. Both games of a pair start from the same random
+ * opening and players swap colours, so an opening that favours one side
+ * doesn't favour one player. Games end in a draw by the rules of
+ * {@link PositionHistory}, which guarantees that every game ends. Games that
+ * still last longer than {@link #MAX_GAME_PLIES} are adjudicated as draws.
+ * <p>
+ * Results are reported as Elo difference with a 95% confidence interval. If a
+ * sequential probability ratio test is set with
+ * {@link #setSprt(double, double, double, double)}, a pairing stops as soon as
+ * the test accepts one of the hypotheses. Finished games can be streamed to a
+ * {@link GameArchive}.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class Tournament {
+
+	public static final int MAX_GAME_PLIES = 5000;
+	public static final int DEFAULT_OPENING_PLIES = 4;
+
+	/**
+	 * Named player configuration. The factory is called once for every thread
+	 * that plays with this entrant.
+	 */
+	public static final class Entrant {
+		private final String name;
+		private final Supplier<Player> factory;
+
+		public Entrant(String name, Supplier<Player> factory) {
+			this.name = name;
+			this.factory = factory;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Results of all games between two entrants, counted from the point of view
+	 * of the first one.
+	 */
+	public static final class Pairing {
+		private final Entrant first;
+		private final Entrant second;
+		private int wins;
+		private int draws;
+		private int losses;
+		private double llr;
+		private volatile boolean finished;
+
+		private Pairing(Entrant first, Entrant second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		public Entrant getFirst() {
+			return first;
+		}
+
+		public Entrant getSecond() {
+			return second;
+		}
+
+		public synchronized int getWins() {
+			return wins;
+		}
+
+		public synchronized int getDraws() {
+			return draws;
+		}
+
+		public synchronized int getLosses() {
+			return losses;
+		}
+
+		public synchronized int getGames() {
+			return wins + draws + losses;
+		}
+
+		/**
+		 * Returns the log-likelihood ratio of the SPRT, 0 if no test is set.
+		 *
+		 * @return log-likelihood ratio
+		 */
+		public synchronized double getLlr() {
+			return llr;
+		}
+
+		/**
+		 * Returns the Elo difference between the first and the second entrant.
+		 *
+		 * @return Elo difference
+		 */
+		public synchronized double getElo() {
+			return elo(score());
+		}
+
+		/**
+		 * Returns half of the 95% confidence interval of {@link #getElo()}.
+		 *
+		 * @return error of the Elo difference
+		 */
+		public synchronized double getEloError() {
+			int n = getGames();
+			if (n < 2)
+				return Double.POSITIVE_INFINITY;
+			double s = score();
+			double margin = 1.96 * Math.sqrt(variance(s) / n);
+			return (elo(Math.min(s + margin, 1)) - elo(Math.max(s - margin, 0))) / 2;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("%s vs %s: +%d =%d -%d, Elo %.1f +- %.1f", first, second, wins, draws, losses,
+					getElo(), getEloError());
+		}
+
+		private double score() {
+			int n = getGames();
+			return n == 0 ? 0.5 : (wins + draws * 0.5) / n;
+		}
+
+		private double variance(double s) {
+			int n = getGames();
+			return (wins * (1 - s) * (1 - s) + draws * (0.5 - s) * (0.5 - s) + losses * s * s) / n;
+		}
+	}
+
+	private final RuleSet rules;
+	private final ForkJoinPool pool;
+	private final GameArchive archive;
+	private final long seed;
+	private int openingPlies = DEFAULT_OPENING_PLIES;
+	private boolean sprt;
+	private double sprtScore0;
+	private double sprtScore1;
+	private double lowerBound;
+	private double upperBound;
+	private final AtomicLong gameNumber = new AtomicLong();
+	private final Map<Entrant, Integer> ids = new HashMap<>();
+	// Every pool thread keeps its own players
+	private final ThreadLocal<Map<Entrant, Player>> players = ThreadLocal.withInitial(HashMap::new);
+
+	/**
+	 * Creates a tournament.
+	 *
+	 * @param rules   rules of all games
+	 * @param threads number of threads that play games
+	 * @param archive archive finished games are written to, can be null
+	 * @param seed    seed used for generating openings
+	 */
+	public Tournament(RuleSet rules, int threads, GameArchive archive, long seed) {
+		this.rules = rules;
+		this.pool = new ForkJoinPool(threads);
+		this.archive = archive;
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of random plies each opening is made of.
+	 *
+	 * @param openingPlies number of plies
+	 */
+	public void setOpeningPlies(int openingPlies) {
+		this.openingPlies = openingPlies;
+	}
+
+	/**
+	 * Enables the sequential probability ratio test for every pairing. H0 says
+	 * the first entrant is elo0 stronger, H1 says it is elo1 stronger.
+	 *
+	 * @param elo0  Elo difference of H0
+	 * @param elo1  Elo difference of H1
+	 * @param alpha probability of accepting H1 when H0 is true
+	 * @param beta  probability of accepting H0 when H1 is true
+	 */
+	public void setSprt(double elo0, double elo1, double alpha, double beta) {
+		sprt = true;
+		sprtScore0 = score(elo0);
+		sprtScore1 = score(elo1);
+		lowerBound = Math.log(beta / (1 - alpha));
+		upperBound = Math.log((1 - beta) / alpha);
+	}
+
+	/**
+	 * Plays every entrant against every other.
+	 *
+	 * @param entrants  players in the tournament
+	 * @param gamePairs number of game pairs for each pairing
+	 * @return results of all pairings
+	 */
+	public List<Pairing> roundRobin(List<Entrant> entrants, int gamePairs) {
+		List<Pairing> pairings = new ArrayList<>();
+		for (int i = 0; i < entrants.size(); i++)
+			for (int j = i + 1; j < entrants.size(); j++)
+				pairings.add(new Pairing(entrants.get(i), entrants.get(j)));
+		return play(entrants, pairings, gamePairs);
+	}
+
+	/**
+	 * Plays the challenger against each of the opponents.
+	 *
+	 * @param challenger player that is tested
+	 * @param opponents  players the challenger plays against
+	 * @param gamePairs  number of game pairs for each pairing
+	 * @return results of all pairings
+	 */
+	public List<Pairing> gauntlet(Entrant challenger, List<Entrant> opponents, int gamePairs) {
+		List<Entrant> entrants = new ArrayList<>();
+		entrants.add(challenger);
+		entrants.addAll(opponents);
+		List<Pairing> pairings = new ArrayList<>();
+		for (Entrant opponent : opponents)
+			pairings.add(new Pairing(challenger, opponent));
+		return play(entrants, pairings, gamePairs);
+	}
+
+	/**
+	 * Stops the threads of this tournament.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private List<Pairing> play(List<Entrant> entrants, List<Pairing> pairings, int gamePairs) {
+		if (archive != null) {
+			try {
+				for (Entrant e : entrants)
+					if (!ids.containsKey(e)) {
+						ids.put(e, ids.size());
+						archive.writePlayer(ids.get(e), e.getName());
+					}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		// Pairings are interleaved so a pairing stopped by the SPRT frees threads
+		// for the others right away
+		for (int pair = 0; pair < gamePairs; pair++)
+			for (Pairing pairing : pairings) {
+				int opening = pair;
+				pool.execute(() -> playPair(pairing, opening));
+			}
+		pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.DAYS);
+		return pairings;
+	}
+
+	private void playPair(Pairing pairing, int opening) {
+		if (pairing.finished)
+			return;
+		int[] openingMoves = new int[openingPlies];
+		int openingLength = createOpening(opening, openingMoves);
+		Player first = getPlayer(pairing.first);
+		Player second = getPlayer(pairing.second);
+		int[] moves = new int[MAX_GAME_PLIES];
+		byte result = playGame(openingMoves, openingLength, first, second, moves, pairing, false);
+		record(pairing, result == GameArchive.RESULT_DRAW ? 0 : result == GameArchive.RESULT_PLAYER1_WIN ? 1 : -1);
+		result = playGame(openingMoves, openingLength, second, first, moves, pairing, true);
+		record(pairing, result == GameArchive.RESULT_DRAW ? 0 : result == GameArchive.RESULT_PLAYER2_WIN ? 1 : -1);
+	}
+
+	private Player getPlayer(Entrant entrant) {
+		return players.get().computeIfAbsent(entrant, e -> e.factory.get());
+	}
+
+	// Openings are random moves, the same index always gives the same opening.
+	// Returns the number of moves stored in the given array.
+	private int createOpening(int index, int[] opening) {
+		Random random = new Random(seed * 31 + index);
+		int[] moves = new int[Position.MAX_MOVES];
+		while (true) {
+			Position p = new Position(rules);
+			int length = 0;
+			while (length < opening.length && !p.isGameOver()) {
+				opening[length] = moves[random.nextInt(p.generateMoves(moves))];
+				p.makeMove(opening[length++]);
+			}
+			if (!p.isGameOver())
+				return length;
+		}
+	}
+
+	// Opening moves are archived with the game, so the archive can replay it
+	private byte playGame(int[] opening, int openingLength, Player player1, Player player2, int[] moves,
+			Pairing pairing, boolean swapped) {
+		Position p = new Position(rules);
+		PositionHistory history = new PositionHistory();
+		history.reset(p);
+		int plies = 0;
+		for (int i = 0; i < openingLength; i++) {
+			p.makeMove(opening[i]);
+			history.push(p, opening[i]);
+			moves[plies++] = opening[i];
+		}
+		player1.newGame();
+		player2.newGame();
+		int[] legal = new int[Position.MAX_MOVES];
+		while (!p.isGameOver() && !history.isDraw() && plies < MAX_GAME_PLIES) {
+			if (p.generateMoves(legal) == 0) {
+				p.surrender();
+				break;
+			}
+			Player mover = p.getSideToMove() == Position.PLAYER1 ? player1 : player2;
+			int move = mover.selectMove(p);
+			// An illegal move loses the game
+			if (!p.isLegal(move)) {
+				System.out.println(mover.getName() + " played an illegal move " + Move.toString(move));
+				p.surrender();
+				break;
+			}
+			p.makeMove(move);
+			history.push(p, move);
+			moves[plies++] = move;
+		}
+		byte result = GameArchive.RESULT_DRAW;
+		if (p.getWinner() == Position.PLAYER1)
+			result = GameArchive.RESULT_PLAYER1_WIN;
+		else if (p.getWinner() == Position.PLAYER2)
+			result = GameArchive.RESULT_PLAYER2_WIN;
+		if (archive != null) {
+			Entrant e1 = swapped ? pairing.second : pairing.first;
+			Entrant e2 = swapped ? pairing.first : pairing.second;
+			try {
+				archive.writeGame(gameNumber.getAndIncrement(), ids.get(e1), ids.get(e2), rules, result, moves, plies);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return result;
+	}
+
+	// Adds a result for the first entrant of the pairing, 1 is a win and -1 a
+	// loss, then checks if the SPRT can stop the pairing
+	private void record(Pairing pairing, int result) {
+		synchronized (pairing) {
+			if (result > 0)
+				pairing.wins++;
+			else if (result < 0)
+				pairing.losses++;
+			else
+				pairing.draws++;
+			if (!sprt || pairing.finished)
+				return;
+			int n = pairing.getGames();
+			double s = pairing.score();
+			double variance = pairing.variance(s);
+			if (variance <= 0)
+				return;
+			pairing.llr = n * (sprtScore1 - sprtScore0) * (2 * s - sprtScore0 - sprtScore1) / (2 * variance);
+			if (pairing.llr <= lowerBound || pairing.llr >= upperBound) {
+				pairing.finished = true;
+				System.out.println(pairing + " - SPRT accepted " + (pairing.llr >= upperBound ? "H1" : "H0")
+						+ " after " + n + " games");
+			}
+		}
+	}
+
+	private static double score(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	private static double elo(double score) {
+		if (score <= 0)
+			return Double.NEGATIVE_INFINITY;
+		if (score >= 1)
+			return Double.POSITIVE_INFINITY;
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	/**
+	 * Plays a round robin between alpha-beta players of different depths.
+	 * <p>
+	 * Arguments: <code>[game pairs] [threads] [archive file]</code>
+	 *
+	 * @param args command line arguments
+	 * @throws IOException if the archive can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		int gamePairs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		Path archivePath = Paths.get(args.length > 2 ? args[2] : "tournament.nmma");
+
+		List<Entrant> entrants = new ArrayList<>();
+		for (int depth = 1; depth <= 4; depth++) {
+			int d = depth;
+			entrants.add(new Entrant("Alpha-beta " + d, () -> new AlphaBetaPlayer(d)));
+		}
+		try (GameArchive archive = new GameArchive(archivePath)) {
+			Tournament tournament = new Tournament(Dependencies.RULE_SET, threads, archive, 1);
+			tournament.setSprt(0, 10, 0.05, 0.05);
+			long start = System.nanoTime();
+			List<Pairing> pairings = tournament.roundRobin(entrants, gamePairs);
+			long time = System.nanoTime() - start;
+			tournament.shutdown();
+			for (Pairing pairing : pairings)
+				System.out.println(pairing + String.format(", LLR %.2f", pairing.getLlr()));
+			System.out.println(archive.getGameCount() + " games on " + threads + " threads in " + time / 1_000_000
+					+ " ms (" + archive.getGameCount() * 1_000_000_000L / Math.max(1, time) + " games/s)");
+		}
+	}
+
+}
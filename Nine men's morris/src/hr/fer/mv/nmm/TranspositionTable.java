@@ -0,0 +1,103 @@
+package hr.fer.mv.nmm;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size hash table that stores search results for positions, so the
+ * search doesn't have to repeat work for positions it has already seen.
+ * <p>
+ * Entries are kept in two primitive arrays. The key is stored XOR-ed with the
+ * data, which lets more than one search thread share the table without locks:
+ * a torn entry simply doesn't match its key and is ignored.
+ *
+ * @author Matija Videkovi
+ *
+ */
+public final class TranspositionTable {
+
+	public static final int EXACT = 0;
+	public static final int LOWER_BOUND = 1;
+	public static final int UPPER_BOUND = 2;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+
+	/**
+	 * Creates a table with the given number of entries, rounded up to a power of
+	 * two.
+	 *
+	 * @param entries minimal number of entries
+	 */
+	public TranspositionTable(int entries) {
+		int size = Integer.highestOneBit(Math.max(2, entries - 1)) << 1;
+		keys = new long[size];
+		data = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Looks up the entry for the given key.
+	 *
+	 * @param key position key
+	 * @return packed entry or 0 if there is none
+	 */
+	public long probe(long key) {
+		int i = index(key);
+		long d = data[i];
+		return (keys[i] ^ d) == key && d != 0 ? d : 0;
+	}
+
+	/**
+	 * Stores an entry for the given key. An existing entry for another position is
+	 * replaced, an entry for the same position only if it was searched less
+	 * deeply.
+	 *
+	 * @param key   position key
+	 * @param move  best move found
+	 * @param score score of the position
+	 * @param depth depth of the search
+	 * @param flag  {@link #EXACT}, {@link #LOWER_BOUND} or {@link #UPPER_BOUND}
+	 */
+	public void store(long key, int move, int score, int depth, int flag) {
+		int i = index(key);
+		long old = data[i];
+		if ((keys[i] ^ old) == key && depth(old) > depth && flag != EXACT)
+			return;
+		long d = (move & 0xFFFFL) | (long) (score & 0xFFFFFF) << 16 | (long) (depth & 0xFF) << 40
+				| (long) (flag + 1) << 48;
+		data[i] = d;
+		keys[i] = key ^ d;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+	}
+
+	public static int move(long entry) {
+		int move = (int) (entry & 0xFFFF);
+		return move == 0xFFFF ? Move.NULL : move;
+	}
+
+	public static int score(long entry) {
+		return (int) (entry << 24 >> 40);
+	}
+
+	public static int depth(long entry) {
+		return (int) ((entry >>> 40) & 0xFF);
+	}
+
+	public static int flag(long entry) {
+		return (int) ((entry >>> 48) & 0xFF) - 1;
+	}
+
+	private int index(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 40) & mask;
+	}
+
+}